@@ -14,8 +14,8 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 
 @SpringBootApplication(scanBasePackages = {"com.artur"})
 @EnableTransactionManagement
-@EnableJpaRepositories(basePackages = {"com.artur.common"})
-@EntityScan(basePackages = {"com.artur.common"})
+@EnableJpaRepositories(basePackages = {"com.artur.common", "com.artur.youtback.repository"})
+@EntityScan(basePackages = {"com.artur.common", "com.artur.youtback.entity"})
 @EnableConfigurationProperties(ObjectStorageConfig.class)
 public class YoutBackApplication {
 
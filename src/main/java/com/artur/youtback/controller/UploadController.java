@@ -0,0 +1,227 @@
+package com.artur.youtback.controller;
+
+import com.artur.common.exception.NotFoundException;
+import com.artur.youtback.model.video.UploadStatus;
+import com.artur.youtback.model.video.VideoJobStatus;
+import com.artur.youtback.service.UploadService;
+import com.artur.youtback.utils.AuthenticationUtils;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**Resumable upload of videos: start an upload, put numbered parts with their SHA-256, check which parts are received
+ * and complete the upload with a thumbnail, which starts a job of creating the video.
+ */
+@RestController
+@RequestMapping("/uploads")
+public class UploadController {
+    private static final Logger logger = LoggerFactory.getLogger(UploadController.class);
+
+    @Autowired
+    private UploadService uploadService;
+
+    @Operation(description = "Start a resumable upload of a video of specified size in bytes")
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Upload started",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON_VALUE,
+                            schema = @Schema(implementation = UploadStatus.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "If size is not positive or too large",
+                    content = @Content()
+            )
+    })
+    @SecurityRequirement(name = "jwt")
+    @PreAuthorize("isAuthenticated()")
+    @PostMapping("")
+    public ResponseEntity<UploadStatus> start(
+            @RequestParam String title,
+            @RequestParam(required = false) String description,
+            @RequestParam(required = false) String category,
+            @RequestParam long size
+    ){
+        try {
+            return ResponseEntity.ok(uploadService.start(AuthenticationUtils.getUserId(), title, description, category, size));
+        } catch (IllegalArgumentException e){
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @Operation(description = "Get state of the upload, numbers of received parts and amount of bytes received without gaps")
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Success",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON_VALUE,
+                            schema = @Schema(implementation = UploadStatus.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "If upload was not found",
+                    content = @Content()
+            )
+    })
+    @SecurityRequirement(name = "jwt")
+    @PreAuthorize("isAuthenticated()")
+    @GetMapping("/{id}")
+    public ResponseEntity<UploadStatus> status(@PathVariable String id){
+        try {
+            return ResponseEntity.ok(uploadService.status(AuthenticationUtils.getUserId(), id));
+        } catch (NotFoundException e){
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @Operation(description = "Put a part of the video. Parts can be put in any order and concurrently, " +
+            "repeated part replaces the previous one")
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Part received",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON_VALUE,
+                            schema = @Schema(implementation = UploadStatus.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "If part number is out of range, or size or checksum of the part do not match",
+                    content = @Content()
+            ),
+            @ApiResponse(
+                    responseCode = "409",
+                    description = "If the upload is completed",
+                    content = @Content()
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "If upload was not found",
+                    content = @Content()
+            ),
+            @ApiResponse(
+                    responseCode = "500",
+                    description = "If some error occurred",
+                    content = @Content()
+            )
+    })
+    @SecurityRequirement(name = "jwt")
+    @PreAuthorize("isAuthenticated()")
+    @PutMapping(value = "/{id}/parts/{number}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<UploadStatus> putPart(
+            @PathVariable String id,
+            @PathVariable int number,
+            @RequestHeader("X-Checksum-SHA256") String sha256,
+            HttpServletRequest request
+    ){
+        try {
+            return ResponseEntity.ok(uploadService.putPart(AuthenticationUtils.getUserId(), id, number, request.getInputStream(), sha256));
+        } catch (NotFoundException e){
+            return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e){
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e){
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        } catch (Exception e){
+            logger.error(e.getMessage(), e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    @Operation(description = "Complete the upload and start creating the video. Progress of creating is available " +
+            "by the returned job. Repeated completion returns the same job")
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "202",
+                    description = "Creating of the video started",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON_VALUE,
+                            schema = @Schema(implementation = VideoJobStatus.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "If upload or user was not found",
+                    content = @Content()
+            ),
+            @ApiResponse(
+                    responseCode = "409",
+                    description = "If not all parts are received, or the upload is being completed and its job is not started yet",
+                    content = @Content()
+            ),
+            @ApiResponse(
+                    responseCode = "503",
+                    description = "If too many videos are being created",
+                    content = @Content()
+            ),
+            @ApiResponse(
+                    responseCode = "500",
+                    description = "If some error occurred",
+                    content = @Content()
+            )
+    })
+    @SecurityRequirement(name = "jwt")
+    @PreAuthorize("isAuthenticated()")
+    @PostMapping("/{id}/complete")
+    public ResponseEntity<VideoJobStatus> complete(@PathVariable String id, @RequestParam MultipartFile thumbnail){
+        try {
+            VideoJobStatus job = uploadService.complete(AuthenticationUtils.getUserId(), id, thumbnail);
+            return ResponseEntity.accepted().location(VideoJobController.location(job)).body(job);
+        } catch (NotFoundException e){
+            return ResponseEntity.notFound().build();
+        } catch (IllegalStateException e){
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        } catch (RejectedExecutionException e){
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        } catch (Exception e){
+            logger.error(e.getMessage(), e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    @Operation(description = "Abort the upload and remove received parts")
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Success",
+                    content = @Content()
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "If upload was not found",
+                    content = @Content()
+            )
+    })
+    @SecurityRequirement(name = "jwt")
+    @PreAuthorize("isAuthenticated()")
+    @DeleteMapping("/{id}")
+    public ResponseEntity<?> abort(@PathVariable String id){
+        try {
+            uploadService.abort(AuthenticationUtils.getUserId(), id);
+            return ResponseEntity.ok(null);
+        } catch (NotFoundException e){
+            return ResponseEntity.notFound().build();
+        }
+    }
+}
@@ -2,13 +2,16 @@ package com.artur.youtback.controller;
 
 import com.artur.common.exception.NotFoundException;
 import com.artur.youtback.exception.AlreadyExistException;
-import com.artur.youtback.model.user.User;
+import com.artur.youtback.model.CursorPage;
 import com.artur.youtback.model.user.UserCreateRequest;
+import com.artur.youtback.model.user.UserSummary;
 import com.artur.youtback.model.user.UserUpdateRequest;
+import com.artur.youtback.model.video.LikeState;
 import com.artur.youtback.model.video.Video;
 import com.artur.youtback.service.EmailService;
 import com.artur.youtback.service.UserService;
 import com.artur.youtback.sort.VideoSort;
+import com.artur.youtback.utils.AppConstants;
 import com.artur.youtback.utils.AuthenticationUtils;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.ArraySchema;
@@ -28,8 +31,10 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
+import java.util.Set;
 
 @RestController
 @RequestMapping("/user")
@@ -43,7 +48,7 @@ public class UserController {
 
 
 
-    @Operation(description = "Get user by id")
+    @Operation(description = "Get user profile by id. Videos and search history of the user are not included")
     @ApiResponses(
             value = {
                     @ApiResponse(
@@ -51,7 +56,7 @@ public class UserController {
                             description = "User found successfully",
                             content = @Content(
                                     mediaType = "application/json",
-                                    schema = @Schema(implementation = User.class)
+                                    schema = @Schema(implementation = UserSummary.class)
                             )
                     ),
                     @ApiResponse(
@@ -64,7 +69,7 @@ public class UserController {
     @GetMapping("/user-info")
     public ResponseEntity<?> getUserInfo(@RequestParam String id){
         try {
-            return ResponseEntity.ok(userService.findById(id));
+            return ResponseEntity.ok(userService.getSummary(id));
         } catch (NotFoundException e) {
             logger.warn("User with id: [" + id + "] was not found", e);
             return ResponseEntity.notFound().build();
@@ -73,16 +78,17 @@ public class UserController {
 
     @SecurityRequirement(name = "jwt", scopes = "ROLE_ADMIN")
     @Operation(description = """
-        Finds users by specified option (search by multiple criteria).
+        Finds page of users by specified option (search by multiple criteria).
+        To get the next page, pass cursor returned with the previous one and the same options.
         Available only for admins
     """)
     @ApiResponses(value = {
             @ApiResponse(
                     responseCode = "200",
-                    description = "Users was found successfully",
+                    description = "Page of users and cursor of the next page (null if this page is the last)",
                     content = @Content(
                             mediaType = MediaType.APPLICATION_JSON_VALUE,
-                            array = @ArraySchema(schema = @Schema(implementation = User.class))
+                            schema = @Schema(implementation = CursorPage.class)
                     )
             ),
             @ApiResponse(
@@ -100,10 +106,12 @@ public class UserController {
     @PreAuthorize("hasRole('ROLE_ADMIN')")
     public ResponseEntity<?> findByOption(
             @RequestParam List<String> option,
-            @RequestParam List<String> value
+            @RequestParam List<String> value,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false, defaultValue = "" + AppConstants.MAX_USERS_PER_REQUEST) Integer size
     ){
         try{
-            return ResponseEntity.ok(userService.findByOption(option, value));
+            return ResponseEntity.ok(userService.findByOption(option, value, cursor, Math.min(size, AppConstants.MAX_USERS_PER_REQUEST)));
         }catch (NullPointerException e){
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
         } catch (IllegalArgumentException e){
@@ -111,17 +119,58 @@ public class UserController {
         }
     }
 
-    @Operation(description = "Get all user videos")
+    @SecurityRequirement(name = "jwt", scopes = "ROLE_ADMIN")
+    @Operation(description = """
+        Exports all users found by specified option (search by multiple criteria) as newline delimited JSON.
+        Available only for admins
+    """)
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Found users, one JSON object per line",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_NDJSON_VALUE,
+                            schema = @Schema(implementation = UserSummary.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "If range in value param specified incorrectly (should be 1/10)",
+                    content = @Content()
+            )
+    })
+    @GetMapping(value = "/admin", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public ResponseEntity<StreamingResponseBody> exportByOption(
+            @RequestParam List<String> option,
+            @RequestParam List<String> value
+    ){
+        try{
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(userService.export(option, value));
+        } catch (IllegalArgumentException e){
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+    }
+
+    @Operation(description = """
+        Get page of user videos, sorted by specified sort option (by upload date from the newest if not specified).
+        To get the next page, pass cursor returned with the previous one and the same sort option.
+    """)
     @ApiResponses(
             value = {
                     @ApiResponse(
                             responseCode = "200",
-                            description = "Successfully",
+                            description = "Page of videos and cursor of the next page (null if this page is the last)",
                             content = @Content(
                                     mediaType = MediaType.APPLICATION_JSON_VALUE,
-                                    array = @ArraySchema(schema = @Schema(implementation = Video.class))
+                                    schema = @Schema(implementation = CursorPage.class)
                             )
                     ),
+                    @ApiResponse(
+                            responseCode = "400",
+                            description = "If cursor is malformed",
+                            content = @Content()
+                    ),
                     @ApiResponse(
                             responseCode = "404",
                             description = "User was not found",
@@ -130,11 +179,19 @@ public class UserController {
             }
     )
     @GetMapping("/videos")
-    public ResponseEntity<?> getUserVideos(@RequestParam(name = "userId") String userId, @RequestParam(required = false, name = "sortOption") Integer sortOption){
+    public ResponseEntity<?> getUserVideos(
+            @RequestParam(name = "userId") String userId,
+            @RequestParam(required = false, name = "sortOption") Integer sortOption,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false, defaultValue = "" + AppConstants.MAX_VIDEOS_PER_REQUEST) Integer size
+    ){
         try {
-            return ResponseEntity.ok(userService.getAllUserVideos(userId,sortOption != null ?  VideoSort.convert(sortOption) : null));
+            return ResponseEntity.ok(userService.getUserVideos(userId, sortOption != null ?  VideoSort.convert(sortOption) : null,
+                    cursor, Math.min(size, AppConstants.MAX_VIDEOS_PER_REQUEST)));
         } catch (NotFoundException e){
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+        } catch (IllegalArgumentException e){
+            return ResponseEntity.badRequest().build();
         }
     }
 
@@ -153,23 +210,51 @@ public class UserController {
     @PreAuthorize("isAuthenticated()")
     @GetMapping("/liked")
     public ResponseEntity<?> hasUserLikedVideo(@RequestParam(name = "userId") String userId, @RequestParam(name = "videoId")Long videoId){
-        try {
-            return ResponseEntity.ok(userService.hasUserLikedVideo(userId,videoId));
-        } catch(NotFoundException e){
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
-        }
+        return ResponseEntity.ok(userService.hasUserLikedVideo(userId,videoId));
     }
 
-    @Operation(description = "Get all channels user subscribed to")
+    @SecurityRequirement(name = "jwt")
+    @Operation(description = "Check which of the videos user liked. Up to " + AppConstants.MAX_VIDEOS_PER_REQUEST + " videos per request")
     @ApiResponses(value = {
             @ApiResponse(
                     responseCode = "200",
-                    description = "Response returned successfully",
+                    description = "Ids of specified videos that user liked",
                     content = @Content(
                             mediaType = MediaType.APPLICATION_JSON_VALUE,
-                            array = @ArraySchema(schema = @Schema(implementation = User.class))
+                            array = @ArraySchema(schema = @Schema(type = "integer", format = "int64"))
                     )
             ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "If too many video ids specified",
+                    content = @Content()
+            )
+    })
+    @PreAuthorize("isAuthenticated()")
+    @GetMapping("/liked-videos")
+    public ResponseEntity<Set<Long>> getLikedVideoIds(@RequestParam(name = "userId") String userId, @RequestParam(name = "videoIds") List<Long> videoIds){
+        if(videoIds.size() > AppConstants.MAX_VIDEOS_PER_REQUEST) return ResponseEntity.badRequest().build();
+        return ResponseEntity.ok(userService.getLikedVideoIds(userId, videoIds));
+    }
+
+    @Operation(description = """
+        Get page of channels user subscribed to, ordered by id.
+        To get the next page, pass cursor returned with the previous one.
+    """)
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Page of users and cursor of the next page (null if this page is the last)",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON_VALUE,
+                            schema = @Schema(implementation = CursorPage.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "If cursor is malformed",
+                    content = @Content()
+            ),
             @ApiResponse(
                     responseCode = "404",
                     description = "User with specified id was not found",
@@ -179,24 +264,77 @@ public class UserController {
     @SecurityRequirement(name = "jwt")
     @PreAuthorize("isAuthenticated()")
     @GetMapping("/subscribes")
-    public ResponseEntity<?> getUserSubscribes(@RequestParam String userId){
+    public ResponseEntity<?> getUserSubscribes(
+            @RequestParam String userId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false, defaultValue = "" + AppConstants.MAX_USERS_PER_REQUEST) Integer size
+    ){
+        try {
+            return ResponseEntity.ok(userService.getUserSubscribes(userId, cursor, Math.min(size, AppConstants.MAX_USERS_PER_REQUEST)));
+        } catch (NotFoundException e){
+            return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e){
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @Operation(description = """
+        Get page of subscribers of the channel, ordered by id.
+        To get the next page, pass cursor returned with the previous one.
+    """)
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Page of users and cursor of the next page (null if this page is the last)",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON_VALUE,
+                            schema = @Schema(implementation = CursorPage.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "If cursor is malformed",
+                    content = @Content()
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "User with specified id was not found",
+                    content = @Content()
+            )
+    })
+    @GetMapping("/subscribers")
+    public ResponseEntity<?> getSubscribers(
+            @RequestParam String userId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false, defaultValue = "" + AppConstants.MAX_USERS_PER_REQUEST) Integer size
+    ){
         try {
-            return ResponseEntity.ok(userService.getUserSubscribes(userId));
+            return ResponseEntity.ok(userService.getSubscribers(userId, cursor, Math.min(size, AppConstants.MAX_USERS_PER_REQUEST)));
         } catch (NotFoundException e){
             return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e){
+            return ResponseEntity.badRequest().build();
         }
     }
 
-    @Operation(description = "Get all videos that user liked")
+    @Operation(description = """
+        Get page of videos that user liked, from the latest like.
+        To get the next page, pass cursor returned with the previous one.
+    """)
     @ApiResponses(value = {
             @ApiResponse(
                     responseCode = "200",
-                    description = "List of videos that user liked",
+                    description = "Page of videos and cursor of the next page (null if this page is the last)",
                     content = @Content(
                             mediaType = MediaType.APPLICATION_JSON_VALUE,
-                            array = @ArraySchema(schema = @Schema(implementation = Video.class))
+                            schema = @Schema(implementation = CursorPage.class)
                     )
             ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "If cursor is malformed",
+                    content = @Content()
+            ),
             @ApiResponse(
                     responseCode = "404",
                     description = "User with specified id was not found",
@@ -206,11 +344,17 @@ public class UserController {
     @SecurityRequirement(name = "jwt")
     @PreAuthorize("isAuthenticated()")
     @GetMapping("/likes")
-    public ResponseEntity<?> getUserLikes(@RequestParam String userId){
+    public ResponseEntity<?> getUserLikes(
+            @RequestParam String userId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false, defaultValue = "" + AppConstants.MAX_VIDEOS_PER_REQUEST) Integer size
+    ){
         try {
-            return ResponseEntity.ok(userService.getUserLikes(userId));
+            return ResponseEntity.ok(userService.getUserLikes(userId, cursor, Math.min(size, AppConstants.MAX_VIDEOS_PER_REQUEST)));
         } catch (NotFoundException e){
             return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e){
+            return ResponseEntity.badRequest().build();
         }
     }
 
@@ -235,22 +379,30 @@ public class UserController {
     @GetMapping("/search-history")
     public ResponseEntity<?> getSearchHistory(Authentication authentication){
         try {
-           return ResponseEntity.ok(userService.findById(AuthenticationUtils.getUserId(authentication)).getSearchHistory());
+           return ResponseEntity.ok(userService.getSearchHistory(AuthenticationUtils.getUserId(authentication)));
         } catch (NotFoundException e) {
             return ResponseEntity.notFound().build();
         }
     }
 
-    @Operation(description = "Get user`s watch history. User id will be retrieved from jwt token")
+    @Operation(description = """
+        Get page of user`s watch history, from the latest watched video. User id will be retrieved from jwt token.
+        To get the next page, pass cursor returned with the previous one.
+    """)
     @ApiResponses(value = {
             @ApiResponse(
                     responseCode = "200",
-                    description = "List of videos",
+                    description = "Page of videos and cursor of the next page (null if this page is the last)",
                     content = @Content(
                             mediaType = MediaType.APPLICATION_JSON_VALUE,
-                            array = @ArraySchema(schema = @Schema(implementation = Video.class))
+                            schema = @Schema(implementation = CursorPage.class)
                     )
             ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "If cursor is malformed",
+                    content = @Content()
+            ),
             @ApiResponse(
                     responseCode = "404",
                     description = "User with id from jwt was not found",
@@ -260,12 +412,17 @@ public class UserController {
     @SecurityRequirement(name = "jwt")
     @PreAuthorize("isAuthenticated()")
     @GetMapping("/watch-history")
-    public ResponseEntity<?> getWatchHistory(){
+    public ResponseEntity<?> getWatchHistory(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false, defaultValue = "" + AppConstants.MAX_VIDEOS_PER_REQUEST) Integer size
+    ){
         try{
-            return ResponseEntity.ok(userService.getWatchHistory(AuthenticationUtils.getUserId()));
+            return ResponseEntity.ok(userService.getWatchHistory(AuthenticationUtils.getUserId(), cursor, Math.min(size, AppConstants.MAX_VIDEOS_PER_REQUEST)));
         } catch(NotFoundException e){
             logger.error(e.getMessage());
             return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e){
+            return ResponseEntity.badRequest().build();
         }
     }
 
@@ -278,22 +435,13 @@ public class UserController {
                             mediaType = MediaType.APPLICATION_JSON_VALUE,
                             array = @ArraySchema(schema = @Schema(type = "boolean"))
                     )
-            ),
-            @ApiResponse(
-                    responseCode = "404",
-                    description = "Either user or channel was not found",
-                    content = @Content()
             )
     })
     @SecurityRequirement(name = "jwt")
     @PreAuthorize("isAuthenticated()")
     @GetMapping("/subscribed")
     public ResponseEntity<?> hasUserSubscribedChannel(@RequestParam(name = "channelId")String channelId){
-        try {
-            return ResponseEntity.ok(userService.hasUserSubscribedChannel(AuthenticationUtils.getUserId(),channelId));
-        } catch(NotFoundException e){
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
-        }
+        return ResponseEntity.ok(userService.hasUserSubscribedChannel(AuthenticationUtils.getUserId(),channelId));
     }
 
 
@@ -363,12 +511,15 @@ public class UserController {
         }
     }
 
-    @Operation(description = "User liked video. User id will be retrieved from jwt token")
+    @Operation(description = "User liked video. If video is already liked, like is removed. User id will be retrieved from jwt token")
     @ApiResponses(value = {
             @ApiResponse(
                     responseCode = "200",
-                    description = "User liked video successfully",
-                    content = @Content()
+                    description = "Whether video is liked now and its amount of likes",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = LikeState.class)
+                    )
             ),
             @ApiResponse(
                     responseCode = "404",
@@ -379,10 +530,9 @@ public class UserController {
     @SecurityRequirement(name = "jwt")
     @PreAuthorize("isAuthenticated()")
     @PostMapping("/like")
-    public ResponseEntity<?> likeVideoById(@RequestParam(name = "videoId") Long videoId){
+    public ResponseEntity<LikeState> likeVideoById(@RequestParam(name = "videoId") Long videoId){
         try{
-            userService.likeVideo(AuthenticationUtils.getUserId(), videoId);
-            return ResponseEntity.ok(null);
+            return ResponseEntity.ok(userService.likeVideo(AuthenticationUtils.getUserId(), videoId));
         } catch (NotFoundException e){
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
         }
@@ -2,15 +2,18 @@ package com.artur.youtback.controller;
 
 
 import com.artur.common.exception.NotFoundException;
+import com.artur.youtback.model.CursorPage;
 import com.artur.youtback.model.user.User;
 import com.artur.youtback.model.video.Video;
 import com.artur.youtback.model.video.VideoCreateRequest;
+import com.artur.youtback.model.video.VideoJobStatus;
 import com.artur.youtback.model.video.VideoUpdateRequest;
+import com.artur.youtback.service.VideoJobService;
 import com.artur.youtback.service.VideoService;
+import com.artur.youtback.service.WatchService;
 import com.artur.youtback.sort.VideoSort;
 import com.artur.youtback.utils.AppConstants;
 import com.artur.youtback.utils.AuthenticationUtils;
-import com.artur.youtback.utils.FindOptions;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -31,9 +34,10 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/")
@@ -42,6 +46,10 @@ public class VideoController {
 
     @Autowired
     private VideoService videoService;
+    @Autowired
+    private WatchService watchService;
+    @Autowired
+    private VideoJobService videoJobService;
 
     @Operation(description = "Get video by id")
     @ApiResponses(
@@ -122,15 +130,18 @@ public class VideoController {
 //        return ResponseEntity.ok(null);
 //    }
 
-    @Operation(description = "Find videos by multiple criteria. Each option corresponds each value. Only for admins")
+    @Operation(description = """
+        Find page of videos by multiple criteria. Each option corresponds each value. Only for admins.
+        To get the next page, pass cursor returned with the previous one and the same options.
+    """)
     @ApiResponses(
             value = {
                     @ApiResponse(
                             responseCode = "200",
-                            description = "Success",
+                            description = "Page of videos and cursor of the next page (null if this page is the last)",
                             content = @Content(
                                     mediaType = "application/json",
-                                    array = @ArraySchema(schema = @Schema(implementation = Video.class))
+                                    schema = @Schema(implementation = CursorPage.class)
                             )
                     ),
                     @ApiResponse(
@@ -150,10 +161,12 @@ public class VideoController {
     @GetMapping("/admin")
     public ResponseEntity<?> findByOption(
             @RequestParam List<String> option,
-            @RequestParam List<String> value
+            @RequestParam List<String> value,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false, defaultValue = "" + AppConstants.MAX_VIDEOS_PER_REQUEST) Integer size
     ){
         try{
-            return ResponseEntity.ok(videoService.findByOption(option, value));
+            return ResponseEntity.ok(videoService.findByOption(option, value, cursor, Math.min(size, AppConstants.MAX_VIDEOS_PER_REQUEST)));
         }catch (NullPointerException e){
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
         } catch (IllegalArgumentException e){
@@ -161,7 +174,43 @@ public class VideoController {
         }
     }
 
-    @Operation(description = "Find videos by title")
+    @Operation(description = """
+        Export all videos found by multiple criteria as newline delimited JSON, without thumbnails.
+        Each option corresponds each value. Only for admins
+    """)
+    @ApiResponses(
+            value = {
+                    @ApiResponse(
+                            responseCode = "200",
+                            description = "Found videos, one JSON object per line",
+                            content = @Content(
+                                    mediaType = MediaType.APPLICATION_NDJSON_VALUE,
+                                    schema = @Schema(implementation = Video.class)
+                            )
+                    ),
+                    @ApiResponse(
+                            responseCode = "400",
+                            description = "If range (in value field) was specified incorrectly (should be 1/10)",
+                            content = @Content()
+                    )
+            }
+    )
+    @SecurityRequirement(name = "jwt", scopes = "ROLE_ADMIN")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    @GetMapping(value = "/admin", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportByOption(
+            @RequestParam List<String> option,
+            @RequestParam List<String> value
+    ){
+        try{
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(videoService.export(option, value));
+        } catch (IllegalArgumentException e){
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+    }
+
+    @Operation(description = "Find videos by text in title and description, the most relevant first. " +
+            "With fuzzy option finds videos by title that may be misspelled, the closest first")
     @ApiResponses(
             value = {
                     @ApiResponse(
@@ -172,6 +221,11 @@ public class VideoController {
                                     array = @ArraySchema(schema = @Schema(implementation = Video.class))
                             )
                     ),
+                    @ApiResponse(
+                            responseCode = "400",
+                            description = "If page is negative",
+                            content = @Content()
+                    ),
                     @ApiResponse(
                             responseCode = "404",
                             description = "If no videos was found",
@@ -180,17 +234,41 @@ public class VideoController {
             }
     )
     @GetMapping("/search")
-    public ResponseEntity<?> searchVideos(@RequestParam(value = "search_query") String searchQuery){
+    public ResponseEntity<?> searchVideos(
+            @RequestParam(value = "search_query") String searchQuery,
+            @RequestParam(value = "page", required = false, defaultValue = "0") Integer page,
+            @RequestParam(value = "fuzzy", required = false, defaultValue = "false") Boolean fuzzy
+    ){
         try{
-            return ResponseEntity.ok(videoService.findByOption(
-                    Collections.singletonList(FindOptions.VideoOptions.BY_TITLE.name()),
-                    Collections.singletonList(searchQuery))
-            );
+            return ResponseEntity.ok(videoService.search(searchQuery, fuzzy, page, AppConstants.MAX_VIDEOS_PER_REQUEST));
         }catch (NullPointerException e){
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+        }catch (IllegalArgumentException e){
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
         }
     }
 
+    @Operation(description = "Get completions of search query, made of video titles and popular queries")
+    @ApiResponses(
+            value = {
+                    @ApiResponse(
+                            responseCode = "200",
+                            description = "Success",
+                            content = @Content(
+                                    mediaType = "application/json",
+                                    array = @ArraySchema(schema = @Schema(implementation = String.class))
+                            )
+                    )
+            }
+    )
+    @GetMapping("/suggest")
+    public ResponseEntity<List<String>> suggest(
+            @RequestParam(value = "q") String prefix,
+            @RequestParam(value = "limit", required = false, defaultValue = "10") Integer limit
+    ){
+        return ResponseEntity.ok(videoService.suggest(prefix, limit));
+    }
+
     @Operation(description = "Get index.m3u8 file")
     @ApiResponses(
             value = {
@@ -269,7 +347,7 @@ public class VideoController {
     @GetMapping("/watch")
     public ResponseEntity<Video> watchVideoById(@RequestParam(name = "videoId") Long videoId, HttpServletRequest request, Authentication authentication){
         try{
-            Video video = videoService.watchById(videoId,
+            Video video = watchService.watch(videoId,
                     authentication == null ? null : AuthenticationUtils.getUserId(authentication));
             return ResponseEntity.ok(video);
         }catch ( NotFoundException e){
@@ -277,19 +355,28 @@ public class VideoController {
         }
     }
 
-    @Operation(description = "Create video. Only for authorized users. User id will be retrieved from jwt token")
+    @Operation(description = "Create video. Only for authorized users. User id will be retrieved from jwt token. " +
+            "Video is stored and processed asynchronously, progress is available by the returned job")
     @ApiResponses(
             value = {
                     @ApiResponse(
-                            responseCode = "200",
-                            description = "Created successfully",
-                            content = @Content()
+                            responseCode = "202",
+                            description = "Creating of the video started",
+                            content = @Content(
+                                    mediaType = MediaType.APPLICATION_JSON_VALUE,
+                                    schema = @Schema(implementation = VideoJobStatus.class)
+                            )
                     ),
                     @ApiResponse(
                             responseCode = "404",
                             description = "If user was not found",
                             content = @Content()
                     ),
+                    @ApiResponse(
+                            responseCode = "503",
+                            description = "If too many videos are being created",
+                            content = @Content()
+                    ),
                     @ApiResponse(
                             responseCode = "500",
                             description = "If some error occurred",
@@ -300,13 +387,15 @@ public class VideoController {
     @SecurityRequirement(name = "jwt")
     @PreAuthorize("isAuthenticated()")
     @PostMapping("")
-    public ResponseEntity<?> create(@ModelAttribute VideoCreateRequest video){
+    public ResponseEntity<VideoJobStatus> create(@ModelAttribute VideoCreateRequest video){
         try {
             String userId =  AuthenticationUtils.getUserId();
-            videoService.create(video, userId);
-            return ResponseEntity.ok(null);
+            VideoJobStatus job = videoJobService.create(video, userId);
+            return ResponseEntity.accepted().location(VideoJobController.location(job)).body(job);
         }catch(NotFoundException e){
             return ResponseEntity.notFound().build();
+        } catch (RejectedExecutionException e){
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
         } catch (Exception e){
             return ResponseEntity.internalServerError().build();
         }
@@ -340,13 +429,22 @@ public class VideoController {
         }
     }
 
-    @Operation(description = "Update video")
+    @Operation(description = "Update video. New thumbnail or video is processed asynchronously, progress is available " +
+            "by the returned job")
     @ApiResponses(value = {
             @ApiResponse(
                     responseCode = "200",
-                    description = "Success",
+                    description = "Success, if neither thumbnail nor video is replaced",
                     content = @Content()
             ),
+            @ApiResponse(
+                    responseCode = "202",
+                    description = "Updated, processing of the new thumbnail or video started",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON_VALUE,
+                            schema = @Schema(implementation = VideoJobStatus.class)
+                    )
+            ),
             @ApiResponse(
                     responseCode = "404",
                     description = "If video was not found",
@@ -361,10 +459,11 @@ public class VideoController {
     @SecurityRequirement(name = "jwt")
     @PreAuthorize("isAuthenticated()")
     @PutMapping("")
-    public ResponseEntity<?> update(@ModelAttribute VideoUpdateRequest updateRequest){
+    public ResponseEntity<VideoJobStatus> update(@ModelAttribute VideoUpdateRequest updateRequest){
         try{
-            videoService.update(updateRequest);
-            return ResponseEntity.ok(null);
+            VideoJobStatus job = videoJobService.update(updateRequest, AuthenticationUtils.getUserId());
+            if(job == null) return ResponseEntity.ok(null);
+            return ResponseEntity.accepted().location(VideoJobController.location(job)).body(job);
         }catch(NotFoundException  e){
             return ResponseEntity.notFound().build();
         }catch (Exception e){
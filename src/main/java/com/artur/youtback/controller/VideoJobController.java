@@ -0,0 +1,96 @@
+package com.artur.youtback.controller;
+
+import com.artur.common.exception.NotFoundException;
+import com.artur.youtback.model.video.VideoJobStatus;
+import com.artur.youtback.service.VideoJobService;
+import com.artur.youtback.utils.AuthenticationUtils;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.net.URI;
+
+/**Progress of jobs of creating videos and replacing their media: uploaded, processing, then ready or failed.
+ */
+@RestController
+@RequestMapping("/jobs")
+public class VideoJobController {
+
+    @Autowired
+    private VideoJobService videoJobService;
+
+    @Operation(description = "Get state of the job")
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Success",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON_VALUE,
+                            schema = @Schema(implementation = VideoJobStatus.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "If job was not found",
+                    content = @Content()
+            )
+    })
+    @SecurityRequirement(name = "jwt")
+    @PreAuthorize("isAuthenticated()")
+    @GetMapping("/{id}")
+    public ResponseEntity<VideoJobStatus> status(@PathVariable String id){
+        try {
+            return ResponseEntity.ok(videoJobService.status(AuthenticationUtils.getUserId(), id));
+        } catch (NotFoundException e){
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @Operation(description = "Stream state of the job as server-sent events named \"status\". Current state is sent at once, " +
+            "then every transition. Stream is closed once the job is ready or failed")
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Success",
+                    content = @Content(
+                            mediaType = MediaType.TEXT_EVENT_STREAM_VALUE,
+                            schema = @Schema(implementation = VideoJobStatus.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "If job was not found",
+                    content = @Content()
+            )
+    })
+    @SecurityRequirement(name = "jwt")
+    @PreAuthorize("isAuthenticated()")
+    @GetMapping(value = "/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> events(@PathVariable String id){
+        try {
+            return ResponseEntity.ok(videoJobService.subscribe(AuthenticationUtils.getUserId(), id));
+        } catch (NotFoundException e){
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**Location of the job to return with 202 responses.
+     */
+    static URI location(VideoJobStatus job){
+        return ServletUriComponentsBuilder.fromCurrentContextPath()
+                .path("/api/jobs/")
+                .path(job.id())
+                .build()
+                .toUri();
+    }
+}
@@ -1,21 +1,19 @@
 package com.artur.youtback.converter;
 
-import com.artur.common.entity.SearchHistory;
 import com.artur.common.entity.user.UserEntity;
 import com.artur.youtback.model.user.User;
+import com.artur.youtback.search.SearchHistoryStore;
+import com.artur.youtback.subscription.SubscriptionGraph;
 import com.artur.objectstorage.service.ObjectStorageService;
 import com.artur.youtback.utils.AppAuthorities;
 import com.artur.youtback.utils.ImageUtils;
-import com.artur.youtback.utils.comparators.SearchHistoryComparator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
 
 @Component
 public class UserConverter {
@@ -24,21 +22,23 @@ public class UserConverter {
     @Autowired
     ObjectStorageService objectStorageService;
     @Autowired
-    VideoConverter videoConverter;
+    SubscriptionGraph subscriptionGraph;
+    @Autowired
+    SearchHistoryStore searchHistoryStore;
 
+    /**Converts user without his videos, which are paginated by {@code UserService.getUserVideos}, so conversion costs
+     * the same regardless of size of the channel.
+     */
     public User convertToModel(UserEntity userEntity){
-        Set<UserEntity> subscribers = userEntity.getSubscribers();
-        /*sorting search history by date added (from present to past)*/
-        List<String> searchOptionList = userEntity.getSearchHistory().stream()
-                .sorted(new SearchHistoryComparator()).map(SearchHistory::getSearchOption).toList();
+        long subscribers = subscriptionGraph.subscribers(userEntity.getId());
         return User.builder()
                 .id(userEntity.getId())
                 .email(userEntity.getEmail())
                 .username(userEntity.getUsername())
                 .picture(userEntity.getPicture())
-                .subscribers(Integer.toString(subscribers.size()).concat(subscribers.size() == 1 ? " subscriber" : " subscribers"))
-                .userVideos(userEntity.getUserVideos().stream().map(videoConverter::convertToModel).collect(Collectors.toList()))
-                .searchHistory(searchOptionList)
+                .subscribers(Long.toString(subscribers).concat(subscribers == 1 ? " subscriber" : " subscribers"))
+                .userVideos(new ArrayList<>())
+                .searchHistory(searchHistoryStore.get(userEntity.getId()))
                 .authorities(userEntity.getAuthorities())
                 .build();
     }
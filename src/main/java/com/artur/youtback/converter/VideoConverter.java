@@ -4,15 +4,21 @@ import com.artur.common.entity.VideoEntity;
 import com.artur.common.entity.user.UserEntity;
 import com.artur.common.utils.TimeUtils;
 import com.artur.objectstorage.service.ObjectStorageService;
+import com.artur.youtback.counter.LikeCounter;
+import com.artur.youtback.counter.UniqueViewerCounter;
 import com.artur.youtback.model.video.Video;
 import com.artur.youtback.utils.AppConstants;
 import com.artur.youtback.utils.ImageUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 
 import java.time.*;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 @Component
 public class VideoConverter {
@@ -20,16 +26,49 @@ public class VideoConverter {
 
     @Autowired
     ObjectStorageService objectStorageService;
+    @Autowired
+    UniqueViewerCounter uniqueViewerCounter;
+    @Autowired
+    LikeCounter likeCounter;
 
     public Video convertToModel(VideoEntity videoEntity) {
+        return convertToModel(videoEntity, likeCounter.count(videoEntity.getId()), uniqueViewerCounter.count(videoEntity.getId()), true);
+    }
+
+    /**Converts videos keeping their order. Likes of all videos are read by a single query, unique viewers by a single
+     * Redis pipeline.
+     * @param videoEntities videos to convert
+     * @return converted videos
+     */
+    public List<Video> convertToModels(Collection<VideoEntity> videoEntities){
+        return convertToModels(videoEntities, true);
+    }
+
+    /**Converts videos keeping their order. Likes of all videos are read by a single query, unique viewers by a single
+     * Redis pipeline.
+     * @param videoEntities videos to convert
+     * @param withThumbnails whether thumbnails should be read from {@link ObjectStorageService}
+     * @return converted videos, without thumbnails if they are not requested
+     */
+    public List<Video> convertToModels(Collection<VideoEntity> videoEntities, boolean withThumbnails){
+        List<Long> ids = videoEntities.stream().map(VideoEntity::getId).toList();
+        Map<Long, Integer> likes = likeCounter.counts(ids);
+        Map<Long, Long> uniqueViewers = uniqueViewerCounter.counts(ids);
+        return videoEntities.stream().map(videoEntity -> convertToModel(videoEntity, likes.getOrDefault(videoEntity.getId(), 0),
+                uniqueViewers.get(videoEntity.getId()), withThumbnails)).toList();
+    }
+
+    private Video convertToModel(VideoEntity videoEntity, int likes, @Nullable Long uniqueViewers, boolean withThumbnail) {
         Integer duration = videoEntity.getVideoMetadata().getDuration();
         String encodedImage = null;
-        try {
-            encodedImage = ImageUtils.encodeImageBase64(objectStorageService.getObject(AppConstants.VIDEO_PATH + videoEntity.getId() + "/" + AppConstants.THUMBNAIL_FILENAME));
-        } catch (Exception e) {
-            logger.error("Cant get thumbnail (path: "
-                    + AppConstants.VIDEO_PATH + videoEntity.getId() + "/" + AppConstants.THUMBNAIL_FILENAME +
-                    ") from " + objectStorageService.getClass() + "!! User has empty thumbnail displayed");
+        if(withThumbnail){
+            try {
+                encodedImage = ImageUtils.encodeImageBase64(objectStorageService.getObject(AppConstants.VIDEO_PATH + videoEntity.getId() + "/" + AppConstants.THUMBNAIL_FILENAME));
+            } catch (Exception e) {
+                logger.error("Cant get thumbnail (path: "
+                        + AppConstants.VIDEO_PATH + videoEntity.getId() + "/" + AppConstants.THUMBNAIL_FILENAME +
+                        ") from " + objectStorageService.getClass() + "!! User has empty thumbnail displayed");
+            }
         }
         return Video.newBuilder()
                 .id(videoEntity.getId())
@@ -37,7 +76,9 @@ public class VideoConverter {
                 .duration(TimeUtils.seccondsToString(duration,  duration >= 3600 ? "HH:mm:ss" : "mm:ss"))
                 .thumbnail(encodedImage)
                 .views(handleViews(videoEntity.getViews()))
-                .likes(videoEntity.getLikes().size())
+                .viewCount(videoEntity.getViews().longValue())
+                .uniqueViewers(uniqueViewers)
+                .likes(likes)
                 .uploadDate(handleDate(videoEntity.getUploadDate()))
                 .description(videoEntity.getDescription())
                 .channelId(videoEntity.getUser().getId())
@@ -58,9 +99,9 @@ public class VideoConverter {
         );
     }
 
-    private String handleViews(Integer views){
+    public String handleViews(long views){
         if(views == 1) return "1 view";
-        else return Integer.toString(views).concat(" views");
+        else return Long.toString(views).concat(" views");
     }
 
     private String handleDate(Instant uploadDate){
@@ -0,0 +1,104 @@
+package com.artur.youtback.counter;
+
+import com.artur.youtback.entity.VideoStats;
+import com.artur.youtback.repository.VideoStatsRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+
+/**Denormalized like counter of videos, stored in {@link VideoStats}. Counter is changed by atomic
+ * {@code UPDATE ... SET likes = likes + ?} in the same transaction that adds or removes the like, so reading amount
+ * of likes never loads the likes themselves. Videos without counter yet are counted by an aggregate query.
+ * Drift of counters is fixed once a day by recounting all videos chunk by chunk.
+ */
+@Component
+public class LikeCounter {
+    private static final Logger logger = LoggerFactory.getLogger(LikeCounter.class);
+    private static final int RECONCILIATION_CHUNK = 1000;
+
+    @Autowired
+    VideoStatsRepository videoStatsRepository;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    /**Adds a like to the counter. Should be called in the transaction that saves the like.
+     * @param videoId video id
+     */
+    public void increment(Long videoId){
+        add(videoId, 1);
+    }
+
+    /**Removes a like from the counter. Should be called in the transaction that deletes the like.
+     * @param videoId video id
+     */
+    public void decrement(Long videoId){
+        add(videoId, -1);
+    }
+
+    /**Amount of likes of the video.
+     * @param videoId video id
+     * @return amount of likes
+     */
+    public int count(Long videoId){
+        return counts(List.of(videoId)).getOrDefault(videoId, 0);
+    }
+
+    /**Amount of likes of every specified video, read by a single query.
+     * @param videoIds ids of videos
+     * @return map of video id to amount of its likes. Videos without likes may be absent
+     */
+    public Map<Long, Integer> counts(Collection<Long> videoIds){
+        Map<Long, Integer> result = new HashMap<>();
+        if(videoIds.isEmpty()) return result;
+        for (VideoStats stats : videoStatsRepository.findAllById(videoIds)) {
+            result.put(stats.getVideoId(), (int) stats.getLikes());
+        }
+        if(result.size() < videoIds.size()){
+            List<Long> missing = videoIds.stream().filter(id -> !result.containsKey(id)).toList();
+            for (Object[] row : videoStatsRepository.countLikes(missing)) {
+                result.put((Long) row[0], ((Long) row[1]).intValue());
+            }
+        }
+        return result;
+    }
+
+    /**Removes counter of the video. Should be called when video is deleted.
+     * @param videoId video id
+     */
+    public void delete(Long videoId){
+        videoStatsRepository.deleteById(videoId);
+    }
+
+    /**Recounts likes of all videos. Every chunk is recounted in its own transaction, so that likes are not locked
+     * for long. Counters of deleted videos are removed.
+     */
+    @Scheduled(cron = "${application.likes.reconciliation-cron:0 0 4 * * *}")
+    public void reconcile(){
+        long after = 0;
+        long recounted = 0;
+        List<Long> ids;
+        do {
+            ids = videoStatsRepository.findVideoIdsAfter(after, Limit.of(RECONCILIATION_CHUNK));
+            if(ids.isEmpty()) break;
+            List<Long> chunk = ids;
+            transactionTemplate.executeWithoutResult(status -> videoStatsRepository.recountLikes(chunk));
+            recounted += ids.size();
+            after = ids.getLast();
+        } while (ids.size() == RECONCILIATION_CHUNK);
+        Integer orphans = transactionTemplate.execute(status -> videoStatsRepository.deleteOrphans());
+        logger.info("Recounted likes of {} videos, removed {} orphan counters", recounted, orphans);
+    }
+
+    private void add(Long videoId, long delta){
+        if(videoStatsRepository.addLikes(videoId, delta) == 0){
+            //no counter yet, like itself is already written, so counting from scratch includes it
+            videoStatsRepository.recountLikes(List.of(videoId));
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.artur.youtback.counter;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**Estimates amount of unique viewers per video with Redis HyperLogLog sketches, so every video costs at most
+ * a few KB regardless of its audience. Viewers are identified by user id, or by ip for anonymous users.
+ * Viewers are buffered in process and added to the sketch of the current day in batches, viewers of a failed batch are
+ * buffered again. Viewer is buffered within computing the entry of the video, so it is not lost to the batch taking
+ * the entry away. Buffer is flushed on shutdown. Once a day the sketch of the previous day is merged into the all-time
+ * sketch of the video.
+ */
+@Component
+public class UniqueViewerCounter {
+    private static final Logger logger = LoggerFactory.getLogger(UniqueViewerCounter.class);
+    private static final String KEY_PREFIX = "video-api:unique-viewers:";
+    private static final String DAY_VIDEOS_PREFIX = KEY_PREFIX + "days:";
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final Duration DAY_TTL = Duration.ofDays(3);
+
+    private final Map<Long, Set<String>> buffer = new ConcurrentHashMap<>();
+
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    /**Records that the video was watched by specified viewer. If both user id and ip are null, view is ignored.
+     * @param videoId video id
+     * @param userId id of authenticated user, can be null
+     * @param ip ip of the request, can be null
+     */
+    public void record(Long videoId, @Nullable String userId, @Nullable String ip){
+        String viewer;
+        if(userId != null){
+            viewer = "u:" + userId;
+        } else if(ip != null){
+            viewer = "ip:" + ip;
+        } else {
+            return;
+        }
+        add(videoId, List.of(viewer));
+    }
+
+    /**Estimated amount of unique viewers of the video. Viewers that are still buffered are not taken into account.
+     * @param videoId video id
+     * @return estimated amount of unique viewers or null if Redis is not available
+     */
+    @Nullable
+    public Long count(Long videoId){
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        try {
+            return redisTemplate.opsForHyperLogLog().size(
+                    totalKey(videoId),
+                    dayKey(videoId, today),
+                    dayKey(videoId, today.minusDays(1)));
+        } catch (DataAccessException e){
+            logger.warn("Could not count unique viewers of video {}: {}", videoId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**Estimated amounts of unique viewers of the videos, read by a single pipeline.
+     * @param videoIds video ids
+     * @return estimated amount of unique viewers by video id, empty if Redis is not available
+     */
+    public Map<Long, Long> counts(Collection<Long> videoIds){
+        if(videoIds.isEmpty()) return Map.of();
+        List<Long> ids = List.copyOf(videoIds);
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        try {
+            List<Object> sizes = redisTemplate.executePipelined(new SessionCallback<>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    for (Long videoId : ids) {
+                        ops.opsForHyperLogLog().size(totalKey(videoId), dayKey(videoId, today), dayKey(videoId, today.minusDays(1)));
+                    }
+                    return null;
+                }
+            });
+            Map<Long, Long> counts = new HashMap<>();
+            for (int i = 0; i < ids.size(); i++) {
+                counts.put(ids.get(i), (Long) sizes.get(i));
+            }
+            return counts;
+        } catch (DataAccessException e){
+            logger.warn("Could not count unique viewers of {} videos: {}", ids.size(), e.getMessage());
+            return Map.of();
+        }
+    }
+
+    /**Removes all sketches of the video. Should be called when video is deleted.
+     * @param videoId video id
+     */
+    public void delete(Long videoId){
+        buffer.remove(videoId);
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        try {
+            redisTemplate.delete(List.of(totalKey(videoId), dayKey(videoId, today), dayKey(videoId, today.minusDays(1))));
+        } catch (DataAccessException e){
+            logger.warn("Could not delete unique viewers of video {}: {}", videoId, e.getMessage());
+        }
+    }
+
+    /**Adds buffered viewers to the sketches of the current day. All videos are sent in a single pipeline.
+     */
+    @Scheduled(fixedDelayString = "${application.unique-viewers.flush-interval:10000}")
+    public void flush(){
+        if(buffer.isEmpty()) return;
+        Map<Long, Set<String>> drained = new HashMap<>();
+        for (Long videoId : buffer.keySet()) {
+            Set<String> viewers = buffer.remove(videoId);
+            if(viewers != null && !viewers.isEmpty()){
+                drained.put(videoId, viewers);
+            }
+        }
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        String dayVideosKey = DAY_VIDEOS_PREFIX + DAY_FORMAT.format(today);
+        try {
+            redisTemplate.executePipelined(new SessionCallback<>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    drained.forEach((videoId, viewers) -> {
+                        String key = dayKey(videoId, today);
+                        ops.opsForHyperLogLog().add(key, viewers.toArray(String[]::new));
+                        ops.expire(key, DAY_TTL);
+                        ops.opsForSet().add(dayVideosKey, videoId.toString());
+                    });
+                    ops.expire(dayVideosKey, DAY_TTL);
+                    return null;
+                }
+            });
+        } catch (DataAccessException e){
+            logger.error("Could not flush unique viewers of " + drained.size() + " videos, they will be retried", e);
+            drained.forEach(this::add);
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown(){
+        flush();
+    }
+
+    /**Merges sketches of the previous day into all-time sketches. Merging is idempotent, so it is safe
+     * to run on every instance of the application.
+     */
+    @Scheduled(cron = "${application.unique-viewers.rollup-cron:0 10 0 * * *}", zone = "UTC")
+    public void rollup(){
+        LocalDate yesterday = LocalDate.now(ZoneOffset.UTC).minusDays(1);
+        String dayVideosKey = DAY_VIDEOS_PREFIX + DAY_FORMAT.format(yesterday);
+        try {
+            Set<String> videoIds = redisTemplate.opsForSet().members(dayVideosKey);
+            if(videoIds == null || videoIds.isEmpty()) return;
+            for (String id : videoIds) {
+                Long videoId = Long.valueOf(id);
+                redisTemplate.opsForHyperLogLog().union(totalKey(videoId), dayKey(videoId, yesterday));
+            }
+            logger.info("Rolled up unique viewers of {} videos for {}", videoIds.size(), yesterday);
+        } catch (DataAccessException e){
+            logger.error("Could not roll up unique viewers for " + yesterday, e);
+        }
+    }
+
+    private void add(Long videoId, Collection<String> viewers){
+        buffer.compute(videoId, (id, buffered) -> {
+            if(buffered == null) buffered = new HashSet<>();
+            buffered.addAll(viewers);
+            return buffered;
+        });
+    }
+
+    private static String totalKey(Long videoId){
+        return KEY_PREFIX + videoId;
+    }
+
+    private static String dayKey(Long videoId, LocalDate day){
+        return KEY_PREFIX + videoId + ":" + DAY_FORMAT.format(day);
+    }
+}
@@ -0,0 +1,128 @@
+package com.artur.youtback.counter;
+
+import com.artur.youtback.entity.UserStats;
+import com.artur.youtback.repository.SubscriptionRepository;
+import com.artur.youtback.repository.UserStatsRepository;
+import com.artur.youtback.utils.AppAuthorities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+
+/**Denormalized counters of users, stored in {@link UserStats}: amounts of subscribers, subscriptions and videos
+ * and the admin flag. Counters are changed by atomic {@code UPDATE ... SET x = x + ?} in the same transaction
+ * that changes the counted rows. Row of the user is created on registration, users without row yet are counted
+ * from scratch on the first change. Drift of counters is fixed once a day by recounting all users chunk by chunk,
+ * which also creates rows of users registered before counters were introduced.
+ */
+@Component
+public class UserCounter {
+    private static final Logger logger = LoggerFactory.getLogger(UserCounter.class);
+    private static final int RECONCILIATION_CHUNK = 1000;
+    private static final String INSERT_STATS = """
+            insert ignore into user_stats (user_id, subscribers, subscriptions, videos, admin) values (?, 0, 0, 0, ?)
+            """;
+    private static final String UPSERT_STATS = """
+            insert into user_stats (user_id, subscribers, subscriptions, videos, admin) values (?, ?, ?, ?, ?)
+            on duplicate key update subscribers = values(subscribers), subscriptions = values(subscriptions),
+            videos = values(videos), admin = values(admin)
+            """;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+    @Autowired
+    UserStatsRepository userStatsRepository;
+    @Autowired
+    SubscriptionRepository subscriptionRepository;
+
+    /**Creates counters of the new user. Should be called in the transaction that saves the user.
+     * @param userId user id
+     * @param authorities comma separated authorities of the user
+     */
+    public void create(String userId, @Nullable String authorities){
+        jdbcTemplate.update(INSERT_STATS, userId, isAdmin(authorities));
+    }
+
+    /**Changes counters of both sides of a subscription. Should be called in the transaction that writes the edge.
+     * @param userId id of subscriber
+     * @param channelId id of channel
+     * @param delta 1 if subscribed, -1 if unsubscribed
+     */
+    public void addSubscription(String userId, String channelId, long delta){
+        List<String> missing = new ArrayList<>(2);
+        if(userStatsRepository.addSubscriptions(List.of(userId), delta) == 0) missing.add(userId);
+        if(userStatsRepository.addSubscribers(List.of(channelId), delta) == 0) missing.add(channelId);
+        //no counters yet, edge itself is already written, so counting from scratch includes it
+        if(!missing.isEmpty()) recount(missing);
+    }
+
+    /**Changes amount of videos of the user. Should be called in the transaction that saves or deletes the video.
+     * @param userId id of video author
+     * @param delta 1 if video is created, -1 if deleted
+     */
+    public void addVideo(String userId, long delta){
+        if(userStatsRepository.addVideos(userId, delta) == 0){
+            recount(List.of(userId));
+        }
+    }
+
+    /**Recounts subscribers, subscriptions and videos of all users. Every chunk is recounted in its own transaction.
+     * Counters of deleted users are removed.
+     */
+    @Scheduled(cron = "${application.user-stats.reconciliation-cron:0 15 4 * * *}")
+    public void reconcile(){
+        String after = "";
+        long recounted = 0;
+        List<String> ids;
+        do {
+            ids = userStatsRepository.findUserIdsAfter(after, Limit.of(RECONCILIATION_CHUNK));
+            if(ids.isEmpty()) break;
+            List<String> chunk = ids;
+            transactionTemplate.executeWithoutResult(status -> recount(chunk));
+            recounted += ids.size();
+            after = ids.getLast();
+        } while (ids.size() == RECONCILIATION_CHUNK);
+        Integer orphans = transactionTemplate.execute(status -> userStatsRepository.deleteOrphans());
+        logger.info("Recounted {} users, removed {} orphan counters", recounted, orphans);
+    }
+
+    /**Counts all counters of specified users from scratch and writes them, creating missing rows.
+     * @param userIds ids of existing users
+     */
+    public void recount(List<String> userIds){
+        Map<String, Long> subscribers = new HashMap<>();
+        Map<String, Long> subscriptions = new HashMap<>();
+        Map<String, Long> videos = new HashMap<>();
+        Set<String> admins = new HashSet<>();
+        subscriptionRepository.countSubscribers(userIds).forEach(row -> subscribers.put((String) row[0], (Long) row[1]));
+        subscriptionRepository.countSubscriptions(userIds).forEach(row -> subscriptions.put((String) row[0], (Long) row[1]));
+        userStatsRepository.countVideos(userIds).forEach(row -> videos.put((String) row[0], (Long) row[1]));
+        userStatsRepository.findAuthorities(userIds).forEach(row -> {
+            if(isAdmin((String) row[1])) admins.add((String) row[0]);
+        });
+        jdbcTemplate.batchUpdate(UPSERT_STATS, userIds, userIds.size(), (ps, userId) -> {
+            ps.setString(1, userId);
+            ps.setLong(2, subscribers.getOrDefault(userId, 0L));
+            ps.setLong(3, subscriptions.getOrDefault(userId, 0L));
+            ps.setLong(4, videos.getOrDefault(userId, 0L));
+            ps.setBoolean(5, admins.contains(userId));
+        });
+    }
+
+    private static boolean isAdmin(@Nullable String authorities){
+        if(authorities == null) return false;
+        for (String authority : authorities.split(",")) {
+            if(authority.trim().equals(AppAuthorities.ROLE_ADMIN.name())) return true;
+        }
+        return false;
+    }
+}
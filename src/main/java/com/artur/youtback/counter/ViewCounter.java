@@ -0,0 +1,209 @@
+package com.artur.youtback.counter;
+
+import com.artur.common.entity.VideoEntity;
+import com.artur.youtback.leaderboard.Leaderboard;
+import com.artur.youtback.leaderboard.VideoLeaderboards;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**Write-behind counter of video views. Increments are accumulated in memory in a {@link LongAdder} per video id,
+ * so concurrent watches of the same video never contend on a database row lock. Adder is incremented, drained and
+ * removed when idle within computing its map entry, so no increment is lost to the removal. Accumulated increments are
+ * flushed periodically (every {@code application.views.flush-interval} ms) as bulk
+ * {@code UPDATE ... SET views = views + ?} statements, one statement per distinct delta. Views that were not flushed yet
+ * are lost on crash, so the loss is bounded by the flush interval. Pending views are also flushed on shutdown.
+ * Current amount of views is kept in Redis as well, so that it could be shown without reading the database.
+ * Flushed videos are offered to {@link Leaderboard#VIEWS} with their amounts of views read back after the update, so
+ * the leaderboard is fed once per flush instead of on every watch.
+ */
+@Component
+public class ViewCounter {
+    private static final Logger logger = LoggerFactory.getLogger(ViewCounter.class);
+    private static final String KEY_PREFIX = "video-api:views:";
+    private static final Duration KEY_TTL = Duration.ofDays(1);
+    private static final int SELECT_CHUNK = 1000;
+
+    private final Map<Long, LongAdder> pending = new ConcurrentHashMap<>();
+    private final AtomicLong lastFlush = new AtomicLong(System.currentTimeMillis());
+    private final Timer flushTimer;
+
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+    @Autowired
+    StringRedisTemplate redisTemplate;
+    @Autowired
+    VideoLeaderboards videoLeaderboards;
+
+    public ViewCounter(MeterRegistry meterRegistry) {
+        this.flushTimer = Timer.builder("video.views.flush")
+                .description("Time spent flushing accumulated views to the database")
+                .register(meterRegistry);
+        Gauge.builder("video.views.flush.lag", lastFlush, last -> (System.currentTimeMillis() - last.get()) / 1000.0)
+                .description("Seconds since the last successful views flush")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("video.views.pending", pending, ViewCounter::sum)
+                .description("Views accumulated in memory and not flushed yet")
+                .register(meterRegistry);
+    }
+
+    /**Records a single view of the video. Does not touch the database.
+     * @param videoId video id
+     */
+    public void increment(Long videoId){
+        add(videoId, 1);
+    }
+
+    /**Records a single view of the video and returns current amount of its views. Current amount is kept in Redis,
+     * if there is no amount for this video yet, it is initialized by specified persisted amount. Both operations are sent
+     * in a single pipeline. If Redis is not available, persisted amount plus pending views of this instance is returned.
+     * @param videoId video id
+     * @param persistedViews amount of views known by caller, for example from cached video
+     * @return current amount of views, including this one
+     */
+    public long record(Long videoId, long persistedViews){
+        increment(videoId);
+        String key = KEY_PREFIX + videoId;
+        try {
+            List<Object> results = redisTemplate.executePipelined(new SessionCallback<>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    ops.opsForValue().setIfAbsent(key, Long.toString(persistedViews), KEY_TTL);
+                    ops.opsForValue().increment(key);
+                    return null;
+                }
+            });
+            return (Long) results.get(1);
+        } catch (DataAccessException e){
+            logger.warn("Could not count view of video {} in Redis: {}", videoId, e.getMessage());
+            return persistedViews + pending(videoId);
+        }
+    }
+
+    /**Views of the video that are accumulated in memory and not flushed yet.
+     * @param videoId video id
+     * @return amount of pending views
+     */
+    public long pending(Long videoId){
+        LongAdder adder = pending.get(videoId);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /**Discards pending views of the video. Should be called when video is deleted.
+     * @param videoId video id
+     */
+    public void discard(Long videoId){
+        pending.remove(videoId);
+        try {
+            redisTemplate.delete(KEY_PREFIX + videoId);
+        } catch (DataAccessException e){
+            logger.warn("Could not delete views of video {} from Redis: {}", videoId, e.getMessage());
+        }
+    }
+
+    /**Flushes all accumulated views to the database. Videos with equal amount of pending views are updated by a single
+     * statement. If the update fails, views are returned back to the accumulator and will be flushed next time.
+     * Updated amounts of views are offered to the leaderboard after commit. Scheduled flush and flush on shutdown
+     * do not overlap.
+     */
+    @Scheduled(fixedDelayString = "${application.views.flush-interval:5000}")
+    public synchronized void flush(){
+        Map<Long, Long> deltas = drain();
+        if(deltas.isEmpty()){
+            lastFlush.set(System.currentTimeMillis());
+            return;
+        }
+        Map<Long, List<Long>> byDelta = new HashMap<>();
+        deltas.forEach((videoId, delta) -> byDelta.computeIfAbsent(delta, d -> new ArrayList<>()).add(videoId));
+        Map<Long, Long> views = new HashMap<>();
+        try {
+            flushTimer.record(() -> transactionTemplate.executeWithoutResult(status -> {
+                byDelta.forEach((delta, ids) -> entityManager.createQuery(
+                        "update " + VideoEntity.class.getSimpleName() + " v set v.views = v.views + :delta where v.id in :ids")
+                        .setParameter("delta", delta.intValue())
+                        .setParameter("ids", ids)
+                        .executeUpdate());
+                views.putAll(views(List.copyOf(deltas.keySet())));
+            }));
+            lastFlush.set(System.currentTimeMillis());
+            logger.trace("Flushed views of {} videos", deltas.size());
+        } catch (Exception e){
+            logger.error("Could not flush views of " + deltas.size() + " videos, they will be retried", e);
+            deltas.forEach(this::add);
+            return;
+        }
+        videoLeaderboards.offer(Leaderboard.VIEWS, views);
+    }
+
+    @PreDestroy
+    public void flushOnShutdown(){
+        logger.info("Flushing pending views before shutdown");
+        flush();
+    }
+
+    /**Persisted amounts of views of the videos, read chunk by chunk. Deleted videos are absent.
+     */
+    private Map<Long, Long> views(List<Long> videoIds){
+        Map<Long, Long> views = new HashMap<>();
+        for (int i = 0; i < videoIds.size(); i += SELECT_CHUNK) {
+            entityManager.createQuery("select v.id, v.views from " + VideoEntity.class.getSimpleName() + " v where v.id in :ids", Object[].class)
+                    .setParameter("ids", videoIds.subList(i, Math.min(i + SELECT_CHUNK, videoIds.size())))
+                    .getResultList()
+                    .forEach(row -> {
+                        if(row[1] != null) views.put((Long) row[0], ((Number) row[1]).longValue());
+                    });
+        }
+        return views;
+    }
+
+    private void add(Long videoId, long delta){
+        pending.compute(videoId, (id, adder) -> {
+            if(adder == null) adder = new LongAdder();
+            adder.add(delta);
+            return adder;
+        });
+    }
+
+    private Map<Long, Long> drain(){
+        Map<Long, Long> deltas = new HashMap<>();
+        for (Long videoId : pending.keySet()) {
+            pending.computeIfPresent(videoId, (id, adder) -> {
+                long delta = adder.sumThenReset();
+                if(delta == 0) return null;             //idle video, removing it so that the map does not grow
+                deltas.put(id, delta);
+                return adder;
+            });
+        }
+        return deltas;
+    }
+
+    private static double sum(Map<Long, LongAdder> map){
+        return map.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+}
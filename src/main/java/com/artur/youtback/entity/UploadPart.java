@@ -0,0 +1,39 @@
+package com.artur.youtback.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**Received part of a resumable upload. Only one row per session and part number is kept, repeated upload of the same
+ * part overwrites it. Every attempt is stored under its own {@code objectKey}, so the row points to the last attempt
+ * that passed the checks.
+ */
+@Entity
+@Table(name = "upload_part",
+        uniqueConstraints = @UniqueConstraint(name = "uk_upload_part_session_number", columnNames = {"session_id", "part_number"}))
+@Getter
+@Setter
+@NoArgsConstructor
+public class UploadPart {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "session_id", nullable = false)
+    private String sessionId;
+
+    @Column(name = "part_number", nullable = false)
+    private int partNumber;
+
+    @Column(name = "size", nullable = false)
+    private long size;
+
+    /**Hex encoded SHA-256 of the part*/
+    @Column(name = "sha256", nullable = false, length = 64)
+    private String sha256;
+
+    @Column(name = "object_key", nullable = false)
+    private String objectKey;
+}
@@ -0,0 +1,78 @@
+package com.artur.youtback.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**Session of a resumable upload of a video. Video is uploaded in numbered parts of {@code chunkSize} bytes, every part
+ * is stored as a separate object and recorded by {@link UploadPart}. Completed session is kept without its parts, so
+ * that a retried completion gets the same job. Sessions not touched for a while are removed with their parts by
+ * {@link com.artur.youtback.service.UploadService}.
+ */
+@Entity
+@Table(name = "upload_session", indexes = @Index(name = "idx_upload_session_updated", columnList = "updated_at"))
+@Getter
+@Setter
+@NoArgsConstructor
+public class UploadSession {
+
+    public enum Status {
+        /**Parts are being received*/
+        OPEN,
+        /**Upload is completed and handed to the job {@code jobId}*/
+        COMPLETING
+    }
+
+    @Id
+    @Column(name = "id")
+    private String id;
+
+    @Column(name = "user_id", nullable = false)
+    private String userId;
+
+    @Column(name = "title", nullable = false)
+    private String title;
+
+    @Column(name = "description", length = 5000)
+    private String description;
+
+    @Column(name = "category")
+    private String category;
+
+    /**Size of the whole video in bytes*/
+    @Column(name = "size", nullable = false)
+    private long size;
+
+    @Column(name = "chunk_size", nullable = false)
+    private int chunkSize;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    private Status status;
+
+    /**Job of creating the video, set once the upload is completed*/
+    @Column(name = "job_id")
+    private String jobId;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+
+    /**Amount of parts of the video, the last part may be smaller than {@code chunkSize}.
+     */
+    public int parts(){
+        return (int) ((size + chunkSize - 1) / chunkSize);
+    }
+
+    /**Expected size of the part.
+     * @param number part number, starting from 1
+     */
+    public long partSize(int number){
+        return Math.min(chunkSize, size - (long) (number - 1) * chunkSize);
+    }
+}
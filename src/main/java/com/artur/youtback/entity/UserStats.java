@@ -0,0 +1,38 @@
+package com.artur.youtback.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**Denormalized counters of the user, so that they could be read without loading related collections.
+ * Row is keyed by user id and maintained by {@link com.artur.youtback.counter.UserCounter}. Admin flag is
+ * derived from user`s authorities, so that admins could be found by an index instead of matching authorities string.
+ */
+@Entity
+@Table(name = "user_stats", indexes = {
+        @Index(name = "idx_user_stats_subscribers", columnList = "subscribers"),
+        @Index(name = "idx_user_stats_videos", columnList = "videos"),
+        @Index(name = "idx_user_stats_admin", columnList = "admin")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class UserStats {
+
+    @Id
+    @Column(name = "user_id")
+    private String userId;
+
+    @Column(name = "subscribers", nullable = false)
+    private long subscribers;
+
+    @Column(name = "subscriptions", nullable = false)
+    private long subscriptions;
+
+    @Column(name = "videos", nullable = false)
+    private long videos;
+
+    @Column(name = "admin", nullable = false)
+    private boolean admin;
+}
@@ -0,0 +1,73 @@
+package com.artur.youtback.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**Job of creating a video or replacing its media. Job goes {@link Status#UPLOADED} → {@link Status#PROCESSING} →
+ * {@link Status#READY} or {@link Status#FAILED}, every transition is a conditional update of the row, so concurrent
+ * replies of processing microservice and the collection of stale jobs can not move it backwards.
+ * Jobs are advanced by {@link com.artur.youtback.service.VideoJobService}.
+ */
+@Entity
+@Table(name = "video_job", indexes = @Index(name = "idx_video_job_status_updated", columnList = "status, updated_at"))
+@Getter
+@Setter
+@NoArgsConstructor
+public class VideoJob {
+
+    public enum Status {
+        /**Media is received by the api and waits to be stored*/
+        UPLOADED,
+        /**Media is stored, replies of processing microservice are awaited*/
+        PROCESSING,
+        READY,
+        FAILED;
+
+        public boolean isFinished(){
+            return this == READY || this == FAILED;
+        }
+    }
+
+    public enum Type {
+        CREATE,
+        UPDATE
+    }
+
+    @Id
+    @Column(name = "id")
+    private String id;
+
+    @Column(name = "user_id", nullable = false)
+    private String userId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "type", nullable = false)
+    private Type type;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    private Status status;
+
+    /**Id of the video, null until the video of {@link Type#CREATE} job is stored*/
+    @Column(name = "video_id")
+    private Long videoId;
+
+    @Column(name = "thumbnail_pending", nullable = false)
+    private boolean thumbnailPending;
+
+    @Column(name = "video_pending", nullable = false)
+    private boolean videoPending;
+
+    @Column(name = "error", length = 500)
+    private String error;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private Instant updatedAt;
+}
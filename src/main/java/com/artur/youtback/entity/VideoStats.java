@@ -0,0 +1,24 @@
+package com.artur.youtback.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**Denormalized counters of the video, so that they could be read without loading related collections.
+ * Row is keyed by video id and maintained by {@link com.artur.youtback.counter.LikeCounter}.
+ */
+@Entity
+@Table(name = "video_stats", indexes = @Index(name = "idx_video_stats_likes", columnList = "likes"))
+@Getter
+@Setter
+@NoArgsConstructor
+public class VideoStats {
+
+    @Id
+    @Column(name = "video_id")
+    private Long videoId;
+
+    @Column(name = "likes", nullable = false)
+    private long likes;
+}
@@ -0,0 +1,42 @@
+package com.artur.youtback.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**Single entry of user`s watch history. Only one entry per user, video and day is kept, repeated watches
+ * during the same day update {@code watchedAt} of existing entry.
+ */
+@Entity
+@Table(name = "watch_record",
+        uniqueConstraints = @UniqueConstraint(name = "uk_watch_record_user_video_day", columnNames = {"user_id", "video_id", "watch_day"}),
+        indexes = {
+                @Index(name = "idx_watch_record_user_watched", columnList = "user_id, watched_at, id"),
+                @Index(name = "idx_watch_record_watched", columnList = "watched_at"),
+                @Index(name = "idx_watch_record_video", columnList = "video_id")
+        })
+@Getter
+@Setter
+@NoArgsConstructor
+public class WatchRecord {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private String userId;
+
+    @Column(name = "video_id", nullable = false)
+    private Long videoId;
+
+    @Column(name = "watch_day", nullable = false)
+    private LocalDate watchDay;
+
+    @Column(name = "watched_at", nullable = false)
+    private Instant watchedAt;
+}
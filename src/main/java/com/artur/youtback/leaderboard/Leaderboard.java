@@ -0,0 +1,28 @@
+package com.artur.youtback.leaderboard;
+
+import com.artur.youtback.utils.FindOptions;
+import org.springframework.lang.Nullable;
+
+/**Rankings of videos maintained by {@link VideoLeaderboards}.
+ */
+public enum Leaderboard {
+    VIEWS,
+    LIKES,
+    DURATION;
+
+    /**Leaderboard that answers the find option.
+     * @param option name of {@link FindOptions.VideoOptions}
+     * @return leaderboard or null if the option is not a ranking
+     */
+    @Nullable
+    public static Leaderboard of(String option){
+        if(option.equalsIgnoreCase(FindOptions.VideoOptions.MOST_VIEWS.name())) return VIEWS;
+        if(option.equalsIgnoreCase(FindOptions.VideoOptions.MOST_LIKES.name())) return LIKES;
+        if(option.equalsIgnoreCase(FindOptions.VideoOptions.MOST_DURATION.name())) return DURATION;
+        return null;
+    }
+
+    String key(){
+        return "video-api:leaderboard:" + name().toLowerCase();
+    }
+}
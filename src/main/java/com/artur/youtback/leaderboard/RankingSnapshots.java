@@ -0,0 +1,105 @@
+package com.artur.youtback.leaderboard;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+
+/**Rankings frozen for pagination. Scores change all the time, so a ranking paginated by position or by score skips
+ * or repeats entries whose scores have changed between pages. Instead the whole ranking is frozen when its first page
+ * is read, and the next pages are sliced from the frozen order by position. Frozen ranking is a Redis list, shared
+ * by all instances, which expires {@code application.rankings.snapshot-ttl} ms after it was read last time.
+ * If Redis is not available, ranking is frozen in memory of this instance.
+ */
+@Component
+public class RankingSnapshots {
+    private static final Logger logger = LoggerFactory.getLogger(RankingSnapshots.class);
+    private static final String KEY_PREFIX = "video-api:ranking:";
+    private static final String LOCAL_PREFIX = "local-";
+    private static final int MAX_LOCAL_SNAPSHOTS = 1000;
+
+    private final Duration ttl;
+    private final Map<String, List<String>> local = new LinkedHashMap<>(16, 0.75f, true){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+            return size() > MAX_LOCAL_SNAPSHOTS;
+        }
+    };
+
+    @Autowired
+    StringRedisTemplate redisTemplate;
+
+    public RankingSnapshots(@Value("${application.rankings.snapshot-ttl:600000}") long ttl) {
+        this.ttl = Duration.ofMillis(ttl);
+    }
+
+    /**Freezes the ranking.
+     * @param ids ids of ranked entries, from the first, should not be empty
+     * @return token of the frozen ranking, does not contain ':'
+     */
+    public String freeze(List<String> ids){
+        String token = UUID.randomUUID().toString();
+        String key = KEY_PREFIX + token;
+        try {
+            redisTemplate.executePipelined(new SessionCallback<>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) throws DataAccessException {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    ops.opsForList().rightPushAll(key, ids);
+                    ops.expire(key, ttl);
+                    return null;
+                }
+            });
+            return token;
+        } catch (DataAccessException e){
+            logger.warn("Could not freeze ranking in Redis, keeping it in memory: {}", e.getMessage());
+            synchronized (local) {
+                local.put(LOCAL_PREFIX + token, List.copyOf(ids));
+            }
+            return LOCAL_PREFIX + token;
+        }
+    }
+
+    /**Entries of the frozen ranking.
+     * @param token token returned by {@link #freeze(List)}
+     * @param from position of the first entry, starting from 0
+     * @param count max amount of entries
+     * @return ids of entries, fewer than count at the end of the ranking
+     * @throws IllegalArgumentException if position is negative, or the ranking has expired or was frozen
+     * by another instance while Redis was not available
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> range(String token, int from, int count) throws IllegalArgumentException{
+        if(from < 0) throw new IllegalArgumentException("Position can not be negative");
+        if(count <= 0) return List.of();
+        if(token.startsWith(LOCAL_PREFIX)){
+            List<String> ids;
+            synchronized (local) {
+                ids = local.get(token);
+            }
+            if(ids == null) throw new IllegalArgumentException("Ranking has expired, read it from the first page");
+            return ids.subList(Math.min(from, ids.size()), (int) Math.min(ids.size(), (long) from + count));
+        }
+        String key = KEY_PREFIX + token;
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<>() {
+            @Override
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                ops.opsForList().range(key, from, from + (long) count - 1);
+                ops.expire(key, ttl);
+                return null;
+            }
+        });
+        if(!Boolean.TRUE.equals(results.get(1))) throw new IllegalArgumentException("Ranking has expired, read it from the first page");
+        return (List<String>) results.get(0);
+    }
+}
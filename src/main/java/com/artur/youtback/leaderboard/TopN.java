@@ -0,0 +1,72 @@
+package com.artur.youtback.leaderboard;
+
+import java.util.*;
+
+/**Bounded ranking of the N highest scores. Scores can go up and down. Entry whose score drops stays in the ranking,
+ * even if some entry outside of the ranking has higher score now, until the ranking is built again.
+ * Equal scores are ordered by id, the newest first. All methods are synchronized.
+ */
+public class TopN {
+    private static final Comparator<long[]> ORDER = Comparator.<long[]>comparingLong(entry -> entry[1])
+            .thenComparingLong(entry -> entry[0]);
+
+    private final int capacity;
+    private final Map<Long, long[]> entries = new HashMap<>();
+    private final TreeSet<long[]> ranking = new TreeSet<>(ORDER);
+
+    public TopN(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**Puts the score of the entry. Entry that is not ranked yet is added only if its score is high enough.
+     * @param id id of the entry
+     * @param score current score of the entry
+     * @return true if the entry is ranked after the call
+     */
+    public synchronized boolean offer(long id, long score){
+        long[] existing = entries.get(id);
+        if(existing != null){
+            ranking.remove(existing);
+            existing[1] = score;
+            ranking.add(existing);
+            return true;
+        }
+        if(!qualifies(id, score)) return false;
+        long[] entry = {id, score};
+        entries.put(id, entry);
+        ranking.add(entry);
+        if(ranking.size() > capacity){
+            entries.remove(ranking.pollFirst()[0]);
+        }
+        return true;
+    }
+
+    /**@return true if entry with such score would be ranked, or is ranked already
+     */
+    public synchronized boolean qualifies(long id, long score){
+        return entries.containsKey(id) || ranking.size() < capacity || ORDER.compare(new long[]{id, score}, ranking.first()) > 0;
+    }
+
+    public synchronized void remove(long id){
+        long[] entry = entries.remove(id);
+        if(entry != null) ranking.remove(entry);
+    }
+
+    /**Highest scores, from the highest.
+     * @param limit max amount of entries
+     * @return ids and scores of entries, as pairs of {id, score}
+     */
+    public synchronized List<long[]> top(int limit){
+        List<long[]> result = new ArrayList<>(Math.min(limit, ranking.size()));
+        for (long[] entry : ranking.descendingSet()) {
+            if(result.size() == limit) break;
+            result.add(entry.clone());
+        }
+        return result;
+    }
+
+    public synchronized void clear(){
+        entries.clear();
+        ranking.clear();
+    }
+}
@@ -0,0 +1,189 @@
+package com.artur.youtback.leaderboard;
+
+import com.artur.youtback.startup.StartupLoader;
+import com.artur.youtback.stats.Column;
+import com.artur.youtback.stats.VideoStatsSnapshot;
+import com.artur.youtback.utils.KeysetScanner;
+import com.artur.youtback.utils.TransactionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**Top {@code application.leaderboards.size} videos by views, likes and duration. Leaderboards are Redis sorted sets,
+ * shared by all instances, fed by flushes of views, like events and by created videos. Every instance keeps the same rankings
+ * in memory in {@link TopN}, they filter out events that can not get into the leaderboard, so most events do not
+ * reach Redis, and answer reads while Redis is not available. On start and once a day rankings are built from
+ * {@link VideoStatsSnapshot} and written to Redis, which also drops entries whose scores went down.
+ */
+@Component
+public class VideoLeaderboards {
+    private static final Logger logger = LoggerFactory.getLogger(VideoLeaderboards.class);
+    private static final int SCAN_CHUNK = 5000;
+
+    private final int size;
+    private final Map<Leaderboard, TopN> local = new EnumMap<>(Leaderboard.class);
+
+    @Autowired
+    StringRedisTemplate redisTemplate;
+    @Autowired
+    VideoStatsSnapshot videoStatsSnapshot;
+    @Autowired
+    KeysetScanner keysetScanner;
+
+    public VideoLeaderboards(@Value("${application.leaderboards.size:1000}") int size) {
+        this.size = size;
+        for (Leaderboard leaderboard : Leaderboard.values()) {
+            local.put(leaderboard, new TopN(size));
+        }
+    }
+
+    /**Puts the current score of the video in the leaderboard, after the current transaction commits. Score that
+     * can not get into the leaderboard is ignored.
+     * @param leaderboard leaderboard
+     * @param videoId video id
+     * @param score current score of the video, for example its amount of views
+     */
+    public void offer(Leaderboard leaderboard, Long videoId, long score){
+        offer(leaderboard, Map.of(videoId, score));
+    }
+
+    /**Puts the current scores of the videos in the leaderboard by a single pipeline, after the current transaction
+     * commits. Scores that can not get into the leaderboard are ignored.
+     * @param leaderboard leaderboard
+     * @param scores current scores by video ids
+     */
+    public void offer(Leaderboard leaderboard, Map<Long, Long> scores){
+        if(scores.isEmpty()) return;
+        TransactionUtils.afterCommit(() -> {
+            Map<Long, Long> ranked = new HashMap<>();
+            scores.forEach((videoId, score) -> {
+                if(local.get(leaderboard).offer(videoId, score)) ranked.put(videoId, score);
+            });
+            if(ranked.isEmpty()) return;
+            try {
+                redisTemplate.executePipelined(new SessionCallback<>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Object execute(RedisOperations operations) throws DataAccessException {
+                        RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                        ranked.forEach((videoId, score) -> ops.opsForZSet().add(leaderboard.key(), videoId.toString(), score));
+                        ops.opsForZSet().removeRange(leaderboard.key(), 0, -(size + 1));
+                        return null;
+                    }
+                });
+            } catch (DataAccessException e){
+                logger.warn("Could not update leaderboard {} in Redis: {}", leaderboard, e.getMessage());
+            }
+        });
+    }
+
+    /**Removes the video from all leaderboards, after the current transaction commits.
+     * @param videoId video id
+     */
+    public void remove(Long videoId){
+        TransactionUtils.afterCommit(() -> {
+            local.values().forEach(topN -> topN.remove(videoId));
+            try {
+                redisTemplate.executePipelined(new SessionCallback<>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Object execute(RedisOperations operations) throws DataAccessException {
+                        RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                        for (Leaderboard leaderboard : Leaderboard.values()) {
+                            ops.opsForZSet().remove(leaderboard.key(), videoId.toString());
+                        }
+                        return null;
+                    }
+                });
+            } catch (DataAccessException e){
+                logger.warn("Could not remove video {} from leaderboards in Redis: {}", videoId, e.getMessage());
+            }
+        });
+    }
+
+    /**Videos with the highest scores, read from Redis or, if it is not available, from memory.
+     * @param leaderboard leaderboard
+     * @param limit max amount of videos, no more than size of the leaderboard
+     * @return ids of videos, from the highest score
+     */
+    public List<Long> top(Leaderboard leaderboard, int limit){
+        try {
+            Set<String> ids = redisTemplate.opsForZSet().reverseRange(leaderboard.key(), 0, Math.min(limit, size) - 1);
+            if(ids != null && !ids.isEmpty()){
+                return ids.stream().map(Long::valueOf).toList();
+            }
+        } catch (DataAccessException e){
+            logger.warn("Could not read leaderboard {} from Redis, using local one: {}", leaderboard, e.getMessage());
+        }
+        return local.get(leaderboard).top(limit).stream().map(entry -> entry[0]).toList();
+    }
+
+    /**Builds all leaderboards through bounded rankings, so that the whole table is never sorted at once, and replaces
+     * leaderboards in Redis. Scores are taken from {@link VideoStatsSnapshot}, which is reloaded shortly before, or
+     * from chunked scans of the database if it is not loaded. First built by {@link StartupLoader}.
+     */
+    @Scheduled(cron = "${application.leaderboards.rebuild-cron:0 55 4 * * *}")
+    public void rebuild(){
+        long start = System.currentTimeMillis();
+        Map<Leaderboard, TopN> rebuilt = new EnumMap<>(Leaderboard.class);
+        for (Leaderboard leaderboard : Leaderboard.values()) {
+            rebuilt.put(leaderboard, new TopN(size));
+        }
+        try {
+            if(videoStatsSnapshot.isReady()){
+                videoStatsSnapshot.forEach((id, values) -> {
+                    rebuilt.get(Leaderboard.VIEWS).offer(id, values[Column.VIEWS.ordinal()]);
+                    rebuilt.get(Leaderboard.LIKES).offer(id, values[Column.LIKES.ordinal()]);
+                    rebuilt.get(Leaderboard.DURATION).offer(id, values[Column.DURATION.ordinal()]);
+                });
+            } else {
+                keysetScanner.scan("select v.id, v.views, m.duration from VideoEntity v left join v.videoMetadata m where v.id > :after order by v.id", SCAN_CHUNK, row -> {
+                    Long id = (Long) row[0];
+                    if(row[1] != null) rebuilt.get(Leaderboard.VIEWS).offer(id, ((Number) row[1]).longValue());
+                    if(row[2] != null) rebuilt.get(Leaderboard.DURATION).offer(id, ((Number) row[2]).longValue());
+                });
+                keysetScanner.scan("select s.videoId, s.likes from VideoStats s where s.videoId > :after order by s.videoId", SCAN_CHUNK,
+                        row -> rebuilt.get(Leaderboard.LIKES).offer((Long) row[0], ((Number) row[1]).longValue()));
+            }
+        } catch (Exception e){
+            logger.error("Could not rebuild leaderboards", e);
+            return;
+        }
+        rebuilt.forEach((leaderboard, topN) -> {
+            List<long[]> entries = topN.top(size);
+            TopN current = local.get(leaderboard);
+            current.clear();
+            entries.forEach(entry -> current.offer(entry[0], entry[1]));
+            replaceInRedis(leaderboard, entries);
+        });
+        logger.info("Rebuilt leaderboards in {} ms", System.currentTimeMillis() - start);
+    }
+
+    private void replaceInRedis(Leaderboard leaderboard, List<long[]> entries){
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>();
+        entries.forEach(entry -> tuples.add(ZSetOperations.TypedTuple.of(Long.toString(entry[0]), (double) entry[1])));
+        String temporaryKey = leaderboard.key() + ":rebuild";
+        try {
+            redisTemplate.delete(temporaryKey);
+            if(tuples.isEmpty()){
+                redisTemplate.delete(leaderboard.key());
+                return;
+            }
+            redisTemplate.opsForZSet().add(temporaryKey, tuples);
+            //readers see either the old or the new leaderboard
+            redisTemplate.rename(temporaryKey, leaderboard.key());
+        } catch (DataAccessException e){
+            logger.warn("Could not write leaderboard {} to Redis: {}", leaderboard, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.artur.youtback.like;
+
+import com.artur.youtback.repository.UserLikeRepository;
+import com.artur.youtback.utils.TransactionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+
+/**Index of videos liked by every user, kept in a Redis set per user. Sets contain only integers, so Redis stores them
+ * compactly as intsets, and membership of any amount of videos is answered by a single {@code SMISMEMBER}.
+ * Set is loaded from the database on the first request and then kept in sync by like toggles. Every set contains
+ * {@link #LOADED_MARKER}, so that a user without likes is distinguished from a user whose set is not loaded yet.
+ * Toggles change only loaded sets. A toggle committed while a set is being loaded may be missed by the database read,
+ * so every load holds a token under {@link #LOADING_SUFFIX} key, a toggle of a not loaded set deletes the token, and
+ * the loaded set is stored only if its token is still there.
+ * If Redis is not available, membership is checked in the database.
+ */
+@Component
+public class LikedVideoIndex {
+    private static final Logger logger = LoggerFactory.getLogger(LikedVideoIndex.class);
+    private static final String KEY_PREFIX = "video-api:liked:";
+    /**Video ids start from 1, so 0 is never a liked video*/
+    private static final String LOADED_MARKER = "0";
+    private static final String LOADING_SUFFIX = ":loading";
+    private static final Duration KEY_TTL = Duration.ofHours(6);
+    private static final Duration LOAD_TIMEOUT = Duration.ofMinutes(1);
+    private static final RedisScript<Long> APPLY = new DefaultRedisScript<>("""
+            if redis.call('sismember', KEYS[1], ARGV[1]) == 0 then
+                redis.call('del', KEYS[2])
+                return 0
+            end
+            if ARGV[3] == '1' then
+                redis.call('sadd', KEYS[1], ARGV[2])
+            else
+                redis.call('srem', KEYS[1], ARGV[2])
+            end
+            redis.call('pexpire', KEYS[1], ARGV[4])
+            return 1
+            """, Long.class);
+    private static final RedisScript<Long> STORE = new DefaultRedisScript<>("""
+            if redis.call('get', KEYS[2]) ~= ARGV[1] then return 0 end
+            redis.call('del', KEYS[1], KEYS[2])
+            for i = 3, #ARGV, 1000 do
+                redis.call('sadd', KEYS[1], unpack(ARGV, i, math.min(i + 999, #ARGV)))
+            end
+            redis.call('pexpire', KEYS[1], ARGV[2])
+            return 1
+            """, Long.class);
+
+    @Autowired
+    StringRedisTemplate redisTemplate;
+    @Autowired
+    UserLikeRepository userLikeRepository;
+
+    /**Filters videos that are liked by the user.
+     * @param userId user id
+     * @param videoIds ids of videos to check
+     * @return ids of specified videos that are liked by the user
+     */
+    public Set<Long> liked(String userId, Collection<Long> videoIds){
+        if(videoIds.isEmpty()) return Collections.emptySet();
+        String key = KEY_PREFIX + userId;
+        try {
+            List<Object> members = new ArrayList<>(videoIds.size() + 1);
+            members.add(LOADED_MARKER);
+            videoIds.forEach(id -> members.add(id.toString()));
+            Map<Object, Boolean> isMember = redisTemplate.opsForSet().isMember(key, members.toArray());
+            if(isMember == null || !Boolean.TRUE.equals(isMember.get(LOADED_MARKER))){
+                Set<Long> liked = load(userId);
+                Set<Long> result = new HashSet<>(videoIds);
+                result.retainAll(liked);
+                return result;
+            }
+            Set<Long> result = new HashSet<>();
+            for (Long videoId : videoIds) {
+                if(Boolean.TRUE.equals(isMember.get(videoId.toString()))) result.add(videoId);
+            }
+            return result;
+        } catch (DataAccessException e){
+            logger.warn("Could not read liked videos of user {} from Redis: {}", userId, e.getMessage());
+            return new HashSet<>(userLikeRepository.findLikedVideoIds(userId, videoIds));
+        }
+    }
+
+    /**Applies like toggle to the index. If called in a transaction, index is changed after commit, so it never contains
+     * a like that was rolled back.
+     * @param userId user id
+     * @param videoId video id
+     * @param liked whether video is liked after the toggle
+     */
+    public void onToggle(String userId, Long videoId, boolean liked){
+        TransactionUtils.afterCommit(() -> apply(userId, videoId, liked));
+    }
+
+    /**Removes set of the user. Should be called when user is deleted.
+     * @param userId user id
+     */
+    public void evict(String userId){
+        try {
+            redisTemplate.delete(List.of(KEY_PREFIX + userId, KEY_PREFIX + userId + LOADING_SUFFIX));
+        } catch (DataAccessException e){
+            logger.warn("Could not delete liked videos of user {} from Redis: {}", userId, e.getMessage());
+        }
+    }
+
+    /**Loads set of the user from the database. Set is not stored if a toggle was applied during the load, it is loaded
+     * again on the next read then.
+     */
+    private Set<Long> load(String userId){
+        String key = KEY_PREFIX + userId;
+        String loading = key + LOADING_SUFFIX;
+        String token = UUID.randomUUID().toString();
+        redisTemplate.opsForValue().set(loading, token, LOAD_TIMEOUT);
+        List<Long> liked = userLikeRepository.findAllLikedVideoIds(userId);
+        Object[] args = new Object[liked.size() + 3];
+        args[0] = token;
+        args[1] = String.valueOf(KEY_TTL.toMillis());
+        args[2] = LOADED_MARKER;
+        for (int i = 0; i < liked.size(); i++) {
+            args[i + 3] = liked.get(i).toString();
+        }
+        redisTemplate.execute(STORE, List.of(key, loading), args);
+        return new HashSet<>(liked);
+    }
+
+    private void apply(String userId, Long videoId, boolean liked){
+        String key = KEY_PREFIX + userId;
+        try {
+            redisTemplate.execute(APPLY, List.of(key, key + LOADING_SUFFIX),
+                    LOADED_MARKER, videoId.toString(), liked ? "1" : "0", String.valueOf(KEY_TTL.toMillis()));
+        } catch (DataAccessException e){
+            logger.warn("Could not update liked videos of user {} in Redis, evicting them: {}", userId, e.getMessage());
+            evict(userId);
+        }
+    }
+}
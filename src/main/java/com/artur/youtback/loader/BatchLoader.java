@@ -0,0 +1,53 @@
+package com.artur.youtback.loader;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**Resolves entities by collected keys with as few queries as possible. Keys are deduplicated and resolved
+ * by a single {@code IN} query per {@link #CHUNK_SIZE} keys, results are returned in order of the keys,
+ * keys without entity are skipped. Subclasses define the query, so they can fetch join everything
+ * that their entities are converted with.
+ * @param <K> type of the key
+ * @param <V> type of the entity
+ */
+public abstract class BatchLoader<K, V> {
+    /**Max amount of keys in a single IN list*/
+    public static final int CHUNK_SIZE = 500;
+
+    /**Loads entities by keys in order of the keys.
+     * @param keys keys, may contain duplicates
+     * @return entities, one per every key that has entity
+     */
+    public List<V> loadAll(Collection<K> keys){
+        Map<K, V> loaded = loadMap(keys);
+        List<V> result = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            V value = loaded.get(key);
+            if(value != null) result.add(value);
+        }
+        return result;
+    }
+
+    /**Loads entities by keys.
+     * @param keys keys, may contain duplicates
+     * @return map of key to its entity, keys without entity are absent
+     */
+    public Map<K, V> loadMap(Collection<K> keys){
+        List<K> distinct = new ArrayList<>(new LinkedHashSet<>(keys));
+        Map<K, V> result = new HashMap<>();
+        for (int from = 0; from < distinct.size(); from += CHUNK_SIZE) {
+            for (V value : query(distinct.subList(from, Math.min(from + CHUNK_SIZE, distinct.size())))) {
+                result.put(keyOf().apply(value), value);
+            }
+        }
+        return result;
+    }
+
+    /**Single query that loads entities by keys.
+     * @param keys distinct keys, no more than {@link #CHUNK_SIZE}
+     * @return found entities in any order
+     */
+    protected abstract List<V> query(List<K> keys);
+
+    protected abstract Function<V, K> keyOf();
+}
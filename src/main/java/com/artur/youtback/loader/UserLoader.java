@@ -0,0 +1,32 @@
+package com.artur.youtback.loader;
+
+import com.artur.common.entity.user.UserEntity;
+import jakarta.persistence.EntityManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**Loads users together with their metadata, which is everything
+ * {@link com.artur.youtback.watch.ProfileUpdateWorker} changes, so applying watches does not run a query per user.
+ */
+@Component
+public class UserLoader extends BatchLoader<String, UserEntity> {
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Override
+    protected List<UserEntity> query(List<String> keys) {
+        return entityManager.createQuery(
+                "select u from UserEntity u left join fetch u.userMetadata where u.id in :ids", UserEntity.class)
+                .setParameter("ids", keys)
+                .getResultList();
+    }
+
+    @Override
+    protected Function<UserEntity, String> keyOf() {
+        return UserEntity::getId;
+    }
+}
@@ -0,0 +1,32 @@
+package com.artur.youtback.loader;
+
+import com.artur.common.entity.VideoEntity;
+import jakarta.persistence.EntityManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**Loads videos together with their metadata and owner, which is everything
+ * {@link com.artur.youtback.converter.VideoConverter} reads, so converting loaded videos does not run more queries.
+ */
+@Component
+public class VideoLoader extends BatchLoader<Long, VideoEntity> {
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Override
+    protected List<VideoEntity> query(List<Long> keys) {
+        return entityManager.createQuery(
+                "select v from VideoEntity v join fetch v.videoMetadata join fetch v.user where v.id in :ids", VideoEntity.class)
+                .setParameter("ids", keys)
+                .getResultList();
+    }
+
+    @Override
+    protected Function<VideoEntity, Long> keyOf() {
+        return VideoEntity::getId;
+    }
+}
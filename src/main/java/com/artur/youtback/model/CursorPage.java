@@ -0,0 +1,13 @@
+package com.artur.youtback.model;
+
+import org.springframework.lang.Nullable;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**Page of keyset pagination.
+ * @param items elements of the page
+ * @param next cursor of the next page, null if this page is the last one
+ */
+public record CursorPage<T>(List<T> items, @Nullable String next) implements Serializable {
+}
@@ -0,0 +1,30 @@
+package com.artur.youtback.model.user;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.lang.Nullable;
+
+import java.io.Serializable;
+
+/**Profile of the user without his videos and search history, so it costs the same for any channel.
+ * Loaded by a constructor expression in {@link com.artur.youtback.repository.UserSummaryRepository}.
+ * @param subscriberCount amount of subscribers, null if user has no counters yet
+ */
+public record UserSummary(
+        String id,
+        String username,
+        String email,
+        String picture,
+        String authorities,
+        @Nullable Long subscriberCount
+) implements Serializable {
+
+    public UserSummary withSubscriberCount(long subscriberCount){
+        return new UserSummary(id, username, email, picture, authorities, subscriberCount);
+    }
+
+    @JsonProperty("subscribers")
+    public String subscribers(){
+        long subscribers = subscriberCount == null ? 0 : subscriberCount;
+        return Long.toString(subscribers).concat(subscribers == 1 ? " subscriber" : " subscribers");
+    }
+}
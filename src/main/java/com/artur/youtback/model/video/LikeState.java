@@ -0,0 +1,10 @@
+package com.artur.youtback.model.video;
+
+import java.io.Serializable;
+
+/**State of user`s like of the video after it was changed.
+ * @param liked whether the video is liked by the user
+ * @param likes amount of likes of the video
+ */
+public record LikeState(boolean liked, int likes) implements Serializable {
+}
@@ -0,0 +1,15 @@
+package com.artur.youtback.model.video;
+
+import java.util.List;
+
+/**State of a resumable upload.
+ * @param id upload id
+ * @param size size of the whole video in bytes
+ * @param chunkSize size of every part except the last one
+ * @param parts amount of parts
+ * @param offset amount of bytes received without gaps from the start of the video
+ * @param receivedParts numbers of received parts, ascending
+ * @param jobId job of creating the video, null until the upload is completed
+ */
+public record UploadStatus(String id, long size, int chunkSize, int parts, long offset, List<Integer> receivedParts, String jobId) {
+}
@@ -12,6 +12,8 @@ public class Video implements Serializable {
         private String duration;
         private String thumbnail;
         private String views;
+        private Long viewCount;
+        private Long uniqueViewers;
         private Integer likes;
         private String uploadDate;
         private String category;
@@ -63,6 +65,19 @@ public class Video implements Serializable {
                 return views;
         }
 
+        public Long getViewCount() {
+                return viewCount;
+        }
+
+        public void setViews(String views, Long viewCount) {
+                this.views = views;
+                this.viewCount = viewCount;
+        }
+
+        public Long getUniqueViewers() {
+                return uniqueViewers;
+        }
+
         public Integer getLikes() {
                 return likes;
         }
@@ -103,6 +118,8 @@ public class Video implements Serializable {
                 VideoBuilder duration(String duration);
                 VideoBuilder thumbnail(String thumbnail);
                 VideoBuilder views(String views);
+                VideoBuilder viewCount(Long viewCount);
+                VideoBuilder uniqueViewers(Long uniqueViewers);
                 VideoBuilder likes(Integer likes);
                 VideoBuilder uploadDate(String uploadDate);
                 VideoBuilder channelId(String channelId);
@@ -156,6 +173,18 @@ public class Video implements Serializable {
                         return this;
                 }
 
+                @Override
+                public VideoBuilder viewCount(Long viewCount) {
+                        this.video.viewCount = viewCount;
+                        return this;
+                }
+
+                @Override
+                public VideoBuilder uniqueViewers(Long uniqueViewers) {
+                        this.video.uniqueViewers = uniqueViewers;
+                        return this;
+                }
+
                 @Override
                 public VideoBuilder likes(Integer likes) {
                         this.video.likes = likes;
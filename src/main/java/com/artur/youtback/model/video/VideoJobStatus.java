@@ -0,0 +1,29 @@
+package com.artur.youtback.model.video;
+
+import com.artur.youtback.entity.VideoJob;
+
+import java.time.Instant;
+
+/**State of a job of creating a video or replacing its media.
+ * @param id job id
+ * @param status UPLOADED, PROCESSING, READY or FAILED
+ * @param videoId id of the video, null until the video is stored
+ * @param thumbnailPending whether the reply of thumbnail processing is awaited
+ * @param videoPending whether the reply of video processing is awaited
+ * @param error reason of the failure, null unless the job failed
+ * @param updatedAt time of the last transition
+ */
+public record VideoJobStatus(
+        String id,
+        VideoJob.Status status,
+        Long videoId,
+        boolean thumbnailPending,
+        boolean videoPending,
+        String error,
+        Instant updatedAt) {
+
+    public static VideoJobStatus of(VideoJob job){
+        return new VideoJobStatus(job.getId(), job.getStatus(), job.getVideoId(), job.isThumbnailPending(),
+                job.isVideoPending(), job.getError(), job.getUpdatedAt());
+    }
+}
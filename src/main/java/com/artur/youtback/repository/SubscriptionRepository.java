@@ -0,0 +1,26 @@
+package com.artur.youtback.repository;
+
+import com.artur.common.entity.user.UserEntity;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+/**Read queries on subscriptions between users, that return ids and counts instead of user entities.
+ */
+public interface SubscriptionRepository extends Repository<UserEntity, String> {
+
+    @Query("select c.id from UserEntity u join u.subscribes c where u.id = :userId")
+    List<String> findSubscribedChannelIds(@Param("userId") String userId);
+
+    @Query("select s.id from UserEntity u join u.subscribers s where u.id = :userId")
+    List<String> findSubscriberIds(@Param("userId") String userId);
+
+    @Query("select u.id, count(s) from UserEntity u join u.subscribers s where u.id in :userIds group by u.id")
+    List<Object[]> countSubscribers(@Param("userIds") Collection<String> userIds);
+
+    @Query("select u.id, count(c) from UserEntity u join u.subscribes c where u.id in :userIds group by u.id")
+    List<Object[]> countSubscriptions(@Param("userIds") Collection<String> userIds);
+}
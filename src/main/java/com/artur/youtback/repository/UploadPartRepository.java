@@ -0,0 +1,32 @@
+package com.artur.youtback.repository;
+
+import com.artur.youtback.entity.UploadPart;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface UploadPartRepository extends JpaRepository<UploadPart, Long> {
+
+    @Query("select p from UploadPart p where p.sessionId = :sessionId order by p.partNumber")
+    List<UploadPart> findAllBySessionId(@Param("sessionId") String sessionId);
+
+    @Query("select p.objectKey from UploadPart p where p.sessionId = :sessionId and p.partNumber = :number")
+    Optional<String> findObjectKey(@Param("sessionId") String sessionId, @Param("number") int number);
+
+    @Modifying
+    @Query(value = """
+            insert into upload_part (session_id, part_number, size, sha256, object_key) values (:sessionId, :number, :size, :sha256, :objectKey)
+            on duplicate key update size = values(size), sha256 = values(sha256), object_key = values(object_key)
+            """, nativeQuery = true)
+    int upsert(@Param("sessionId") String sessionId, @Param("number") int number, @Param("size") long size,
+               @Param("sha256") String sha256, @Param("objectKey") String objectKey);
+
+    @Modifying
+    @Query("delete from UploadPart p where p.sessionId in :sessionIds")
+    int deleteAllBySessionIds(@Param("sessionIds") Collection<String> sessionIds);
+}
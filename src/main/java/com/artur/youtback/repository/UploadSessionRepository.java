@@ -0,0 +1,35 @@
+package com.artur.youtback.repository;
+
+import com.artur.youtback.entity.UploadSession;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+    @Modifying
+    @Query("update UploadSession s set s.updatedAt = :now where s.id = :id")
+    int touch(@Param("id") String id, @Param("now") Instant now);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+            update UploadSession s set s.status = com.artur.youtback.entity.UploadSession.Status.COMPLETING, s.jobId = :jobId,
+            s.updatedAt = :now where s.id = :id and s.status = com.artur.youtback.entity.UploadSession.Status.OPEN
+            """)
+    int markCompleting(@Param("id") String id, @Param("jobId") String jobId, @Param("now") Instant now);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+            update UploadSession s set s.status = com.artur.youtback.entity.UploadSession.Status.OPEN, s.jobId = null,
+            s.updatedAt = :now where s.id = :id and s.jobId = :jobId
+            """)
+    int reopen(@Param("id") String id, @Param("jobId") String jobId, @Param("now") Instant now);
+
+    @Query("select s.id from UploadSession s where s.updatedAt < :before order by s.updatedAt")
+    List<String> findExpiredIds(@Param("before") Instant before, Limit limit);
+}
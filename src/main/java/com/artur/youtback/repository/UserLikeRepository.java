@@ -0,0 +1,46 @@
+package com.artur.youtback.repository;
+
+import com.artur.common.entity.Like;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+/**Bulk statements on likes, that change a single like without loading user`s or video`s likes.
+ */
+public interface UserLikeRepository extends Repository<Like, Long> {
+
+    @Modifying
+    @Query("delete from Like l where l.userEntity.id = :userId and l.videoEntity.id = :videoId")
+    int deleteLike(@Param("userId") String userId, @Param("videoId") Long videoId);
+
+    /**Inserts a like unless it exists. Uniqueness of the like is guaranteed by the unique index of user and video,
+     * see {@link com.artur.youtback.schema.IndexInitializer}, missing user or video fails the foreign key,
+     * both are ignored.
+     * @return 1 if inserted, 0 if like exists or user or video does not exist
+     */
+    @Modifying
+    @Query(value = """
+            insert ignore into video_like (user_id, video_id, timestamp)
+            values (:userId, :videoId, :timestamp)
+            """, nativeQuery = true)
+    int insertLike(@Param("userId") String userId, @Param("videoId") Long videoId, @Param("timestamp") Instant timestamp);
+
+    @Query("select l.videoEntity.id from Like l where l.userEntity.id = :userId order by l.timestamp desc")
+    List<Long> findAllLikedVideoIds(@Param("userId") String userId);
+
+    /**Page of likes of the user, from the latest.
+     * @param afterId id of the last like of the previous page
+     * @return pairs of like id and video id
+     */
+    @Query("select l.id, l.videoEntity.id from Like l where l.userEntity.id = :userId and l.id < :afterId order by l.id desc")
+    List<Object[]> findLikesPage(@Param("userId") String userId, @Param("afterId") Long afterId, Limit limit);
+
+    @Query("select l.videoEntity.id from Like l where l.userEntity.id = :userId and l.videoEntity.id in :videoIds")
+    List<Long> findLikedVideoIds(@Param("userId") String userId, @Param("videoIds") Collection<Long> videoIds);
+}
@@ -0,0 +1,39 @@
+package com.artur.youtback.repository;
+
+import com.artur.youtback.entity.UserStats;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface UserStatsRepository extends JpaRepository<UserStats, String> {
+
+    @Modifying
+    @Query("update UserStats s set s.subscribers = s.subscribers + :delta where s.userId in :userIds")
+    int addSubscribers(@Param("userIds") Collection<String> userIds, @Param("delta") long delta);
+
+    @Modifying
+    @Query("update UserStats s set s.subscriptions = s.subscriptions + :delta where s.userId in :userIds")
+    int addSubscriptions(@Param("userIds") Collection<String> userIds, @Param("delta") long delta);
+
+    @Modifying
+    @Query("update UserStats s set s.videos = s.videos + :delta where s.userId = :userId")
+    int addVideos(@Param("userId") String userId, @Param("delta") long delta);
+
+    @Query("select v.user.id, count(v) from VideoEntity v where v.user.id in :userIds group by v.user.id")
+    List<Object[]> countVideos(@Param("userIds") Collection<String> userIds);
+
+    @Query("select u.id, u.authorities from UserEntity u where u.id in :userIds")
+    List<Object[]> findAuthorities(@Param("userIds") Collection<String> userIds);
+
+    @Query("select u.id from UserEntity u where u.id > :after order by u.id")
+    List<String> findUserIdsAfter(@Param("after") String after, Limit limit);
+
+    @Modifying
+    @Query("delete from UserStats s where s.userId not in (select u.id from UserEntity u)")
+    int deleteOrphans();
+}
@@ -0,0 +1,35 @@
+package com.artur.youtback.repository;
+
+import com.artur.common.entity.user.UserEntity;
+import com.artur.youtback.model.user.UserSummary;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.Optional;
+
+/**Queries of {@link UserSummary}, read by constructor expressions. Lists are paginated by keyset on user id.
+ */
+public interface UserSummaryRepository extends Repository<UserEntity, String> {
+    String SELECT_SUMMARY = "select new com.artur.youtback.model.user.UserSummary(u.id, u.username, u.email, u.picture, u.authorities, s.subscribers) ";
+
+    @Query(SELECT_SUMMARY + "from UserEntity u left join UserStats s on s.userId = u.id where u.id = :id")
+    Optional<UserSummary> findSummaryById(@Param("id") String id);
+
+    @Query(SELECT_SUMMARY + "from UserEntity u left join UserStats s on s.userId = u.id where u.id > :after order by u.id")
+    List<UserSummary> findPage(@Param("after") String after, Limit limit);
+
+    @Query(SELECT_SUMMARY + """
+            from UserEntity c join c.subscribers u left join UserStats s on s.userId = u.id
+            where c.id = :channelId and u.id > :after order by u.id
+            """)
+    List<UserSummary> findSubscribersPage(@Param("channelId") String channelId, @Param("after") String after, Limit limit);
+
+    @Query(SELECT_SUMMARY + """
+            from UserEntity c join c.subscribes u left join UserStats s on s.userId = u.id
+            where c.id = :userId and u.id > :after order by u.id
+            """)
+    List<UserSummary> findSubscriptionsPage(@Param("userId") String userId, @Param("after") String after, Limit limit);
+}
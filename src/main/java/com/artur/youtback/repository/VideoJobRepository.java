@@ -0,0 +1,65 @@
+package com.artur.youtback.repository;
+
+import com.artur.youtback.entity.VideoJob;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface VideoJobRepository extends JpaRepository<VideoJob, String> {
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+            update VideoJob j set j.status = com.artur.youtback.entity.VideoJob.Status.PROCESSING, j.videoId = :videoId, j.updatedAt = :now
+            where j.id = :id and j.status = com.artur.youtback.entity.VideoJob.Status.UPLOADED
+            """)
+    int markStored(@Param("id") String id, @Param("videoId") Long videoId, @Param("now") Instant now);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+            update VideoJob j set j.thumbnailPending = false, j.updatedAt = :now
+            where j.id = :id and j.status = com.artur.youtback.entity.VideoJob.Status.PROCESSING
+            """)
+    int markThumbnailProcessed(@Param("id") String id, @Param("now") Instant now);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+            update VideoJob j set j.videoPending = false, j.updatedAt = :now
+            where j.id = :id and j.status = com.artur.youtback.entity.VideoJob.Status.PROCESSING
+            """)
+    int markVideoProcessed(@Param("id") String id, @Param("now") Instant now);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+            update VideoJob j set j.status = com.artur.youtback.entity.VideoJob.Status.READY, j.updatedAt = :now
+            where j.id = :id and j.status = com.artur.youtback.entity.VideoJob.Status.PROCESSING
+            and j.thumbnailPending = false and j.videoPending = false
+            """)
+    int markReady(@Param("id") String id, @Param("now") Instant now);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("""
+            update VideoJob j set j.status = com.artur.youtback.entity.VideoJob.Status.FAILED, j.error = :error, j.updatedAt = :now
+            where j.id = :id and j.status in (com.artur.youtback.entity.VideoJob.Status.UPLOADED, com.artur.youtback.entity.VideoJob.Status.PROCESSING)
+            """)
+    int markFailed(@Param("id") String id, @Param("error") String error, @Param("now") Instant now);
+
+    @Query("""
+            select j.id from VideoJob j
+            where j.status in (com.artur.youtback.entity.VideoJob.Status.UPLOADED, com.artur.youtback.entity.VideoJob.Status.PROCESSING)
+            and j.updatedAt < :before order by j.updatedAt
+            """)
+    List<String> findStaleIds(@Param("before") Instant before, Limit limit);
+
+    @Modifying
+    @Query("""
+            delete from VideoJob j
+            where j.status in (com.artur.youtback.entity.VideoJob.Status.READY, com.artur.youtback.entity.VideoJob.Status.FAILED)
+            and j.updatedAt < :before
+            """)
+    int deleteFinished(@Param("before") Instant before);
+}
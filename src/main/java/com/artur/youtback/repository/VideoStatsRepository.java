@@ -0,0 +1,38 @@
+package com.artur.youtback.repository;
+
+import com.artur.youtback.entity.VideoStats;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface VideoStatsRepository extends JpaRepository<VideoStats, Long> {
+
+    @Modifying
+    @Query("update VideoStats s set s.likes = s.likes + :delta where s.videoId = :videoId")
+    int addLikes(@Param("videoId") Long videoId, @Param("delta") long delta);
+
+    /**Counts likes of specified videos from scratch and writes them, creating missing rows.
+     */
+    @Modifying
+    @Query(value = """
+            insert into video_stats (video_id, likes)
+            select v.id, (select count(*) from video_like l where l.video_id = v.id) from video_entity v where v.id in (:ids)
+            on duplicate key update likes = values(likes)
+            """, nativeQuery = true)
+    int recountLikes(@Param("ids") Collection<Long> ids);
+
+    @Query("select l.videoEntity.id, count(l) from Like l where l.videoEntity.id in :ids group by l.videoEntity.id")
+    List<Object[]> countLikes(@Param("ids") Collection<Long> ids);
+
+    @Query("select v.id from VideoEntity v where v.id > :after order by v.id")
+    List<Long> findVideoIdsAfter(@Param("after") Long after, Limit limit);
+
+    @Modifying
+    @Query(value = "delete s from video_stats s left join video_entity v on v.id = s.video_id where v.id is null", nativeQuery = true)
+    int deleteOrphans();
+}
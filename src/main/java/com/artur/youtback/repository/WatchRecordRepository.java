@@ -0,0 +1,39 @@
+package com.artur.youtback.repository;
+
+import com.artur.youtback.entity.WatchRecord;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface WatchRecordRepository extends JpaRepository<WatchRecord, Long> {
+
+    @Query("select r from WatchRecord r where r.userId = :userId order by r.watchedAt desc, r.id desc")
+    List<WatchRecord> findFirstPage(@Param("userId") String userId, Limit limit);
+
+    @Query("""
+            select r from WatchRecord r where r.userId = :userId
+            and (r.watchedAt < :watchedAt or (r.watchedAt = :watchedAt and r.id < :id))
+            order by r.watchedAt desc, r.id desc
+            """)
+    List<WatchRecord> findPageAfter(@Param("userId") String userId,
+                                    @Param("watchedAt") Instant watchedAt,
+                                    @Param("id") Long id,
+                                    Limit limit);
+
+    @Modifying
+    @Query(value = "delete from watch_record where watched_at < :before limit :limit", nativeQuery = true)
+    int deleteOlderThan(@Param("before") Instant before, @Param("limit") int limit);
+
+    @Modifying
+    @Query("delete from WatchRecord r where r.videoId = :videoId")
+    void deleteAllByVideoId(@Param("videoId") Long videoId);
+
+    @Modifying
+    @Query("delete from WatchRecord r where r.userId = :userId")
+    void deleteAllByUserId(@Param("userId") String userId);
+}
@@ -0,0 +1,104 @@
+package com.artur.youtback.schema;
+
+import com.artur.common.entity.Like;
+import com.artur.common.entity.VideoEntity;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**Creates indexes on tables of entities that are mapped in the common module, so that they can not be declared
+ * on the entities themselves. Names of tables and columns are taken from Hibernate mapping. Index is created only
+ * if index with the same name does not exist yet.
+ */
+@Component
+public class IndexInitializer {
+    private static final Logger logger = LoggerFactory.getLogger(IndexInitializer.class);
+    private static final String INDEX_EXISTS = """
+            select count(*) from information_schema.statistics
+            where table_schema = database() and table_name = ? and index_name = ?
+            """;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void createIndexes(){
+        AbstractEntityPersister video = persister(VideoEntity.class);
+        //keyset pagination of channel videos, see VideoSort
+        createIndex(video, "idx_video_user_views", "user", "views");
+        createIndex(video, "idx_video_user_upload_date", "user", "uploadDate");
+        //like is toggled by insert that ignores existing like, see UserLikeRepository
+        createUniqueIndex(persister(Like.class), "uk_video_like_user_video", "userEntity", "videoEntity");
+    }
+
+    /**Creates index on specified properties of the entity, followed by its id.
+     * @param persister persister of the entity
+     * @param name name of the index
+     * @param properties names of the properties
+     */
+    private void createIndex(AbstractEntityPersister persister, String name, String... properties){
+        String table = persister.getTableName();
+        List<String> columns = new ArrayList<>(columns(persister, properties));
+        columns.add(persister.getIdentifierColumnNames()[0]);
+        try {
+            if(exists(table, name)) return;
+            jdbcTemplate.execute("create index " + name + " on " + table + " (" + String.join(", ", columns) + ")");
+            logger.info("Created index {} on {} ({})", name, table, columns);
+        } catch (DataAccessException e){
+            logger.error("Could not create index " + name + " on " + table, e);
+        }
+    }
+
+    /**Creates unique index on specified properties of the entity. Duplicate rows, that could be inserted before
+     * the index existed, are removed first, keeping the earliest one.
+     * @param persister persister of the entity
+     * @param name name of the index
+     * @param properties names of the properties
+     */
+    private void createUniqueIndex(AbstractEntityPersister persister, String name, String... properties){
+        String table = persister.getTableName();
+        String id = persister.getIdentifierColumnNames()[0];
+        List<String> columns = columns(persister, properties);
+        try {
+            if(exists(table, name)) return;
+            String duplicate = columns.stream().map(column -> "d." + column + " = t." + column).collect(Collectors.joining(" and "));
+            int removed = jdbcTemplate.update("delete t from " + table + " t join " + table + " d on " + duplicate +
+                    " and d." + id + " < t." + id);
+            if(removed > 0) logger.warn("Removed {} duplicate rows of {} before creating index {}", removed, table, name);
+            jdbcTemplate.execute("create unique index " + name + " on " + table + " (" + String.join(", ", columns) + ")");
+            logger.info("Created unique index {} on {} ({})", name, table, columns);
+        } catch (DataAccessException e){
+            logger.error("Could not create index " + name + " on " + table, e);
+        }
+    }
+
+    private boolean exists(String table, String name){
+        Integer exists = jdbcTemplate.queryForObject(INDEX_EXISTS, Integer.class, table, name);
+        return exists != null && exists > 0;
+    }
+
+    private static List<String> columns(AbstractEntityPersister persister, String... properties){
+        return Arrays.stream(properties).map(property -> persister.getPropertyColumnNames(property)[0]).toList();
+    }
+
+    private AbstractEntityPersister persister(Class<?> entityClass){
+        return (AbstractEntityPersister) entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getMappingMetamodel()
+                .getEntityDescriptor(entityClass);
+    }
+}
@@ -0,0 +1,353 @@
+package com.artur.youtback.search;
+
+import org.springframework.lang.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**In-memory inverted index of video titles and descriptions ranked by BM25. Title terms are counted
+ * {@link #TITLE_WEIGHT} times, so that title matches rank above description matches. The last term of a query that does
+ * not end with a space is also matched as a prefix, so that results are shown while the user is typing. Videos are
+ * numbered by dense ordinals, so postings and scores are kept in primitive arrays. Ordinals of removed videos are reused,
+ * score arrays are reused between searches.
+ * Index is safe for concurrent use, searches share a read lock and updates take a write lock.
+ */
+public class InvertedIndex {
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int TITLE_WEIGHT = 3;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    /**Max amount of terms a query prefix is expanded to*/
+    private static final int MAX_PREFIX_TERMS = 32;
+    private static final double PREFIX_MATCH_WEIGHT = 0.5;
+
+    private final Map<Long, Integer> ordinals = new HashMap<>();
+    private final NavigableMap<String, Postings> postings = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**Zeroed score arrays, reused by searches so that an array per video is not allocated on every search*/
+    private final Queue<double[]> scratch = new ConcurrentLinkedQueue<>();
+    private long[] ids = new long[1024];
+    private int[] lengths = new int[1024];
+    private int[] fingerprints = new int[1024];
+    private String[][] terms = new String[1024][];
+    private int[] freeOrdinals = new int[64];
+    private int freeCount;
+    private int nextOrdinal;
+    private long totalLength;
+
+    /**Adds video to the index or replaces indexed one.
+     * @param id video id
+     * @param title video title
+     * @param description video description, can be null
+     * @param language language of the video, null if unknown
+     */
+    public void put(Long id, String title, @Nullable String description, @Nullable String language){
+        Map<String, Integer> frequencies = new HashMap<>();
+        Tokenizer.tokenize(title, language).forEach(term -> frequencies.merge(term, TITLE_WEIGHT, Integer::sum));
+        Tokenizer.tokenize(description, language).forEach(term -> frequencies.merge(term, 1, Integer::sum));
+        int fingerprint = fingerprint(title, description, language);
+        lock.writeLock().lock();
+        try {
+            removeDocument(id);
+            addDocument(id, frequencies, fingerprint);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long id){
+        lock.writeLock().lock();
+        try {
+            removeDocument(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**Finds videos that match any term of the query, the best matches first. Videos with equal score are ordered
+     * from the newest.
+     * @param query search query
+     * @param limit max amount of ids to return
+     * @return ids of found videos
+     */
+    public List<Long> search(String query, int limit){
+        List<String> queryTerms = Tokenizer.tokenize(query, null);
+        if(queryTerms.isEmpty() || limit <= 0) return List.of();
+        boolean prefix = !Character.isWhitespace(query.charAt(query.length() - 1));
+        lock.readLock().lock();
+        try {
+            if(ordinals.isEmpty()) return List.of();
+            double averageLength = (double) totalLength / ordinals.size();
+            double[] scores = scratch.poll();
+            if(scores == null || scores.length < nextOrdinal) scores = new double[ids.length];
+            Matches matches = new Matches();
+            try {
+                for (int i = 0; i < queryTerms.size(); i++) {
+                    String term = queryTerms.get(i);
+                    score(postings.get(term), 1, averageLength, scores, matches);
+                    if(prefix && i == queryTerms.size() - 1){
+                        int expanded = 0;
+                        for (Postings candidate : postings.subMap(term, false, term + Character.MAX_VALUE, false).values()) {
+                            if(++expanded > MAX_PREFIX_TERMS) break;
+                            score(candidate, PREFIX_MATCH_WEIGHT, averageLength, scores, matches);
+                        }
+                    }
+                }
+                return top(scores, matches, limit);
+            } finally {
+                for (int i = 0; i < matches.size; i++) {
+                    scores[matches.ordinals[i]] = 0;
+                }
+                scratch.offer(scores);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**Fingerprint of indexed text of the video, used to find out if the video has to be reindexed.
+     * @param id video id
+     * @return fingerprint or null if video is not indexed
+     */
+    @Nullable
+    public Integer fingerprint(Long id){
+        lock.readLock().lock();
+        try {
+            Integer ordinal = ordinals.get(id);
+            return ordinal == null ? null : fingerprints[ordinal];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static int fingerprint(String title, @Nullable String description, @Nullable String language){
+        return Objects.hash(title, description, language);
+    }
+
+    public Set<Long> ids(){
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(ordinals.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size(){
+        lock.readLock().lock();
+        try {
+            return ordinals.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**Writes the index, so that it can be read back by {@link #readFrom(DataInputStream)} without tokenizing texts again.
+     * Updates wait until the index is written.
+     * @param out output
+     * @throws IOException if writing failed
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(ordinals.size());
+            for (int ordinal : ordinals.values()) {
+                out.writeLong(ids[ordinal]);
+                out.writeInt(fingerprints[ordinal]);
+            }
+            out.writeInt(postings.size());
+            for (var entry : postings.entrySet()) {
+                Postings termPostings = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(termPostings.size);
+                for (int i = 0; i < termPostings.size; i++) {
+                    out.writeLong(ids[termPostings.ordinals[i]]);
+                    out.writeInt(termPostings.frequencies[i]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**Reads index written by {@link #writeTo(DataOutputStream)}.
+     * @param in input
+     * @return read index
+     * @throws IOException if reading failed or the index was written by an incompatible version
+     */
+    public static InvertedIndex readFrom(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if(version != SNAPSHOT_VERSION) throw new IOException("Unsupported snapshot version " + version);
+        int documents = in.readInt();
+        Map<Long, Integer> fingerprints = new HashMap<>(documents * 2);
+        for (int i = 0; i < documents; i++) {
+            fingerprints.put(in.readLong(), in.readInt());
+        }
+        Map<Long, Map<String, Integer>> frequencies = new HashMap<>(documents * 2);
+        int termCount = in.readInt();
+        for (int i = 0; i < termCount; i++) {
+            String term = in.readUTF();
+            int size = in.readInt();
+            for (int j = 0; j < size; j++) {
+                long id = in.readLong();
+                frequencies.computeIfAbsent(id, key -> new HashMap<>()).put(term, in.readInt());
+            }
+        }
+        InvertedIndex index = new InvertedIndex();
+        fingerprints.forEach((id, fingerprint) -> index.addDocument(id, frequencies.getOrDefault(id, Map.of()), fingerprint));
+        return index;
+    }
+
+    private void score(@Nullable Postings termPostings, double weight, double averageLength, double[] scores, Matches matches){
+        if(termPostings == null) return;
+        int n = ordinals.size();
+        int df = termPostings.size;
+        double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+        for (int i = 0; i < df; i++) {
+            int ordinal = termPostings.ordinals[i];
+            int frequency = termPostings.frequencies[i];
+            double norm = K1 * (1 - B + B * lengths[ordinal] / averageLength);
+            if(scores[ordinal] == 0) matches.add(ordinal);
+            scores[ordinal] += weight * idf * frequency * (K1 + 1) / (frequency + norm);
+        }
+    }
+
+    /**Selects best matches with a bounded min-heap of ordinals, so only {@code limit} matches are kept at once.
+     */
+    private List<Long> top(double[] scores, Matches matches, int limit){
+        int[] heap = new int[Math.min(limit, matches.size)];
+        int heapSize = 0;
+        for (int i = 0; i < matches.size; i++) {
+            int ordinal = matches.ordinals[i];
+            if(heapSize < heap.length){
+                heap[heapSize] = ordinal;
+                siftUp(heap, heapSize++, scores);
+            } else if(better(ordinal, heap[0], scores)){
+                heap[0] = ordinal;
+                siftDown(heap, heapSize, scores);
+            }
+        }
+        Long[] result = new Long[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            result[i] = ids[heap[0]];
+            heap[0] = heap[i];
+            siftDown(heap, i, scores);
+        }
+        return Arrays.asList(result);
+    }
+
+    private boolean better(int a, int b, double[] scores){
+        return scores[a] > scores[b] || (scores[a] == scores[b] && ids[a] > ids[b]);
+    }
+
+    private void siftUp(int[] heap, int index, double[] scores){
+        int ordinal = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if(!better(heap[parent], ordinal, scores)) break;
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = ordinal;
+    }
+
+    private void siftDown(int[] heap, int size, double[] scores){
+        int index = 0;
+        int ordinal = heap[0];
+        while (true) {
+            int child = 2 * index + 1;
+            if(child >= size) break;
+            if(child + 1 < size && better(heap[child], heap[child + 1], scores)) child++;
+            if(!better(ordinal, heap[child], scores)) break;
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = ordinal;
+    }
+
+    private void addDocument(Long id, Map<String, Integer> frequencies, int fingerprint){
+        int ordinal;
+        if(freeCount > 0){
+            ordinal = freeOrdinals[--freeCount];
+        } else {
+            ordinal = nextOrdinal++;
+            if(ordinal == ids.length){
+                int capacity = ids.length * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                fingerprints = Arrays.copyOf(fingerprints, capacity);
+                terms = Arrays.copyOf(terms, capacity);
+            }
+        }
+        int length = 0;
+        for (var entry : frequencies.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), term -> new Postings()).add(ordinal, entry.getValue());
+            length += entry.getValue();
+        }
+        ids[ordinal] = id;
+        lengths[ordinal] = length;
+        fingerprints[ordinal] = fingerprint;
+        terms[ordinal] = frequencies.keySet().toArray(String[]::new);
+        ordinals.put(id, ordinal);
+        totalLength += length;
+    }
+
+    private void removeDocument(Long id){
+        Integer ordinal = ordinals.remove(id);
+        if(ordinal == null) return;
+        for (String term : terms[ordinal]) {
+            Postings termPostings = postings.get(term);
+            if(termPostings == null) continue;
+            termPostings.remove(ordinal);
+            if(termPostings.size == 0) postings.remove(term);
+        }
+        totalLength -= lengths[ordinal];
+        terms[ordinal] = null;
+        if(freeCount == freeOrdinals.length) freeOrdinals = Arrays.copyOf(freeOrdinals, freeCount * 2);
+        freeOrdinals[freeCount++] = ordinal;
+    }
+
+    /**Ordinals of videos that contain the term and frequencies of the term in them, in no particular order*/
+    private static final class Postings {
+        private int[] ordinals = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+
+        void add(int ordinal, int frequency){
+            if(size == ordinals.length){
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            ordinals[size] = ordinal;
+            frequencies[size++] = frequency;
+        }
+
+        void remove(int ordinal){
+            for (int i = 0; i < size; i++) {
+                if(ordinals[i] == ordinal){
+                    size--;
+                    ordinals[i] = ordinals[size];
+                    frequencies[i] = frequencies[size];
+                    return;
+                }
+            }
+        }
+    }
+
+    /**Ordinals that got a score during the search, so that only they are ranked*/
+    private static final class Matches {
+        private int[] ordinals = new int[64];
+        private int size;
+
+        void add(int ordinal){
+            if(size == ordinals.length) ordinals = Arrays.copyOf(ordinals, size * 2);
+            ordinals[size++] = ordinal;
+        }
+    }
+}
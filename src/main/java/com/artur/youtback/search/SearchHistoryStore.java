@@ -0,0 +1,304 @@
+package com.artur.youtback.search;
+
+import com.artur.common.entity.SearchHistory;
+import com.artur.common.entity.user.UserEntity;
+import com.artur.youtback.utils.AppConstants;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.collection.AbstractCollectionPersister;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**Search history of users, kept as a ring of the latest {@link AppConstants#MAX_SEARCH_HISTORY_OPTIONS} options
+ * in a Redis list per user, the newest first. Adding an option removes its previous occurrence, pushes it to the head
+ * and trims the tail by a single script, so every write costs the same no matter how often user searches. Every list
+ * ends with {@link #LOADED_MARKER}, so that a user without history is distinguished from a user whose list is not
+ * loaded yet, list is loaded from the database on the first access.
+ * Changes are written to the database asynchronously: they are put in a bounded queue and drained by a scheduled
+ * worker, changes of the same option in the batch are coalesced and history of every user is trimmed to the capacity
+ * once per batch. If Redis is not available, history is read from the database.
+ */
+@Component
+public class SearchHistoryStore {
+    private static final Logger logger = LoggerFactory.getLogger(SearchHistoryStore.class);
+    private static final String KEY_PREFIX = "video-api:search-history:";
+    /**Blank options are not recorded, so this is never a search option*/
+    private static final String LOADED_MARKER = "";
+    private static final Duration KEY_TTL = Duration.ofHours(6);
+    private static final RedisScript<Long> PUSH = new DefaultRedisScript<>("""
+            if redis.call('exists', KEYS[1]) == 0 then return 0 end
+            redis.call('lrem', KEYS[1], 0, ARGV[1])
+            redis.call('lrem', KEYS[1], 0, ARGV[2])
+            redis.call('lpush', KEYS[1], ARGV[1])
+            redis.call('ltrim', KEYS[1], 0, tonumber(ARGV[3]) - 1)
+            redis.call('rpush', KEYS[1], ARGV[2])
+            redis.call('pexpire', KEYS[1], ARGV[4])
+            return 1
+            """, Long.class);
+    /**Loads the list unless it is already loaded, so a list loaded and pushed to meanwhile is not replaced*/
+    private static final RedisScript<Long> LOAD = new DefaultRedisScript<>("""
+            if redis.call('lindex', KEYS[1], -1) == ARGV[1] then return 0 end
+            redis.call('del', KEYS[1])
+            redis.call('rpush', KEYS[1], unpack(ARGV, 3))
+            redis.call('pexpire', KEYS[1], ARGV[2])
+            return 1
+            """, Long.class);
+
+    private final BlockingQueue<Change> queue;
+    private final int batchSize;
+    private final Counter droppedChanges;
+    /**Source of timestamps of changes, strictly increasing, so that options added within a millisecond keep their order*/
+    private final AtomicLong clock = new AtomicLong();
+
+    private String selectHistory;
+    private String updateDate;
+    private String deleteOption;
+    private String trimHistory;
+
+    @Autowired
+    StringRedisTemplate redisTemplate;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    public SearchHistoryStore(
+            @Value("${application.search-history.queue-capacity:100000}") int queueCapacity,
+            @Value("${application.search-history.batch-size:1000}") int batchSize,
+            MeterRegistry meterRegistry) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.droppedChanges = meterRegistry.counter("search.history.dropped");
+        Gauge.builder("search.history.queue", queue, Collection::size).register(meterRegistry);
+    }
+
+    /**Search history entity is mapped in the common module, so its table and columns are taken from Hibernate mapping.
+     */
+    @PostConstruct
+    void resolveTable(){
+        SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        AbstractCollectionPersister collection = (AbstractCollectionPersister) sessionFactory.getMappingMetamodel()
+                .getCollectionDescriptor(UserEntity.class.getName() + ".searchHistory");
+        AbstractEntityPersister entity = (AbstractEntityPersister) sessionFactory.getMappingMetamodel()
+                .getEntityDescriptor(SearchHistory.class);
+        String table = entity.getTableName();
+        String id = entity.getIdentifierColumnNames()[0];
+        String user = collection.getKeyColumnNames()[0];
+        String option = entity.getPropertyColumnNames("searchOption")[0];
+        String date = entity.getPropertyColumnNames("dateAdded")[0];
+        selectHistory = "select " + option + " from " + table + " where " + user + " = ? order by " + date + " desc, " + id + " desc";
+        updateDate = "update " + table + " set " + date + " = ? where " + user + " = ? and " + option + " = ?";
+        deleteOption = "delete from " + table + " where " + user + " = ? and " + option + " = ?";
+        trimHistory = "delete from " + table + " where " + user + " = ? and " + id + " not in (select " + id + " from (select " + id +
+                " from " + table + " where " + user + " = ? order by " + date + " desc, " + id + " desc limit ?) newest)";
+    }
+
+    /**Gets search history of the user, from the latest option.
+     * @param userId user id
+     * @return search options, empty if user has no history or does not exist
+     */
+    public List<String> get(String userId){
+        try {
+            List<String> history = redisTemplate.opsForList().range(KEY_PREFIX + userId, 0, -1);
+            if(history == null || history.isEmpty()) return load(userId);
+            return history.subList(0, history.size() - 1);
+        } catch (DataAccessException e){
+            logger.warn("Could not read search history of user {} from Redis: {}", userId, e.getMessage());
+            return read(userId);
+        }
+    }
+
+    /**Adds search option to the head of user`s history. If history contains the same option, it is moved to the head.
+     * The oldest option is removed if history is full. Blank options are ignored. User should exist.
+     * @param userId user id
+     * @param option search option
+     */
+    public void add(String userId, String option){
+        if(option.isBlank()) return;
+        String key = KEY_PREFIX + userId;
+        List<String> keys = List.of(key);
+        String capacity = String.valueOf(AppConstants.MAX_SEARCH_HISTORY_OPTIONS);
+        String ttl = String.valueOf(KEY_TTL.toMillis());
+        try {
+            if(!Long.valueOf(1).equals(redisTemplate.execute(PUSH, keys, option, LOADED_MARKER, capacity, ttl))){
+                load(userId);
+                redisTemplate.execute(PUSH, keys, option, LOADED_MARKER, capacity, ttl);
+            }
+        } catch (DataAccessException e){
+            logger.warn("Could not add search option of user {} to Redis, evicting history: {}", userId, e.getMessage());
+            evict(userId);
+        }
+        submit(new Change(userId, option, now(), false));
+    }
+
+    /**Removes search option from user`s history.
+     * @param userId user id
+     * @param option search option
+     * @return true if removed, false if history does not contain this option
+     */
+    public boolean remove(String userId, String option){
+        boolean removed;
+        try {
+            Long count = get(userId).contains(option) ? redisTemplate.opsForList().remove(KEY_PREFIX + userId, 0, option) : null;
+            removed = count != null && count > 0;
+        } catch (DataAccessException e){
+            logger.warn("Could not remove search option of user {} from Redis, evicting history: {}", userId, e.getMessage());
+            evict(userId);
+            removed = read(userId).contains(option);
+        }
+        if(removed) submit(new Change(userId, option, now(), true));
+        return removed;
+    }
+
+    /**Removes list of the user. Should be called when user is deleted, rows of the user are deleted with him.
+     * @param userId user id
+     */
+    public void evict(String userId){
+        try {
+            redisTemplate.delete(KEY_PREFIX + userId);
+        } catch (DataAccessException e){
+            logger.warn("Could not delete search history of user {} from Redis: {}", userId, e.getMessage());
+        }
+    }
+
+    /**Drains the queue batch by batch until it is empty.
+     */
+    @Scheduled(fixedDelayString = "${application.search-history.flush-interval:2000}")
+    public void flush(){
+        List<Change> batch = new ArrayList<>(batchSize);
+        while(queue.drainTo(batch, batchSize) > 0){
+            try {
+                write(batch);
+            } catch (Exception e){
+                logger.error("Could not write search history, " + batch.size() + " changes are lost", e);
+            }
+            batch.clear();
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown(){
+        flush();
+    }
+
+    private long now(){
+        return clock.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+    }
+
+    private void submit(Change change){
+        if(!queue.offer(change)){
+            droppedChanges.increment();
+            logger.warn("Search history queue is full, change of search option of user {} is dropped", change.userId());
+        }
+    }
+
+    /**Writes changes to the database in a single transaction. Options are inserted by the entity, all other statements
+     * are batched.
+     */
+    private void write(List<Change> batch){
+        Map<String, Change> latest = new LinkedHashMap<>();
+        for (Change change : batch) {
+            latest.put(change.userId() + '\n' + change.option(), change);
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            Set<String> users = new HashSet<>(entityManager.createQuery("select u.id from UserEntity u where u.id in :ids", String.class)
+                    .setParameter("ids", batch.stream().map(Change::userId).distinct().toList())
+                    .getResultList());
+            List<Change> added = new ArrayList<>();
+            List<Change> removed = new ArrayList<>();
+            for (Change change : latest.values()) {
+                if(!users.contains(change.userId())) continue;              //user was deleted meanwhile
+                (change.removed() ? removed : added).add(change);
+            }
+            if(!removed.isEmpty()){
+                jdbcTemplate.batchUpdate(deleteOption, removed, removed.size(), (ps, change) -> {
+                    ps.setString(1, change.userId());
+                    ps.setString(2, change.option());
+                });
+            }
+            if(added.isEmpty()) return;
+            List<Change> missing = new ArrayList<>();
+            int[] updated = Arrays.stream(updateDates(added)).flatMapToInt(Arrays::stream).toArray();
+            for (int i = 0; i < added.size(); i++) {
+                if(updated[i] == 0) missing.add(added.get(i));
+            }
+            if(!missing.isEmpty()){
+                for (Change change : missing) {
+                    entityManager.persist(new SearchHistory(null, change.option(), entityManager.getReference(UserEntity.class, change.userId())));
+                }
+                entityManager.flush();
+                updateDates(missing);
+            }
+            List<String> trimmed = added.stream().map(Change::userId).distinct().toList();
+            jdbcTemplate.batchUpdate(trimHistory, trimmed, trimmed.size(), (ps, userId) -> {
+                ps.setString(1, userId);
+                ps.setString(2, userId);
+                ps.setInt(3, AppConstants.MAX_SEARCH_HISTORY_OPTIONS);
+            });
+        });
+    }
+
+    private int[][] updateDates(List<Change> changes){
+        return jdbcTemplate.batchUpdate(updateDate, changes, changes.size(), (ps, change) -> {
+            ps.setLong(1, change.timestamp());
+            ps.setString(2, change.userId());
+            ps.setString(3, change.option());
+        });
+    }
+
+    /**Reads history of the user from the database. Duplicates written before the history was deduplicated are skipped.
+     */
+    private List<String> read(String userId){
+        LinkedHashSet<String> history = new LinkedHashSet<>(jdbcTemplate.queryForList(selectHistory, String.class, userId));
+        history.remove(LOADED_MARKER);
+        return history.stream().limit(AppConstants.MAX_SEARCH_HISTORY_OPTIONS).toList();
+    }
+
+    /**Loads history of the user from the database to Redis. If the list was loaded meanwhile, it is kept and returned.
+     */
+    private List<String> load(String userId){
+        List<String> history = read(userId);
+        String key = KEY_PREFIX + userId;
+        List<String> args = new ArrayList<>(history.size() + 3);
+        args.add(LOADED_MARKER);
+        args.add(String.valueOf(KEY_TTL.toMillis()));
+        args.addAll(history);
+        args.add(LOADED_MARKER);
+        if(Long.valueOf(1).equals(redisTemplate.execute(LOAD, List.of(key), args.toArray()))) return history;
+        List<String> loaded = redisTemplate.opsForList().range(key, 0, -1);
+        return loaded == null || loaded.isEmpty() ? history : loaded.subList(0, loaded.size() - 1);
+    }
+
+    /**Change of user`s search history waiting to be written to the database.
+     * @param timestamp time of the change in milliseconds, becomes date the option was added
+     * @param removed whether option was removed
+     */
+    private record Change(String userId, String option, long timestamp, boolean removed){}
+}
@@ -0,0 +1,95 @@
+package com.artur.youtback.search;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**Cache of search results of this instance. Only ids of found videos are cached, so entries stay small and videos are
+ * always converted with their current views and likes. Key consists of search mode, page, size and normalized query,
+ * so queries that differ in case or spaces share the entry. Every entry remembers the version of
+ * {@link VideoSearchIndex} it was found in, and is used only while the index has the same version. Index of every
+ * instance lags behind changes made by other instances until it is synchronized, so results are not shared between
+ * instances, otherwise one would serve results found in an index of another one. Amount of entries is limited by
+ * {@code application.search.cache.max-entries}, the least recently used entries are removed first. Hits and misses
+ * are counted by {@code search.cache.requests} meter.
+ */
+@Component
+public class SearchResultCache {
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+    private static final int MAX_QUERY_LENGTH = 200;
+
+    private final Map<String, Entry> entries;
+    private final Counter hits;
+    private final Counter misses;
+
+    @Autowired
+    VideoSearchIndex videoSearchIndex;
+
+    public SearchResultCache(@Value("${application.search.cache.max-entries:10000}") int maxEntries, MeterRegistry meterRegistry) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.hits = Counter.builder("search.cache.requests")
+                .tag("result", "hit")
+                .description("Search requests answered from the cache")
+                .register(meterRegistry);
+        this.misses = Counter.builder("search.cache.requests")
+                .tag("result", "miss")
+                .description("Search requests that were not cached")
+                .register(meterRegistry);
+    }
+
+    /**Gets cached ids of the page of search results, or searches them and caches.
+     * @param query search query
+     * @param mode search mode, for example whether search is fuzzy
+     * @param page page number
+     * @param size size of the page
+     * @param search search of ids of the page
+     * @return ids of found videos
+     */
+    public List<Long> get(String query, String mode, int page, int size, Supplier<List<Long>> search){
+        String key = mode + ":" + page + ":" + size + ":" + normalize(query);
+        long version = videoSearchIndex.version();
+        Entry cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+        }
+        if(cached != null && cached.version() == version){
+            hits.increment();
+            return cached.ids();
+        }
+        misses.increment();
+        List<Long> ids = List.copyOf(search.get());
+        synchronized (entries) {
+            entries.put(key, new Entry(version, ids));
+        }
+        return ids;
+    }
+
+    /**Query normalized the way search normalizes it. Trailing space is kept, because it turns off prefix matching
+     * of the last term.
+     */
+    private static String normalize(String query){
+        String normalized = SPACES.matcher(Tokenizer.normalize(query)).replaceAll(" ").strip();
+        if(!query.isEmpty() && Character.isWhitespace(query.charAt(query.length() - 1))) normalized += " ";
+        return normalized.length() > MAX_QUERY_LENGTH
+                ? normalized.substring(0, MAX_QUERY_LENGTH) + "#" + Integer.toHexString(normalized.hashCode())
+                : normalized;
+    }
+
+    /**@param version version of the index the ids were found in
+     * @param ids ids of found videos
+     */
+    private record Entry(long version, List<Long> ids){}
+}
@@ -0,0 +1,127 @@
+package com.artur.youtback.search;
+
+import com.artur.youtback.startup.StartupLoader;
+import com.artur.youtback.utils.KeysetScanner;
+import com.artur.youtback.utils.TransactionUtils;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**Autocomplete of search queries, backed by {@link SuggestionTrie}. Phrases are video titles and queries from users`
+ * search history, weighted by amount of videos with the title plus amount of users that searched the query.
+ * Created videos and searched queries are added to the trie as they come. Once the application is ready and then every
+ * {@code application.suggestions.rebuild-interval} ms the trie is built again from the database in the background
+ * and swapped, which drops deleted videos and keeps only {@code application.suggestions.max-phrases} heaviest phrases.
+ * Phrases added while the trie is rebuilt are added to the new trie as well.
+ */
+@Component
+public class SuggestionIndex {
+    private static final Logger logger = LoggerFactory.getLogger(SuggestionIndex.class);
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+    private static final int MAX_PHRASE_LENGTH = 100;
+    private static final int TITLES_CHUNK = 5000;
+
+    private final int maxPhrases;
+    private volatile SuggestionTrie trie;
+    private List<String> addedDuringRebuild;
+
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+    @Autowired
+    KeysetScanner keysetScanner;
+
+    public SuggestionIndex(@Value("${application.suggestions.max-phrases:100000}") int maxPhrases) {
+        this.maxPhrases = maxPhrases;
+        this.trie = new SuggestionTrie(maxPhrases);
+    }
+
+    /**Best completions of the prefix.
+     * @param prefix what user has typed so far
+     * @param limit max amount of completions, no more than {@link SuggestionTrie#TOP_K}
+     * @return completions, from the most popular
+     */
+    public List<String> suggest(String prefix, int limit){
+        String normalized = normalize(prefix);
+        //trailing space is kept, so that "gta " completes to the next word
+        if(!prefix.isEmpty() && Character.isWhitespace(prefix.charAt(prefix.length() - 1)) && !normalized.isEmpty()){
+            normalized += " ";
+        }
+        return trie.complete(normalized, limit);
+    }
+
+    /**Adds a phrase, after the current transaction commits.
+     * @param phrase video title or searched query
+     */
+    public void add(String phrase){
+        String normalized = normalize(phrase);
+        if(normalized.isEmpty()) return;
+        TransactionUtils.afterCommit(() -> {
+            synchronized (this){
+                trie.add(normalized, 1);
+                if(addedDuringRebuild != null) addedDuringRebuild.add(normalized);
+            }
+        });
+    }
+
+    /**Builds the trie again from the database. First built by {@link StartupLoader}.
+     */
+    @Scheduled(initialDelayString = "${application.suggestions.rebuild-interval:1800000}", fixedDelayString = "${application.suggestions.rebuild-interval:1800000}")
+    public void rebuild(){
+        long start = System.currentTimeMillis();
+        synchronized (this){
+            if(addedDuringRebuild != null) return;          //already being rebuilt
+            addedDuringRebuild = new ArrayList<>();
+        }
+        SuggestionTrie rebuilt = new SuggestionTrie(maxPhrases);
+        try {
+            Map<String, Long> weights = new HashMap<>();
+            loadTitles(weights);
+            transactionTemplate.executeWithoutResult(status -> entityManager.createQuery(
+                    "select s.searchOption, count(s) from SearchHistory s group by s.searchOption order by count(s) desc", Object[].class)
+                    .setMaxResults(maxPhrases)
+                    .getResultStream()
+                    .forEach(row -> {
+                        String phrase = normalize((String) row[0]);
+                        if(!phrase.isEmpty()) weights.merge(phrase, (Long) row[1], Long::sum);
+                    }));
+            weights.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                    .limit(maxPhrases)
+                    .forEach(entry -> rebuilt.add(entry.getKey(), entry.getValue()));
+        } catch (Exception e){
+            logger.error("Could not rebuild search suggestions", e);
+            synchronized (this){
+                addedDuringRebuild = null;
+            }
+            return;
+        }
+        synchronized (this){
+            addedDuringRebuild.forEach(phrase -> rebuilt.add(phrase, 1));
+            addedDuringRebuild = null;
+            trie = rebuilt;
+        }
+        logger.info("Rebuilt search suggestions of {} phrases in {} ms", rebuilt.size(), System.currentTimeMillis() - start);
+    }
+
+    private void loadTitles(Map<String, Long> weights){
+        keysetScanner.scan("select v.id, v.title from VideoEntity v where v.id > :after order by v.id", TITLES_CHUNK, row -> {
+            String phrase = normalize((String) row[1]);
+            if(!phrase.isEmpty()) weights.merge(phrase, 1L, Long::sum);
+        });
+    }
+
+    private static String normalize(String phrase){
+        String normalized = SPACES.matcher(Tokenizer.normalize(phrase)).replaceAll(" ").strip();
+        return normalized.length() > MAX_PHRASE_LENGTH ? normalized.substring(0, MAX_PHRASE_LENGTH).strip() : normalized;
+    }
+}
@@ -0,0 +1,213 @@
+package com.artur.youtback.search;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**Radix trie of search phrases with precomputed best completions. Every node keeps ids of up to {@link #TOP_K}
+ * phrases with the highest weight below it, so completions of a prefix are read from a single node without visiting
+ * the subtree. Weights only grow, so keeping top phrases up to date needs only the nodes on the path of the changed
+ * phrase. Amount of phrases is limited, phrases added after the limit is reached are ignored.
+ * Trie is safe for concurrent use, lookups share a read lock and updates take a write lock.
+ */
+public class SuggestionTrie {
+    public static final int TOP_K = 10;
+    private static final int[] NO_ENTRIES = new int[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final int maxPhrases;
+    private final Node root = new Node("");
+    private final Map<String, Integer> entries = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private String[] phrases = new String[256];
+    private long[] weights = new long[256];
+
+    /**@param maxPhrases max amount of phrases in the trie
+     */
+    public SuggestionTrie(int maxPhrases) {
+        this.maxPhrases = maxPhrases;
+    }
+
+    /**Adds weight to the phrase, adding the phrase if it is not in the trie yet.
+     * @param phrase normalized phrase, not empty
+     * @param weight weight to add, not negative
+     * @return false if phrase is new and the trie is full
+     */
+    public boolean add(String phrase, long weight){
+        lock.writeLock().lock();
+        try {
+            Integer entry = entries.get(phrase);
+            if(entry == null){
+                if(entries.size() >= maxPhrases) return false;
+                entry = entries.size();
+                if(entry == phrases.length){
+                    phrases = Arrays.copyOf(phrases, entry * 2);
+                    weights = Arrays.copyOf(weights, entry * 2);
+                }
+                phrases[entry] = phrase;
+                entries.put(phrase, entry);
+            }
+            weights[entry] += weight;
+            insert(phrase, entry);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**Best completions of the prefix, from the heaviest.
+     * @param prefix normalized prefix, empty prefix returns the heaviest phrases
+     * @param limit max amount of completions, no more than {@link #TOP_K}
+     * @return completions, empty if limit is not positive
+     */
+    public List<String> complete(String prefix, int limit){
+        if(limit <= 0) return List.of();
+        lock.readLock().lock();
+        try {
+            Node node = find(prefix);
+            if(node == null) return List.of();
+            int size = Math.min(limit, node.top.length);
+            List<String> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(phrases[node.top[i]]);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size(){
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**Node where the prefix ends, the prefix may end in the middle of its label.
+     */
+    private Node find(String prefix){
+        Node node = root;
+        int i = 0;
+        while (i < prefix.length()) {
+            Node child = node.child(prefix.charAt(i));
+            if(child == null) return null;
+            int common = commonPrefix(child.label, prefix, i);
+            if(i + common == prefix.length()) return child;
+            if(common < child.label.length()) return null;
+            node = child;
+            i += common;
+        }
+        return node;
+    }
+
+    private void insert(String phrase, int entry){
+        Node node = root;
+        node.offer(entry);
+        int i = 0;
+        while (i < phrase.length()) {
+            Node child = node.child(phrase.charAt(i));
+            if(child == null){
+                child = new Node(phrase.substring(i));
+                node.addChild(child);
+                child.offer(entry);
+                return;
+            }
+            int common = commonPrefix(child.label, phrase, i);
+            if(common < child.label.length()){
+                child = node.split(child, common);
+            }
+            child.offer(entry);
+            node = child;
+            i += common;
+        }
+    }
+
+    private static int commonPrefix(String label, String text, int from){
+        int max = Math.min(label.length(), text.length() - from);
+        int i = 0;
+        while (i < max && label.charAt(i) == text.charAt(from + i)) i++;
+        return i;
+    }
+
+    private final class Node {
+        private String label;
+        private Node[] children = NO_CHILDREN;
+        /**Entries with the highest weight below this node, from the heaviest*/
+        private int[] top = NO_ENTRIES;
+
+        private Node(String label) {
+            this.label = label;
+        }
+
+        private Node child(char first){
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char c = children[middle].label.charAt(0);
+                if(c < first) low = middle + 1;
+                else if(c > first) high = middle - 1;
+                else return children[middle];
+            }
+            return null;
+        }
+
+        private void addChild(Node child){
+            char first = child.label.charAt(0);
+            int index = 0;
+            while (index < children.length && children[index].label.charAt(0) < first) index++;
+            Node[] updated = new Node[children.length + 1];
+            System.arraycopy(children, 0, updated, 0, index);
+            updated[index] = child;
+            System.arraycopy(children, index, updated, index + 1, children.length - index);
+            children = updated;
+        }
+
+        /**Splits the label of the child at specified position, the new node takes place of the child.
+         * @return the new node
+         */
+        private Node split(Node child, int at){
+            Node middle = new Node(child.label.substring(0, at));
+            middle.top = child.top.clone();
+            middle.children = new Node[]{child};
+            child.label = child.label.substring(at);
+            for (int i = 0; i < children.length; i++) {
+                if(children[i] == child) children[i] = middle;
+            }
+            return middle;
+        }
+
+        /**Puts the entry in the top of this node if it is heavy enough. Weight of the entry has grown,
+         * so the entry can only move up.
+         */
+        private void offer(int entry){
+            int position = -1;
+            for (int i = 0; i < top.length; i++) {
+                if(top[i] == entry){
+                    position = i;
+                    break;
+                }
+            }
+            if(position < 0){
+                if(top.length < TOP_K){
+                    top = Arrays.copyOf(top, top.length + 1);
+                } else if(!heavier(entry, top[top.length - 1])){
+                    return;
+                }
+                position = top.length - 1;
+            }
+            while (position > 0 && heavier(entry, top[position - 1])) {
+                top[position] = top[position - 1];
+                position--;
+            }
+            top[position] = entry;
+        }
+
+        private boolean heavier(int a, int b){
+            return weights[a] > weights[b] || (weights[a] == weights[b] && phrases[a].compareTo(phrases[b]) < 0);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.artur.youtback.search;
+
+import org.springframework.lang.Nullable;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**Splits text into search terms. Text is normalized to NFKC and lower case, letters that are written in two ways
+ * are folded, so that "ё" and "е" or "ß" and "ss" give the same term. Ideographic text, which has no spaces between
+ * words, is split into overlapping pairs of characters. Stop words of the text`s language are dropped, unless the text
+ * consists of stop words only. Language is the one detected by {@link org.apache.tika.language.detect.LanguageDetector},
+ * if it is unknown, as for search queries, stop words of all supported languages are dropped.
+ */
+public final class Tokenizer {
+    private static final Pattern SEPARATOR = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    private static final Map<String, Set<String>> STOP_WORDS = Map.of(
+            "en", Set.of("a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "in", "is", "it", "of",
+                    "on", "or", "that", "the", "this", "to", "was", "with"),
+            "ru", Set.of("а", "в", "во", "да", "для", "до", "же", "за", "и", "из", "к", "как", "на", "не", "но",
+                    "о", "об", "от", "по", "с", "со", "то", "у", "что", "это"),
+            "uk", Set.of("а", "в", "від", "до", "з", "за", "і", "й", "на", "не", "та", "у", "що"),
+            "de", Set.of("das", "der", "die", "ein", "eine", "und", "in", "ist", "mit", "von", "zu"),
+            "fr", Set.of("de", "des", "du", "et", "la", "le", "les", "un", "une", "en", "au", "aux")
+    );
+    private static final Set<String> ALL_STOP_WORDS = STOP_WORDS.values().stream()
+            .flatMap(Set::stream)
+            .collect(Collectors.toUnmodifiableSet());
+
+    private Tokenizer() {}
+
+    /**Splits text into terms in order of their appearance, terms may repeat.
+     * @param text text, can be null
+     * @param language ISO 639-1 code of the text`s language, null if unknown
+     * @return terms
+     */
+    public static List<String> tokenize(@Nullable String text, @Nullable String language){
+        if(text == null || text.isBlank()) return List.of();
+        List<String> terms = new ArrayList<>();
+        for (String word : SEPARATOR.split(normalize(text))) {
+            if(word.isEmpty()) continue;
+            if(word.codePoints().anyMatch(Tokenizer::isIdeographic)){
+                addBigrams(word, terms);
+            } else {
+                terms.add(word);
+            }
+        }
+        Set<String> stopWords = language == null ? ALL_STOP_WORDS : STOP_WORDS.getOrDefault(language, Set.of());
+        List<String> filtered = terms.stream().filter(term -> !stopWords.contains(term)).toList();
+        return filtered.isEmpty() ? terms : filtered;
+    }
+
+    /**Normalizes text the same way terms are normalized, without splitting it.
+     * @param text text
+     * @return normalized text
+     */
+    public static String normalize(String text){
+        return Normalizer.normalize(text, Normalizer.Form.NFKC)
+                .toLowerCase(Locale.ROOT)
+                .replace('ё', 'е')
+                .replace("ß", "ss");
+    }
+
+    private static void addBigrams(String word, List<String> terms){
+        int[] codePoints = word.codePoints().toArray();
+        if(codePoints.length == 1){
+            terms.add(word);
+            return;
+        }
+        for (int i = 0; i < codePoints.length - 1; i++) {
+            terms.add(new String(codePoints, i, 2));
+        }
+    }
+
+    private static boolean isIdeographic(int codePoint){
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.THAI;
+    }
+}
@@ -0,0 +1,364 @@
+package com.artur.youtback.search;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**Typo-tolerant index of video titles. Titles are split into character trigrams of every word, padded with spaces,
+ * so that misspelled query still shares most trigrams with the title. Videos sharing enough trigrams with the query
+ * are candidates, the best candidates are ranked by edit distance between the query and the closest run of title words
+ * of the same length. Memory per video is fixed: title is cut to {@link #MAX_TITLE_LENGTH} characters and no more
+ * than {@link #MAX_TRIGRAMS} trigrams are kept. Trigrams are made of UTF-16 characters, so Cyrillic and Latin titles
+ * are handled the same way. Index is safe for concurrent use, searches share a read lock and updates take a write lock.
+ */
+public class TrigramIndex {
+    public static final int MAX_TITLE_LENGTH = 80;
+    public static final int MAX_TRIGRAMS = 64;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final Pattern SEPARATOR = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    /**Min share of query trigrams that candidate should contain*/
+    private static final double MIN_OVERLAP = 0.3;
+    /**Share of videos above which trigram is considered common*/
+    private static final double COMMON_TRIGRAM_SHARE = 0.1;
+    /**Max amount of candidates ranked by edit distance*/
+    private static final int MAX_CANDIDATES = 200;
+    /**Max amount of edits per character of the query*/
+    private static final double MAX_EDITS = 0.34;
+
+    private final Map<Long, Integer> ordinals = new HashMap<>();
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**Zeroed counters of shared trigrams, reused between searches*/
+    private final Queue<int[]> scratch = new ConcurrentLinkedQueue<>();
+    private long[] ids = new long[1024];
+    private String[] titles = new String[1024];
+    private long[][] trigrams = new long[1024][];
+    private int[] freeOrdinals = new int[64];
+    private int freeCount;
+    private int nextOrdinal;
+
+    /**Adds video to the index or replaces indexed one.
+     * @param id video id
+     * @param title video title
+     */
+    public void put(Long id, String title){
+        String normalized = normalize(title);
+        long[] titleTrigrams = trigrams(normalized);
+        lock.writeLock().lock();
+        try {
+            removeDocument(id);
+            addDocument(id, normalized, titleTrigrams);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long id){
+        lock.writeLock().lock();
+        try {
+            removeDocument(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**Finds videos which titles are close to the query, the closest first. Videos with equal distance are ordered
+     * by amount of shared trigrams, then from the newest.
+     * @param query search query, possibly misspelled
+     * @param limit max amount of ids to return
+     * @return ids of found videos
+     */
+    public List<Long> search(String query, int limit){
+        String normalized = normalize(query);
+        long[] queryTrigrams = trigrams(normalized);
+        if(queryTrigrams.length == 0 || limit <= 0) return List.of();
+        String[] queryWords = words(normalized);
+        String joinedQuery = String.join(" ", queryWords);
+        int maxDistance = Math.max(1, (int) (joinedQuery.length() * MAX_EDITS));
+        List<Candidate> candidates = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            //trigrams shared by a large part of videos say little about the match and cost the most, so they are skipped
+            //as long as there are enough rare trigrams left
+            List<Postings> queryPostings = new ArrayList<>(queryTrigrams.length);
+            for (long trigram : queryTrigrams) {
+                Postings trigramPostings = postings.get(trigram);
+                if(trigramPostings != null) queryPostings.add(trigramPostings);
+            }
+            queryPostings.sort(Comparator.comparingInt(trigramPostings -> trigramPostings.size));
+            int minShared = Math.max(1, (int) Math.ceil(queryTrigrams.length * MIN_OVERLAP));
+            int commonSize = Math.max(1, (int) (ordinals.size() * COMMON_TRIGRAM_SHARE));
+            int used = queryPostings.size();
+            while (used > minShared && queryPostings.get(used - 1).size > commonSize) used--;
+            minShared = Math.max(1, (int) Math.ceil(minShared * (double) used / queryTrigrams.length));
+            int[] shared = scratch.poll();
+            if(shared == null || shared.length < nextOrdinal) shared = new int[ids.length];
+            int[] matched = new int[64];
+            int matchedCount = 0;
+            try {
+                for (Postings trigramPostings : queryPostings.subList(0, used)) {
+                    for (int i = 0; i < trigramPostings.size; i++) {
+                        int ordinal = trigramPostings.ordinals[i];
+                        if(shared[ordinal]++ == 0){
+                            if(matchedCount == matched.length) matched = Arrays.copyOf(matched, matchedCount * 2);
+                            matched[matchedCount++] = ordinal;
+                        }
+                    }
+                }
+                //bounded min-heap of the best candidates, so that common trigrams do not turn every video into a candidate
+                int[] heap = new int[MAX_CANDIDATES];
+                int heapSize = 0;
+                for (int i = 0; i < matchedCount; i++) {
+                    int ordinal = matched[i];
+                    if(shared[ordinal] < minShared) continue;
+                    if(heapSize < heap.length){
+                        heap[heapSize] = ordinal;
+                        siftUp(heap, heapSize++, shared);
+                    } else if(better(ordinal, heap[0], shared)){
+                        heap[0] = ordinal;
+                        siftDown(heap, heapSize, shared);
+                    }
+                }
+                for (int i = 0; i < heapSize; i++) {
+                    candidates.add(new Candidate(heap[i], ids[heap[i]], shared[heap[i]]));
+                }
+            } finally {
+                for (int i = 0; i < matchedCount; i++) {
+                    shared[matched[i]] = 0;
+                }
+                scratch.offer(shared);
+            }
+            for (Candidate candidate : candidates) {
+                candidate.distance = distance(queryWords, joinedQuery, words(titles[candidate.ordinal]), maxDistance);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return candidates.stream()
+                .filter(candidate -> candidate.distance <= maxDistance)
+                .sorted(Comparator.comparingInt((Candidate candidate) -> candidate.distance)
+                        .thenComparing(Comparator.comparingInt(Candidate::shared).reversed())
+                        .thenComparing(Comparator.comparingLong(Candidate::id).reversed()))
+                .limit(limit)
+                .map(Candidate::id)
+                .toList();
+    }
+
+    private boolean better(int a, int b, int[] shared){
+        return shared[a] > shared[b] || (shared[a] == shared[b] && ids[a] > ids[b]);
+    }
+
+    private void siftUp(int[] heap, int index, int[] shared){
+        int ordinal = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if(!better(heap[parent], ordinal, shared)) break;
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = ordinal;
+    }
+
+    private void siftDown(int[] heap, int size, int[] shared){
+        int index = 0;
+        int ordinal = heap[0];
+        while (true) {
+            int child = 2 * index + 1;
+            if(child >= size) break;
+            if(child + 1 < size && better(heap[child], heap[child + 1], shared)) child++;
+            if(!better(ordinal, heap[child], shared)) break;
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = ordinal;
+    }
+
+    public int size(){
+        lock.readLock().lock();
+        try {
+            return ordinals.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**Writes normalized titles, trigrams are made again on reading.
+     * @param out output
+     * @throws IOException if writing failed
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(ordinals.size());
+            for (int ordinal : ordinals.values()) {
+                out.writeLong(ids[ordinal]);
+                out.writeUTF(titles[ordinal]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**Reads index written by {@link #writeTo(DataOutputStream)}.
+     * @param in input
+     * @return read index
+     * @throws IOException if reading failed or the index was written by an incompatible version
+     */
+    public static TrigramIndex readFrom(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if(version != SNAPSHOT_VERSION) throw new IOException("Unsupported snapshot version " + version);
+        TrigramIndex index = new TrigramIndex();
+        int documents = in.readInt();
+        for (int i = 0; i < documents; i++) {
+            long id = in.readLong();
+            String title = in.readUTF();
+            index.addDocument(id, title, trigrams(title));
+        }
+        return index;
+    }
+
+    private static String normalize(String text){
+        String normalized = Tokenizer.normalize(text).strip();
+        return normalized.length() > MAX_TITLE_LENGTH ? normalized.substring(0, MAX_TITLE_LENGTH) : normalized;
+    }
+
+    private static String[] words(String normalized){
+        return Arrays.stream(SEPARATOR.split(normalized)).filter(word -> !word.isEmpty()).toArray(String[]::new);
+    }
+
+    /**Distinct trigrams of every word padded with two spaces in front and one behind, so that the beginning of the word
+     * weighs more. No more than {@link #MAX_TRIGRAMS} first trigrams are returned.
+     */
+    private static long[] trigrams(String normalized){
+        Set<Long> result = new LinkedHashSet<>();
+        for (String word : words(normalized)) {
+            String padded = "  " + word + " ";
+            for (int i = 0; i + 3 <= padded.length() && result.size() < MAX_TRIGRAMS; i++) {
+                result.add(((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2));
+            }
+        }
+        return result.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**Edit distance between the query and the closest run of title words with the same amount of words.
+     */
+    private static int distance(String[] queryWords, String joinedQuery, String[] titleWords, int maxDistance){
+        if(titleWords.length <= queryWords.length){
+            return levenshtein(joinedQuery, String.join(" ", titleWords), maxDistance);
+        }
+        int best = Integer.MAX_VALUE;
+        for (int i = 0; i + queryWords.length <= titleWords.length && best > 0; i++) {
+            String window = String.join(" ", Arrays.copyOfRange(titleWords, i, i + queryWords.length));
+            best = Math.min(best, levenshtein(joinedQuery, window, maxDistance));
+        }
+        return best;
+    }
+
+    /**Levenshtein distance, computation stops as soon as the distance is known to exceed the max.
+     * @return distance or {@code max + 1} if it exceeds the max
+     */
+    static int levenshtein(String a, String b, int max){
+        if(Math.abs(a.length() - b.length()) > max) return max + 1;
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) previous[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if(rowMin > max) return max + 1;
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+
+    private void addDocument(long id, String title, long[] titleTrigrams){
+        int ordinal;
+        if(freeCount > 0){
+            ordinal = freeOrdinals[--freeCount];
+        } else {
+            ordinal = nextOrdinal++;
+            if(ordinal == ids.length){
+                int capacity = ids.length * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                titles = Arrays.copyOf(titles, capacity);
+                trigrams = Arrays.copyOf(trigrams, capacity);
+            }
+        }
+        for (long trigram : titleTrigrams) {
+            postings.computeIfAbsent(trigram, key -> new Postings()).add(ordinal);
+        }
+        ids[ordinal] = id;
+        titles[ordinal] = title;
+        trigrams[ordinal] = titleTrigrams;
+        ordinals.put(id, ordinal);
+    }
+
+    private void removeDocument(Long id){
+        Integer ordinal = ordinals.remove(id);
+        if(ordinal == null) return;
+        for (long trigram : trigrams[ordinal]) {
+            Postings trigramPostings = postings.get(trigram);
+            if(trigramPostings == null) continue;
+            trigramPostings.remove(ordinal);
+            if(trigramPostings.size == 0) postings.remove(trigram);
+        }
+        titles[ordinal] = null;
+        trigrams[ordinal] = null;
+        if(freeCount == freeOrdinals.length) freeOrdinals = Arrays.copyOf(freeOrdinals, freeCount * 2);
+        freeOrdinals[freeCount++] = ordinal;
+    }
+
+    private static final class Candidate {
+        private final int ordinal;
+        private final long id;
+        private final int shared;
+        private int distance;
+
+        private Candidate(int ordinal, long id, int shared) {
+            this.ordinal = ordinal;
+            this.id = id;
+            this.shared = shared;
+        }
+
+        private long id(){
+            return id;
+        }
+
+        private int shared(){
+            return shared;
+        }
+    }
+
+    /**Ordinals of videos that contain the trigram, in no particular order*/
+    private static final class Postings {
+        private int[] ordinals = new int[4];
+        private int size;
+
+        void add(int ordinal){
+            if(size == ordinals.length) ordinals = Arrays.copyOf(ordinals, size * 2);
+            ordinals[size++] = ordinal;
+        }
+
+        void remove(int ordinal){
+            for (int i = 0; i < size; i++) {
+                if(ordinals[i] == ordinal){
+                    ordinals[i] = ordinals[--size];
+                    return;
+                }
+            }
+        }
+    }
+}
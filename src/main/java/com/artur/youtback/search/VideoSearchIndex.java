@@ -0,0 +1,266 @@
+package com.artur.youtback.search;
+
+import com.artur.youtback.startup.StartupLoader;
+import com.artur.youtback.utils.KeysetScanner;
+import com.artur.youtback.utils.TransactionUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**Full-text search over titles and descriptions of all videos, backed by {@link InvertedIndex}, and typo-tolerant
+ * search over titles, backed by {@link TrigramIndex}. Created, updated and deleted videos are applied to both indexes
+ * after commit. When the component is created the indexes are read from the local snapshot, which is written every
+ * {@code application.search.snapshot-interval} ms when the indexes have changed, and once the application is ready
+ * they are synchronized with the database by {@link StartupLoader}. Synchronization compares fingerprints of indexed texts, so only changed
+ * videos are tokenized again. It is repeated every {@code application.search.sync-interval} ms to pick up changes
+ * made by other instances. Videos written after commit since the synchronization started are left as they are,
+ * since rows it has read may be older.
+ */
+@Component
+public class VideoSearchIndex {
+    private static final Logger logger = LoggerFactory.getLogger(VideoSearchIndex.class);
+    private static final int SYNC_CHUNK = 1000;
+
+    private volatile InvertedIndex index = new InvertedIndex();
+    private volatile TrigramIndex trigrams = new TrigramIndex();
+    private volatile boolean ready;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    /**Sequence number of the last write after commit by video id, kept until a synchronization started after it ends.
+     * Writes and synchronization of the same video are serialized by computing its entry*/
+    private final Map<Long, Long> written = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong version = new AtomicLong();
+
+    private final Path snapshotPath;
+
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+    @Autowired
+    KeysetScanner keysetScanner;
+
+    public VideoSearchIndex(@Value("${application.search.snapshot-path:search-index.snapshot}") String snapshotPath) {
+        this.snapshotPath = Path.of(snapshotPath);
+    }
+
+    /**Adds video to the index or reindexes it, after the current transaction commits.
+     * @param id video id
+     * @param title video title
+     * @param description video description, can be null
+     * @param language detected language of the video, can be null
+     */
+    public void index(Long id, String title, @Nullable String description, @Nullable String language){
+        TransactionUtils.afterCommit(() -> written.compute(id, (key, last) -> {
+            index.put(id, title, description, language);
+            trigrams.put(id, title);
+            changed();
+            return sequence.incrementAndGet();
+        }));
+    }
+
+    /**Removes video from the index, after the current transaction commits.
+     * @param id video id
+     */
+    public void remove(Long id){
+        TransactionUtils.afterCommit(() -> written.compute(id, (key, last) -> {
+            index.remove(id);
+            trigrams.remove(id);
+            changed();
+            return sequence.incrementAndGet();
+        }));
+    }
+
+    /**Finds videos by text, the most relevant first.
+     * @param query search query
+     * @param limit max amount of ids to return
+     * @return ids of found videos
+     */
+    public List<Long> search(String query, int limit){
+        return index.search(query, limit);
+    }
+
+    /**Finds videos which titles are close to the query, so that misspelled query still finds them.
+     * @param query search query
+     * @param limit max amount of ids to return
+     * @return ids of found videos, the closest first
+     */
+    public List<Long> searchFuzzy(String query, int limit){
+        return trigrams.search(query, limit);
+    }
+
+    /**Version of the index, which is incremented by every change of indexed videos, so results found in the index
+     * can be reused while it is the same.
+     */
+    public long version(){
+        return version.get();
+    }
+
+    /**@return true if the index was loaded from the snapshot or built from the database, false if it is still empty
+     */
+    public boolean isReady(){
+        return ready;
+    }
+
+    /**Reads the local snapshot before anything can be written to the indexes, so no write is lost by replacing them.
+     */
+    @PostConstruct
+    public void readSnapshot(){
+        if(Files.exists(snapshotPath)){
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(snapshotPath))))) {
+                InvertedIndex readIndex = InvertedIndex.readFrom(in);
+                trigrams = TrigramIndex.readFrom(in);
+                index = readIndex;
+                version.incrementAndGet();
+                ready = true;
+                logger.info("Read search index of {} videos from {}", index.size(), snapshotPath);
+            } catch (IOException e){
+                logger.warn("Could not read search index snapshot {}, building index from scratch: {}", snapshotPath, e.getMessage());
+            }
+        }
+    }
+
+    /**Brings the index in line with the database chunk by chunk. Videos which text has changed are reindexed,
+     * videos which do not exist anymore are removed. Videos written after commit since the synchronization started are
+     * skipped, and videos beyond the last scanned id are removed only if they are checked to be missing, so videos created
+     * meanwhile are kept. Video deleted
+     * by another instance while the synchronization is running can stay in the index until the next synchronization,
+     * so ids found in the index should be resolved against the database.
+     */
+    @Scheduled(initialDelayString = "${application.search.sync-interval:600000}", fixedDelayString = "${application.search.sync-interval:600000}")
+    public void sync(){
+        long start = System.currentTimeMillis();
+        long watermark = sequence.get();
+        Set<Long> existing = new HashSet<>();
+        AtomicInteger reindexed = new AtomicInteger();
+        long scanned;
+        try {
+            scanned = keysetScanner.scan("select v.id, v.title, v.description, m.language from VideoEntity v left join v.videoMetadata m " +
+                    "where v.id > :after order by v.id", SYNC_CHUNK, row -> {
+                Long id = (Long) row[0];
+                String title = (String) row[1];
+                String description = (String) row[2];
+                String language = (String) row[3];
+                existing.add(id);
+                written.compute(id, (key, last) -> {
+                    if(last != null && last > watermark) return last;
+                    Integer fingerprint = index.fingerprint(id);
+                    if(fingerprint == null || fingerprint != InvertedIndex.fingerprint(title, description, language)){
+                        index.put(id, title, description, language);
+                        trigrams.put(id, title);
+                        changed();
+                        reindexed.incrementAndGet();
+                    }
+                    return last;
+                });
+            });
+        } catch (Exception e){
+            logger.error("Could not synchronize search index with the database", e);
+            return;
+        }
+        List<Long> missing = new ArrayList<>();
+        List<Long> beyond = new ArrayList<>();
+        for (Long id : index.ids()) {
+            if(id > scanned) beyond.add(id);
+            else if(!existing.contains(id)) missing.add(id);
+        }
+        try {
+            missing.addAll(missing(beyond));
+        } catch (Exception e){
+            logger.warn("Could not check videos created after the search index synchronization: {}", e.getMessage());
+        }
+        AtomicInteger removed = new AtomicInteger();
+        for (Long id : missing) {
+            written.compute(id, (key, last) -> {
+                if(last != null && last > watermark) return last;
+                index.remove(id);
+                trigrams.remove(id);
+                changed();
+                removed.incrementAndGet();
+                return last;
+            });
+        }
+        written.values().removeIf(last -> last <= watermark);
+        ready = true;
+        logger.info("Synchronized search index of {} videos in {} ms, reindexed {}, removed {}",
+                existing.size(), System.currentTimeMillis() - start, reindexed.get(), removed.get());
+    }
+
+    /**Ids of indexed videos beyond the scanned ones, that do not exist. Such videos are either created after the scan
+     * or deleted before it.
+     */
+    private List<Long> missing(List<Long> ids){
+        List<Long> missing = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += SYNC_CHUNK) {
+            List<Long> chunk = ids.subList(from, Math.min(from + SYNC_CHUNK, ids.size()));
+            List<Long> found = transactionTemplate.execute(status -> entityManager.createQuery(
+                    "select v.id from VideoEntity v where v.id in :ids", Long.class)
+                    .setParameter("ids", chunk)
+                    .getResultList());
+            Set<Long> exists = found == null ? Set.of() : new HashSet<>(found);
+            for (Long id : chunk) {
+                if(!exists.contains(id)) missing.add(id);
+            }
+        }
+        return missing;
+    }
+
+    /**Writes the index to the local snapshot if it has changed since the last snapshot. Snapshot is written
+     * to a temporary file first and then moved, so that a crash never leaves a broken snapshot.
+     */
+    @Scheduled(initialDelayString = "${application.search.snapshot-interval:300000}", fixedDelayString = "${application.search.snapshot-interval:300000}")
+    public void snapshot(){
+        if(!ready || !dirty.getAndSet(false)) return;
+        try {
+            Path directory = snapshotPath.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, snapshotPath.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+                index.writeTo(out);
+                trigrams.writeTo(out);
+            } catch (IOException e){
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.trace("Wrote search index snapshot to {}", snapshotPath);
+        } catch (IOException e){
+            dirty.set(true);
+            logger.error("Could not write search index snapshot to " + snapshotPath, e);
+        }
+    }
+
+    @PreDestroy
+    public void snapshotOnShutdown(){
+        snapshot();
+    }
+
+    private void changed(){
+        version.incrementAndGet();
+        dirty.set(true);
+    }
+}
@@ -0,0 +1,356 @@
+package com.artur.youtback.service;
+
+import com.artur.common.exception.NotFoundException;
+import com.artur.objectstorage.service.ObjectStorageService;
+import com.artur.youtback.entity.UploadPart;
+import com.artur.youtback.entity.UploadSession;
+import com.artur.youtback.model.video.UploadStatus;
+import com.artur.youtback.model.video.VideoJobStatus;
+import com.artur.youtback.repository.UploadPartRepository;
+import com.artur.youtback.repository.UploadSessionRepository;
+import com.artur.youtback.utils.AppConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+
+/**Resumable uploads of videos. Client starts an upload session, uploads numbered parts of the video in any order
+ * and concurrently, checks which parts are received after a failure and uploads only the missing ones, then completes
+ * the upload. Every part is checked against its SHA-256 and stored as a separate object under
+ * {@link AppConstants#UPLOAD_PATH}, so parts are sent to {@link ObjectStorageService} in parallel as they arrive and any
+ * instance can receive any part. On completion parts are joined into a temporary file, the video is created from it
+ * by a job of {@link VideoJobService} and the parts are removed. Sessions not touched for
+ * {@code application.uploads.expiration-hours} are removed with their parts.
+ */
+@Service
+public class UploadService {
+    private static final Logger logger = LoggerFactory.getLogger(UploadService.class);
+    private static final int COLLECTION_CHUNK = 100;
+
+    @Value("${application.uploads.chunk-size:8388608}")
+    private int chunkSize;
+    @Value("${application.uploads.max-size:1073741824}")
+    private long maxSize;
+    @Value("${application.uploads.expiration-hours:24}")
+    private int expirationHours;
+
+    @Autowired
+    UploadSessionRepository uploadSessionRepository;
+    @Autowired
+    UploadPartRepository uploadPartRepository;
+    @Autowired
+    ObjectStorageService objectStorageService;
+    @Autowired
+    VideoJobService videoJobService;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    /**Starts a resumable upload.
+     * @param userId id of uploading user
+     * @param title video title
+     * @param description video description
+     * @param category video category
+     * @param size size of the video in bytes
+     * @return state of the new upload
+     * @throws IllegalArgumentException if size is not positive or exceeds the limit
+     */
+    public UploadStatus start(String userId, String title, String description, String category, long size) throws IllegalArgumentException{
+        if(size <= 0 || size > maxSize) throw new IllegalArgumentException("Size should be from 1 to " + maxSize + " bytes");
+        UploadSession session = new UploadSession();
+        session.setId(UUID.randomUUID().toString());
+        session.setUserId(userId);
+        session.setTitle(title);
+        session.setDescription(description);
+        session.setCategory(category);
+        session.setSize(size);
+        session.setChunkSize(chunkSize);
+        session.setStatus(UploadSession.Status.OPEN);
+        session.setCreatedAt(Instant.now());
+        session.setUpdatedAt(session.getCreatedAt());
+        uploadSessionRepository.save(session);
+        return status(session, List.of());
+    }
+
+    /**Gets state of the upload, so that client could continue it from the first missing part.
+     * @param userId id of uploading user
+     * @param uploadId upload id
+     * @return state of the upload
+     * @throws NotFoundException if upload not found or belongs to another user
+     */
+    public UploadStatus status(String userId, String uploadId) throws NotFoundException{
+        UploadSession session = find(userId, uploadId);
+        return status(session, uploadPartRepository.findAllBySessionId(uploadId));
+    }
+
+    /**Receives a part of the video. Part is streamed to {@link ObjectStorageService} under a key of its own while its
+     * size and checksum are computed, part that does not match is removed. Repeated upload of the same part replaces
+     * it only once it passed the checks, so a failed retry does not lose the part received before.
+     * @param userId id of uploading user
+     * @param uploadId upload id
+     * @param number part number, starting from 1
+     * @param content content of the part, does not close
+     * @param sha256 hex encoded SHA-256 of the part
+     * @return state of the upload
+     * @throws NotFoundException if upload not found or belongs to another user
+     * @throws IllegalArgumentException if part number is out of range, or size or checksum of the part do not match
+     * @throws IllegalStateException if the upload is completed
+     * @throws Exception if failed uploading to {@link ObjectStorageService}
+     */
+    public UploadStatus putPart(String userId, String uploadId, int number, InputStream content, String sha256) throws Exception{
+        UploadSession session = find(userId, uploadId);
+        if(session.getStatus() != UploadSession.Status.OPEN) throw new IllegalStateException("Upload is completed");
+        if(number < 1 || number > session.parts()){
+            throw new IllegalArgumentException("Part number should be from 1 to " + session.parts());
+        }
+        long expectedSize = session.partSize(number);
+        String key = partKey(uploadId, number);
+        DigestInputStream digestStream = new DigestInputStream(content, sha256());
+        BoundedInputStream bounded = new BoundedInputStream(digestStream, expectedSize + 1);
+        objectStorageService.putObject(bounded, key);
+        String actual = HexFormat.of().formatHex(digestStream.getMessageDigest().digest());
+        if(bounded.count != expectedSize || !actual.equalsIgnoreCase(sha256)){
+            objectStorageService.removeObject(key);
+            throw new IllegalArgumentException(bounded.count != expectedSize ?
+                    "Part " + number + " should be " + expectedSize + " bytes" :
+                    "Checksum of part " + number + " does not match");
+        }
+        Optional<String> previousKey = uploadPartRepository.findObjectKey(uploadId, number);
+        transactionTemplate.executeWithoutResult(status -> {
+            uploadPartRepository.upsert(uploadId, number, expectedSize, actual, key);
+            uploadSessionRepository.touch(uploadId, Instant.now());
+        });
+        if(previousKey.isPresent() && !previousKey.get().equals(key)){
+            try {
+                objectStorageService.removeObject(previousKey.get());
+            } catch (Exception e){
+                //left until the upload is removed
+                logger.warn("Could not remove replaced part {}: {}", previousKey.get(), e.getMessage());
+            }
+        }
+        return status(session, uploadPartRepository.findAllBySessionId(uploadId));
+    }
+
+    /**Completes the upload and starts a job of creating the video. The upload is switched to completing first, so
+     * only one of concurrent or retried completions creates the video, the others get the same job. Parts are joined
+     * into a temporary file, which is handed to the job with the thumbnail. Parts are removed once the job is started,
+     * the session is kept until it expires. If parts could not be joined, the upload can be completed again.
+     * @param userId id of uploading user
+     * @param uploadId upload id
+     * @param thumbnail video thumbnail
+     * @return state of the job of creating the video
+     * @throws NotFoundException if upload or user not found
+     * @throws IllegalStateException if not all parts are received, or the upload is being completed and its job
+     * is not started yet
+     * @throws java.util.concurrent.RejectedExecutionException if too many videos are being created
+     * @throws Exception if failed reading parts from {@link ObjectStorageService}
+     */
+    public VideoJobStatus complete(String userId, String uploadId, MultipartFile thumbnail) throws Exception{
+        UploadSession session = find(userId, uploadId);
+        if(session.getStatus() == UploadSession.Status.COMPLETING) return completion(userId, session);
+        List<UploadPart> parts = uploadPartRepository.findAllBySessionId(uploadId);
+        if(parts.size() != session.parts()){
+            throw new IllegalStateException("Received " + parts.size() + " of " + session.parts() + " parts");
+        }
+        String jobId = UUID.randomUUID().toString();
+        Integer marked = transactionTemplate.execute(status -> uploadSessionRepository.markCompleting(uploadId, jobId, Instant.now()));
+        if(marked == null || marked == 0){
+            //completed concurrently
+            return completion(userId, find(userId, uploadId));
+        }
+        Path joined = null;
+        Path thumbnailFile = null;
+        try {
+            videoJobService.open(jobId, userId);
+            joined = Files.createTempFile("video-upload-", ".tmp");
+            try(OutputStream outputStream = Files.newOutputStream(joined)) {
+                for (UploadPart part : parts) {
+                    try(InputStream inputStream = objectStorageService.getObject(part.getObjectKey())) {
+                        inputStream.transferTo(outputStream);
+                    }
+                }
+            }
+            if(Files.size(joined) != session.getSize()){
+                throw new IllegalStateException("Joined parts are " + Files.size(joined) + " bytes instead of " + session.getSize());
+            }
+            thumbnailFile = Files.createTempFile("video-thumbnail-", ".tmp");
+            thumbnail.transferTo(thumbnailFile.toFile());
+        } catch (Exception e){
+            if(joined != null) Files.deleteIfExists(joined);
+            if(thumbnailFile != null) Files.deleteIfExists(thumbnailFile);
+            videoJobService.abandon(jobId, "Could not join parts: " + e.getMessage());
+            reopen(uploadId, jobId);
+            throw e;
+        }
+        try {
+            videoJobService.start(jobId, userId, session.getTitle(), session.getDescription(), session.getCategory(),
+                    thumbnailFile, joined);
+        } catch (RejectedExecutionException e){
+            reopen(uploadId, jobId);
+            throw e;
+        }
+        removeParts(uploadId);
+        return videoJobService.status(userId, jobId);
+    }
+
+    /**Aborts the upload and removes received parts.
+     * @param userId id of uploading user
+     * @param uploadId upload id
+     * @throws NotFoundException if upload not found or belongs to another user
+     */
+    public void abort(String userId, String uploadId) throws NotFoundException{
+        find(userId, uploadId);
+        remove(List.of(uploadId));
+    }
+
+    /**Removes sessions that were not touched for {@code application.uploads.expiration-hours}, chunk by chunk.
+     */
+    @Scheduled(cron = "${application.uploads.collection-cron:0 20 * * * *}")
+    public void collectExpired(){
+        Instant before = Instant.now().minus(expirationHours, ChronoUnit.HOURS);
+        long removed = 0;
+        List<String> expired;
+        do {
+            expired = uploadSessionRepository.findExpiredIds(before, Limit.of(COLLECTION_CHUNK));
+            remove(expired);
+            removed += expired.size();
+        } while (expired.size() == COLLECTION_CHUNK);
+        if(removed > 0) logger.info("Removed {} expired uploads", removed);
+    }
+
+    /**Job of the upload which is being completed.
+     * @throws IllegalStateException if the job is not started yet
+     */
+    private VideoJobStatus completion(String userId, UploadSession session) throws IllegalStateException{
+        try {
+            return videoJobService.status(userId, session.getJobId());
+        } catch (NotFoundException e){
+            throw new IllegalStateException("Upload is being completed");
+        }
+    }
+
+    private void reopen(String uploadId, String jobId){
+        transactionTemplate.executeWithoutResult(status -> uploadSessionRepository.reopen(uploadId, jobId, Instant.now()));
+    }
+
+    /**Removes parts of the completed upload, the session is kept until it expires.
+     */
+    private void removeParts(String uploadId){
+        try {
+            objectStorageService.removeFolder(AppConstants.UPLOAD_PATH + uploadId);
+        } catch (Exception e){
+            logger.warn("Could not remove parts of upload {}: {}", uploadId, e.getMessage());
+        }
+        transactionTemplate.executeWithoutResult(status -> uploadPartRepository.deleteAllBySessionIds(List.of(uploadId)));
+    }
+
+    private UploadSession find(String userId, String uploadId) throws NotFoundException{
+        return uploadSessionRepository.findById(uploadId)
+                .filter(session -> session.getUserId().equals(userId))
+                .orElseThrow(() -> new NotFoundException("Upload not found"));
+    }
+
+    /**Removes sessions with their parts. Parts that could not be removed from {@link ObjectStorageService} are left,
+     * rows are removed anyway.
+     */
+    private void remove(List<String> uploadIds){
+        if(uploadIds.isEmpty()) return;
+        for (String uploadId : uploadIds) {
+            try {
+                objectStorageService.removeFolder(AppConstants.UPLOAD_PATH + uploadId);
+            } catch (Exception e){
+                logger.warn("Could not remove parts of upload {}: {}", uploadId, e.getMessage());
+            }
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            uploadPartRepository.deleteAllBySessionIds(uploadIds);
+            uploadSessionRepository.deleteAllById(uploadIds);
+        });
+    }
+
+    private static UploadStatus status(UploadSession session, List<UploadPart> parts){
+        List<Integer> received = parts.stream().map(UploadPart::getPartNumber).toList();
+        long offset = 0;
+        for (int i = 0; i < received.size() && received.get(i) == i + 1; i++) {
+            offset += session.partSize(i + 1);
+        }
+        return new UploadStatus(session.getId(), session.getSize(), session.getChunkSize(), session.parts(), offset, received,
+                session.getJobId());
+    }
+
+    /**Key of an attempt to upload the part, unique for every attempt.
+     */
+    private static String partKey(String uploadId, int number){
+        return AppConstants.UPLOAD_PATH + uploadId + "/" + String.format("%06d", number) + "-" + UUID.randomUUID();
+    }
+
+    private static MessageDigest sha256(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**Stream that ends after the limit and counts bytes read, so that an oversized part is detected
+     * without reading all of it.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(count >= limit) return -1;
+            int read = super.read();
+            if(read >= 0) count++;
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(count >= limit) return -1;
+            int read = super.read(b, off, (int) Math.min(len, limit - count));
+            if(read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            return 0;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            //content is closed by the caller
+        }
+    }
+}
@@ -2,50 +2,76 @@ package com.artur.youtback.service;
 
 import com.artur.youtback.converter.UserConverter;
 import com.artur.youtback.converter.VideoConverter;
-import com.artur.common.entity.Like;
-import com.artur.common.entity.SearchHistory;
+import com.artur.youtback.counter.LikeCounter;
+import com.artur.youtback.counter.UserCounter;
 import com.artur.common.entity.VideoEntity;
 import com.artur.common.entity.user.UserEntity;
-import com.artur.common.entity.user.WatchHistory;
 import com.artur.common.exception.NotFoundException;
+import com.artur.youtback.entity.UserStats;
+import com.artur.youtback.entity.WatchRecord;
 import com.artur.youtback.exception.AlreadyExistException;
 import com.artur.youtback.http.client.ImageUploadHttpClient;
+import com.artur.youtback.leaderboard.Leaderboard;
+import com.artur.youtback.leaderboard.RankingSnapshots;
+import com.artur.youtback.leaderboard.VideoLeaderboards;
+import com.artur.youtback.stats.Column;
+import com.artur.youtback.stats.VideoStatsSnapshot;
+import com.artur.youtback.like.LikedVideoIndex;
+import com.artur.youtback.loader.VideoLoader;
+import com.artur.youtback.search.SearchHistoryStore;
+import com.artur.youtback.search.SuggestionIndex;
+import com.artur.youtback.model.CursorPage;
 import com.artur.youtback.model.user.User;
+import com.artur.youtback.model.user.UserSummary;
 import com.artur.youtback.model.user.UserCreateRequest;
 import com.artur.youtback.model.user.UserUpdateRequest;
+import com.artur.youtback.model.video.LikeState;
 import com.artur.youtback.model.video.Video;
 import com.artur.common.repository.*;
+import com.artur.youtback.repository.UserLikeRepository;
+import com.artur.youtback.repository.UserSummaryRepository;
 import com.artur.objectstorage.service.ObjectStorageService;
 import com.artur.youtback.sort.VideoSort;
+import com.artur.youtback.subscription.SubscriptionGraph;
 import com.artur.youtback.utils.*;
-import com.artur.youtback.utils.comparators.SearchHistoryComparator;
+import com.artur.youtback.watch.WatchHistoryStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CompoundSelection;
 import jakarta.persistence.criteria.CriteriaBuilder;
 import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Expression;
 import jakarta.persistence.criteria.Predicate;
 import jakarta.persistence.criteria.Root;
 import jakarta.transaction.Transactional;
+import org.hibernate.query.criteria.JpaEntityJoin;
+import org.hibernate.query.criteria.JpaRoot;
+import org.hibernate.query.sqm.tree.SqmJoinType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.data.domain.Limit;
 import org.springframework.kafka.requestreply.ReplyingKafkaTemplate;
 import org.springframework.lang.Nullable;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.File;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 
 @Service
@@ -58,12 +84,10 @@ public class UserService {
     @Autowired
     UserRepository userRepository;
     @Autowired
-    SearchHistoryRepository searchHistoryRepository;
+    SearchHistoryStore searchHistoryStore;
     @Autowired
     VideoRepository videoRepository;
     @Autowired
-    LikeRepository likeRepository;
-    @Autowired
     UserMetadataRepository userMetadataRepository;
     @Autowired
     EntityManager entityManager;
@@ -81,16 +105,51 @@ public class UserService {
     ImageService imageService;
     @Autowired
     ImageUploadHttpClient imageUploadHttpClient;
+    @Autowired
+    WatchHistoryStore watchHistoryStore;
+    @Autowired
+    LikeCounter likeCounter;
+    @Autowired
+    UserLikeRepository userLikeRepository;
+    @Autowired
+    LikedVideoIndex likedVideoIndex;
+    @Autowired
+    SubscriptionGraph subscriptionGraph;
+    @Autowired
+    UserSummaryRepository userSummaryRepository;
+    @Autowired
+    VideoLoader videoLoader;
+    @Autowired
+    SuggestionIndex suggestionIndex;
+    @Autowired
+    VideoLeaderboards videoLeaderboards;
+    @Autowired
+    RankingSnapshots rankingSnapshots;
+    @Autowired
+    VideoStatsSnapshot videoStatsSnapshot;
+    @Autowired
+    UserCounter userCounter;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+    @Autowired
+    ObjectMapper objectMapper;
 
 
-    public List<User> findAll() throws NotFoundException {
-        List<User> userList = userRepository.findAll().stream().map(
-                userConverter::convertToModel
-        ).toList();
-        if(userList.isEmpty()) throw new NotFoundException("No users was found");
-        return userList;
+    /**Gets page of all users, ordered by id.
+     * @param cursor cursor returned with the previous page, null for the first page
+     * @param size max amount of users in the page
+     * @return users and cursor of the next page
+     * @throws IllegalArgumentException if cursor is malformed
+     */
+    public CursorPage<UserSummary> findAll(@Nullable String cursor, int size) throws IllegalArgumentException {
+        return summaryPage(userSummaryRepository.findPage(afterUserId(cursor), Limit.of(size)), size);
     }
 
+    /**Gets user without his videos, see {@link UserConverter#convertToModel(UserEntity)}.
+     * @param id user id
+     * @return user
+     * @throws NotFoundException if user not found
+     */
     public User findById(String id) throws NotFoundException {
         Optional<UserEntity> optionalUserEntity = userRepository.findById(id);
         if(optionalUserEntity.isEmpty()) throw new NotFoundException("User not Found");
@@ -98,32 +157,113 @@ public class UserService {
         return userConverter.convertToModel(optionalUserEntity.get());
     }
 
+    /**Gets profile of the user, without his videos and search history. Profile is read by a single query
+     * regardless of size of the channel.
+     * @param id user id
+     * @return user profile
+     * @throws NotFoundException if user not found
+     */
+    public UserSummary getSummary(String id) throws NotFoundException {
+        UserSummary summary = userSummaryRepository.findSummaryById(id).orElseThrow(() -> new NotFoundException("User not Found"));
+        return withSubscriberCounts(List.of(summary)).getFirst();
+    }
+
+    /**Gets user`s search history, from the latest search option.
+     * @param userId user id
+     * @return search options
+     * @throws NotFoundException if user not found
+     */
+    public List<String> getSearchHistory(String userId) throws NotFoundException {
+        List<String> history = searchHistoryStore.get(userId);
+        if(history.isEmpty() && !userRepository.existsById(userId)) throw new NotFoundException("User not Found");
+        return history;
+    }
+
     /**
-     * Find all user videos. Can be sorted by specified sort option, that can be null.
-     * If null, result would be sorted by upload date.
+     * Find page of user videos. Videos are sorted by specified sort option in the database and paginated by keyset
+     * of the sort key and video id, so every page costs the same regardless of size of the channel.
+     * If sort option is null, result would be sorted by upload date, from the newest.
      * @param userId user id
      * @param videoSort sort option, can be null.
-     * @return List of founded videos.
+     * @param cursor cursor returned with the previous page, null for the first page
+     * @param size max amount of videos in the page
+     * @return founded videos and cursor of the next page.
      * @throws NotFoundException if user with specified id was not found.
+     * @throws IllegalArgumentException if cursor is malformed
      */
-    public List<Video> getAllUserVideos(String userId, @Nullable VideoSort videoSort) throws NotFoundException {
-        UserEntity userEntity = userRepository.findById(userId).orElseThrow(() -> new NotFoundException("User not found"));
-        if(videoSort != null){
-            return userEntity.getUserVideos().stream().sorted(VideoSort.getComparator(videoSort)).map(videoConverter::convertToModel).toList();
+    public CursorPage<Video> getUserVideos(String userId, @Nullable VideoSort videoSort, @Nullable String cursor, int size) throws NotFoundException, IllegalArgumentException {
+        if(!userRepository.existsById(userId)) throw new NotFoundException("User not found");
+        VideoSort sort = videoSort == null ? VideoSort.BY_UPLOAD_DATE_FROM_NEWEST : videoSort;
+        String direction = sort.isDescending() ? " desc" : " asc";
+        String comparison = sort.isDescending() ? " < " : " > ";
+        StringBuilder jpql = new StringBuilder("select v from VideoEntity v join fetch v.videoMetadata m join fetch v.user u where u.id = :userId");
+        if(cursor != null){
+            jpql.append(" and (").append(sort.path()).append(comparison).append(":key or (")
+                    .append(sort.path()).append(" = :key and v.id").append(comparison).append(":id))");
         }
-
-        return userEntity.getUserVideos().stream().map(videoConverter::convertToModel).toList();
+        jpql.append(" order by ").append(sort.path()).append(direction).append(", v.id").append(direction);
+        TypedQuery<VideoEntity> query = entityManager.createQuery(jpql.toString(), VideoEntity.class)
+                .setParameter("userId", userId)
+                .setMaxResults(size);
+        if(cursor != null){
+            String[] keys = CursorUtils.decode(cursor, 2);
+            query.setParameter("key", sort.keyParameter(Long.parseLong(keys[0])))
+                    .setParameter("id", Long.parseLong(keys[1]));
+        }
+        List<VideoEntity> videos = query.getResultList();
+        String next = videos.size() < size ? null : CursorUtils.encode(sort.keyOf(videos.getLast()), videos.getLast().getId());
+        return new CursorPage<>(videoConverter.convertToModels(videos), next);
     }
 
 
-    /**Find users by specified options in {@link Tools} class. Converts result into List of DTO.
+    /**Finds page of users by specified options, see {@link Tools#filter(CriteriaQuery, List, List, CriteriaBuilder)}.
+     * Users are read as summaries, so their videos and search history are not loaded. Users are ordered by id
+     * and paginated by keyset of id. If MOST_SUBSCRIBERS is specified, users are ranked by amount of subscribers and
+     * paginated by position in the ranking frozen by {@link RankingSnapshots} when the first page was read, so changes
+     * of subscribers do not skip or repeat users. No more than {@link AppConstants#MAX_RANKING_SIZE} users are ranked,
+     * users deleted after the ranking was frozen are skipped.
      * @param options options to search by. Options specified in {@link com.artur.youtback.utils.FindOptions.UserOptions}
      * @param values values for the options, can be null. Range should be indicated like "1/100" for range from 1 to 100.
-     * @return List of users founded by specified options
+     * @param cursor cursor returned with the previous page, null for the first page
+     * @param size max amount of users in the page
+     * @return users founded by specified options and cursor of the next page
+     * @throws IllegalArgumentException if range is specified incorrectly, cursor is malformed or ranking has expired
+     */
+    public CursorPage<UserSummary> findByOption(List<String> options, List<String> values, @Nullable String cursor, int size)throws IllegalArgumentException{
+        Tools.Ranking ranking = Tools.ranking(options, values, entityManager);
+        if(ranking == null){
+            return summaryPage(entityManager.createQuery(Tools.prepare(options, values, entityManager, afterUserId(cursor)))
+                    .setMaxResults(size)
+                    .getResultList(), size);
+        }
+        CursorPage<UserSummary> page = rankedPage(ranking, cursor, size);
+        return new CursorPage<>(withSubscriberCounts(page.items()), page.next());
+    }
+
+    /**Streams all users found by specified options as newline delimited JSON. Users are read page by page,
+     * every page in its own transaction, so memory used does not depend on amount of found users.
+     * Options are validated before anything is written.
+     * @param options options to search by. Options specified in {@link com.artur.youtback.utils.FindOptions.UserOptions}
+     * @param values values for the options
+     * @return body that writes found users
      * @throws IllegalArgumentException if range is specified incorrectly
      */
-    public List<User> findByOption(List<String> options, List<String> values)throws IllegalArgumentException{
-        return Tools.findByOption(options, values, entityManager).stream().map(userConverter::convertToModel).toList();
+    public StreamingResponseBody export(List<String> options, List<String> values) throws IllegalArgumentException{
+        Tools.ranking(options, values, entityManager);
+        return outputStream -> {
+            String cursor = null;
+            do {
+                String after = cursor;
+                CursorPage<UserSummary> page = Objects.requireNonNull(transactionTemplate.execute(status ->
+                        findByOption(options, values, after, AppConstants.EXPORT_CHUNK_SIZE)));
+                for (UserSummary summary : page.items()) {
+                    outputStream.write(objectMapper.writeValueAsBytes(summary));
+                    outputStream.write('\n');
+                }
+                outputStream.flush();
+                cursor = page.next();
+            } while (cursor != null);
+        };
     }
 
     /** Indicates that the specified video is not interesting for user. Takes category of this video and
@@ -154,7 +294,11 @@ public class UserService {
         if(!userEntity.getEmail().contains(id)){
             throw new Exception("Allowed to delete only dummy users");
         }
+        watchHistoryStore.deleteByUser(id);
+        subscriptionGraph.removeUser(id);
         userRepository.delete(userEntity);
+        likedVideoIndex.evict(id);
+        searchHistoryStore.evict(id);
         objectStorageService.removeFolder(AppConstants.USER_PATH + userEntity.getId());
         logger.info("User with id {} successfully deleted" , id);
     }
@@ -222,62 +366,51 @@ public class UserService {
                 authorities
         );
         userRepository.save(userEntity);
+        userCounter.create(id, authorities);
         return userConverter.convertToModel(userEntity);
     }
 
-    /**Adds search option in search history. Removes extra options if there are more than specified
-     *  in {@code MAX_SEARCH_HISTORY_OPTIONS}. If contains the same search option, updates date of this option
+    /**Adds search option in search history, kept by {@link SearchHistoryStore} as a ring of
+     * {@code MAX_SEARCH_HISTORY_OPTIONS} options. If contains the same search option, moves it to the top, otherwise
+     * removes the oldest option if history is full. History is written to the database asynchronously.
      * @param id user id
      * @param searchOption search option. Anything that user searched.
      * @throws NotFoundException if user with this id was not found.
      */
     public void addSearchOption(String id, String searchOption) throws NotFoundException {
-        UserEntity userEntity = userRepository.findById(id).orElseThrow(() ->  new NotFoundException("User not found"));
-        if(userEntity.getSearchHistory() == null) userEntity.setSearchHistory(new ArrayList<>());                               //if adding at the first time
-
-        List<SearchHistory> searchHistoryList = userEntity.getSearchHistory();
-        /*if we have the same value, we have to update date added in database*/
-        for (SearchHistory searchHistory: searchHistoryList) {
-            if(searchHistory.getSearchOption().equals(searchOption)){
-                searchHistory.setDateAdded();
-                searchHistoryRepository.save(searchHistory);
-            }
-        }
-        /*remove extra option*/
-
-        if(searchHistoryList.size() > AppConstants.MAX_SEARCH_HISTORY_OPTIONS - 1){
-            /*sorting list by date added and deleting the latest by his id*/
-            searchHistoryRepository.deleteById(searchHistoryList.stream().sorted(new SearchHistoryComparator()).toList().get(AppConstants.MAX_SEARCH_HISTORY_OPTIONS - 1).getId());
-        }
-        searchHistoryRepository.save(new SearchHistory(null, searchOption, userEntity));
+        if(!userRepository.existsById(id)) throw new NotFoundException("User not found");
+        searchHistoryStore.add(id, searchOption);
+        suggestionIndex.add(searchOption);
     }
 
 
-    /**Likes a video. If like already exists, remove this like, otherwise add.
+    /**Likes a video. If like already exists, remove this like, otherwise add. Like is toggled by a single insert
+     * that ignores existing like, followed by a single delete if nothing was inserted, so user`s and video`s likes are
+     * never loaded and nothing is locked but the like itself. Unique index of user and video makes concurrent toggles
+     * of the same like take turns, so the same video can not be liked twice.
      * @param userId user that likes video
      * @param videoId video that liked user
+     * @return whether video is liked after the toggle and its amount of likes
      * @throws NotFoundException if user or video not found
      */
-    @CachePut(value = "video", key = "#videoId")
-    public Video likeVideo(String userId, Long videoId) throws NotFoundException {
-        UserEntity userEntity = userRepository.findById(userId).orElseThrow(() -> new NotFoundException("User not found"));
-        VideoEntity videoEntity = videoRepository.findById(videoId).orElseThrow(() -> new NotFoundException("Video not found"));
-        Set<Like> likedVideos = userEntity.getLikes();
-        //we cant use contains() because we don't have like's id
-        Optional<Like> optionalLike = likedVideos.stream().filter(like -> like.getVideoEntity().getId().equals(videoId)).findFirst();
-        if(optionalLike.isEmpty()){
-            Like like = Like.create(userEntity, videoEntity);
-            videoEntity.getLikes().add(like);
-            userEntity.getLikes().add(like);
-            likeRepository.save(like);
-        }
-        else {
-            Like like = optionalLike.get();
-            like.getUserEntity().getLikes().remove(like);
-            like.getVideoEntity().getLikes().remove(like);
-            likeRepository.delete(like);
+    @CacheEvict(value = "video", key = "#videoId")
+    @Transactional
+    public LikeState likeVideo(String userId, Long videoId) throws NotFoundException {
+        boolean liked;
+        if(userLikeRepository.insertLike(userId, videoId, Instant.now()) > 0){
+            likeCounter.increment(videoId);
+            liked = true;
+        } else if(userLikeRepository.deleteLike(userId, videoId) > 0){
+            likeCounter.decrement(videoId);
+            liked = false;
+        } else {
+            throw new NotFoundException(userRepository.existsById(userId) ? "Video not found" : "User not found");
         }
-        return videoConverter.convertToModel(videoEntity);
+        likedVideoIndex.onToggle(userId, videoId, liked);
+        LikeState likeState = new LikeState(liked, likeCounter.count(videoId));
+        videoLeaderboards.offer(Leaderboard.LIKES, videoId, likeState.likes());
+        videoStatsSnapshot.update(videoId, Column.LIKES, likeState.likes());
+        return likeState;
     }
 
     /**Dislike this video. If liked, removes it.
@@ -285,53 +418,82 @@ public class UserService {
      * @param videoId video id that disliked by user.
      * @throws NotFoundException - if user or video not found
      */
+    @CacheEvict(value = "video", key = "#videoId")
+    @Transactional
     public void dislikeVideo(String userId, Long videoId) throws NotFoundException {
-        if(!userRepository.existsById(userId)) throw new NotFoundException("User not found");
         if(!videoRepository.existsById(videoId)) throw new NotFoundException("Video not found");
-        UserEntity userEntity = userRepository.getReferenceById(userId);
-        userEntity.getLikes().stream().filter(like -> like.getVideoEntity().getId().equals(videoId)).findFirst().ifPresent(like -> {
-            try{
-                like.getUserEntity().getLikes().remove(like);
-                like.getVideoEntity().getLikes().remove(like);
-                likeRepository.delete(like);
-            } catch (Exception e){
-                logger.error(e.getMessage());
-            }
-        });
+        if(!userRepository.existsById(userId)) throw new NotFoundException("User not found");
+        if(userLikeRepository.deleteLike(userId, videoId) > 0){
+            likeCounter.decrement(videoId);
+            likedVideoIndex.onToggle(userId, videoId, false);
+            int likes = likeCounter.count(videoId);
+            videoLeaderboards.offer(Leaderboard.LIKES, videoId, likes);
+            videoStatsSnapshot.update(videoId, Column.LIKES, likes);
+        }
     }
 
-    /** Gets user search history.
+    /** Gets page of user`s watch history, from the latest watched video.
      * @param userId user id
-     * @return videos that user have watched.
+     * @param cursor cursor returned with the previous page, null for the first page
+     * @param size max amount of videos in the page
+     * @return videos that user have watched and cursor of the next page.
      * @throws NotFoundException if user not found
+     * @throws IllegalArgumentException if cursor is malformed
      */
-    public List<Video> getWatchHistory(String userId) throws NotFoundException {
-        UserEntity userEntity = userRepository.findById(userId).orElseThrow(()-> new NotFoundException("User not found, id: " + userId));
-        List<Video> result = new ArrayList<>();
-        for (WatchHistory watchHistory :userEntity.getWatchHistory()) {
-            videoRepository.findById(watchHistory.getVideoId()).ifPresent(v -> result.add(videoConverter.convertToModel(v)));
-        }
-        return result;
+    public CursorPage<Video> getWatchHistory(String userId, @Nullable String cursor, int size) throws NotFoundException, IllegalArgumentException {
+        if(!userRepository.existsById(userId)) throw new NotFoundException("User not found, id: " + userId);
+        List<WatchRecord> records = watchHistoryStore.page(userId, cursor, size);
+        List<Video> result = videoConverter.convertToModels(videoLoader.loadAll(records.stream().map(WatchRecord::getVideoId).toList()));
+        String next = records.size() < size ? null : watchHistoryStore.cursorOf(records.getLast());
+        return new CursorPage<>(result, next);
+    }
+
+    /**Gets page of channels that user subscribed, ordered by id.
+     * @param userId user id. Can not be null
+     * @param cursor cursor returned with the previous page, null for the first page
+     * @param size max amount of users in the page
+     * @return channels and cursor of the next page
+     * @throws NotFoundException if user was not found
+     * @throws IllegalArgumentException if cursor is malformed
+     */
+    public CursorPage<UserSummary> getUserSubscribes(String userId, @Nullable String cursor, int size) throws NotFoundException, IllegalArgumentException {
+        if(!userRepository.existsById(userId)) throw new NotFoundException("User with id " + userId + " was not found");
+        return summaryPage(userSummaryRepository.findSubscriptionsPage(userId, afterUserId(cursor), Limit.of(size)), size);
     }
 
-    /**Gets users that user subscribed.
+    /**Gets page of subscribers of the user, ordered by id.
      * @param userId user id. Can not be null
-     * @return List of users founded
+     * @param cursor cursor returned with the previous page, null for the first page
+     * @param size max amount of users in the page
+     * @return subscribers and cursor of the next page
      * @throws NotFoundException if user was not found
+     * @throws IllegalArgumentException if cursor is malformed
      */
-    public List<User> getUserSubscribes(String userId) throws NotFoundException {
-        UserEntity user = userRepository.findById(userId).orElseThrow(() -> new NotFoundException("User with id " + userId + " was not found"));
-        return user.getSubscribes().stream().map(userConverter::convertToModel).toList();
+    public CursorPage<UserSummary> getSubscribers(String userId, @Nullable String cursor, int size) throws NotFoundException, IllegalArgumentException {
+        if(!userRepository.existsById(userId)) throw new NotFoundException("User with id " + userId + " was not found");
+        return summaryPage(userSummaryRepository.findSubscribersPage(userId, afterUserId(cursor), Limit.of(size)), size);
     }
 
-    /**Gets videos that user liked.
+    /**Gets page of videos that user liked, from the latest like. Paginated by keyset of like id.
      * @param userId user id. Can not be null
-     * @return List of videos founded
+     * @param cursor cursor returned with the previous page, null for the first page
+     * @param size max amount of videos in the page
+     * @return videos and cursor of the next page
      * @throws NotFoundException if user was not found
+     * @throws IllegalArgumentException if cursor is malformed
      */
-    public List<Video> getUserLikes(String userId) throws NotFoundException {
-        UserEntity user = userRepository.findById(userId).orElseThrow(() -> new NotFoundException("User with id " + userId + " was not found"));
-        return user.getLikes().stream().map(Like::getVideoEntity).map(videoConverter::convertToModel).toList();
+    public CursorPage<Video> getUserLikes(String userId, @Nullable String cursor, int size) throws NotFoundException, IllegalArgumentException {
+        if(!userRepository.existsById(userId)) throw new NotFoundException("User with id " + userId + " was not found");
+        long afterId;
+        try {
+            afterId = cursor == null ? Long.MAX_VALUE : Long.parseLong(CursorUtils.decode(cursor, 1)[0]);
+        } catch (NumberFormatException e){
+            throw new IllegalArgumentException("Malformed cursor: " + cursor);
+        }
+        List<Object[]> likes = userLikeRepository.findLikesPage(userId, afterId, Limit.of(size));
+        List<Video> result = videoConverter.convertToModels(videoLoader.loadAll(likes.stream().map(like -> (Long) like[1]).toList()));
+        String next = likes.size() < size ? null : CursorUtils.encode(likes.getLast()[0]);
+        return new CursorPage<>(result, next);
     }
 
     /**Deletes specified search option
@@ -340,74 +502,62 @@ public class UserService {
      * @throws NotFoundException if user or search option not found
      */
     public void deleteSearchOption(String userId, String searchOption) throws NotFoundException {
-        Optional<UserEntity> optionalUserEntity = userRepository.findById(userId);
-        if(optionalUserEntity.isEmpty()) throw new NotFoundException("User not found");
-
-        UserEntity userEntity = optionalUserEntity.get();
-        if(userEntity.getSearchHistory() == null) throw new NotFoundException("Search option not found");
-
-        for (SearchHistory searchHistory:
-             userEntity.getSearchHistory()) {
-            if(searchHistory.getSearchOption().equals(searchOption)){
-                searchHistoryRepository.delete(searchHistory);
-                return;
-            }
-        }
-        throw new NotFoundException("Search option not found");
+        if(!userRepository.existsById(userId)) throw new NotFoundException("User not found");
+        if(!searchHistoryStore.remove(userId, searchOption)) throw new NotFoundException("Search option not found");
     }
 
-    /**Checks if user liked video.
+    /**Checks if user liked video. Answered by {@link LikedVideoIndex}, without loading user or his likes.
      * @param userId user id
      * @param videoId video id
-     * @return true if user liked video, otherwise false
-     * @throws NotFoundException - if user or video not found
+     * @return true if user liked video, otherwise false. False if user or video does not exist
      */
-    public boolean hasUserLikedVideo(String userId, Long videoId) throws NotFoundException {
-        UserEntity userEntity = userRepository.findById(userId).orElseThrow(() -> new NotFoundException("User not found"));
-        if(!videoRepository.existsById(videoId)) throw new NotFoundException("Video not found");
-        return userEntity.getLikes().stream().anyMatch(like -> like.getVideoEntity().getId().equals(videoId));
+    public boolean hasUserLikedVideo(String userId, Long videoId) {
+        return !likedVideoIndex.liked(userId, List.of(videoId)).isEmpty();
     }
 
-    /**Add user in subscribes to another user.
+    /**Checks which of the videos are liked by user.
+     * @param userId user id
+     * @param videoIds ids of videos to check
+     * @return ids of specified videos that are liked by user
+     */
+    public Set<Long> getLikedVideoIds(String userId, Collection<Long> videoIds) {
+        return likedVideoIndex.liked(userId, videoIds);
+    }
+
+    /**Add user in subscribes to another user. Only the edge between users is written, subscriptions of the user
+     * are not loaded.
      * @param userId user id that subscribe another
      * @param subscribedChannelId user id that being subscribed
      * @throws NotFoundException if one of users not found
      */
+    @Transactional
     public void subscribeById(String userId, String subscribedChannelId) throws NotFoundException {
-        UserEntity userEntity = userRepository.findById(userId).orElseThrow(() -> new NotFoundException("User not found"));
-        UserEntity subscribedChannel = userRepository.findById(subscribedChannelId).orElseThrow(() ->  new NotFoundException("Subscribed channel not found"));
-
-        userEntity.getSubscribes().add(subscribedChannel);
+        if(!userRepository.existsById(userId)) throw new NotFoundException("User not found");
+        if(!userRepository.existsById(subscribedChannelId)) throw new NotFoundException("Subscribed channel not found");
 
-        userRepository.save(userEntity);
+        subscriptionGraph.subscribe(userId, subscribedChannelId);
     }
 
-    /**Unsubscribe from this user
+    /**Unsubscribe from this user. Only the edge between users is removed, subscriptions of the user are not loaded.
      * @param userId user id that will unsubscribe
      * @param subscribedChannelId user id that will be unsubscribed
      * @throws NotFoundException if one of users not found
      */
+    @Transactional
     public void unsubscribeById(String userId, String subscribedChannelId) throws NotFoundException {
-        UserEntity userEntity = userRepository.findById(userId).orElseThrow(() -> new NotFoundException("User not found"));
         if(!userRepository.existsById(userId)) throw new NotFoundException("User not found");
 
-        userEntity.setSubscribes(userEntity.getSubscribes().stream().filter((subbedChannel) ->
-                !subbedChannel.getId().equals(subscribedChannelId)
-                ).collect(Collectors.toSet()));
-
-        userRepository.save(userEntity);
+        subscriptionGraph.unsubscribe(userId, subscribedChannelId);
     }
 
-    /**Checks if user subscribes to another user.
+    /**Checks if user subscribes to another user. Answered by {@link SubscriptionGraph}, without loading user
+     * or his subscriptions.
      * @param userId user id that will be checked
      * @param subbedChannelId another user id
-     * @return true if user subscribed on another, otherwise false
-     * @throws NotFoundException - if user not found
+     * @return true if user subscribed on another, otherwise false. False if user does not exist
      */
-    public boolean hasUserSubscribedChannel(String userId, String subbedChannelId) throws NotFoundException {
-        UserEntity userEntity = userRepository.findById(userId).orElseThrow(() -> new NotFoundException("User not found"));
-
-        return userEntity.getSubscribes().stream().anyMatch((subbedChannel) -> subbedChannel.getId().equals(subbedChannelId));
+    public boolean hasUserSubscribedChannel(String userId, String subbedChannelId) {
+        return subscriptionGraph.isSubscribed(userId, subbedChannelId);
     }
 
     /**Creates specified amount of users. Users data will be picked randomly of
@@ -462,25 +612,89 @@ public class UserService {
     }
 
 
+    private CursorPage<UserSummary> summaryPage(List<UserSummary> summaries, int size){
+        String next = summaries.size() < size ? null : CursorUtils.encode(summaries.getLast().id());
+        return new CursorPage<>(withSubscriberCounts(summaries), next);
+    }
+
+    /**Counts subscribers of users that have no counters yet.
+     */
+    private List<UserSummary> withSubscriberCounts(List<UserSummary> summaries){
+        List<String> missing = summaries.stream().filter(summary -> summary.subscriberCount() == null).map(UserSummary::id).toList();
+        if(missing.isEmpty()) return summaries;
+        Map<String, Long> counts = subscriptionGraph.subscribers(missing);
+        return summaries.stream()
+                .map(summary -> summary.subscriberCount() != null ? summary : summary.withSubscriberCount(counts.getOrDefault(summary.id(), 0L)))
+                .toList();
+    }
+
+    /**Page of the ranking. The ranking is read whole for the first page and frozen if it has more pages.
+     */
+    private CursorPage<UserSummary> rankedPage(Tools.Ranking ranking, @Nullable String cursor, int size) throws IllegalArgumentException{
+        List<String> ids;
+        String token = null;
+        int from = 0;
+        if(cursor == null){
+            ids = entityManager.createQuery(ranking.criteriaQuery())
+                    .setMaxResults(Math.min(ranking.limit(), AppConstants.MAX_RANKING_SIZE))
+                    .getResultList();
+            if(ids.size() > size) token = rankingSnapshots.freeze(ids);
+        } else {
+            String[] keys = CursorUtils.decode(cursor, 2);
+            token = keys[0];
+            from = Integer.parseInt(keys[1]);
+            ids = rankingSnapshots.range(token, from, size + 1);
+        }
+        String next = ids.size() > size ? CursorUtils.encode(token, from + size) : null;
+        List<String> pageIds = ids.subList(0, Math.min(size, ids.size()));
+        Map<String, UserSummary> found = new HashMap<>();
+        if(!pageIds.isEmpty()){
+            entityManager.createQuery(Tools.summaries(pageIds, entityManager))
+                    .getResultList()
+                    .forEach(summary -> found.put(summary.id(), summary));
+        }
+        return new CursorPage<>(pageIds.stream().map(found::get).filter(Objects::nonNull).toList(), next);
+    }
+
+    private static String afterUserId(@Nullable String cursor) throws IllegalArgumentException {
+        return cursor == null ? "" : CursorUtils.decode(cursor, 1)[0];
+    }
+
+
     private static class Tools{
 
-        /**Finds user by specified criteria(options). Options are accepted as a List of string
+        /**Query of ids of users ranked by amount of subscribers, prepared by {@link #ranking(List, List, EntityManager)}.
+         * @param limit amount of users to find, specified by MOST_SUBSCRIBERS
+         */
+        private record Ranking(CriteriaQuery<String> criteriaQuery, int limit){}
+
+        /**Filter of users built by {@link #filter(CriteriaQuery, List, List, CriteriaBuilder)}.
+         * @param stats left joined stats of the user, null if no option needs them
+         * @param limit amount of users to find if MOST_SUBSCRIBERS is specified, otherwise null
+         */
+        private record Filter(Root<UserEntity> root, @Nullable JpaEntityJoin<UserStats> stats, Predicate predicate, @Nullable Integer limit){}
+
+        /**Builds filter of users by specified criteria(options). Options are accepted as a List of string
          *  and converted to {@link com.artur.youtback.utils.FindOptions.UserOptions}. All options will be taken into
          *  account. So the result list will contain all users that satisfy the specified criteria.
+         *  Options by counters (subscribers, videos, admins) are answered by indexes of {@link UserStats},
+         *  which is left joined, so users without counters yet are taken as having zero counters.
+         * @param criteriaQuery query to filter users of
          * @param options options to search by. Can not be null Options specified
          *               in {@link com.artur.youtback.utils.FindOptions.UserOptions}. If option isn`t contains in
          *                List it will be skipped.
          * @param values value for the options. Can not be null. Range should be indicated like "1/100" for range from 1 to 100.
-         *             For example for option ADMINS does not need a value and there should be null. Every single
+         *             For example for option ADMINS does not need a value and there should be null. For option
+         *               MOST_SUBSCRIBERS value is amount of users to find. Every single
          *               string in List should match the element with the same index.
-         * @return List of users founded by specified options
-         * @throws IllegalArgumentException if range is specified incorrectly
+         * @return filter, which is not applied to the query yet
+         * @throws IllegalArgumentException if range or amount is specified incorrectly
          */
-        static List<UserEntity> findByOption(List<String> options, List<String> values, EntityManager entityManager) throws IllegalArgumentException{
-            CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-            CriteriaQuery<UserEntity> criteriaQuery = criteriaBuilder.createQuery(UserEntity.class);
+        static Filter filter(CriteriaQuery<?> criteriaQuery, List<String> options, List<String> values, CriteriaBuilder criteriaBuilder) throws IllegalArgumentException{
             Predicate predicate = criteriaBuilder.conjunction();
             Root<UserEntity> root = criteriaQuery.from(UserEntity.class);
+            JpaEntityJoin<UserStats> stats = null;
+            Integer limit = null;
 
             for (int i = 0; i < options.size() ; i++) {
                 String option = options.get(i);
@@ -489,24 +703,94 @@ public class UserService {
                     predicate = criteriaBuilder.and(predicate, criteriaBuilder.equal(root.get("email"), value));
                 } else if (option.equalsIgnoreCase(FindOptions.UserOptions.BY_ID.name())) {
                     predicate = criteriaBuilder.and(predicate, criteriaBuilder.equal(root.get("id"), value));
-                } else if (option.equalsIgnoreCase(FindOptions.UserOptions.BY_SUBSCRIBERS.name())) {
-                    String[] fromTo = value.split("/");
+                } else if (option.equalsIgnoreCase(FindOptions.UserOptions.BY_USERNAME.name())) {
+                    predicate = criteriaBuilder.and(predicate, criteriaBuilder.equal(root.get("username"), value));
+                } else if (option.equalsIgnoreCase(FindOptions.UserOptions.BY_SUBSCRIBERS.name())
+                        || option.equalsIgnoreCase(FindOptions.UserOptions.BY_VIDEO.name())) {
+                    String[] fromTo = value == null ? new String[0] : value.split("/");
                     if(fromTo.length != 2){
                         throw new IllegalArgumentException("Illegal arguments option: [" + option + "]" + " value [" + value + "]");
                     }
-                    predicate = criteriaBuilder.and(predicate, criteriaBuilder.between(criteriaBuilder.size(root.get("subscribers")), Integer.parseInt(fromTo[0]), Integer.parseInt(fromTo[1])));
-                } else if (option.equalsIgnoreCase(FindOptions.UserOptions.BY_VIDEO.name())) {
-                    String[] fromTo = value.split("/");
-                    if(fromTo.length != 2){
+                    if(stats == null) stats = joinStats(root, criteriaBuilder);
+                    String counter = option.equalsIgnoreCase(FindOptions.UserOptions.BY_VIDEO.name()) ? "videos" : "subscribers";
+                    predicate = criteriaBuilder.and(predicate, criteriaBuilder.between(criteriaBuilder.coalesce(stats.<Long>get(counter), 0L),
+                            Long.parseLong(fromTo[0]), Long.parseLong(fromTo[1])));
+                } else if (option.equalsIgnoreCase(FindOptions.UserOptions.ADMINS.name())) {
+                    if(stats == null) stats = joinStats(root, criteriaBuilder);
+                    predicate = criteriaBuilder.and(predicate, criteriaBuilder.isTrue(stats.get("admin")));
+                } else if (option.equalsIgnoreCase(FindOptions.UserOptions.MOST_SUBSCRIBERS.name())) {
+                    try {
+                        limit = Integer.parseInt(value);
+                    } catch (NumberFormatException e){
+                        limit = 0;
+                    }
+                    if(limit <= 0){
                         throw new IllegalArgumentException("Illegal arguments option: [" + option + "]" + " value [" + value + "]");
                     }
-                    predicate = criteriaBuilder.and(predicate, criteriaBuilder.between(criteriaBuilder.size(root.get("userVideos")), Integer.parseInt(fromTo[0]), Integer.parseInt(fromTo[1])));
-                } else if (option.equalsIgnoreCase(FindOptions.UserOptions.BY_USERNAME.name())) {
-                    predicate = criteriaBuilder.and(predicate, criteriaBuilder.equal(root.get("username"), value));
+                    if(stats == null) stats = joinStats(root, criteriaBuilder);
                 }
             }
-            criteriaQuery.where(predicate);
-            return entityManager.createQuery(criteriaQuery).getResultList();
+            return new Filter(root, stats, predicate, limit);
+        }
+
+        /**Prepares query of ids of users ranked by amount of subscribers, the most subscribed first, equal amounts are
+         * ordered by id. Query is not executed, so it can be used to validate options.
+         * @return prepared query, or null if MOST_SUBSCRIBERS is not specified
+         * @throws IllegalArgumentException if range or amount is specified incorrectly
+         */
+        @Nullable
+        static Ranking ranking(List<String> options, List<String> values, EntityManager entityManager) throws IllegalArgumentException{
+            CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+            CriteriaQuery<String> criteriaQuery = criteriaBuilder.createQuery(String.class);
+            Filter filter = filter(criteriaQuery, options, values, criteriaBuilder);
+            if(filter.limit() == null) return null;
+            criteriaQuery.select(filter.root().get("id"))
+                    .where(filter.predicate())
+                    .orderBy(criteriaBuilder.desc(subscribers(filter, criteriaBuilder)), criteriaBuilder.asc(filter.root().get("id")));
+            return new Ranking(criteriaQuery, filter.limit());
+        }
+
+        /**Prepares query of users ordered by id. Query is not executed.
+         * @param afterId id of the last user of the previous page, empty for the first page
+         * @return prepared query. Amount of subscribers is known only for users found by counters
+         * @throws IllegalArgumentException if range is specified incorrectly
+         */
+        static CriteriaQuery<UserSummary> prepare(List<String> options, List<String> values, EntityManager entityManager, String afterId) throws IllegalArgumentException{
+            CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+            CriteriaQuery<UserSummary> criteriaQuery = criteriaBuilder.createQuery(UserSummary.class);
+            Filter filter = filter(criteriaQuery, options, values, criteriaBuilder);
+            return criteriaQuery.select(summary(filter, criteriaBuilder))
+                    .where(criteriaBuilder.and(filter.predicate(), criteriaBuilder.greaterThan(filter.root().get("id"), afterId)))
+                    .orderBy(criteriaBuilder.asc(filter.root().get("id")));
+        }
+
+        /**Prepares query of summaries of specified users, with amounts of subscribers. Query is not executed.
+         */
+        static CriteriaQuery<UserSummary> summaries(Collection<String> ids, EntityManager entityManager){
+            CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+            CriteriaQuery<UserSummary> criteriaQuery = criteriaBuilder.createQuery(UserSummary.class);
+            Root<UserEntity> root = criteriaQuery.from(UserEntity.class);
+            Filter filter = new Filter(root, joinStats(root, criteriaBuilder), root.get("id").in(ids), null);
+            return criteriaQuery.select(summary(filter, criteriaBuilder)).where(filter.predicate());
+        }
+
+        private static CompoundSelection<UserSummary> summary(Filter filter, CriteriaBuilder criteriaBuilder){
+            Root<UserEntity> root = filter.root();
+            return criteriaBuilder.construct(UserSummary.class,
+                    root.get("id"), root.get("username"), root.get("email"), root.get("picture"), root.get("authorities"),
+                    filter.stats() == null ? criteriaBuilder.nullLiteral(Long.class) : subscribers(filter, criteriaBuilder));
+        }
+
+        private static Expression<Long> subscribers(Filter filter, CriteriaBuilder criteriaBuilder){
+            return criteriaBuilder.coalesce(Objects.requireNonNull(filter.stats()).<Long>get("subscribers"), 0L);
+        }
+
+        /**Left joins stats of the user.
+         */
+        private static JpaEntityJoin<UserStats> joinStats(Root<UserEntity> root, CriteriaBuilder criteriaBuilder){
+            JpaEntityJoin<UserStats> stats = ((JpaRoot<UserEntity>) root).join(UserStats.class, SqmJoinType.LEFT);
+            stats.on(criteriaBuilder.equal(stats.get("userId"), root.get("id")));
+            return stats;
         }
     }
 }
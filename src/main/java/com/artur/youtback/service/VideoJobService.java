@@ -0,0 +1,429 @@
+package com.artur.youtback.service;
+
+import com.artur.common.entity.VideoEntity;
+import com.artur.common.exception.NotFoundException;
+import com.artur.common.repository.UserRepository;
+import com.artur.youtback.entity.VideoJob;
+import com.artur.youtback.model.video.VideoCreateRequest;
+import com.artur.youtback.model.video.VideoJobStatus;
+import com.artur.youtback.model.video.VideoUpdateRequest;
+import com.artur.youtback.repository.VideoJobRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntSupplier;
+
+/**Jobs of creating videos and replacing their media, so that request threads do not wait for processing microservice.
+ * Request thread spools uploaded files and returns the job. Files are stored by a bounded pool of workers, then
+ * thumbnail and video are sent for processing and the job is advanced by the replies as they arrive. State of the job
+ * is kept in {@link VideoJob} rows, so it can be polled from any instance, and is also streamed by server-sent events.
+ * Replies are awaited by the instance that sent the requests, so jobs that did not advance for
+ * {@code application.video-jobs.stale-minutes}, e.g. because that instance restarted, are failed.
+ * Video of a failed creation is removed.
+ */
+@Service
+public class VideoJobService {
+    private static final Logger logger = LoggerFactory.getLogger(VideoJobService.class);
+    private static final int COLLECTION_CHUNK = 100;
+    private static final int MAX_ERROR_LENGTH = 500;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final ThreadPoolExecutor workers;
+    private final Map<String, List<SseEmitter>> emitters = new ConcurrentHashMap<>();
+    /**Time of the last transition sent to subscribers of the job*/
+    private final Map<String, Instant> sent = new ConcurrentHashMap<>();
+
+    @Value("${application.video-jobs.stale-minutes:30}")
+    private int staleMinutes;
+    @Value("${application.video-jobs.retention-days:7}")
+    private int retentionDays;
+    @Value("${application.video-jobs.sse-timeout:600000}")
+    private long sseTimeout;
+
+    @Autowired
+    VideoJobRepository videoJobRepository;
+    @Autowired
+    VideoService videoService;
+    @Autowired
+    UserRepository userRepository;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    public VideoJobService(
+            @Value("${application.video-jobs.workers:4}") int workers,
+            @Value("${application.video-jobs.queue-capacity:100}") int queueCapacity,
+            MeterRegistry meterRegistry) {
+        this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity));
+        Gauge.builder("video.jobs.queue", this.workers.getQueue(), Collection::size).register(meterRegistry);
+    }
+
+    /**Starts a job of creating a video from uploaded files. Files are spooled to temporary files before returning,
+     * the rest is done asynchronously.
+     * @param video create request
+     * @param userId user id
+     * @return state of the new job
+     * @throws NotFoundException if user not found
+     * @throws RejectedExecutionException if too many videos are being created
+     * @throws Exception if failed spooling the files
+     */
+    public VideoJobStatus create(VideoCreateRequest video, String userId) throws Exception{
+        if(!userRepository.existsById(userId)) throw new NotFoundException("User not found");
+        Path thumbnail = null;
+        Path spooled = null;
+        try {
+            thumbnail = Files.createTempFile("video-thumbnail-", ".tmp");
+            video.thumbnail().transferTo(thumbnail.toFile());
+            spooled = Files.createTempFile("video-upload-", ".tmp");
+            video.video().transferTo(spooled.toFile());
+        } catch (Exception e){
+            delete(thumbnail, spooled);
+            throw e;
+        }
+        return submit(userId, video.title(), video.description(), video.category(), thumbnail, spooled);
+    }
+
+    /**Starts a job of creating a video from files. Files are owned by the job and deleted once stored or if the job
+     * could not be started.
+     * @param userId user id
+     * @param title video title
+     * @param description video description
+     * @param category video category
+     * @param thumbnail thumbnail file
+     * @param video video file
+     * @return state of the new job
+     * @throws NotFoundException if user not found
+     * @throws RejectedExecutionException if too many videos are being created
+     */
+    public VideoJobStatus submit(String userId, String title, String description, String category, Path thumbnail, Path video)
+            throws NotFoundException, RejectedExecutionException{
+        if(!userRepository.existsById(userId)){
+            delete(thumbnail, video);
+            throw new NotFoundException("User not found");
+        }
+        VideoJob job = videoJobRepository.save(newJob(UUID.randomUUID().toString(), userId, VideoJob.Type.CREATE,
+                VideoJob.Status.UPLOADED, true, true));
+        start(job.getId(), userId, title, description, category, thumbnail, video);
+        return VideoJobStatus.of(job);
+    }
+
+    /**Creates a job of creating a video, whose files are not received yet. The job is started by
+     * {@link #start(String, String, String, String, String, Path, Path)} or failed by {@link #abandon(String, String)}.
+     * @param jobId id of the job
+     * @param userId user id
+     * @return state of the new job
+     * @throws NotFoundException if user not found
+     */
+    VideoJobStatus open(String jobId, String userId) throws NotFoundException{
+        if(!userRepository.existsById(userId)) throw new NotFoundException("User not found");
+        return VideoJobStatus.of(videoJobRepository.save(newJob(jobId, userId, VideoJob.Type.CREATE,
+                VideoJob.Status.UPLOADED, true, true)));
+    }
+
+    /**Starts the opened job. Files are owned by the job and deleted once stored or if the job could not be started.
+     * @throws RejectedExecutionException if too many videos are being created, the job is failed
+     */
+    void start(String jobId, String userId, String title, String description, String category, Path thumbnail, Path video)
+            throws RejectedExecutionException{
+        try {
+            workers.execute(new StoreTask(jobId, userId, title, description, category, thumbnail, video));
+        } catch (RejectedExecutionException e){
+            delete(thumbnail, video);
+            fail(jobId, "Too many videos are being created");
+            throw e;
+        }
+    }
+
+    /**Fails the opened job which files could not be received.
+     * @param jobId id of the job
+     * @param reason reason of the failure
+     */
+    void abandon(String jobId, String reason){
+        fail(jobId, reason);
+    }
+
+    /**Updates the video by {@link VideoService#update(VideoUpdateRequest)} and, if thumbnail or video is replaced,
+     * starts a job of processing them.
+     * @param updateRequest update request
+     * @param userId id of updating user
+     * @return state of the new job, null if there is nothing to process
+     * @throws Exception if video not found or error occurred while uploading to {@link com.artur.objectstorage.service.ObjectStorageService}
+     */
+    @Nullable
+    public VideoJobStatus update(VideoUpdateRequest updateRequest, String userId) throws Exception{
+        videoService.update(updateRequest);
+        boolean thumbnail = updateRequest.thumbnail() != null;
+        boolean video = updateRequest.video() != null;
+        if(!thumbnail && !video) return null;
+        VideoJob job = newJob(UUID.randomUUID().toString(), userId, VideoJob.Type.UPDATE, VideoJob.Status.PROCESSING, thumbnail, video);
+        job.setVideoId(updateRequest.videoId());
+        videoJobRepository.save(job);
+        if(thumbnail) await(job.getId(), videoService.processThumbnail(job.getVideoId()), true);
+        if(video) await(job.getId(), videoService.processVideo(job.getVideoId()), false);
+        return status(userId, job.getId());
+    }
+
+    /**Gets state of the job.
+     * @param userId id of the user started the job
+     * @param jobId job id
+     * @return state of the job
+     * @throws NotFoundException if job not found or belongs to another user
+     */
+    public VideoJobStatus status(String userId, String jobId) throws NotFoundException{
+        return VideoJobStatus.of(find(userId, jobId));
+    }
+
+    /**Subscribes to progress of the job. Current state is sent at once, then every transition until the job is finished.
+     * @param userId id of the user started the job
+     * @param jobId job id
+     * @return emitter of {@link VideoJobStatus} events
+     * @throws NotFoundException if job not found or belongs to another user
+     */
+    public SseEmitter subscribe(String userId, String jobId) throws NotFoundException{
+        VideoJob job = find(userId, jobId);
+        SseEmitter emitter = new SseEmitter(sseTimeout);
+        if(job.getStatus().isFinished()){
+            send(emitter, VideoJobStatus.of(job));
+            emitter.complete();
+            return emitter;
+        }
+        emitters.computeIfAbsent(jobId, id -> new CopyOnWriteArrayList<>()).add(emitter);
+        emitter.onCompletion(() -> unsubscribe(jobId, emitter));
+        emitter.onTimeout(() -> unsubscribe(jobId, emitter));
+        emitter.onError(e -> unsubscribe(jobId, emitter));
+        send(emitter, VideoJobStatus.of(job));
+        return emitter;
+    }
+
+    /**Sends transitions made by other instances to subscribers.
+     */
+    @Scheduled(fixedDelayString = "${application.video-jobs.refresh-interval:2000}")
+    public void refresh(){
+        if(emitters.isEmpty()) return;
+        for (VideoJob job : videoJobRepository.findAllById(emitters.keySet())) {
+            if(!job.getUpdatedAt().equals(sent.get(job.getId()))) publish(job);
+        }
+    }
+
+    /**Fails jobs that did not advance for {@code application.video-jobs.stale-minutes} and removes jobs finished
+     * more than {@code application.video-jobs.retention-days} ago.
+     */
+    @Scheduled(cron = "${application.video-jobs.collection-cron:0 */5 * * * *}")
+    public void collect(){
+        Instant before = Instant.now().minus(staleMinutes, ChronoUnit.MINUTES);
+        long failed = 0;
+        List<String> stale;
+        do {
+            stale = videoJobRepository.findStaleIds(before, Limit.of(COLLECTION_CHUNK));
+            stale.forEach(jobId -> fail(jobId, "No progress for " + staleMinutes + " minutes"));
+            failed += stale.size();
+        } while (stale.size() == COLLECTION_CHUNK);
+        Integer removed = transactionTemplate.execute(status ->
+                videoJobRepository.deleteFinished(Instant.now().minus(retentionDays, ChronoUnit.DAYS)));
+        if(failed > 0 || (removed != null && removed > 0)){
+            logger.info("Failed {} stale video jobs, removed {} finished", failed, removed);
+        }
+    }
+
+    /**Stops the workers. Jobs left in the queue are failed and their files are deleted, running jobs are interrupted
+     * and given a while to fail.
+     */
+    @PreDestroy
+    public void shutdown(){
+        for (Runnable task : workers.shutdownNow()) {
+            if(task instanceof StoreTask storeTask){
+                delete(storeTask.thumbnail, storeTask.video);
+                fail(storeTask.jobId, "Application was shut down");
+            }
+        }
+        try {
+            if(!workers.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)){
+                logger.warn("Video jobs are still running on shutdown, they will be failed as stale");
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**Task of storing the video, kept as a class so that tasks left in the queue on shutdown can be failed.
+     */
+    private class StoreTask implements Runnable {
+        private final String jobId;
+        private final String userId;
+        private final String title;
+        private final String description;
+        private final String category;
+        private final Path thumbnail;
+        private final Path video;
+
+        private StoreTask(String jobId, String userId, String title, String description, String category, Path thumbnail, Path video) {
+            this.jobId = jobId;
+            this.userId = userId;
+            this.title = title;
+            this.description = description;
+            this.category = category;
+            this.thumbnail = thumbnail;
+            this.video = video;
+        }
+
+        @Override
+        public void run() {
+            store(jobId, userId, title, description, category, thumbnail, video);
+        }
+    }
+
+    /**Stores the video and sends it for processing. Runs on a worker.
+     */
+    private void store(String jobId, String userId, String title, String description, String category, Path thumbnail, Path video){
+        try {
+            VideoEntity videoEntity;
+            try(InputStream thumbnailInputStream = Files.newInputStream(thumbnail)) {
+                videoEntity = videoService.store(title, description, category, thumbnailInputStream, video.toFile(), userId);
+            }
+            Long videoId = videoEntity.getId();
+            if(!transition(jobId, () -> videoJobRepository.markStored(jobId, videoId, Instant.now()))){
+                //job was failed while waiting in the queue
+                remove(videoId);
+                return;
+            }
+            await(jobId, videoService.processThumbnail(videoId), true);
+            await(jobId, videoService.processVideo(videoId), false);
+        } catch (Exception e){
+            logger.error("Could not store video of job {}", jobId, e);
+            fail(jobId, e.getMessage());
+        } finally {
+            delete(thumbnail, video);
+        }
+    }
+
+    /**Advances the job once the reply of processing arrives, without waiting for it.
+     */
+    private void await(String jobId, CompletableFuture<Boolean> reply, boolean thumbnail){
+        String media = thumbnail ? "thumbnail" : "video";
+        reply.whenComplete((processed, e) -> {
+            try {
+                if(e != null || !Boolean.TRUE.equals(processed)){
+                    fail(jobId, e != null ? "No reply of " + media + " processing: " + e.getMessage() : "Could not process " + media);
+                    return;
+                }
+                transition(jobId, () -> thumbnail ?
+                        videoJobRepository.markThumbnailProcessed(jobId, Instant.now()) :
+                        videoJobRepository.markVideoProcessed(jobId, Instant.now()));
+                if(transition(jobId, () -> videoJobRepository.markReady(jobId, Instant.now()))){
+                    ready(jobId);
+                }
+            } catch (Exception ex){
+                logger.error("Could not advance job {}", jobId, ex);
+            }
+        });
+    }
+
+    private void ready(String jobId){
+        videoJobRepository.findById(jobId).ifPresent(job -> {
+            if(job.getType() == VideoJob.Type.CREATE) videoService.videoCreatedPublish(job.getVideoId());
+            logger.info("Video {} of job {} is ready", job.getVideoId(), jobId);
+        });
+    }
+
+    private void fail(String jobId, @Nullable String error){
+        String reason = error == null ? "Unknown error" : error.substring(0, Math.min(error.length(), MAX_ERROR_LENGTH));
+        if(!transition(jobId, () -> videoJobRepository.markFailed(jobId, reason, Instant.now()))) return;
+        logger.warn("Video job {} failed: {}", jobId, reason);
+        videoJobRepository.findById(jobId)
+                .filter(job -> job.getType() == VideoJob.Type.CREATE && job.getVideoId() != null)
+                .ifPresent(job -> remove(job.getVideoId()));
+    }
+
+    private void remove(Long videoId){
+        try {
+            videoService.deleteById(videoId);
+        } catch (Exception e){
+            logger.warn("Could not remove video {} of failed job: {}", videoId, e.getMessage());
+        }
+    }
+
+    /**Runs the conditional update of the job in a transaction and sends the new state to subscribers.
+     * @return true if the job was updated
+     */
+    private boolean transition(String jobId, IntSupplier update){
+        Integer updated = transactionTemplate.execute(status -> update.getAsInt());
+        if(updated == null || updated == 0) return false;
+        if(emitters.containsKey(jobId)) videoJobRepository.findById(jobId).ifPresent(this::publish);
+        return true;
+    }
+
+    private void publish(VideoJob job){
+        List<SseEmitter> subscribed = emitters.get(job.getId());
+        if(subscribed == null) return;
+        sent.put(job.getId(), job.getUpdatedAt());
+        VideoJobStatus status = VideoJobStatus.of(job);
+        for (SseEmitter emitter : subscribed) {
+            send(emitter, status);
+            if(job.getStatus().isFinished()) emitter.complete();
+        }
+    }
+
+    private void unsubscribe(String jobId, SseEmitter emitter){
+        List<SseEmitter> left = emitters.computeIfPresent(jobId, (id, subscribed) -> {
+            subscribed.remove(emitter);
+            return subscribed.isEmpty() ? null : subscribed;
+        });
+        if(left == null) sent.remove(jobId);
+    }
+
+    private VideoJob find(String userId, String jobId) throws NotFoundException{
+        return videoJobRepository.findById(jobId)
+                .filter(job -> job.getUserId().equals(userId))
+                .orElseThrow(() -> new NotFoundException("Job not found"));
+    }
+
+    private static VideoJob newJob(String jobId, String userId, VideoJob.Type type, VideoJob.Status status, boolean thumbnail, boolean video){
+        VideoJob job = new VideoJob();
+        job.setId(jobId);
+        job.setUserId(userId);
+        job.setType(type);
+        job.setStatus(status);
+        job.setThumbnailPending(thumbnail);
+        job.setVideoPending(video);
+        job.setCreatedAt(Instant.now());
+        job.setUpdatedAt(job.getCreatedAt());
+        return job;
+    }
+
+    private static void send(SseEmitter emitter, VideoJobStatus status){
+        try {
+            emitter.send(SseEmitter.event().name("status").data(status));
+        } catch (Exception e){
+            emitter.completeWithError(e);
+        }
+    }
+
+    private static void delete(@Nullable Path... files){
+        for (Path file : files) {
+            if(file == null) continue;
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e){
+                logger.warn("Could not delete temporary file {}: {}", file, e.getMessage());
+            }
+        }
+    }
+}
@@ -4,22 +4,41 @@ import com.artur.common.entity.Like;
 import com.artur.common.entity.VideoEntity;
 import com.artur.common.entity.VideoMetadata;
 import com.artur.common.entity.user.UserEntity;
-import com.artur.common.entity.user.UserMetadata;
-import com.artur.common.entity.user.WatchHistory;
 import com.artur.common.exception.NotFoundException;
 import com.artur.common.repository.*;
 import com.artur.objectstorage.service.ObjectStorageService;
 import com.artur.youtback.config.KafkaConfig;
 import com.artur.youtback.converter.VideoConverter;
+import com.artur.youtback.counter.LikeCounter;
+import com.artur.youtback.counter.UniqueViewerCounter;
+import com.artur.youtback.counter.UserCounter;
+import com.artur.youtback.counter.ViewCounter;
+import com.artur.youtback.entity.VideoStats;
 import com.artur.youtback.exception.ProcessingException;
 import com.artur.youtback.http.client.RecommendationsHttpClient;
+import com.artur.youtback.leaderboard.Leaderboard;
+import com.artur.youtback.leaderboard.RankingSnapshots;
+import com.artur.youtback.leaderboard.VideoLeaderboards;
+import com.artur.youtback.loader.VideoLoader;
+import com.artur.youtback.model.CursorPage;
 import com.artur.youtback.model.video.Video;
 import com.artur.youtback.model.video.VideoCreateRequest;
 import com.artur.youtback.model.video.VideoUpdateRequest;
+import com.artur.youtback.search.SearchResultCache;
+import com.artur.youtback.search.SuggestionIndex;
+import com.artur.youtback.search.SuggestionTrie;
+import com.artur.youtback.search.VideoSearchIndex;
 import com.artur.youtback.sort.VideoSort;
+import com.artur.youtback.stats.Column;
+import com.artur.youtback.stats.Range;
+import com.artur.youtback.stats.VideoStatsSnapshot;
 import com.artur.youtback.utils.AppConstants;
+import com.artur.youtback.utils.CursorUtils;
+import com.artur.youtback.utils.FailFastScope;
 import com.artur.youtback.utils.FindOptions;
 import com.artur.youtback.utils.MediaUtils;
+import com.artur.youtback.watch.WatchHistoryStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.criteria.CriteriaBuilder;
 import jakarta.persistence.criteria.CriteriaQuery;
@@ -27,28 +46,38 @@ import jakarta.persistence.criteria.Predicate;
 import jakarta.persistence.criteria.Root;
 import jakarta.transaction.Transactional;
 import jakarta.validation.constraints.NotNull;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.tika.language.detect.LanguageDetector;
+import org.hibernate.query.criteria.JpaEntityJoin;
+import org.hibernate.query.criteria.JpaRoot;
+import org.hibernate.query.sqm.tree.SqmJoinType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.kafka.requestreply.ReplyingKafkaTemplate;
-import org.springframework.kafka.requestreply.RequestReplyFuture;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -58,6 +87,8 @@ import java.util.stream.Collectors;
 @Service
 public class VideoService {
     private static final Logger logger = LoggerFactory.getLogger(VideoService.class);
+    /**Amount of subtasks removing objects of the old video concurrently*/
+    private static final int REMOVAL_CONCURRENCY = 8;
 
     @Autowired
     private VideoRepository videoRepository;
@@ -82,9 +113,37 @@ public class VideoService {
     @Autowired
     LanguageDetector languageDetector;
     @Autowired
-    UserMetadataRepository userMetadataRepository;
-    @Autowired
     ReplyingKafkaTemplate<String, String, Boolean> replyingKafkaTemplate;
+    @Autowired
+    ViewCounter viewCounter;
+    @Autowired
+    UniqueViewerCounter uniqueViewerCounter;
+    @Autowired
+    LikeCounter likeCounter;
+    @Autowired
+    WatchHistoryStore watchHistoryStore;
+    @Autowired
+    VideoSearchIndex videoSearchIndex;
+    @Autowired
+    SuggestionIndex suggestionIndex;
+    @Autowired
+    SearchResultCache searchResultCache;
+    @Autowired
+    VideoLeaderboards videoLeaderboards;
+    @Autowired
+    RankingSnapshots rankingSnapshots;
+    @Autowired
+    VideoLoader videoLoader;
+    @Autowired
+    UserCounter userCounter;
+    @Autowired
+    VideoStatsSnapshot videoStatsSnapshot;
+    @Autowired
+    ObjectMapper objectMapper;
+    /**Proxy of this service, transactional methods called on this bean itself run without a transaction*/
+    @Lazy
+    @Autowired
+    VideoService self;
 
 
     @Cacheable(value = "video", key = "#id")
@@ -95,8 +154,137 @@ public class VideoService {
         return videoConverter.convertToModel(optionalVideoEntity.get());
     }
 
-    public List<Video> findByOption(List<String> options, List<String> values) throws NullPointerException, IllegalArgumentException{
-        return Objects.requireNonNull(Tools.findByOption(options, values, entityManager).stream().map(videoConverter::convertToModel).toList());
+    /**Finds page of videos by specified criteria, see {@link Tools#criteria(List, List, EntityManager, Collection, long)}.
+     * Ranking options ({@code MOST_VIEWS}, {@code MOST_LIKES}, {@code MOST_DURATION}) take the amount of videos
+     * as value and are answered by {@link VideoLeaderboards}, other options filter the ranking. Ranking is walked
+     * until the amount of videos match the filters, but only ranked videos are examined, so fewer videos are found
+     * if not enough of the top {@code application.leaderboards.size} match. Only one ranking option
+     * can be specified. Ranked videos are paginated by position in the ranking frozen by {@link RankingSnapshots} when
+     * the first page was read, so changes of scores do not skip or repeat videos, other videos are ordered by id
+     * and paginated by keyset of id. If all options are ranges of stats, videos are found by {@link VideoStatsSnapshot}
+     * and only the found page is loaded from the database.
+     * @param options find options
+     * @param values values of the options
+     * @param cursor cursor returned with the previous page, null for the first page
+     * @param size max amount of videos in the page
+     * @return found videos, ranked if ranking option is specified, and cursor of the next page
+     * @throws IllegalArgumentException if value of an option is incorrect, more than one ranking option is specified
+     * or cursor is malformed
+     */
+    public CursorPage<Video> findByOption(List<String> options, List<String> values, @Nullable String cursor, int size) throws IllegalArgumentException{
+        return findPage(Tools.parse(options, values), cursor, size, true);
+    }
+
+    /**Streams all videos found by specified options as newline delimited JSON, without thumbnails. Videos are read
+     * page by page, every page in its own transaction, so memory used does not depend on amount of found videos.
+     * Options are validated before anything is written.
+     * @param options find options
+     * @param values values of the options
+     * @return body that writes found videos
+     * @throws IllegalArgumentException if value of an option is incorrect or more than one ranking option is specified
+     */
+    public StreamingResponseBody export(List<String> options, List<String> values) throws IllegalArgumentException{
+        Tools.Query query = Tools.parse(options, values);
+        Tools.criteria(query.filterOptions(), query.filterValues(), entityManager, null, 0);
+        return outputStream -> {
+            String cursor = null;
+            do {
+                String after = cursor;
+                CursorPage<Video> page = Objects.requireNonNull(transactionTemplate.execute(status ->
+                        findPage(query, after, AppConstants.EXPORT_CHUNK_SIZE, false)));
+                for (Video video : page.items()) {
+                    outputStream.write(objectMapper.writeValueAsBytes(video));
+                    outputStream.write('\n');
+                }
+                outputStream.flush();
+                cursor = page.next();
+            } while (cursor != null);
+        };
+    }
+
+    private CursorPage<Video> findPage(Tools.Query query, @Nullable String cursor, int size, boolean withThumbnails) throws IllegalArgumentException{
+        if(query.leaderboard() == null){
+            long after = cursor == null ? 0 : Long.parseLong(CursorUtils.decode(cursor, 1)[0]);
+            List<Range> ranges = videoStatsSnapshot.isReady() ? Tools.ranges(query.filterOptions(), query.filterValues(), videoStatsSnapshot) : null;
+            if(ranges != null){
+                List<Long> ids = videoStatsSnapshot.find(ranges, after, size);
+                String next = ids.isEmpty() || ids.size() < size ? null : CursorUtils.encode(ids.getLast());
+                return new CursorPage<>(videoConverter.convertToModels(videoLoader.loadAll(ids), withThumbnails), next);
+            }
+            List<VideoEntity> videos = entityManager.createQuery(Tools.criteria(query.filterOptions(), query.filterValues(), entityManager, null, after))
+                    .setMaxResults(size)
+                    .getResultList();
+            String next = videos.isEmpty() || videos.size() < size ? null : CursorUtils.encode(videos.getLast().getId());
+            return new CursorPage<>(videoConverter.convertToModels(videos, withThumbnails), next);
+        }
+        int from = 0;
+        int remaining = query.limit();
+        String token = null;
+        if(cursor != null){
+            String[] parts = CursorUtils.decode(cursor, 3);
+            token = parts[0];
+            from = Integer.parseInt(parts[1]);
+            remaining = Integer.parseInt(parts[2]);
+        }
+        if(from < 0 || remaining <= 0) throw new IllegalArgumentException("Malformed cursor: " + cursor);
+        //the whole leaderboard is walked, so that filtered out videos are replaced by the next ranked ones
+        List<Long> ranking = token == null
+                ? videoLeaderboards.top(query.leaderboard(), Integer.MAX_VALUE)
+                : rankingSnapshots.range(token, 0, Integer.MAX_VALUE).stream().map(Long::valueOf).toList();
+        int wanted = Math.min(size, remaining);
+        List<VideoEntity> videos = new ArrayList<>(wanted);
+        int position = from;
+        while (videos.size() < wanted && position < ranking.size()) {
+            List<Long> chunk = ranking.subList(position, Math.min(ranking.size(), position + wanted - videos.size()));
+            Map<Long, VideoEntity> found = new HashMap<>();
+            entityManager.createQuery(Tools.criteria(query.filterOptions(), query.filterValues(), entityManager, chunk, 0))
+                    .getResultList()
+                    .forEach(videoEntity -> found.put(videoEntity.getId(), videoEntity));
+            for (Long id : chunk) {
+                VideoEntity videoEntity = found.get(id);
+                if(videoEntity != null) videos.add(videoEntity);
+            }
+            position += chunk.size();
+        }
+        remaining -= videos.size();
+        String next = null;
+        if(position < ranking.size() && remaining > 0){
+            if(token == null) token = rankingSnapshots.freeze(ranking.stream().map(String::valueOf).toList());
+            next = CursorUtils.encode(token, position, remaining);
+        }
+        return new CursorPage<>(videoConverter.convertToModels(videos, withThumbnails), next);
+    }
+
+    /**Finds videos by text in their titles and descriptions, the most relevant first. Uses {@link VideoSearchIndex},
+     * until it is built videos are found by title only. Fuzzy search matches titles only, but tolerates typos.
+     * Ids of found videos are cached by {@link SearchResultCache}.
+     * @param query search query
+     * @param fuzzy whether query may be misspelled
+     * @param page page number, starting from 0
+     * @param size size of the page
+     * @return page of found videos
+     * @throws IllegalArgumentException if page is negative
+     */
+    public List<Video> search(String query, boolean fuzzy, int page, int size) throws IllegalArgumentException{
+        if(page < 0) throw new IllegalArgumentException("Page can not be negative");
+        if(!videoSearchIndex.isReady()){
+            List<Video> videos = findByOption(List.of(FindOptions.VideoOptions.BY_TITLE.name()), List.of(query), null, (page + 1) * size).items();
+            return videos.subList(Math.min(page * size, videos.size()), Math.min((page + 1) * size, videos.size()));
+        }
+        List<Long> ids = searchResultCache.get(query, fuzzy ? "fuzzy" : "full-text", page, size, () -> {
+            List<Long> found = fuzzy ? videoSearchIndex.searchFuzzy(query, (page + 1) * size) : videoSearchIndex.search(query, (page + 1) * size);
+            return found.subList(Math.min(page * size, found.size()), found.size());
+        });
+        return videoConverter.convertToModels(videoLoader.loadAll(ids));
+    }
+
+    /**Completes search query by video titles and popular queries of other users.
+     * @param prefix what user has typed so far
+     * @param limit max amount of completions, clamped to [1, {@link SuggestionTrie#TOP_K}]
+     * @return completions, from the most popular
+     */
+    public List<String> suggest(String prefix, int limit){
+        return suggestionIndex.suggest(prefix, Math.max(1, Math.min(limit, SuggestionTrie.TOP_K)));
     }
 
     public List<Video> recommendations(
@@ -119,11 +307,11 @@ public class VideoService {
                     .map(id -> videoRepository.findById(id).orElseThrow())
                     .collect(Collectors.toCollection(ArrayList::new));
             if(videoSort != null){
-                return videos.stream()
+                return videoConverter.convertToModels(videos.stream()
                         .sorted(VideoSort.getComparator(videoSort))
-                        .map(videoConverter::convertToModel).toList();
+                        .toList());
             } else {
-                return videos.stream().map(videoConverter::convertToModel).toList();
+                return videoConverter.convertToModels(videos);
             }
         } catch (NotFoundException e) {
             logger.error(e.getMessage(), e);
@@ -131,46 +319,6 @@ public class VideoService {
         }
     }
 
-    /**Increments requested video`s views. If specified userId in not null, gets this user and increments his category
-     * and language "points" that match to the video. Adds this video in user`s watch history.
-     * @param videoId video id
-     * @param userId user id, can be null
-     * @return video, converted to DTO
-     * @throws NotFoundException if video id not found
-     */
-    @Cacheable(value = "video", key = "#videoId")
-    @Transactional
-    public Video watchById(Long videoId, String userId) throws NotFoundException{
-        VideoEntity videoEntity = videoRepository.findById(videoId).orElseThrow(() -> new NotFoundException("Video not found"));
-        videoEntity.setViews(videoEntity.getViews() + 1);
-        if(userId != null){
-            userRepository.findById(userId).ifPresent(userEntity -> {
-                UserMetadata userMetadata;
-                if(userEntity.getUserMetadata() == null){
-                    userMetadata = new UserMetadata(userEntity);
-                } else {
-                    userMetadata = userEntity.getUserMetadata();
-                }
-                userMetadata.incrementLanguage(videoEntity.getVideoMetadata().getLanguage());
-                userMetadata.incrementCategory(videoEntity.getVideoMetadata().getCategory());
-                //TODO: change logic of watch history
-                userEntity.getWatchHistory().removeIf(el ->{
-                    if(el.getDate().isAfter(Instant.now().minus(1, ChronoUnit.DAYS))&& Objects.equals(el.getVideoId(), videoId)){
-                        watchHistoryRepository.deleteById(el.getId());
-                        return true;
-                    }
-                    return false;
-                });
-                userEntity.getWatchHistory().add(new WatchHistory(null, userEntity, videoId));
-                userRepository.save(userEntity);
-                userMetadataRepository.save(userMetadata);
-            });
-        }
-        videoRepository.save(videoEntity);
-        return videoConverter.convertToModel(videoEntity);
-    }
-
-
     public InputStream m3u8Index(Long videoId) throws NotFoundException {
         // TODO: 29.01.2024 make m3u8Index and ts methods to return StreamingResponseBody
         try{
@@ -226,47 +374,135 @@ public class VideoService {
         }
     }
 
-    private void videoCreatedPublish(Long videoId){
+    /**Notifies that the video is created and processed.
+     * @param videoId video id
+     */
+    public void videoCreatedPublish(Long videoId){
         replyingKafkaTemplate.send(
                 KafkaConfig.VIDEO_CREATED_NOTIFICATION_TOPIC,
                 videoId.toString());
     }
 
+    /**Sends stored thumbnail of the video for processing. Does not wait for the reply.
+     * @param videoId video id
+     * @return future of the reply, true if processed. Completes exceptionally if no reply received in time
+     */
+    public CompletableFuture<Boolean> processThumbnail(Long videoId){
+        return replyingKafkaTemplate.sendAndReceive(new ProducerRecord<>(
+                KafkaConfig.THUMBNAIL_INPUT_TOPIC,
+                videoId.toString(),
+                AppConstants.VIDEO_PATH + videoId + "/" + AppConstants.THUMBNAIL_FILENAME)
+        ).thenApply(ConsumerRecord::value);
+    }
+
+    /**Sends stored video for processing. Does not wait for the reply.
+     * @param videoId video id
+     * @return future of the reply, true if processed. Completes exceptionally if no reply received in time
+     */
+    public CompletableFuture<Boolean> processVideo(Long videoId){
+        return replyingKafkaTemplate.sendAndReceive(new ProducerRecord<>(
+                KafkaConfig.VIDEO_INPUT_TOPIC,
+                videoId.toString(),
+                AppConstants.VIDEO_PATH + videoId + "/" + AppConstants.VIDEO_FILENAME)
+        ).thenApply(ConsumerRecord::value);
+    }
+
+    /**Creates a new video from uploaded files and waits for processing, see {@link VideoJobService#create} to create it
+     * without waiting. Uploaded video is spooled to a temporary file, which is a move of the file
+     * the upload is already stored in when it is large enough, so the video is never held in memory.
+     * @param video create request
+     * @param userId user id
+     * @return created video
+     * @throws Exception if user not found or failed uploading to {@link ObjectStorageService} or failed to parse duration.
+     */
     public VideoEntity create(VideoCreateRequest video, String userId)  throws Exception{
-        try(
-                InputStream thumbnailInputStream = video.thumbnail().getInputStream();
-                ByteArrayInputStream videoInputStream = new ByteArrayInputStream(video.video().getBytes());
-        ) {
-            VideoEntity videoEntity = create(video.title(), video.description(), video.category(), thumbnailInputStream, videoInputStream, userId);
+        Path spooled = Files.createTempFile("video-upload-", ".tmp");
+        try {
+            video.video().transferTo(spooled.toFile());
+            return create(video.title(), video.description(), video.category(), video.thumbnail(), spooled.toFile(), userId);
+        } finally {
+            Files.deleteIfExists(spooled);
+        }
+    }
+
+    /**Creates a new video from uploaded thumbnail and video file, which stays in place, and waits for processing.
+     * @param title video title
+     * @param description video description
+     * @param category video category
+     * @param thumbnail uploaded thumbnail
+     * @param video video file
+     * @param userId user id
+     * @return created video
+     * @throws Exception if user not found or failed uploading to {@link ObjectStorageService} or failed to parse duration.
+     */
+    public VideoEntity create(String title, String description, String category, MultipartFile thumbnail, File video, String userId) throws Exception{
+        try(InputStream thumbnailInputStream = thumbnail.getInputStream()) {
+            VideoEntity videoEntity = create(title, description, category, thumbnailInputStream, video, userId);
             videoCreatedPublish(videoEntity.getId());
             return videoEntity;
         }
     }
 
+    /**Creates a new video from files and waits for processing. Used for bulk creation of videos.
+     * @param title video title
+     * @param description video description
+     * @param category video category
+     * @param thumbnail thumbnail file
+     * @param video video file
+     * @param userId user id
+     * @return created video
+     * @throws Exception if user not found or failed uploading to {@link ObjectStorageService} or failed to parse duration
+     * or processing failed.
+     */
     public VideoEntity create(String title, String description, String category, File thumbnail, File video, String userId)  throws Exception{
-        try(
-                InputStream thumbnailInputStream = new FileInputStream(thumbnail);
-                ByteArrayInputStream videoInputStream = new ByteArrayInputStream(Files.readAllBytes(video.toPath()));
-        ) {
-            return create(title, description, category,thumbnailInputStream , videoInputStream, userId);
+        try(InputStream thumbnailInputStream = new FileInputStream(thumbnail)) {
+            return create(title, description, category, thumbnailInputStream, video, userId);
         }
     }
 
-    /**Creates a new video. Specified video uploads to {@link ObjectStorageService} and a message is sent for processing by Kafka.
-     * Detects video language by title and duration by Apache Tika`s {@link LanguageDetector}.
-     * Input stream does not close. Uses byte array input stream due to stream being read multiple times.
+    /**Creates a new video, then sends its thumbnail and video for processing and waits for both replies.
+     * Video is deleted if processing failed, the same way {@link VideoJobService} deletes video of a failed job.
+     * Thumbnail input stream does not close.
+     */
+    private VideoEntity create(String title, String description, String category, InputStream thumbnail, File video, String userId) throws Exception{
+        VideoEntity videoEntity = self.store(title, description, category, thumbnail, video, userId);
+        try {
+            CompletableFuture<Boolean> thumbnailResponseFuture = processThumbnail(videoEntity.getId());
+            CompletableFuture<Boolean> videoResponseFuture = processVideo(videoEntity.getId());
+            CompletableFuture.allOf(thumbnailResponseFuture, videoResponseFuture).get(5, TimeUnit.MINUTES);
+            if(!thumbnailResponseFuture.join() || !videoResponseFuture.join()){
+                throw new ProcessingException("Received false from processing microservice");
+            }
+            logger.info("Video {} successfully created", videoEntity.getId());
+            return videoEntity;
+        } catch (Exception e) {
+            logger.error("Could not process video uploaded from client", e);
+            try {
+                self.deleteById(videoEntity.getId());
+            } catch (Exception ex){
+                logger.warn("Could not remove video {} that failed processing: {}", videoEntity.getId(), ex.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    /**Creates a new video and uploads its thumbnail and video to {@link ObjectStorageService} concurrently, so it takes
+     * as long as the video upload, without sending them for processing, see {@link #processThumbnail(Long)} and
+     * {@link #processVideo(Long)}. If one upload fails, the other one is cancelled.
+     * Detects video language by title by Apache Tika`s {@link LanguageDetector} and duration by Apache Tika from
+     * the container headers of the file. Video file is read by random access for duration and streamed once for upload,
+     * so memory used does not depend on size of the video. Thumbnail input stream does not close.
      * @param title video title
      * @param description video description
      * @param category video category
      * @param thumbnail video thumbnail input stream
-     * @param video video byte array input stream
+     * @param video video file
      * @param userId user id
-     * @return optional of VideoEntity
+     * @return created video
      * @throws Exception if user not found or failed uploading to {@link ObjectStorageService} or failed to parse duration.
      */
-    @Transactional
-    private VideoEntity create(String title, String description, String category, InputStream thumbnail, ByteArrayInputStream video, String userId) throws Exception{
-        //TODO: avoid to use ByteArrayInputStream, in order not to store whole video in memory
+    @Transactional(rollbackOn = Exception.class)
+    public VideoEntity store(String title, String description, String category, InputStream thumbnail, File video, String userId) throws Exception{
         UserEntity userEntity = userRepository.findById(userId).orElseThrow(() -> new NotFoundException("User not found"));
         String folder = null;
         try {
@@ -275,29 +511,31 @@ public class VideoService {
             VideoEntity videoEntity = videoConverter.convertToEntity(title, description, userEntity);
             videoEntity.setVideoMetadata(new VideoMetadata(videoEntity, language, duration, category));
             videoRepository.save(videoEntity);
+            userCounter.addVideo(userId, 1);
+            videoSearchIndex.index(videoEntity.getId(), title, description, language);
+            suggestionIndex.add(title);
+            videoLeaderboards.offer(Leaderboard.DURATION, videoEntity.getId(), duration);
+            videoStatsSnapshot.add(videoEntity.getId(), duration, videoEntity.getUploadDate(), category);
 
             folder = AppConstants.VIDEO_PATH + videoEntity.getId();
             String thumbnailFilename = folder + "/" + AppConstants.THUMBNAIL_FILENAME;
-            objectStorageService.putObject(thumbnail, thumbnailFilename);
-            RequestReplyFuture<String, String, Boolean> thumbnailResponseFuture = replyingKafkaTemplate.sendAndReceive(
-                    new ProducerRecord<>(KafkaConfig.THUMBNAIL_INPUT_TOPIC, videoEntity.getId().toString(), thumbnailFilename)
-            );
-
-            video.reset();
-            String videoFilename = AppConstants.VIDEO_PATH + videoEntity.getId() + "/" + "index.mp4";
-            objectStorageService.putObject(video, videoFilename);
-            RequestReplyFuture<String, String, Boolean> videoResponseFuture = replyingKafkaTemplate.sendAndReceive(
-                    new ProducerRecord<>(KafkaConfig.VIDEO_INPUT_TOPIC,videoEntity.getId().toString(), videoFilename)
-            );
-
-            if(!thumbnailResponseFuture.get(5, TimeUnit.MINUTES).value() || !videoResponseFuture.get(5, TimeUnit.MINUTES).value()){
-                throw new ProcessingException("Received false from processing microservice");
+            String videoFilename = folder + "/" + AppConstants.VIDEO_FILENAME;
+            try(FailFastScope scope = new FailFastScope()) {
+                scope.fork(() -> {
+                    objectStorageService.putObject(thumbnail, thumbnailFilename);
+                    return null;
+                });
+                scope.fork(() -> {
+                    try(InputStream videoInputStream = new FileInputStream(video)) {
+                        objectStorageService.putObject(videoInputStream, videoFilename);
+                    }
+                    return null;
+                });
+                scope.join();
             }
-
-            logger.info("Video {} successfully created", videoEntity.getId());
             return videoEntity;
         } catch (Exception e) {
-            logger.error("Could not create video uploaded from client", e);
+            logger.error("Could not store video uploaded from client", e);
             if(folder != null){
                 objectStorageService.removeFolder(folder);
             }
@@ -317,7 +555,16 @@ public class VideoService {
         VideoEntity videoEntity = videoRepository.getReferenceById(id);
         likeRepository.deleteAllById(videoEntity.getLikes().stream().map(Like::getId).toList());
         watchHistoryRepository.deleteAllByVideoId(id);
+        watchHistoryStore.deleteByVideo(id);
+        likeCounter.delete(id);
+        String userId = videoEntity.getUser().getId();
         videoRepository.deleteById(id);
+        userCounter.addVideo(userId, -1);
+        videoSearchIndex.remove(id);
+        videoLeaderboards.remove(id);
+        videoStatsSnapshot.remove(id);
+        viewCounter.discard(id);
+        uniqueViewerCounter.delete(id);
         objectStorageService.removeFolder(AppConstants.VIDEO_PATH + id);
         logger.trace("Video with id {} was successfully deleted", id);
     }
@@ -330,7 +577,8 @@ public class VideoService {
      *     <li>Video - video itself. Can be null
      *     <li>Category - video`s category. Can be null
      * </ul>
-     * If anything of this is null, it wouldn't be changed.
+     * If anything of this is null, it wouldn't be changed. New thumbnail and video are only stored, processing of them
+     * is requested by {@link VideoJobService#update}.
      * @param updateRequest instance of {@link VideoUpdateRequest}
      * @throws Exception - if video not found or error occurred while uploading to {@link ObjectStorageService}
      */
@@ -346,43 +594,76 @@ public class VideoService {
         }
         if(updateRequest.title() != null){
             videoEntity.setTitle(updateRequest.title());
+            suggestionIndex.add(updateRequest.title());
+        }
+        storeMedia(videoEntity.getId(), updateRequest.thumbnail(), updateRequest.video());
+        if(updateRequest.category() != null){
+            videoEntity.getVideoMetadata().setCategory(updateRequest.category());
+            videoStatsSnapshot.updateCategory(videoEntity.getId(), updateRequest.category());
         }
-        if(updateRequest.thumbnail() != null){
-            try (InputStream thumbnailInputStream = updateRequest.thumbnail().getInputStream()){
-                objectStorageService.putObject(thumbnailInputStream, AppConstants.VIDEO_PATH + videoEntity.getId() + "/" + AppConstants.THUMBNAIL_FILENAME);
-                RequestReplyFuture<String, String, Boolean> response = replyingKafkaTemplate.sendAndReceive(
-                        new ProducerRecord<>(
-                                KafkaConfig.THUMBNAIL_INPUT_TOPIC,
-                                AppConstants.VIDEO_PATH + videoEntity.getId() + "/" + AppConstants.THUMBNAIL_FILENAME)
-                );
-                if(!response.get().value()){
-                    throw new ProcessingException("Could not process thumbnail");
+        videoEntity = videoRepository.save(videoEntity);
+        videoSearchIndex.index(videoEntity.getId(), videoEntity.getTitle(), videoEntity.getDescription(),
+                videoEntity.getVideoMetadata() == null ? null : videoEntity.getVideoMetadata().getLanguage());
+        return videoConverter.convertToModel(videoEntity);
+    }
+
+    /**Replaces thumbnail and video of the video in {@link ObjectStorageService}. Uploads run concurrently, if one
+     * of them fails, the other is cancelled. Only once both succeeded, objects produced by processing of the old video
+     * are removed by {@link #REMOVAL_CONCURRENCY} concurrent subtasks, so a failed update never leaves the old video
+     * without them. Thumbnail and video itself are overwritten and are not removed. All of it is done before the new
+     * video is sent for processing. Objects that could not be removed are logged and left in the storage.
+     * @param videoId video id
+     * @param thumbnail new thumbnail or null
+     * @param video new video or null
+     * @throws Exception if an upload failed
+     */
+    private void storeMedia(Long videoId, @Nullable MultipartFile thumbnail, @Nullable MultipartFile video) throws Exception {
+        if(thumbnail == null && video == null) return;
+        String folder = AppConstants.VIDEO_PATH + videoId + "/";
+        List<String> stale = new ArrayList<>();
+        if(video != null){
+            for(var el : objectStorageService.listFiles(folder)){
+                if(!el.contains(AppConstants.THUMBNAIL_FILENAME) && !el.endsWith(AppConstants.VIDEO_FILENAME)){
+                    stale.add(el);
                 }
             }
         }
-        if(updateRequest.video() != null){
-            for(var el : objectStorageService.listFiles(AppConstants.VIDEO_PATH + videoEntity.getId() + "/")){
-                if(!el.contains(AppConstants.THUMBNAIL_FILENAME)){
-                    objectStorageService.removeObject(el);
-                }
+        try(FailFastScope scope = new FailFastScope()) {
+            if(thumbnail != null){
+                scope.fork(() -> {
+                    try (InputStream thumbnailInputStream = thumbnail.getInputStream()){
+                        objectStorageService.putObject(thumbnailInputStream, folder + AppConstants.THUMBNAIL_FILENAME);
+                    }
+                    return null;
+                });
             }
-            try (InputStream videoInputStream = updateRequest.video().getInputStream()) {
-                String videoFilename = AppConstants.VIDEO_PATH + videoEntity.getId() + "/" + "index.mp4";
-                objectStorageService.putObject(videoInputStream, videoFilename);
-                RequestReplyFuture<String, String, Boolean> response = replyingKafkaTemplate.sendAndReceive(
-                        new ProducerRecord<>(
-                                KafkaConfig.VIDEO_INPUT_TOPIC,
-                                videoFilename)
-                );
-                if(!response.get(5, TimeUnit.MINUTES).value()){
-                    throw new ProcessingException("Could not process video");
-                }
+            if(video != null){
+                scope.fork(() -> {
+                    try (InputStream videoInputStream = video.getInputStream()) {
+                        objectStorageService.putObject(videoInputStream, folder + AppConstants.VIDEO_FILENAME);
+                    }
+                    return null;
+                });
             }
+            scope.join();
         }
-        if(updateRequest.category() != null){
-            videoEntity.getVideoMetadata().setCategory(updateRequest.category());
+        if(stale.isEmpty()) return;
+        try(FailFastScope scope = new FailFastScope()) {
+            int perSubtask = Math.max(1, (stale.size() + REMOVAL_CONCURRENCY - 1) / REMOVAL_CONCURRENCY);
+            for (int from = 0; from < stale.size(); from += perSubtask) {
+                List<String> objects = stale.subList(from, Math.min(from + perSubtask, stale.size()));
+                scope.fork(() -> {
+                    for (String object : objects) {
+                        objectStorageService.removeObject(object);
+                    }
+                    return null;
+                });
+            }
+            scope.join();
+        } catch (Exception e){
+            if(e instanceof InterruptedException) Thread.currentThread().interrupt();
+            logger.error("Could not remove stale objects of video " + videoId + ", they are left in the storage", e);
         }
-        return videoConverter.convertToModel(videoRepository.save(videoEntity));
     }
 
     /**Creates specified amount of videos. Video data will be picked randomly of
@@ -481,20 +762,66 @@ public class VideoService {
 
      protected static class Tools {
 
-         /**Finds videos by specified criteria(options). Options are accepted as a List of string
+         /**Find options split into the ranking option and filter options.
+          * @param leaderboard leaderboard of the ranking option, null if there is no ranking option
+          * @param limit amount of ranked videos
+          */
+         record Query(@Nullable Leaderboard leaderboard, int limit, List<String> filterOptions, List<String> filterValues){}
+
+         /**Splits find options into the ranking option and filter options.
+          * @param options find options
+          * @param values values of the options
+          * @return split options
+          * @throws IllegalArgumentException if amount of ranked videos is not positive or more than one ranking option is specified
+          */
+         static Query parse(List<String> options, List<String> values) throws IllegalArgumentException {
+             Leaderboard leaderboard = null;
+             int limit = 0;
+             List<String> filterOptions = new ArrayList<>();
+             List<String> filterValues = new ArrayList<>();
+             for (int i = 0; i < options.size(); i++) {
+                 Leaderboard optionLeaderboard = Leaderboard.of(options.get(i));
+                 if(optionLeaderboard == null){
+                     filterOptions.add(options.get(i));
+                     filterValues.add(values.get(i));
+                     continue;
+                 }
+                 if(leaderboard != null) throw new IllegalArgumentException("Only one ranking option can be specified");
+                 leaderboard = optionLeaderboard;
+                 try {
+                     limit = Integer.parseInt(values.get(i));
+                 } catch (NumberFormatException e){
+                     throw new IllegalArgumentException("Illegal arguments option: [" + options.get(i) + "]" + " value [" + values.get(i) + "]");
+                 }
+                 if(limit <= 0) throw new IllegalArgumentException("Illegal arguments option: [" + options.get(i) + "]" + " value [" + values.get(i) + "]");
+             }
+             return new Query(leaderboard, limit, filterOptions, filterValues);
+         }
+
+         /**Builds query of videos by specified criteria(options). Options are accepted as a List of string
           *  and converted to {@link com.artur.youtback.utils.FindOptions.VideoOptions}. All options will be taken into
           *  account. So the result list will contain all users that satisfy the specified criteria.
+          *  Videos are ordered by id and fetched with their metadata and authors.
           * @param options option to search by. Acceptable options specified
           *              in {@link com.artur.youtback.utils.FindOptions.VideoOptions}
-          * @param values value for the options, can not be null. Range should be indicated like "1/100" for range from 1 to 100.
-          * @return List of users founded by specified options
+          * @param values value for the options, can not be null. Range should be indicated like "1/100" for range from 1 to 100,
+          *               range of upload dates like "2024-01-01/2024-01-31", both days included.
+          * @param ids ids of videos to search among, null to search among all videos
+          * @param after id of the last video of the previous page, 0 for the first page
+          * @return query of videos founded by specified options
           * @throws IllegalArgumentException if range is specified incorrectly
           */
-         static List<VideoEntity> findByOption(List<String> options, List<String> values, EntityManager entityManager) throws IllegalArgumentException {
+         static CriteriaQuery<VideoEntity> criteria(List<String> options, List<String> values, EntityManager entityManager, @Nullable Collection<Long> ids, long after) throws IllegalArgumentException {
              CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
              CriteriaQuery<VideoEntity> criteriaQuery = criteriaBuilder.createQuery(VideoEntity.class);
-             Predicate predicate = criteriaBuilder.conjunction();
              Root<VideoEntity> root = criteriaQuery.from(VideoEntity.class);
+             root.fetch("videoMetadata");
+             root.fetch("user");
+             Predicate predicate = criteriaBuilder.greaterThan(root.get("id"), after);
+             JpaEntityJoin<VideoStats> stats = null;
+             if(ids != null){
+                 predicate = criteriaBuilder.and(predicate, root.get("id").in(ids));
+             }
 
              for (int i = 0; i < options.size() ; i++) {
                  String option = options.get(i);
@@ -504,21 +831,98 @@ public class VideoService {
                  } else if (option.equalsIgnoreCase(FindOptions.VideoOptions.BY_ID.name())) {
                      predicate = criteriaBuilder.and(predicate, criteriaBuilder.equal(root.get("id"), value));
                  } else if (option.equalsIgnoreCase(FindOptions.VideoOptions.BY_VIEWS.name())) {
-                     String[] fromTo = value.split("/");
-                     if(fromTo.length != 2){
-                         throw new IllegalArgumentException("Illegal arguments option: [" + option + "]" + " value [" + value + "]");
-                     }
-                     predicate = criteriaBuilder.and(predicate, criteriaBuilder.between(root.get("views"),fromTo[0], fromTo[1]));
+                     long[] fromTo = range(option, value);
+                     predicate = criteriaBuilder.and(predicate, criteriaBuilder.between(root.get("views"), toInt(fromTo[0]), toInt(fromTo[1])));
                  } else if (option.equalsIgnoreCase(FindOptions.VideoOptions.BY_LIKES.name())) {
-                     String[] fromTo = value.split("/");
-                     if(fromTo.length != 2){
-                         throw new IllegalArgumentException("Illegal arguments option: [" + option + "]" + " value [" + value + "]");
+                     long[] fromTo = range(option, value);
+                     if(stats == null){
+                         //left join, so videos without likes counter yet have no likes
+                         stats = ((JpaRoot<VideoEntity>) root).join(VideoStats.class, SqmJoinType.LEFT);
+                         stats.on(criteriaBuilder.equal(stats.get("videoId"), root.get("id")));
                      }
-                     predicate = criteriaBuilder.and(predicate, criteriaBuilder.between(criteriaBuilder.size(root.get("likes")), Integer.parseInt(fromTo[0]), Integer.parseInt(fromTo[1])));
+                     predicate = criteriaBuilder.and(predicate, criteriaBuilder.between(criteriaBuilder.coalesce(stats.<Long>get("likes"), 0L),
+                             fromTo[0], fromTo[1]));
+                 } else if (option.equalsIgnoreCase(FindOptions.VideoOptions.BY_DURATION.name())) {
+                     long[] fromTo = range(option, value);
+                     predicate = criteriaBuilder.and(predicate, criteriaBuilder.between(root.get("videoMetadata").get("duration"), toInt(fromTo[0]), toInt(fromTo[1])));
+                 } else if (option.equalsIgnoreCase(FindOptions.VideoOptions.BY_CATEGORY.name())) {
+                     predicate = criteriaBuilder.and(predicate, criteriaBuilder.equal(root.get("videoMetadata").get("category"), value));
+                 } else if (option.equalsIgnoreCase(FindOptions.VideoOptions.BY_UPLOAD_DATE.name())) {
+                     long[] fromTo = dateRange(option, value);
+                     predicate = criteriaBuilder.and(predicate, criteriaBuilder.between(root.get("uploadDate"),
+                             Instant.ofEpochSecond(fromTo[0]), Instant.ofEpochSecond(fromTo[1])));
                  }
              }
              criteriaQuery.where(predicate);
-             return entityManager.createQuery(criteriaQuery).getResultList();
+             criteriaQuery.orderBy(criteriaBuilder.asc(root.get("id")));
+             return criteriaQuery;
+         }
+
+         /**Converts filter options to ranges of {@link VideoStatsSnapshot} columns.
+          * @param options filter options
+          * @param values values of the options
+          * @param snapshot snapshot that assigns ids of categories
+          * @return ranges, or null if any of options can not be answered by the snapshot
+          * @throws IllegalArgumentException if range is specified incorrectly
+          */
+         @Nullable
+         static List<Range> ranges(List<String> options, List<String> values, VideoStatsSnapshot snapshot) throws IllegalArgumentException {
+             List<Range> ranges = new ArrayList<>(options.size());
+             for (int i = 0; i < options.size(); i++) {
+                 String option = options.get(i);
+                 String value = values.get(i);
+                 if(option.equalsIgnoreCase(FindOptions.VideoOptions.BY_VIEWS.name())){
+                     long[] fromTo = range(option, value);
+                     ranges.add(new Range(Column.VIEWS, fromTo[0], fromTo[1]));
+                 } else if (option.equalsIgnoreCase(FindOptions.VideoOptions.BY_LIKES.name())) {
+                     long[] fromTo = range(option, value);
+                     ranges.add(new Range(Column.LIKES, fromTo[0], fromTo[1]));
+                 } else if (option.equalsIgnoreCase(FindOptions.VideoOptions.BY_DURATION.name())) {
+                     long[] fromTo = range(option, value);
+                     ranges.add(new Range(Column.DURATION, fromTo[0], fromTo[1]));
+                 } else if (option.equalsIgnoreCase(FindOptions.VideoOptions.BY_UPLOAD_DATE.name())) {
+                     long[] fromTo = dateRange(option, value);
+                     ranges.add(new Range(Column.UPLOAD_DATE, fromTo[0], fromTo[1]));
+                 } else if (option.equalsIgnoreCase(FindOptions.VideoOptions.BY_CATEGORY.name())) {
+                     long category = snapshot.categoryId(value);
+                     ranges.add(new Range(Column.CATEGORY, category, category));
+                 } else {
+                     return null;
+                 }
+             }
+             return ranges;
+         }
+
+         /**Parses range like "1/100".
+          * @return bounds, both inclusive
+          * @throws IllegalArgumentException if range is specified incorrectly
+          */
+         private static long[] range(String option, String value) throws IllegalArgumentException {
+             String[] fromTo = value.split("/");
+             try {
+                 if(fromTo.length == 2) return new long[]{Long.parseLong(fromTo[0].trim()), Long.parseLong(fromTo[1].trim())};
+             } catch (NumberFormatException ignored){}
+             throw new IllegalArgumentException("Illegal arguments option: [" + option + "]" + " value [" + value + "]");
+         }
+
+         /**Bound of a range on an integer column, clamped so that a bound out of integer range does not overflow.
+          */
+         private static int toInt(long bound){
+             return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, bound));
+         }
+
+         /**Parses range of days like "2024-01-01/2024-01-31" in UTC.
+          * @return epoch seconds of the start of the first day and of the end of the last day
+          * @throws IllegalArgumentException if range is specified incorrectly
+          */
+         private static long[] dateRange(String option, String value) throws IllegalArgumentException {
+             String[] fromTo = value.split("/");
+             try {
+                 if(fromTo.length == 2) return new long[]{
+                         LocalDate.parse(fromTo[0].trim()).atStartOfDay(ZoneOffset.UTC).toEpochSecond(),
+                         LocalDate.parse(fromTo[1].trim()).plusDays(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond() - 1};
+             } catch (DateTimeParseException ignored){}
+             throw new IllegalArgumentException("Illegal arguments option: [" + option + "]" + " value [" + value + "]");
          }
 
      }
@@ -0,0 +1,61 @@
+package com.artur.youtback.service;
+
+import com.artur.common.exception.NotFoundException;
+import com.artur.youtback.converter.VideoConverter;
+import com.artur.youtback.counter.UniqueViewerCounter;
+import com.artur.youtback.counter.ViewCounter;
+import com.artur.youtback.model.video.Video;
+import com.artur.youtback.stats.Column;
+import com.artur.youtback.stats.VideoStatsSnapshot;
+import com.artur.youtback.utils.IPUtils;
+import com.artur.youtback.watch.ProfileUpdateWorker;
+import com.artur.youtback.watch.WatchEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+
+/**Watch path of the video. Video itself is read from the "video" cache by {@link VideoService#findById(Long)},
+ * while the view is recorded on every call, no matter if the cache was hit or not. Recording does not touch
+ * the database: views are counted by {@link ViewCounter}, viewers by {@link UniqueViewerCounter} and user profile
+ * is updated asynchronously by {@link ProfileUpdateWorker}. Views leaderboard is fed by {@link ViewCounter#flush()}.
+ */
+@Service
+public class WatchService {
+
+    @Autowired
+    VideoService videoService;
+    @Autowired
+    VideoConverter videoConverter;
+    @Autowired
+    ViewCounter viewCounter;
+    @Autowired
+    UniqueViewerCounter uniqueViewerCounter;
+    @Autowired
+    ProfileUpdateWorker profileUpdateWorker;
+    @Autowired
+    VideoStatsSnapshot videoStatsSnapshot;
+
+    /**Records a view of the video and returns the video. Views of returned video are taken from {@link ViewCounter},
+     * so they include this view even if the video was served from cache. If specified userId in not null, submits
+     * a {@link WatchEvent} to {@link ProfileUpdateWorker}, which later increments user`s category and language "points"
+     * that match to the video and adds this video in user`s watch history. Viewer is recorded in
+     * {@link UniqueViewerCounter} by user id, or by request ip if user id is null.
+     * @param videoId video id
+     * @param userId user id, can be null
+     * @return video, converted to DTO
+     * @throws NotFoundException if video id not found
+     */
+    public Video watch(Long videoId, @Nullable String userId) throws NotFoundException {
+        Video video = videoService.findById(videoId);
+        long views = viewCounter.record(videoId, video.getViewCount() == null ? 0 : video.getViewCount());
+        video.setViews(videoConverter.handleViews(views), views);
+        videoStatsSnapshot.update(videoId, Column.VIEWS, views);
+        uniqueViewerCounter.record(videoId, userId, userId == null ? IPUtils.getRequestIp() : null);
+        if(userId != null){
+            profileUpdateWorker.submit(new WatchEvent(userId, videoId, Instant.now()));
+        }
+        return video;
+    }
+}
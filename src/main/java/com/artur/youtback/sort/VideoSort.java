@@ -4,6 +4,7 @@ import com.artur.common.entity.VideoEntity;
 import jakarta.validation.constraints.NotNull;
 import org.springframework.lang.Nullable;
 
+import java.time.Instant;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Objects;
@@ -16,6 +17,45 @@ public enum VideoSort {
     BY_DURATION_FROM_DESC,
     BY_DURATION_FROM_ACS;
 
+    /**Sort key of the option in JPQL query, where {@code v} is alias of the video and {@code m} of its metadata.
+     */
+    public String path(){
+        return switch (this){
+            case BY_VIEWS_FROM_DESC, BY_VIEWS_FROM_ASC -> "v.views";
+            case BY_UPLOAD_DATE_FROM_OLDEST, BY_UPLOAD_DATE_FROM_NEWEST -> "v.uploadDate";
+            case BY_DURATION_FROM_DESC, BY_DURATION_FROM_ACS -> "m.duration";
+        };
+    }
+
+    public boolean isDescending(){
+        return this == BY_VIEWS_FROM_DESC || this == BY_UPLOAD_DATE_FROM_NEWEST || this == BY_DURATION_FROM_DESC;
+    }
+
+    /**Value of the sort key of the video, encoded as long to be put into cursor. Upload date is encoded as nanoseconds
+     * since epoch, so that it keeps full precision of the database.
+     * @param videoEntity video
+     * @return value of the sort key
+     */
+    public long keyOf(VideoEntity videoEntity){
+        return switch (this){
+            case BY_VIEWS_FROM_DESC, BY_VIEWS_FROM_ASC -> videoEntity.getViews();
+            case BY_UPLOAD_DATE_FROM_OLDEST, BY_UPLOAD_DATE_FROM_NEWEST ->
+                    videoEntity.getUploadDate().getEpochSecond() * 1_000_000_000L + videoEntity.getUploadDate().getNano();
+            case BY_DURATION_FROM_DESC, BY_DURATION_FROM_ACS -> videoEntity.getVideoMetadata().getDuration();
+        };
+    }
+
+    /**Decodes value returned by {@link #keyOf(VideoEntity)} into query parameter.
+     * @param key value of the sort key
+     * @return query parameter of the type of {@link #path()}
+     */
+    public Object keyParameter(long key){
+        return switch (this){
+            case BY_VIEWS_FROM_DESC, BY_VIEWS_FROM_ASC, BY_DURATION_FROM_DESC, BY_DURATION_FROM_ACS -> (int) key;
+            case BY_UPLOAD_DATE_FROM_OLDEST, BY_UPLOAD_DATE_FROM_NEWEST -> Instant.ofEpochSecond(0, key);
+        };
+    }
+
     public static VideoSort convert(@Nullable Integer sortInteger){
         if(sortInteger == null){
             return null;
@@ -0,0 +1,43 @@
+package com.artur.youtback.startup;
+
+import com.artur.youtback.leaderboard.VideoLeaderboards;
+import com.artur.youtback.search.SuggestionIndex;
+import com.artur.youtback.search.VideoSearchIndex;
+import com.artur.youtback.stats.VideoStatsSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**Loads in-memory views of the video table once the application is ready. Loads run one after another on a single
+ * virtual thread, so that startup does not wait for scans of all videos and scans do not compete for the database.
+ * {@link VideoStatsSnapshot} is loaded first, because {@link VideoLeaderboards} are built from it without another scan.
+ * Every load handles its own failures and is repeated by its own schedule.
+ */
+@Component
+public class StartupLoader {
+    private static final Logger logger = LoggerFactory.getLogger(StartupLoader.class);
+
+    @Autowired
+    VideoStatsSnapshot videoStatsSnapshot;
+    @Autowired
+    VideoLeaderboards videoLeaderboards;
+    @Autowired
+    VideoSearchIndex videoSearchIndex;
+    @Autowired
+    SuggestionIndex suggestionIndex;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load(){
+        Thread.ofVirtual().name("startup-loader").start(() -> {
+            long start = System.currentTimeMillis();
+            videoStatsSnapshot.reload();
+            videoLeaderboards.rebuild();
+            videoSearchIndex.sync();
+            suggestionIndex.rebuild();
+            logger.info("Loaded video stats, leaderboards, search index and suggestions in {} ms", System.currentTimeMillis() - start);
+        });
+    }
+}
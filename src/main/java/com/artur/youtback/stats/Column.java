@@ -0,0 +1,12 @@
+package com.artur.youtback.stats;
+
+/**Columns of {@link VideoStatsSnapshot}. All values are non-negative longs: upload date is stored as epoch seconds,
+ * category as id assigned by the snapshot.
+ */
+public enum Column {
+    VIEWS,
+    LIKES,
+    DURATION,
+    UPLOAD_DATE,
+    CATEGORY
+}
@@ -0,0 +1,252 @@
+package com.artur.youtback.stats;
+
+import java.util.*;
+
+/**Immutable columnar table of video stats. Rows are ordered by video id, every column is a primitive array
+ * of values by row and a permutation of rows sorted by value, so a range of a column is found by two binary searches
+ * and its rows are a contiguous slice of the permutation.
+ */
+final class ColumnarStats {
+    static final int COLUMNS = Column.values().length;
+    /**Mask of changed columns of a row which sets all of them*/
+    static final int ALL_COLUMNS = (1 << COLUMNS) - 1;
+    static final ColumnarStats EMPTY = build(new long[0], new long[COLUMNS][0]);
+
+    /**Rows with ordinal below this bound and values below {@link #PACKED_VALUE_BOUND} are sorted as packed longs*/
+    private static final int PACKED_ORDINAL_BITS = 24;
+    private static final long PACKED_VALUE_BOUND = 1L << (63 - PACKED_ORDINAL_BITS);
+
+    private final long[] ids;
+    private final long[][] values;
+    private final int[][] orders;
+
+    private ColumnarStats(long[] ids, long[][] values, int[][] orders) {
+        this.ids = ids;
+        this.values = values;
+        this.orders = orders;
+    }
+
+    /**Builds the table.
+     * @param ids video ids in ascending order
+     * @param values values by column ordinal and row, arrays are not copied
+     * @return built table
+     */
+    static ColumnarStats build(long[] ids, long[][] values){
+        int[][] orders = new int[COLUMNS][];
+        for (int column = 0; column < COLUMNS; column++) {
+            orders[column] = sortedOrder(values[column]);
+        }
+        return new ColumnarStats(ids, values, orders);
+    }
+
+    /**Builds a new table from this one and changed rows. Rows absent in this table are added, deleted rows are removed.
+     * @param changes changed rows by video id
+     * @return new table
+     */
+    ColumnarStats merge(Map<Long, Row> changes){
+        Row[] changed = changes.values().toArray(Row[]::new);
+        Arrays.sort(changed, Comparator.comparingLong(Row::id));
+        int capacity = ids.length + changed.length;
+        long[] mergedIds = new long[capacity];
+        long[][] mergedValues = new long[COLUMNS][capacity];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ids.length || j < changed.length) {
+            if(j == changed.length || (i < ids.length && ids[i] < changed[j].id())){
+                mergedIds[size] = ids[i];
+                for (int column = 0; column < COLUMNS; column++) {
+                    mergedValues[column][size] = values[column][i];
+                }
+                size++;
+                i++;
+                continue;
+            }
+            Row row = changed[j++];
+            if(i < ids.length && ids[i] == row.id()) i++;           //replaced by the changed row
+            if(row.deleted()) continue;
+            mergedIds[size] = row.id();
+            for (int column = 0; column < COLUMNS; column++) {
+                mergedValues[column][size] = row.values()[column];
+            }
+            size++;
+        }
+        for (int column = 0; column < COLUMNS; column++) {
+            mergedValues[column] = Arrays.copyOf(mergedValues[column], size);
+        }
+        return build(Arrays.copyOf(mergedIds, size), mergedValues);
+    }
+
+    int size(){
+        return ids.length;
+    }
+
+    long id(int ordinal){
+        return ids[ordinal];
+    }
+
+    /**Ordinal of the row of the video.
+     * @param id video id
+     * @return ordinal or negative value if there is no such video
+     */
+    int ordinalOf(long id){
+        return Arrays.binarySearch(ids, id);
+    }
+
+    /**Ordinal of the first row with id greater than specified one.
+     */
+    int ordinalAfter(long id){
+        int ordinal = Arrays.binarySearch(ids, id);
+        return ordinal >= 0 ? ordinal + 1 : -ordinal - 1;
+    }
+
+    long[] row(int ordinal){
+        long[] row = new long[COLUMNS];
+        for (int column = 0; column < COLUMNS; column++) {
+            row[column] = values[column][ordinal];
+        }
+        return row;
+    }
+
+    /**Finds rows matching all ranges. The most selective range is turned into a bitset of rows, other ranges
+     * are intersected with it either as bitsets too or, if they match more rows than are left, by checking
+     * values of the remaining rows.
+     * @param ranges ranges of columns, empty to match all rows
+     * @return ordinals of matching rows
+     */
+    BitSet match(List<Range> ranges){
+        BitSet result = new BitSet(ids.length);
+        if(ranges.isEmpty()){
+            result.set(0, ids.length);
+            return result;
+        }
+        int[][] slices = new int[ranges.size()][];
+        Integer[] bySelectivity = new Integer[ranges.size()];
+        for (int i = 0; i < ranges.size(); i++) {
+            slices[i] = slice(ranges.get(i));
+            bySelectivity[i] = i;
+        }
+        Arrays.sort(bySelectivity, Comparator.comparingInt(i -> slices[i][1] - slices[i][0]));
+        int first = bySelectivity[0];
+        int[] order = orders[ranges.get(first).column().ordinal()];
+        for (int k = slices[first][0]; k < slices[first][1]; k++) {
+            result.set(order[k]);
+        }
+        for (int s = 1; s < bySelectivity.length && !result.isEmpty(); s++) {
+            int i = bySelectivity[s];
+            Range range = ranges.get(i);
+            int matched = slices[i][1] - slices[i][0];
+            if(matched < result.cardinality()){
+                BitSet other = new BitSet(ids.length);
+                int[] otherOrder = orders[range.column().ordinal()];
+                for (int k = slices[i][0]; k < slices[i][1]; k++) {
+                    other.set(otherOrder[k]);
+                }
+                result.and(other);
+            } else {
+                long[] column = values[range.column().ordinal()];
+                for (int ordinal = result.nextSetBit(0); ordinal >= 0; ordinal = result.nextSetBit(ordinal + 1)) {
+                    if(!range.contains(column[ordinal])) result.clear(ordinal);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**Bounds of the range in the sorted permutation of its column.
+     * @return start, inclusive, and end, exclusive
+     */
+    private int[] slice(Range range){
+        if(range.from() > range.to()) return new int[]{0, 0};
+        long[] column = values[range.column().ordinal()];
+        int[] order = orders[range.column().ordinal()];
+        return new int[]{bound(column, order, range.from(), false), bound(column, order, range.to(), true)};
+    }
+
+    /**Position of the first row in the permutation with value greater than specified one, or not less than it
+     * if the value is not inclusive*/
+    private static int bound(long[] column, int[] order, long value, boolean inclusive){
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            long current = column[order[middle]];
+            if(current < value || (inclusive && current == value)) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**Rows sorted by value, equal values by row. Values and ordinals are packed into longs and sorted as primitives
+     * when they fit, otherwise rows are sorted by comparator.
+     */
+    private static int[] sortedOrder(long[] column){
+        int[] order = new int[column.length];
+        boolean packable = column.length < (1 << PACKED_ORDINAL_BITS);
+        for (int i = 0; i < column.length && packable; i++) {
+            packable = column[i] >= 0 && column[i] < PACKED_VALUE_BOUND;
+        }
+        if(packable){
+            long[] packed = new long[column.length];
+            for (int i = 0; i < column.length; i++) {
+                packed[i] = column[i] << PACKED_ORDINAL_BITS | i;
+            }
+            Arrays.sort(packed);
+            long mask = (1L << PACKED_ORDINAL_BITS) - 1;
+            for (int i = 0; i < packed.length; i++) {
+                order[i] = (int) (packed[i] & mask);
+            }
+        } else {
+            Integer[] boxed = new Integer[column.length];
+            for (int i = 0; i < column.length; i++) {
+                boxed[i] = i;
+            }
+            Arrays.sort(boxed, Comparator.<Integer>comparingLong(i -> column[i]).thenComparingInt(i -> i));
+            for (int i = 0; i < boxed.length; i++) {
+                order[i] = boxed[i];
+            }
+        }
+        return order;
+    }
+
+    /**Row changed after the table was built.
+     * @param id video id
+     * @param ordinal ordinal of the row in the table it shadows, negative if the row is new
+     * @param values values by column ordinal
+     * @param changed mask of columns, by ordinal, that were set after the row was copied from the table
+     * @param deleted whether the video is deleted
+     */
+    record Row(long id, int ordinal, long[] values, int changed, boolean deleted){
+
+        /**Row with the specified column set.
+         */
+        Row with(Column column, long value){
+            long[] changedValues = values.clone();
+            changedValues[column.ordinal()] = value;
+            return new Row(id, ordinal, changedValues, changed | 1 << column.ordinal(), false);
+        }
+
+        /**Moves the row onto another table. Columns that were not changed are taken from the table, since values
+         * copied from the previous table may be stale.
+         * @param table table the row will shadow
+         * @return moved row, null if the video is not in the table and the row does not set all columns, which means
+         * the video was deleted
+         */
+        Row rebase(ColumnarStats table){
+            int rebased = table.ordinalOf(id);
+            if(rebased < 0) return changed == ALL_COLUMNS && !deleted ? new Row(id, -1, values, changed, false) : null;
+            long[] rebasedValues = table.row(rebased);
+            for (int column = 0; column < COLUMNS; column++) {
+                if((changed & 1 << column) != 0) rebasedValues[column] = values[column];
+            }
+            return new Row(id, rebased, rebasedValues, changed, deleted);
+        }
+
+        boolean matches(List<Range> ranges){
+            for (Range range : ranges) {
+                if(!range.contains(values[range.column().ordinal()])) return false;
+            }
+            return true;
+        }
+    }
+}
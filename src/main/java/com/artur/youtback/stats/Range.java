@@ -0,0 +1,13 @@
+package com.artur.youtback.stats;
+
+/**Inclusive range of values of a column.
+ * @param column column
+ * @param from lower bound, inclusive
+ * @param to upper bound, inclusive
+ */
+public record Range(Column column, long from, long to) {
+
+    boolean contains(long value){
+        return value >= from && value <= to;
+    }
+}
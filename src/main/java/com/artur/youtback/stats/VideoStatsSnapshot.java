@@ -0,0 +1,294 @@
+package com.artur.youtback.stats;
+
+import com.artur.youtback.startup.StartupLoader;
+import com.artur.youtback.utils.KeysetScanner;
+import com.artur.youtback.utils.TransactionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**In-memory columnar snapshot of views, likes, duration, upload date and category of all videos, so that range filters
+ * of admin queries are answered by binary searches and bitset intersections instead of the database.
+ * The snapshot is an immutable {@link ColumnarStats} plus an overlay of rows changed since it was built. Views, likes,
+ * created and deleted videos are written to the overlay after commit. Once the overlay grows over
+ * {@code application.video-stats.compaction-threshold} rows it is merged into a new table. The whole snapshot is
+ * loaded from the database on start and once a day, by a keyset scan chunk by chunk, which also picks up changes
+ * made through other instances.
+ */
+@Component
+public class VideoStatsSnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(VideoStatsSnapshot.class);
+    private static final int SCAN_CHUNK = 5000;
+    /**Category id of videos without category*/
+    private static final int NO_CATEGORY = Integer.MAX_VALUE;
+
+    private final int compactionThreshold;
+    private final Map<Long, ColumnarStats.Row> overlay = new ConcurrentHashMap<>();
+    private final Map<String, Integer> categories = new ConcurrentHashMap<>();
+    private final AtomicInteger nextCategory = new AtomicInteger();
+    /**Read lock is held by queries and by writes to the overlay, write lock by swapping the table*/
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**Held while a new table is built, so that compaction and reload do not overlap*/
+    private final Object replacing = new Object();
+    private volatile ColumnarStats table = ColumnarStats.EMPTY;
+    private volatile boolean ready;
+
+    @Autowired
+    KeysetScanner keysetScanner;
+
+    public VideoStatsSnapshot(@Value("${application.video-stats.compaction-threshold:10000}") int compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**Whether the snapshot has been loaded and can answer queries.
+     */
+    public boolean isReady(){
+        return ready;
+    }
+
+    /**Finds page of videos matching all ranges, ordered by id.
+     * @param ranges ranges of columns, empty to match all videos
+     * @param after id of the last video of the previous page, 0 for the first page
+     * @param limit max amount of videos
+     * @return ids of matching videos, ascending
+     */
+    public List<Long> find(List<Range> ranges, long after, int limit){
+        List<Long> result = new ArrayList<>(Math.min(limit, 1024));
+        if(limit <= 0) return result;
+        lock.readLock().lock();
+        try {
+            ColumnarStats current = table;
+            BitSet matched = current.match(ranges);
+            List<Long> changed = new ArrayList<>();
+            for (ColumnarStats.Row row : overlay.values()) {
+                if(row.ordinal() >= 0) matched.clear(row.ordinal());
+                if(!row.deleted() && row.id() > after && row.matches(ranges)) changed.add(row.id());
+            }
+            Collections.sort(changed);
+            int ordinal = matched.nextSetBit(current.ordinalAfter(after));
+            int next = 0;
+            while (result.size() < limit && (ordinal >= 0 || next < changed.size())) {
+                if(next == changed.size() || (ordinal >= 0 && current.id(ordinal) < changed.get(next))){
+                    result.add(current.id(ordinal));
+                    ordinal = matched.nextSetBit(ordinal + 1);
+                } else {
+                    result.add(changed.get(next++));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**Id of the category in the {@link Column#CATEGORY} column.
+     * @param category category name
+     * @return category id or -1 if there are no videos of this category
+     */
+    public long categoryId(String category){
+        return categories.getOrDefault(category, -1);
+    }
+
+    /**Adds created video to the snapshot after the current transaction commits.
+     * @param videoId video id
+     * @param duration duration in seconds
+     * @param uploadDate upload date
+     * @param category category, can be null
+     */
+    public void add(Long videoId, int duration, Instant uploadDate, @Nullable String category){
+        long[] values = new long[ColumnarStats.COLUMNS];
+        values[Column.DURATION.ordinal()] = duration;
+        values[Column.UPLOAD_DATE.ordinal()] = uploadDate.getEpochSecond();
+        values[Column.CATEGORY.ordinal()] = category(category);
+        TransactionUtils.afterCommit(() -> write(videoId, row -> new ColumnarStats.Row(videoId, row == null ? -1 : row.ordinal(), values,
+                ColumnarStats.ALL_COLUMNS, false)));
+    }
+
+    /**Sets value of the column of the video after the current transaction commits. Videos that are not
+     * in the snapshot are ignored.
+     * @param videoId video id
+     * @param column column
+     * @param value new value
+     */
+    public void update(Long videoId, Column column, long value){
+        TransactionUtils.afterCommit(() -> write(videoId, row -> {
+            if(row == null || row.deleted()) return row;
+            return row.with(column, Math.max(value, 0));
+        }));
+    }
+
+    /**Sets category of the video after the current transaction commits.
+     * @param videoId video id
+     * @param category new category
+     */
+    public void updateCategory(Long videoId, @Nullable String category){
+        update(videoId, Column.CATEGORY, category(category));
+    }
+
+    /**Removes the video from the snapshot after the current transaction commits.
+     * @param videoId video id
+     */
+    public void remove(Long videoId){
+        TransactionUtils.afterCommit(() -> write(videoId, row -> row == null ? null : new ColumnarStats.Row(videoId, row.ordinal(), row.values(),
+                row.changed(), true)));
+    }
+
+    /**Merges the overlay into a new table if it has grown over the threshold.
+     */
+    @Scheduled(fixedDelayString = "${application.video-stats.compaction-interval:10000}")
+    public void compact(){
+        if(overlay.size() < compactionThreshold) return;
+        replace(null);
+    }
+
+    /**Loads the snapshot from the database. Changes that happen while it is loaded are kept in the overlay and
+     * merged into the loaded table. First loaded by {@link StartupLoader}.
+     */
+    @Scheduled(cron = "${application.video-stats.reload-cron:0 50 4 * * *}")
+    public void reload(){
+        long start = System.currentTimeMillis();
+        try {
+            replace(load());
+            ready = true;
+            logger.info("Loaded stats of {} videos in {} ms", table.size(), System.currentTimeMillis() - start);
+        } catch (Exception e){
+            logger.error("Could not load video stats", e);
+        }
+    }
+
+    /**Replaces the table by the specified one, or by the current one if null, merged with the overlay. The new table
+     * is built from a copy of the overlay while queries and writes go on, only the swap takes the write lock. Rows that
+     * were written meanwhile stay in the overlay and are moved onto the new table.
+     */
+    void replace(@Nullable ColumnarStats loaded){
+        synchronized (replacing) {
+            ColumnarStats base = loaded == null ? table : loaded;
+            Map<Long, ColumnarStats.Row> merged = new HashMap<>();
+            Map<Long, ColumnarStats.Row> changes = Map.copyOf(overlay);
+            for (ColumnarStats.Row row : changes.values()) {
+                ColumnarStats.Row rebased = row.rebase(base);
+                if(rebased != null) merged.put(row.id(), rebased);
+            }
+            ColumnarStats replacement = base.merge(merged);
+            lock.writeLock().lock();
+            try {
+                table = replacement;
+                changes.forEach(overlay::remove);           //only rows that were not written since the copy
+                for (ColumnarStats.Row row : overlay.values()) {
+                    ColumnarStats.Row rebased = row.rebase(replacement);
+                    if(rebased == null) overlay.remove(row.id());
+                    else overlay.put(row.id(), rebased);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**Passes values of every video to the consumer. Read lock is held meanwhile, so the consumer should not block.
+     * @param consumer takes video id and its values, indexed by {@link Column} ordinal, which should not be changed
+     */
+    public void forEach(BiConsumer<Long, long[]> consumer){
+        lock.readLock().lock();
+        try {
+            ColumnarStats current = table;
+            BitSet changed = new BitSet(current.size());
+            for (ColumnarStats.Row row : overlay.values()) {
+                if(row.ordinal() >= 0) changed.set(row.ordinal());
+                if(!row.deleted()) consumer.accept(row.id(), row.values());
+            }
+            for (int ordinal = changed.nextClearBit(0); ordinal < current.size(); ordinal = changed.nextClearBit(ordinal + 1)) {
+                consumer.accept(current.id(ordinal), current.row(ordinal));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int overlaySize(){
+        return overlay.size();
+    }
+
+    /**Changes the row of the video in the overlay. Row that is not in the overlay yet is copied from the table first.
+     * @param videoId video id
+     * @param change takes current row, null if there is no such video, and returns the changed one or null
+     */
+    private void write(Long videoId, UnaryOperator<ColumnarStats.Row> change){
+        lock.readLock().lock();
+        try {
+            ColumnarStats current = table;
+            overlay.compute(videoId, (id, row) -> {
+                if(row == null){
+                    int ordinal = current.ordinalOf(id);
+                    row = ordinal < 0 ? null : new ColumnarStats.Row(id, ordinal, current.row(ordinal), 0, false);
+                }
+                return change.apply(row);
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int category(@Nullable String category){
+        if(category == null) return NO_CATEGORY;
+        return categories.computeIfAbsent(category, name -> nextCategory.getAndIncrement());
+    }
+
+    private ColumnarStats load(){
+        Columns columns = new Columns();
+        keysetScanner.scan("select v.id, v.views, v.uploadDate, m.duration, m.category from VideoEntity v left join v.videoMetadata m " +
+                "where v.id > :after order by v.id", SCAN_CHUNK, row -> {
+            long[] values = new long[ColumnarStats.COLUMNS];
+            values[Column.VIEWS.ordinal()] = row[1] == null ? 0 : Math.max(((Number) row[1]).longValue(), 0);
+            values[Column.UPLOAD_DATE.ordinal()] = row[2] == null ? 0 : ((Instant) row[2]).getEpochSecond();
+            values[Column.DURATION.ordinal()] = row[3] == null ? 0 : ((Number) row[3]).longValue();
+            values[Column.CATEGORY.ordinal()] = category((String) row[4]);
+            columns.add((Long) row[0], values);
+        });
+        long[] ids = Arrays.copyOf(columns.ids, columns.size);
+        long[][] values = new long[ColumnarStats.COLUMNS][];
+        for (int column = 0; column < ColumnarStats.COLUMNS; column++) {
+            values[column] = Arrays.copyOf(columns.values[column], columns.size);
+        }
+        keysetScanner.scan("select s.videoId, s.likes from VideoStats s where s.videoId > :after order by s.videoId", SCAN_CHUNK, row -> {
+            int ordinal = Arrays.binarySearch(ids, (Long) row[0]);
+            if(ordinal >= 0) values[Column.LIKES.ordinal()][ordinal] = Math.max(((Number) row[1]).longValue(), 0);
+        });
+        return ColumnarStats.build(ids, values);
+    }
+
+    /**Growing columns of the loaded table.
+     */
+    private static class Columns {
+        long[] ids = new long[1024];
+        long[][] values = new long[ColumnarStats.COLUMNS][1024];
+        int size;
+
+        void add(long id, long[] row){
+            if(size == ids.length){
+                ids = Arrays.copyOf(ids, size * 2);
+                for (int column = 0; column < ColumnarStats.COLUMNS; column++) {
+                    values[column] = Arrays.copyOf(values[column], size * 2);
+                }
+            }
+            ids[size] = id;
+            for (int column = 0; column < ColumnarStats.COLUMNS; column++) {
+                values[column][size] = row[column];
+            }
+            size++;
+        }
+    }
+}
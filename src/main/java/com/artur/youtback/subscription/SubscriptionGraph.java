@@ -0,0 +1,239 @@
+package com.artur.youtback.subscription;
+
+import com.artur.common.entity.user.UserEntity;
+import com.artur.youtback.counter.UserCounter;
+import com.artur.youtback.entity.UserStats;
+import com.artur.youtback.repository.SubscriptionRepository;
+import com.artur.youtback.repository.UserStatsRepository;
+import com.artur.youtback.utils.TransactionUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.collection.AbstractCollectionPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+
+/**Graph of subscriptions between users. Edges are added and removed by single-row statements on the join table
+ * of {@link UserEntity#getSubscribes()}, so neither side of the edge is loaded. Amounts of subscribers and
+ * subscriptions are kept in {@link UserStats} by {@link UserCounter} and changed in the same transaction as the edge.
+ * Channels that user subscribed are kept in a Redis set per user for membership checks, the set is loaded
+ * on the first check and changed after commit. Changes are applied only to loaded sets. A change committed while
+ * a set is being loaded may be missed by the database read, so every load holds a token under
+ * {@link #LOADING_SUFFIX} key, a change of a not loaded set deletes the token, and the loaded set is stored only
+ * if its token is still there.
+ */
+@Component
+public class SubscriptionGraph {
+    private static final Logger logger = LoggerFactory.getLogger(SubscriptionGraph.class);
+    private static final String KEY_PREFIX = "video-api:subscriptions:";
+    /**User ids are UUIDs, so this is never a subscribed channel*/
+    private static final String LOADED_MARKER = "-";
+    private static final String LOADING_SUFFIX = ":loading";
+    private static final Duration KEY_TTL = Duration.ofHours(6);
+    private static final Duration LOAD_TIMEOUT = Duration.ofMinutes(1);
+    private static final RedisScript<Long> APPLY = new DefaultRedisScript<>("""
+            if redis.call('sismember', KEYS[1], ARGV[1]) == 0 then
+                redis.call('del', KEYS[2])
+                return 0
+            end
+            if ARGV[3] == '1' then
+                redis.call('sadd', KEYS[1], ARGV[2])
+            else
+                redis.call('srem', KEYS[1], ARGV[2])
+            end
+            redis.call('pexpire', KEYS[1], ARGV[4])
+            return 1
+            """, Long.class);
+    private static final RedisScript<Long> STORE = new DefaultRedisScript<>("""
+            if redis.call('get', KEYS[2]) ~= ARGV[1] then return 0 end
+            redis.call('del', KEYS[1], KEYS[2])
+            for i = 3, #ARGV, 1000 do
+                redis.call('sadd', KEYS[1], unpack(ARGV, i, math.min(i + 999, #ARGV)))
+            end
+            redis.call('pexpire', KEYS[1], ARGV[2])
+            return 1
+            """, Long.class);
+
+    private String insertEdge;
+    private String deleteEdge;
+    private String deleteAllEdges;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    StringRedisTemplate redisTemplate;
+    @Autowired
+    UserStatsRepository userStatsRepository;
+    @Autowired
+    SubscriptionRepository subscriptionRepository;
+    @Autowired
+    UserCounter userCounter;
+
+    /**Join table is mapped in the common module, so its name and columns are taken from Hibernate mapping.
+     */
+    @PostConstruct
+    void resolveJoinTable(){
+        AbstractCollectionPersister persister = (AbstractCollectionPersister) entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getMappingMetamodel()
+                .getCollectionDescriptor(UserEntity.class.getName() + ".subscribes");
+        String table = persister.getTableName();
+        String subscriber = persister.getKeyColumnNames()[0];
+        String channel = persister.getElementColumnNames()[0];
+        insertEdge = "insert ignore into " + table + " (" + subscriber + ", " + channel + ") values (?, ?)";
+        deleteEdge = "delete from " + table + " where " + subscriber + " = ? and " + channel + " = ?";
+        deleteAllEdges = "delete from " + table + " where " + subscriber + " = ? or " + channel + " = ?";
+    }
+
+    /**Subscribes user to the channel. Both users should exist. Should be called in a transaction.
+     * @param userId id of subscriber
+     * @param channelId id of channel
+     * @return true if subscribed, false if user was already subscribed
+     */
+    public boolean subscribe(String userId, String channelId){
+        if(jdbcTemplate.update(insertEdge, userId, channelId) == 0) return false;
+        userCounter.addSubscription(userId, channelId, 1);
+        TransactionUtils.afterCommit(() -> apply(userId, channelId, true));
+        return true;
+    }
+
+    /**Unsubscribes user from the channel. Should be called in a transaction.
+     * @param userId id of subscriber
+     * @param channelId id of channel
+     * @return true if unsubscribed, false if user was not subscribed
+     */
+    public boolean unsubscribe(String userId, String channelId){
+        if(jdbcTemplate.update(deleteEdge, userId, channelId) == 0) return false;
+        userCounter.addSubscription(userId, channelId, -1);
+        TransactionUtils.afterCommit(() -> apply(userId, channelId, false));
+        return true;
+    }
+
+    /**Checks if user subscribed the channel. Checked by a single {@code SISMEMBER}, or in the database if Redis
+     * is not available.
+     * @param userId id of subscriber
+     * @param channelId id of channel
+     * @return true if subscribed
+     */
+    public boolean isSubscribed(String userId, String channelId){
+        String key = KEY_PREFIX + userId;
+        try {
+            Map<Object, Boolean> isMember = redisTemplate.opsForSet().isMember(key, LOADED_MARKER, channelId);
+            if(isMember == null || !Boolean.TRUE.equals(isMember.get(LOADED_MARKER))){
+                return load(userId).contains(channelId);
+            }
+            return Boolean.TRUE.equals(isMember.get(channelId));
+        } catch (DataAccessException e){
+            logger.warn("Could not read subscriptions of user {} from Redis: {}", userId, e.getMessage());
+            return subscriptionRepository.findSubscribedChannelIds(userId).contains(channelId);
+        }
+    }
+
+    /**Amount of subscribers of the user.
+     * @param userId user id
+     * @return amount of subscribers
+     */
+    public long subscribers(String userId){
+        return subscribers(List.of(userId)).getOrDefault(userId, 0L);
+    }
+
+    /**Amount of subscribers of every specified user, read by a single query. Users without counters yet are counted
+     * by an aggregate query.
+     * @param userIds ids of users
+     * @return map of user id to amount of subscribers. Users without subscribers may be absent
+     */
+    public Map<String, Long> subscribers(Collection<String> userIds){
+        Map<String, Long> result = new HashMap<>();
+        if(userIds.isEmpty()) return result;
+        for (UserStats stats : userStatsRepository.findAllById(userIds)) {
+            result.put(stats.getUserId(), stats.getSubscribers());
+        }
+        if(result.size() < userIds.size()){
+            List<String> missing = userIds.stream().filter(id -> !result.containsKey(id)).toList();
+            for (Object[] row : subscriptionRepository.countSubscribers(missing)) {
+                result.put((String) row[0], (Long) row[1]);
+            }
+        }
+        return result;
+    }
+
+    /**Removes all edges of the user and updates counters of users on the other side. Should be called in a transaction
+     * before user is deleted.
+     * @param userId user id
+     */
+    public void removeUser(String userId){
+        List<String> channels = subscriptionRepository.findSubscribedChannelIds(userId);
+        List<String> subscribers = subscriptionRepository.findSubscriberIds(userId);
+        jdbcTemplate.update(deleteAllEdges, userId, userId);
+        if(!channels.isEmpty()) userStatsRepository.addSubscribers(channels, -1);
+        if(!subscribers.isEmpty()) userStatsRepository.addSubscriptions(subscribers, -1);
+        userStatsRepository.findById(userId).ifPresent(userStatsRepository::delete);
+        TransactionUtils.afterCommit(() -> {
+            try {
+                redisTemplate.delete(List.of(KEY_PREFIX + userId, KEY_PREFIX + userId + LOADING_SUFFIX));
+                redisTemplate.executePipelined(new SessionCallback<>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Object execute(RedisOperations operations) throws DataAccessException {
+                        RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                        for (String subscriber : subscribers) {
+                            ops.opsForSet().remove(KEY_PREFIX + subscriber, userId);
+                            ops.delete(KEY_PREFIX + subscriber + LOADING_SUFFIX);
+                        }
+                        return null;
+                    }
+                });
+            } catch (DataAccessException e){
+                logger.warn("Could not remove subscriptions of user {} from Redis: {}", userId, e.getMessage());
+            }
+        });
+    }
+
+    /**Loads set of the user from the database. Set is not stored if a change was applied during the load, it is loaded
+     * again on the next check then.
+     */
+    private Set<String> load(String userId){
+        String key = KEY_PREFIX + userId;
+        String loading = key + LOADING_SUFFIX;
+        String token = UUID.randomUUID().toString();
+        redisTemplate.opsForValue().set(loading, token, LOAD_TIMEOUT);
+        List<String> channels = subscriptionRepository.findSubscribedChannelIds(userId);
+        Object[] args = new Object[channels.size() + 3];
+        args[0] = token;
+        args[1] = String.valueOf(KEY_TTL.toMillis());
+        args[2] = LOADED_MARKER;
+        for (int i = 0; i < channels.size(); i++) {
+            args[i + 3] = channels.get(i);
+        }
+        redisTemplate.execute(STORE, List.of(key, loading), args);
+        return new HashSet<>(channels);
+    }
+
+    private void apply(String userId, String channelId, boolean subscribed){
+        String key = KEY_PREFIX + userId;
+        try {
+            redisTemplate.execute(APPLY, List.of(key, key + LOADING_SUFFIX),
+                    LOADED_MARKER, channelId, subscribed ? "1" : "0", String.valueOf(KEY_TTL.toMillis()));
+        } catch (DataAccessException e){
+            logger.warn("Could not update subscriptions of user {} in Redis, evicting them: {}", userId, e.getMessage());
+            try {
+                redisTemplate.delete(List.of(key, key + LOADING_SUFFIX));
+            } catch (DataAccessException ignored){
+                //set expires anyway
+            }
+        }
+    }
+}
@@ -8,10 +8,14 @@ public class AppConstants {
     public static final int MAX_POPULARITY_EXTENSION = 2;
     public static final int MAX_SEARCH_HISTORY_OPTIONS = 10;
     public static final int MAX_VIDEOS_PER_REQUEST = 30;
+    public static final int MAX_USERS_PER_REQUEST = 50;
+    public static final int EXPORT_CHUNK_SIZE = 500;
+    public static final int MAX_RANKING_SIZE = 10000;
 
     //path
     public static final String USER_PATH = "user/";
     public static final String VIDEO_PATH = "video/";
+    public static final String UPLOAD_PATH = "upload/";
 
     //profiles
     public static final String SPRING_DEV_PROFILE = "dev";
@@ -28,6 +32,7 @@ public class AppConstants {
     //filenames
     private static final String THUMBNAIL_NAME = "thumbnail";
     public static final String THUMBNAIL_FILENAME = THUMBNAIL_NAME + THUMBNAIL_FORMAT;
+    public static final String VIDEO_FILENAME = "index.mp4";
 
     //other
     public static final String CLIENT_DOMAIN = "http://localhost:3000/";
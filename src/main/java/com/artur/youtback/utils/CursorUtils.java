@@ -0,0 +1,33 @@
+package com.artur.youtback.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.stream.Collectors;
+
+public class CursorUtils {
+    private static final String SEPARATOR = ":";
+
+    /**Encodes key values of the last element of the page into opaque cursor.
+     * @param parts key values, string representation should not contain ':'
+     * @return url safe cursor
+     */
+    public static String encode(Object... parts){
+        String joined = Arrays.stream(parts).map(String::valueOf).collect(Collectors.joining(SEPARATOR));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(joined.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**Decodes cursor created by {@link #encode(Object...)}.
+     * @param cursor cursor
+     * @param parts expected amount of key values
+     * @return key values
+     * @throws IllegalArgumentException if cursor is malformed
+     */
+    public static String[] decode(String cursor, int parts) throws IllegalArgumentException{
+        String[] result = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(SEPARATOR, parts);
+        if(result.length != parts){
+            throw new IllegalArgumentException("Malformed cursor: " + cursor);
+        }
+        return result;
+    }
+}
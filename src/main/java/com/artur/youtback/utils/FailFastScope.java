@@ -0,0 +1,79 @@
+package com.artur.youtback.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**Scope of concurrent subtasks in the manner of {@code StructuredTaskScope.ShutdownOnFailure}, which is a preview API
+ * in Java 21. Every subtask runs on its own virtual thread. The first failed subtask cancels its siblings by
+ * interrupting them, {@link #join()} waits until all subtasks are done and throws the first failure, so no subtask
+ * outlives the scope. Closing the scope without joining cancels the subtasks and waits for them.
+ * <pre>{@code
+ * try(FailFastScope scope = new FailFastScope()) {
+ *     scope.fork(() -> upload(thumbnail));
+ *     scope.fork(() -> upload(video));
+ *     scope.join();
+ * }
+ * }</pre>
+ */
+public class FailFastScope implements AutoCloseable {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final List<Future<?>> forked = new ArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**Starts the subtask. If a sibling has already failed, subtask is cancelled at once.
+     * @param task subtask
+     * @return future of the subtask result, which is available after {@link #join()}
+     */
+    public <T> Future<T> fork(Callable<T> task){
+        Future<T> future = executor.submit(() -> {
+            try {
+                return task.call();
+            } catch (Throwable e){
+                if(failure.compareAndSet(null, e)) cancel();
+                throw e;
+            }
+        });
+        synchronized (forked) {
+            forked.add(future);
+        }
+        if(failure.get() != null) future.cancel(true);
+        return future;
+    }
+
+    /**Waits until all subtasks are done.
+     * @throws Exception first failure of a subtask, the cause is wrapped in {@link ExecutionException} if it is not an exception
+     * @throws InterruptedException if interrupted while waiting, subtasks are cancelled
+     */
+    public void join() throws Exception{
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                //keep waiting, subtasks are bounded by their own timeouts
+            }
+        } catch (InterruptedException e){
+            cancel();
+            throw e;
+        }
+        Throwable cause = failure.get();
+        if(cause instanceof Exception exception) throw exception;
+        if(cause != null) throw new ExecutionException(cause);
+    }
+
+    /**Cancels subtasks that are not done and waits for them.
+     */
+    @Override
+    public void close() {
+        cancel();
+        executor.close();
+    }
+
+    private void cancel(){
+        synchronized (forked) {
+            for (Future<?> future : forked) {
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -22,7 +22,10 @@ public class FindOptions {
         BY_LIKES,
         MOST_LIKES,
         MOST_VIEWS,
-        BY_TITLE
+        BY_TITLE,
+        BY_DURATION,
+        BY_CATEGORY,
+        BY_UPLOAD_DATE
     }
 
     public static boolean isUserOptionExists(String option){
@@ -1,12 +1,20 @@
 package com.artur.youtback.utils;
 
+import org.springframework.lang.Nullable;
 import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 
 public class IPUtils {
     private static final String REQUEST_IP_ATTRIBUTE = "REQUEST_IP";
 
+    /**Ip of the current request.
+     * @return request ip or null if called outside of request
+     */
+    @Nullable
     public static String getRequestIp(){
-        return (String) RequestContextHolder.currentRequestAttributes().getAttribute(REQUEST_IP_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if(attributes == null) return null;
+        String ip = (String) attributes.getAttribute(REQUEST_IP_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        return ip != null ? ip : RequestUtils.getCurrentHttpRequest().getRemoteAddr();
     }
 }
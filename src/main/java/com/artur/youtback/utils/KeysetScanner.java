@@ -0,0 +1,45 @@
+package com.artur.youtback.utils;
+
+import jakarta.persistence.EntityManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**Reads whole tables by keyset pagination, chunk by chunk, every chunk in its own transaction, so that memory
+ * does not depend on size of the table and no transaction is held open for the whole scan.
+ */
+@Component
+public class KeysetScanner {
+
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    /**Reads all rows of the query. The query should select numeric id first, be ordered by it and take id of the last
+     * row of the previous chunk as {@code :after} parameter, for example
+     * {@code select v.id, v.title from VideoEntity v where v.id > :after order by v.id}.
+     * @param jpql query
+     * @param chunkSize max amount of rows read at once
+     * @param consumer consumer of every row
+     * @return id of the last row, 0 if there are no rows
+     */
+    public long scan(String jpql, int chunkSize, Consumer<Object[]> consumer){
+        long after = 0;
+        List<Object[]> rows;
+        do {
+            long from = after;
+            rows = transactionTemplate.execute(status -> entityManager.createQuery(jpql, Object[].class)
+                    .setParameter("after", from)
+                    .setMaxResults(chunkSize)
+                    .getResultList());
+            if(rows == null || rows.isEmpty()) break;
+            rows.forEach(consumer);
+            after = ((Number) rows.getLast()[0]).longValue();
+        } while (rows.size() == chunkSize);
+        return after;
+    }
+}
@@ -1,6 +1,7 @@
 package com.artur.youtback.utils;
 
 import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.parser.AutoDetectParser;
 import org.apache.tika.sax.BodyContentHandler;
@@ -9,14 +10,16 @@ import org.springframework.web.multipart.MultipartFile;
 import org.xml.sax.SAXException;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
 public class MediaUtils {
 
+    /**Parses metadata of the file. File is opened for random access, so parsers of containers that keep their
+     * metadata at the end, like MP4, seek to it instead of reading or copying the whole file.
+     */
     public static Metadata getMetadata(File file) throws IOException, TikaException, SAXException {
-        try(InputStream inputStream = new FileInputStream(file)) {
+        try(InputStream inputStream = TikaInputStream.get(file.toPath())) {
             return getMetadata(inputStream);
         }
     }
@@ -0,0 +1,24 @@
+package com.artur.youtback.utils;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class TransactionUtils {
+
+    /**Runs the task after the current transaction commits, so that it never applies changes that are rolled back.
+     * Task is run at once if there is no transaction.
+     * @param runnable task
+     */
+    public static void afterCommit(Runnable runnable){
+        if(TransactionSynchronizationManager.isSynchronizationActive()){
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    runnable.run();
+                }
+            });
+        } else {
+            runnable.run();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.artur.youtback.watch;
+
+import com.artur.common.entity.VideoEntity;
+import com.artur.common.entity.VideoMetadata;
+import com.artur.common.entity.user.UserEntity;
+import com.artur.common.entity.user.UserMetadata;
+import com.artur.common.repository.UserMetadataRepository;
+import com.artur.youtback.loader.UserLoader;
+import com.artur.youtback.loader.VideoLoader;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Collectors;
+
+/**Applies watches to user profiles asynchronously. Watch events are put in a bounded queue by the request thread
+ * and drained by a scheduled worker. Events of the same user are coalesced, so every user`s metadata and watch history
+ * is written once per batch no matter how many videos he watched. Users with their metadata and watched videos with
+ * theirs are loaded by {@code IN} queries per batch, see {@link UserLoader} and {@link VideoLoader}, and changed
+ * metadata is written by dirty checking on commit. Watch history of all users in the batch is written
+ * by {@link WatchHistoryStore} in a single batched statement. If the queue is full, event is dropped.
+ */
+@Component
+public class ProfileUpdateWorker {
+    private static final Logger logger = LoggerFactory.getLogger(ProfileUpdateWorker.class);
+
+    private final BlockingQueue<WatchEvent> queue;
+    private final int batchSize;
+    private final Counter droppedEvents;
+    private final Counter processedEvents;
+    private final Counter profileWrites;
+
+    @Autowired
+    UserLoader userLoader;
+    @Autowired
+    VideoLoader videoLoader;
+    @Autowired
+    UserMetadataRepository userMetadataRepository;
+    @Autowired
+    WatchHistoryStore watchHistoryStore;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    public ProfileUpdateWorker(
+            @Value("${application.profile-updates.queue-capacity:100000}") int queueCapacity,
+            @Value("${application.profile-updates.batch-size:1000}") int batchSize,
+            MeterRegistry meterRegistry) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.droppedEvents = meterRegistry.counter("profile.updates.dropped");
+        this.processedEvents = meterRegistry.counter("profile.updates.events");
+        this.profileWrites = meterRegistry.counter("profile.updates.writes");
+        Gauge.builder("profile.updates.queue", queue, Collection::size).register(meterRegistry);
+    }
+
+    /**Puts watch event in the queue. Does not block.
+     * @param event watch event
+     * @return true if event was accepted, false if the queue is full
+     */
+    public boolean submit(WatchEvent event){
+        if(!queue.offer(event)){
+            droppedEvents.increment();
+            logger.warn("Profile update queue is full, watch of video {} by user {} is dropped", event.videoId(), event.userId());
+            return false;
+        }
+        return true;
+    }
+
+    /**Drains the queue batch by batch until it is empty.
+     */
+    @Scheduled(fixedDelayString = "${application.profile-updates.flush-interval:2000}")
+    public void flush(){
+        List<WatchEvent> batch = new ArrayList<>(batchSize);
+        while(queue.drainTo(batch, batchSize) > 0){
+            try {
+                process(batch);
+            } catch (Exception e){
+                logger.error("Could not update profiles, " + batch.size() + " watch events are lost", e);
+            }
+            processedEvents.increment(batch.size());
+            batch.clear();
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown(){
+        flush();
+    }
+
+    private void process(List<WatchEvent> batch){
+        Map<String, List<WatchEvent>> byUser = batch.stream().collect(Collectors.groupingBy(WatchEvent::userId));
+        Set<Long> videoIds = batch.stream().map(WatchEvent::videoId).collect(Collectors.toSet());
+        transactionTemplate.executeWithoutResult(status -> {
+            Map<Long, VideoMetadata> metadata = videoLoader.loadAll(videoIds).stream()
+                    .collect(Collectors.toMap(VideoEntity::getId, VideoEntity::getVideoMetadata));
+            Map<String, UserEntity> users = userLoader.loadMap(byUser.keySet());
+            byUser.forEach((userId, events) -> {
+                UserEntity userEntity = users.get(userId);
+                if(userEntity == null) return;                  //user was deleted meanwhile
+                applyMetadata(userEntity, events, metadata);
+                profileWrites.increment();
+            });
+            watchHistoryStore.record(batch.stream()
+                    .filter(event -> users.containsKey(event.userId()) && metadata.containsKey(event.videoId()))
+                    .toList());
+        });
+    }
+
+    /**Applies watches to metadata of the user. Loaded metadata is managed, so only new metadata is saved.
+     */
+    private void applyMetadata(UserEntity userEntity, List<WatchEvent> events, Map<Long, VideoMetadata> metadata){
+        UserMetadata userMetadata = userEntity.getUserMetadata();
+        boolean created = userMetadata == null;
+        if(created){
+            userMetadata = new UserMetadata(userEntity);
+        }
+        for (WatchEvent event : events) {
+            VideoMetadata videoMetadata = metadata.get(event.videoId());
+            if(videoMetadata == null) continue;                 //video was deleted meanwhile
+            userMetadata.incrementLanguage(videoMetadata.getLanguage());
+            userMetadata.incrementCategory(videoMetadata.getCategory());
+        }
+        if(created) userMetadataRepository.save(userMetadata);
+    }
+}
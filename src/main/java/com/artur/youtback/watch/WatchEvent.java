@@ -0,0 +1,11 @@
+package com.artur.youtback.watch;
+
+import java.time.Instant;
+
+/**Video watched by authenticated user.
+ * @param userId user id
+ * @param videoId video id
+ * @param timestamp when the video was watched
+ */
+public record WatchEvent(String userId, Long videoId, Instant timestamp) {
+}
@@ -0,0 +1,169 @@
+package com.artur.youtback.watch;
+
+import com.artur.common.entity.user.WatchHistory;
+import com.artur.youtback.entity.WatchRecord;
+import com.artur.youtback.repository.WatchRecordRepository;
+import com.artur.youtback.utils.CursorUtils;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**Storage of users` watch history. History is deduplicated by user, video and day with unique index, so writing
+ * is a single batched upsert without reading the history first. History is read by keyset pagination from the newest
+ * entries. Entries older than {@code application.watch-history.retention-days} are removed once a day.
+ * Entries of the legacy {@link WatchHistory} table are moved here chunk by chunk in the background, history of a user
+ * which is read before that is moved at once.
+ */
+@Component
+public class WatchHistoryStore {
+    private static final Logger logger = LoggerFactory.getLogger(WatchHistoryStore.class);
+    private static final String UPSERT = """
+            insert into watch_record (user_id, video_id, watch_day, watched_at) values (?, ?, ?, ?)
+            on duplicate key update watched_at = greatest(watched_at, values(watched_at))
+            """;
+    private static final int COMPACTION_CHUNK = 10000;
+    private static final int MIGRATION_CHUNK = 1000;
+
+    @Value("${application.watch-history.retention-days:180}")
+    private int retentionDays;
+
+    @Autowired
+    WatchRecordRepository watchRecordRepository;
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+    @Autowired
+    EntityManager entityManager;
+
+    /**Whether the legacy table is found empty*/
+    private volatile boolean migrated;
+
+    /**Adds watched videos to users` history. Repeated watch of the same video during the day moves existing entry
+     * to the top of the history instead of adding a new one.
+     * @param events watch events
+     */
+    public void record(List<WatchEvent> events){
+        if(events.isEmpty()) return;
+        jdbcTemplate.batchUpdate(UPSERT, events, events.size(), (ps, event) -> {
+            ps.setString(1, event.userId());
+            ps.setLong(2, event.videoId());
+            ps.setDate(3, Date.valueOf(event.timestamp().atZone(ZoneOffset.UTC).toLocalDate()));
+            //millisecond precision, so that cursor keeps exact value
+            ps.setTimestamp(4, Timestamp.from(event.timestamp().truncatedTo(ChronoUnit.MILLIS)));
+        });
+    }
+
+    /**Gets page of user`s watch history, from newest to oldest.
+     * @param userId user id
+     * @param cursor cursor of the page returned by {@link #cursorOf(WatchRecord)}, null for the first page
+     * @param size max size of the page
+     * @return watch history entries
+     * @throws IllegalArgumentException if cursor is malformed
+     */
+    public List<WatchRecord> page(String userId, @Nullable String cursor, int size) throws IllegalArgumentException{
+        if(cursor == null){
+            if(!migrated){
+                try {
+                    while (migrate(userId) == MIGRATION_CHUNK) {
+                        //user`s legacy history is moved before the first page is read
+                    }
+                } catch (Exception e){
+                    logger.warn("Could not move legacy watch history of user {}: {}", userId, e.getMessage());
+                }
+            }
+            return watchRecordRepository.findFirstPage(userId, Limit.of(size));
+        }
+        String[] keys = CursorUtils.decode(cursor, 2);
+        return watchRecordRepository.findPageAfter(userId, Instant.ofEpochMilli(Long.parseLong(keys[0])), Long.valueOf(keys[1]), Limit.of(size));
+    }
+
+    public String cursorOf(WatchRecord watchRecord){
+        return CursorUtils.encode(watchRecord.getWatchedAt().toEpochMilli(), watchRecord.getId());
+    }
+
+    public void deleteByVideo(Long videoId){
+        watchRecordRepository.deleteAllByVideoId(videoId);
+    }
+
+    public void deleteByUser(String userId){
+        watchRecordRepository.deleteAllByUserId(userId);
+    }
+
+    /**Moves entries of the legacy {@link WatchHistory} table chunk by chunk, every chunk in its own transaction.
+     * Moving is idempotent, so it is safe to run on every instance of the application.
+     */
+    @Scheduled(initialDelayString = "${application.watch-history.migration-interval:600000}",
+            fixedDelayString = "${application.watch-history.migration-interval:600000}")
+    public void migrate(){
+        if(migrated) return;
+        long moved = 0;
+        int chunk;
+        try {
+            do {
+                chunk = migrate(null);
+                moved += chunk;
+            } while (chunk == MIGRATION_CHUNK);
+        } catch (Exception e){
+            logger.error("Could not move legacy watch history, moved " + moved + " entries", e);
+            return;
+        }
+        migrated = true;
+        if(moved > 0) logger.info("Moved {} legacy watch history entries", moved);
+    }
+
+    /**Moves a chunk of legacy entries, of all users or of the specified one, and deletes them from the legacy table.
+     * @return amount of moved entries
+     */
+    private int migrate(@Nullable String userId){
+        Integer moved = transactionTemplate.execute(status -> {
+            TypedQuery<Object[]> query = entityManager.createQuery(
+                    "select h.id, h.userEntity.id, h.videoId, h.date from WatchHistory h " +
+                            (userId == null ? "" : "where h.userEntity.id = :userId ") + "order by h.id", Object[].class)
+                    .setMaxResults(MIGRATION_CHUNK);
+            if(userId != null) query.setParameter("userId", userId);
+            List<Object[]> rows = query.getResultList();
+            if(rows.isEmpty()) return 0;
+            record(rows.stream()
+                    .filter(row -> row[3] != null)
+                    .map(row -> new WatchEvent((String) row[1], (Long) row[2], (Instant) row[3]))
+                    .toList());
+            entityManager.createQuery("delete from WatchHistory h where h.id in :ids")
+                    .setParameter("ids", rows.stream().map(row -> row[0]).toList())
+                    .executeUpdate();
+            return rows.size();
+        });
+        return moved == null ? 0 : moved;
+    }
+
+    /**Removes expired entries chunk by chunk, every chunk in its own transaction, so that the table is not locked
+     * for long.
+     */
+    @Scheduled(cron = "${application.watch-history.compaction-cron:0 30 3 * * *}")
+    public void compact(){
+        Instant before = Instant.now().minus(retentionDays, ChronoUnit.DAYS);
+        long removed = 0;
+        Integer deleted;
+        do {
+            deleted = transactionTemplate.execute(status -> watchRecordRepository.deleteOlderThan(before, COMPACTION_CHUNK));
+            removed += deleted == null ? 0 : deleted;
+        } while (deleted != null && deleted == COMPACTION_CHUNK);
+        logger.info("Removed {} watch history entries older than {}", removed, before);
+    }
+}
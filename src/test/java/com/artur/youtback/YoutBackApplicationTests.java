@@ -1,11 +1,18 @@
 package com.artur.youtback;
 
+import com.artur.common.entity.VideoEntity;
 import com.artur.youtback.config.KafkaConfig;
+import com.artur.youtback.model.user.User;
+import com.artur.youtback.model.user.UserCreateRequest;
+import com.artur.youtback.service.UserService;
+import com.artur.youtback.service.VideoService;
+import com.artur.youtback.utils.AppAuthorities;
 import com.artur.objectstorage.service.ObjectStorageService;
 import jakarta.transaction.Transactional;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.junit.jupiter.api.BeforeEach;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.kafka.requestreply.ReplyingKafkaTemplate;
@@ -15,9 +22,11 @@ import org.springframework.test.annotation.Rollback;
 import org.springframework.test.context.ActiveProfiles;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.UUID;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -43,6 +52,10 @@ public class YoutBackApplicationTests {
 	protected ObjectStorageService objectStorageService;
 	@MockBean
 	protected ReplyingKafkaTemplate<String, String, Boolean> replyingKafkaTemplate;
+	@Autowired
+	protected UserService userService;
+	@Autowired
+	protected VideoService videoService;
 
 	@BeforeEach
 	public void mock() throws Exception {
@@ -53,4 +66,35 @@ public class YoutBackApplicationTests {
 		when(objectStorageService.getObject(anyString())).thenReturn(inputStream);
 	}
 
+	/**Registers a user without picture. Email contains the id, so the user can be removed by
+	 * {@link UserService#deleteById} in tests that commit their data.
+	 * @param id user id
+	 * @param username username
+	 * @param authorities comma separated authorities
+	 * @return registered user
+	 */
+	protected User registerTestUser(String id, String username, String authorities) throws Exception {
+		return userService.registerUser(new UserCreateRequest(id, username, id + "@gmail.com", authorities, null));
+	}
+
+	/**Registers a user with {@link AppAuthorities#ROLE_USER}, see {@link #registerTestUser(String, String, String)}.
+	 */
+	protected User registerTestUser(String id) throws Exception {
+		return registerTestUser(id, "user", AppAuthorities.ROLE_USER.name());
+	}
+
+	/**Registers a user with random id, see {@link #registerTestUser(String, String, String)}.
+	 */
+	protected User registerTestUser() throws Exception {
+		return registerTestUser(UUID.randomUUID().toString());
+	}
+
+	/**Creates a video of the user in "Sport" category from {@link #TEST_IMAGE_FILE} and {@link #TEST_VIDEO_FILE}.
+	 * @param userId id of the owner
+	 * @return created video
+	 */
+	protected VideoEntity createTestVideo(String userId) throws Exception {
+		return videoService.create("video", "description", "Sport", new File(TEST_IMAGE_FILE), new File(TEST_VIDEO_FILE), userId);
+	}
+
 }
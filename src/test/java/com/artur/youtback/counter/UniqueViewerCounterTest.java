@@ -0,0 +1,35 @@
+package com.artur.youtback.counter;
+
+import com.artur.youtback.YoutBackApplicationTests;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UniqueViewerCounterTest extends YoutBackApplicationTests {
+
+    @Autowired
+    UniqueViewerCounter uniqueViewerCounter;
+
+    @Test
+    void countTest() {
+        //sketches are not tied to a stored video, so a random id does not collide with other tests
+        Long videoId = ThreadLocalRandom.current().nextLong(1_000_000_000L, Long.MAX_VALUE);
+        try {
+            uniqueViewerCounter.record(videoId, "viewer", "127.0.0.1");
+            uniqueViewerCounter.record(videoId, "viewer", "127.0.0.2");            //the same user from other ip
+            uniqueViewerCounter.record(videoId, null, "127.0.0.1");                //anonymous viewer
+            uniqueViewerCounter.record(videoId, null, null);                       //unknown viewer is ignored
+            assertEquals(0L, uniqueViewerCounter.count(videoId));                  //buffered viewers are not counted
+
+            uniqueViewerCounter.flush();
+            Long count = uniqueViewerCounter.count(videoId);
+            assertNotNull(count);
+            assertEquals(2.0, count.doubleValue(), 0.5);                     //estimate of a small set is exact
+        } finally {
+            uniqueViewerCounter.delete(videoId);
+        }
+    }
+}
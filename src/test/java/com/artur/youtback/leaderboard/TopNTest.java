@@ -0,0 +1,40 @@
+package com.artur.youtback.leaderboard;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopNTest {
+
+    @Test
+    void rankingTest() {
+        TopN topN = new TopN(3);
+        assertTrue(topN.offer(1, 10));
+        assertTrue(topN.offer(2, 30));
+        assertTrue(topN.offer(3, 20));
+        assertFalse(topN.qualifies(4, 5));
+        assertFalse(topN.offer(4, 5));
+        assertTrue(topN.offer(5, 25));
+        assertEquals(List.of(2L, 5L, 3L), ids(topN.top(10)));
+
+        //ranked entry is updated in both directions
+        assertTrue(topN.offer(3, 40));
+        assertTrue(topN.offer(2, 1));
+        assertEquals(List.of(3L, 5L, 2L), ids(topN.top(10)));
+        assertEquals(List.of(3L), ids(topN.top(1)));
+
+        //equal scores, the newest first
+        assertTrue(topN.offer(6, 25));
+        assertEquals(List.of(3L, 6L, 5L), ids(topN.top(10)));
+
+        topN.remove(3);
+        assertEquals(List.of(6L, 5L), ids(topN.top(10)));
+        assertTrue(topN.qualifies(7, 0));
+    }
+
+    private static List<Long> ids(List<long[]> entries){
+        return entries.stream().map(entry -> entry[0]).toList();
+    }
+}
@@ -0,0 +1,72 @@
+package com.artur.youtback.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvertedIndexTest {
+
+    @Test
+    void rankingTest() {
+        InvertedIndex index = new InvertedIndex();
+        index.put(1L, "Cooking pasta at home", "Nothing here...", "en");
+        index.put(2L, "Football highlights", "The best goals of the season, pasta party after the match", "en");
+        index.put(3L, "Три дня дождя", "Концерт в Москве", "ru");
+
+        //title match ranks above description match
+        assertEquals(List.of(1L, 2L), index.search("pasta", 10));
+        assertEquals(List.of(1L), index.search("pasta", 1));
+        //stop words are not matched, unless query has nothing else
+        assertEquals(List.of(2L), index.search("the football", 10));
+        assertTrue(index.search("the", 10).isEmpty());
+        //case and ё folding, prefix of the last term
+        assertEquals(List.of(3L), index.search("ТРИ ДНЯ ДОЖ", 10));
+        assertEquals(List.of(3L), index.search("концёрт", 10));
+        assertTrue(index.search("дож ", 10).isEmpty());
+        assertTrue(index.search("   ", 10).isEmpty());
+    }
+
+    @Test
+    void updateRemoveTest() {
+        InvertedIndex index = new InvertedIndex();
+        index.put(1L, "Java tutorial", null, "en");
+        assertEquals(List.of(1L), index.search("java", 10));
+
+        index.put(1L, "Kotlin tutorial", null, "en");
+        assertTrue(index.search("java", 10).isEmpty());
+        assertEquals(List.of(1L), index.search("kotlin", 10));
+        assertEquals(Integer.valueOf(InvertedIndex.fingerprint("Kotlin tutorial", null, "en")), index.fingerprint(1L));
+
+        index.remove(1L);
+        assertTrue(index.search("kotlin", 10).isEmpty());
+        assertNull(index.fingerprint(1L));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    void snapshotTest() throws IOException {
+        InvertedIndex index = new InvertedIndex();
+        index.put(1L, "GTA San Andreas", "Nothing here...", "en");
+        index.put(2L, "GTA V", "Nothing here...", "en");
+        index.put(3L, "東京の夜", null, "ja");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            index.writeTo(out);
+        }
+        InvertedIndex read;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = InvertedIndex.readFrom(in);
+        }
+        assertEquals(index.size(), read.size());
+        assertEquals(index.search("gta andreas", 10), read.search("gta andreas", 10));
+        assertEquals(List.of(3L), read.search("東京", 10));
+        assertEquals(index.fingerprint(2L), read.fingerprint(2L));
+
+        read.remove(1L);
+        assertEquals(List.of(2L), read.search("gta", 10));
+    }
+}
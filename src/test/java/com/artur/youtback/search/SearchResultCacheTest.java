@@ -0,0 +1,46 @@
+package com.artur.youtback.search;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchResultCacheTest {
+
+    @Test
+    void versionTest() {
+        VideoSearchIndex index = new VideoSearchIndex("search-result-cache-test.snapshot");
+        SearchResultCache cache = new SearchResultCache(2, new SimpleMeterRegistry());
+        cache.videoSearchIndex = index;
+        AtomicInteger searches = new AtomicInteger();
+        Supplier<List<Long>> search = () -> {
+            searches.incrementAndGet();
+            return index.search("cats", 10);
+        };
+        index.index(1L, "Funny cats", null, null);
+
+        assertEquals(List.of(1L), cache.get("cats", "full-text", 0, 10, search));
+        assertEquals(List.of(1L), cache.get("  CATS", "full-text", 0, 10, search));
+        assertEquals(1, searches.get());                        //normalized query shares the entry
+        cache.get("cats", "full-text", 0, 5, search);
+        assertEquals(2, searches.get());                        //other size is other entry
+
+        //change of the index makes entries stale
+        index.index(2L, "Sleeping cats", null, null);
+        assertEquals(2, cache.get("cats", "full-text", 0, 10, search).size());
+        assertEquals(3, searches.get());
+        index.remove(2L);
+        assertEquals(List.of(1L), cache.get("cats", "full-text", 0, 10, search));
+        assertEquals(4, searches.get());
+
+        //the least recently used entry is removed
+        cache.get("cats", "fuzzy", 0, 10, search);
+        cache.get("cats", "full-text", 1, 10, search);
+        cache.get("cats", "full-text", 0, 10, search);
+        assertEquals(7, searches.get());
+    }
+}
@@ -0,0 +1,51 @@
+package com.artur.youtback.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SuggestionTrieTest {
+
+    @Test
+    void completeTest() {
+        SuggestionTrie trie = new SuggestionTrie(100);
+        trie.add("gta v", 5);
+        trie.add("gta san andreas", 3);
+        trie.add("gta iv", 1);
+        trie.add("golf", 2);
+        trie.add("три дня дождя", 4);
+
+        assertEquals(List.of("gta v", "gta san andreas", "golf", "gta iv"), trie.complete("g", 10));
+        assertEquals(List.of("gta v", "gta san andreas"), trie.complete("gta", 2));
+        assertTrue(trie.complete("gta", -1).isEmpty());
+        //prefix ends in the middle of an edge
+        assertEquals(List.of("gta san andreas"), trie.complete("gta s", 10));
+        assertEquals(List.of("три дня дождя"), trie.complete("три д", 10));
+        assertTrue(trie.complete("gtx", 10).isEmpty());
+        assertTrue(trie.complete("golf club", 10).isEmpty());
+        assertEquals("gta v", trie.complete("", 1).getFirst());
+
+        //weight only grows, so the phrase moves up
+        trie.add("gta iv", 10);
+        assertEquals(List.of("gta iv", "gta v", "gta san andreas"), trie.complete("gta", 10));
+        assertEquals(List.of("gta iv"), trie.complete("gta i", 10));
+    }
+
+    @Test
+    void topAndLimitTest() {
+        SuggestionTrie trie = new SuggestionTrie(SuggestionTrie.TOP_K + 5);
+        for (int i = 0; i < SuggestionTrie.TOP_K + 5; i++) {
+            assertTrue(trie.add("video " + i, i));
+        }
+        assertFalse(trie.add("video over limit", 100));
+        assertTrue(trie.add("video 0", 100));
+
+        List<String> completions = trie.complete("video", 100);
+        assertEquals(SuggestionTrie.TOP_K, completions.size());
+        assertEquals("video 0", completions.getFirst());
+        assertEquals("video 14", completions.get(1));
+        assertEquals(SuggestionTrie.TOP_K + 5, trie.size());
+    }
+}
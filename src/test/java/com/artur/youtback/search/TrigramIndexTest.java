@@ -0,0 +1,54 @@
+package com.artur.youtback.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrigramIndexTest {
+
+    @Test
+    void misspelledSearchTest() {
+        TrigramIndex index = new TrigramIndex();
+        index.put(1L, "Oppenheimer by test-user");
+        index.put(2L, "Три дня дождя by test-user");
+        index.put(3L, "American psycho");
+        index.put(4L, "Open air concert");
+
+        assertEquals(List.of(1L), index.search("Openhaimer", 10));
+        assertEquals(List.of(1L), index.search("oppenheimer", 10));
+        assertEquals(List.of(2L), index.search("три дня дожля", 10));
+        assertEquals(List.of(2L), index.search("ТРИ ДНЯ ДОЖДЯ", 10));
+        assertEquals(List.of(3L), index.search("amercan psyho", 10));
+        assertTrue(index.search("football", 10).isEmpty());
+        assertTrue(index.search("!!!", 10).isEmpty());
+
+        index.remove(1L);
+        assertTrue(index.search("Openhaimer", 10).isEmpty());
+        index.put(2L, "Oppenheimer");
+        assertEquals(List.of(2L), index.search("Openhaimer", 10));
+        assertTrue(index.search("три дня дожля", 10).isEmpty());
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    void closestFirstTest() {
+        TrigramIndex index = new TrigramIndex();
+        index.put(1L, "Breaking bad");
+        index.put(2L, "Breaking bat");
+        index.put(3L, "Breaking bad");
+
+        //equal distance is ordered from the newest
+        assertEquals(List.of(3L, 1L, 2L), index.search("breakin bad", 10));
+        assertEquals(List.of(3L), index.search("breakin bad", 1));
+    }
+
+    @Test
+    void levenshteinTest() {
+        assertEquals(0, TrigramIndex.levenshtein("кот", "кот", 3));
+        assertEquals(1, TrigramIndex.levenshtein("кот", "кит", 3));
+        assertEquals(3, TrigramIndex.levenshtein("kitten", "sitting", 3));
+        assertEquals(3, TrigramIndex.levenshtein("a", "abcdef", 2));
+    }
+}
@@ -0,0 +1,95 @@
+package com.artur.youtback.service;
+
+import com.artur.common.exception.NotFoundException;
+import com.artur.youtback.YoutBackApplicationTests;
+import com.artur.youtback.model.user.User;
+import com.artur.youtback.model.video.UploadStatus;
+import com.artur.youtback.model.video.VideoJobStatus;
+import com.artur.youtback.utils.AppConstants;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class UploadServiceTest extends YoutBackApplicationTests {
+
+    @Autowired
+    UploadService uploadService;
+    @Value("${application.uploads.chunk-size}")
+    int chunkSize;
+
+    @Test
+    void resumableUploadTest() throws Exception {
+        List<String> keys = new ArrayList<>();
+        doAnswer(invocation -> {
+            keys.add(invocation.getArgument(1, String.class));
+            return invocation.getArgument(0, InputStream.class).readAllBytes();
+        }).when(objectStorageService).putObject(any(InputStream.class), anyString());
+        String userId = UUID.randomUUID().toString();
+        UploadStatus started = uploadService.start(userId, "title", "description", "Music", chunkSize + 10L);
+        String id = started.id();
+        assertEquals(2, started.parts());
+        assertEquals(0, started.offset());
+
+        byte[] last = new byte[10];
+        assertThrows(IllegalArgumentException.class, () -> uploadService.putPart(userId, id, 2, new ByteArrayInputStream(last), sha256(new byte[]{1})));
+        assertThrows(IllegalArgumentException.class, () -> uploadService.putPart(userId, id, 2, new ByteArrayInputStream(new byte[11]), sha256(new byte[11])));
+        assertThrows(IllegalArgumentException.class, () -> uploadService.putPart(userId, id, 3, new ByteArrayInputStream(last), sha256(last)));
+        assertThrows(NotFoundException.class, () -> uploadService.putPart("another", id, 2, new ByteArrayInputStream(last), sha256(last)));
+
+        UploadStatus status = uploadService.putPart(userId, id, 2, new ByteArrayInputStream(last), sha256(last));
+        assertEquals(List.of(2), status.receivedParts());
+        assertEquals(0, status.offset());                   //first part is missing
+        String received = keys.getLast();
+        assertThrows(IllegalArgumentException.class, () -> uploadService.putPart(userId, id, 2, new ByteArrayInputStream(last), sha256(new byte[]{1})));
+        verify(objectStorageService).removeObject(keys.getLast());
+        verify(objectStorageService, never()).removeObject(received);       //failed retry keeps the received part
+        uploadService.putPart(userId, id, 2, new ByteArrayInputStream(last), sha256(last));     //repeated part replaces the previous one
+        verify(objectStorageService).removeObject(received);
+        assertEquals(List.of(2), uploadService.status(userId, id).receivedParts());
+        assertThrows(IllegalStateException.class, () -> uploadService.complete(userId, id, new MockMultipartFile("thumbnail", new byte[]{1})));
+
+        uploadService.abort(userId, id);
+        verify(objectStorageService).removeFolder(AppConstants.UPLOAD_PATH + id);
+        assertThrows(NotFoundException.class, () -> uploadService.status(userId, id));
+    }
+
+    @Test
+    void completeTest() throws Exception {
+        Map<String, byte[]> objects = new HashMap<>();
+        doAnswer(invocation -> objects.put(invocation.getArgument(1, String.class), invocation.getArgument(0, InputStream.class).readAllBytes()))
+                .when(objectStorageService).putObject(any(InputStream.class), anyString());
+        when(objectStorageService.getObject(anyString())).thenAnswer(invocation -> new ByteArrayInputStream(objects.get(invocation.getArgument(0, String.class))));
+        byte[] part = new byte[10];
+
+        //upload of unknown user is reopened
+        UploadStatus unknown = uploadService.start("unknown", "title", "description", "Music", part.length);
+        uploadService.putPart("unknown", unknown.id(), 1, new ByteArrayInputStream(part), sha256(part));
+        assertThrows(NotFoundException.class, () -> uploadService.complete("unknown", unknown.id(), new MockMultipartFile("thumbnail", new byte[]{1})));
+        assertNull(uploadService.status("unknown", unknown.id()).jobId());
+        uploadService.putPart("unknown", unknown.id(), 1, new ByteArrayInputStream(part), sha256(part));
+
+        User user = registerTestUser();
+        String id = uploadService.start(user.getId(), "title", "description", "Music", part.length).id();
+        uploadService.putPart(user.getId(), id, 1, new ByteArrayInputStream(part), sha256(part));
+        VideoJobStatus job = uploadService.complete(user.getId(), id, new MockMultipartFile("thumbnail", new byte[]{1}));
+        assertEquals(job.id(), uploadService.complete(user.getId(), id, new MockMultipartFile("thumbnail", new byte[]{1})).id());     //retry gets the same job
+        assertEquals(job.id(), uploadService.status(user.getId(), id).jobId());
+        assertThrows(IllegalStateException.class, () -> uploadService.putPart(user.getId(), id, 1, new ByteArrayInputStream(part), sha256(part)));
+        verify(objectStorageService).removeFolder(AppConstants.UPLOAD_PATH + id);
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+}
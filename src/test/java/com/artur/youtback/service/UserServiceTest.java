@@ -1,45 +1,63 @@
 package com.artur.youtback.service;
 
 import com.artur.youtback.YoutBackApplicationTests;
-import com.artur.youtback.converter.UserConverter;
+import com.artur.common.entity.SearchHistory;
 import com.artur.common.entity.VideoEntity;
 import com.artur.common.entity.user.UserEntity;
+import com.artur.common.exception.NotFoundException;
 import com.artur.youtback.model.user.User;
 import com.artur.youtback.model.user.UserCreateRequest;
+import com.artur.youtback.model.user.UserSummary;
 import com.artur.youtback.model.user.UserUpdateRequest;
-import com.artur.youtback.model.video.VideoCreateRequest;
+import com.artur.youtback.counter.LikeCounter;
+import com.artur.youtback.model.video.LikeState;
+import com.artur.youtback.model.CursorPage;
+import com.artur.youtback.model.video.Video;
+import com.artur.youtback.search.SearchHistoryStore;
+import com.artur.youtback.sort.VideoSort;
+import com.artur.youtback.subscription.SubscriptionGraph;
 import com.artur.common.repository.UserRepository;
 import com.artur.common.repository.VideoRepository;
 import com.artur.youtback.utils.AppAuthorities;
 import com.artur.youtback.utils.AppConstants;
+import com.artur.youtback.watch.WatchEvent;
+import com.artur.youtback.watch.WatchHistoryStore;
 import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.mock.web.MockMultipartFile;
 
 import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 class UserServiceTest extends YoutBackApplicationTests {
 
-    @Autowired
-    UserService userService;
     @Autowired
     UserRepository userRepository;
     @Autowired
     VideoRepository videoRepository;
     @Autowired
-    VideoService videoService;
-    @Autowired
     EntityManager entityManager;
     @Autowired
-    UserConverter userConverter;
+    LikeCounter likeCounter;
+    @Autowired
+    SubscriptionGraph subscriptionGraph;
+    @Autowired
+    WatchHistoryStore watchHistoryStore;
+    @Autowired
+    SearchHistoryStore searchHistoryStore;
 
     @Test
     @Transactional
@@ -72,36 +90,8 @@ class UserServiceTest extends YoutBackApplicationTests {
 
     @Test
     public void notInterestedTest() throws Exception {
-        String id = "1";
-        userConverter.convertToEntity(
-                userService.registerUser(new UserCreateRequest(
-                        "1",
-                        "user",
-                        "example@gmail.com",
-                        AppAuthorities.ROLE_USER.name(),
-                        null
-                        )
-                ));
-        UserEntity userEntity = userRepository.findById("1").orElseThrow();
-
-        userConverter.convertToEntity(
-        userService.registerUser(new UserCreateRequest(
-                        "2",
-                        "user",
-                "example@gmail.com",
-                        AppAuthorities.ROLE_USER.name(),
-                        null
-                )
-        ));
-        UserEntity videoOwner = userRepository.findById("2").orElseThrow();
-        VideoEntity videoEntity = videoService.create(
-                new VideoCreateRequest("video",
-                        "description",
-                        "Sport",
-                        new MockMultipartFile("thumbnail", new byte[]{2, 2}),
-                        new MockMultipartFile("video", Files.readAllBytes(Path.of(TEST_VIDEO_FILE)))),
-                videoOwner.getId()
-        );
+        UserEntity userEntity = userRepository.findById(registerTestUser().getId()).orElseThrow();
+        VideoEntity videoEntity = createTestVideo(registerTestUser().getId());
         userEntity.getUserMetadata().getCategories().put("Sport", 4);
         userRepository.saveAndFlush(userEntity);            //artificially assign categories to the user
         userService.notInterested(videoEntity.getId(), userEntity.getId());
@@ -110,4 +100,239 @@ class UserServiceTest extends YoutBackApplicationTests {
         entityManager.refresh(userEntity);
         assertNotEquals(categoriesBefore, userEntity.getUserMetadata().getCategories().get(videoEntity.getVideoMetadata().getCategory()));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void subscribeUnsubscribeTest() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        String channelId = UUID.randomUUID().toString();
+        registerTestUser(userId);
+        registerTestUser(channelId);
+
+        userService.subscribeById(userId, channelId);
+        userService.subscribeById(userId, channelId);           //repeated subscription is ignored
+        assertTrue(userService.hasUserSubscribedChannel(userId, channelId));
+        assertFalse(userService.hasUserSubscribedChannel(channelId, userId));
+        assertEquals(1, subscriptionGraph.subscribers(channelId));
+        assertEquals(0, subscriptionGraph.subscribers(userId));
+        assertEquals(1L, userService.getSummary(channelId).subscriberCount());
+        assertEquals(List.of(userId), userService.getSubscribers(channelId, null, 10).items().stream().map(UserSummary::id).toList());
+        assertEquals(List.of(channelId), userService.getUserSubscribes(userId, null, 10).items().stream().map(UserSummary::id).toList());
+
+        userService.unsubscribeById(userId, channelId);
+        assertEquals(0, subscriptionGraph.subscribers(channelId));
+    }
+
+    @Test
+    public void searchHistoryTest() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        registerTestUser(userId);
+        assertEquals(List.of(), userService.getSearchHistory(userId));
+
+        for (int i = 0; i < AppConstants.MAX_SEARCH_HISTORY_OPTIONS + 2; i++) {
+            userService.addSearchOption(userId, "query " + i);
+        }
+        userService.addSearchOption(userId, "query 5");             //repeated option is moved to the top
+        userService.addSearchOption(userId, " ");
+        List<String> history = userService.getSearchHistory(userId);
+        assertEquals(AppConstants.MAX_SEARCH_HISTORY_OPTIONS, history.size());
+        assertEquals(List.of("query 5", "query 11", "query 10"), history.subList(0, 3));
+        assertEquals(1, history.stream().filter("query 5"::equals).count());
+        assertFalse(history.contains("query 1"));
+
+        userService.deleteSearchOption(userId, "query 11");
+        assertThrows(NotFoundException.class, () -> userService.deleteSearchOption(userId, "query 11"));
+        assertThrows(NotFoundException.class, () -> userService.getSearchHistory(UUID.randomUUID().toString()));
+
+        searchHistoryStore.flush();
+        entityManager.flush();
+        entityManager.clear();
+        List<String> persisted = userRepository.findById(userId).orElseThrow().getSearchHistory().stream()
+                .map(SearchHistory::getSearchOption).toList();
+        assertEquals(new HashSet<>(userService.getSearchHistory(userId)), new HashSet<>(persisted));
+        assertEquals(AppConstants.MAX_SEARCH_HISTORY_OPTIONS - 1, persisted.size());
+    }
+
+    @Test
+    public void findByCountersTest() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        String adminId = UUID.randomUUID().toString();
+        registerTestUser(userId);
+        registerTestUser(adminId, "admin", AppAuthorities.ROLE_USER.name() + "," + AppAuthorities.ROLE_ADMIN.name());
+        userService.subscribeById(userId, adminId);
+        createTestVideo(adminId);
+
+        assertEquals(List.of(adminId), ids(userService.findByOption(List.of("ADMINS", "BY_ID"), Arrays.asList(null, adminId), null, 10)));
+        assertTrue(userService.findByOption(List.of("ADMINS", "BY_ID"), Arrays.asList(null, userId), null, 10).items().isEmpty());
+        assertEquals(List.of(adminId), ids(userService.findByOption(List.of("BY_VIDEO", "BY_ID"), List.of("1/1", adminId), null, 10)));
+        assertTrue(userService.findByOption(List.of("BY_VIDEO", "BY_ID"), List.of("1/1", userId), null, 10).items().isEmpty());
+        assertEquals(List.of(adminId), ids(userService.findByOption(List.of("BY_SUBSCRIBERS", "BY_ID"), List.of("1/1", adminId), null, 10)));
+        assertEquals(List.of(adminId), ids(userService.findByOption(List.of("MOST_SUBSCRIBERS", "BY_ID"), List.of("1", adminId), null, 10)));
+        assertThrows(IllegalArgumentException.class, () -> userService.findByOption(List.of("MOST_SUBSCRIBERS"), List.of("0"), null, 10));
+        assertThrows(IllegalArgumentException.class, () -> userService.findByOption(List.of("BY_VIDEO"), List.of("1"), null, 10));
+    }
+
+    @Test
+    public void findByOptionPaginationTest() throws Exception {
+        String username = UUID.randomUUID().toString();
+        List<String> userIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String id = UUID.randomUUID().toString();
+            registerTestUser(id, username, AppAuthorities.ROLE_USER.name());
+            userIds.add(id);
+        }
+        //the most subscribed user is the last by id
+        List<String> sorted = userIds.stream().sorted().toList();
+        userService.subscribeById(sorted.get(0), sorted.get(2));
+
+        CursorPage<UserSummary> first = userService.findByOption(List.of("BY_USERNAME"), List.of(username), null, 2);
+        assertEquals(sorted.subList(0, 2), first.items().stream().map(UserSummary::id).toList());
+        assertNotNull(first.next());
+        CursorPage<UserSummary> second = userService.findByOption(List.of("BY_USERNAME"), List.of(username), first.next(), 2);
+        assertEquals(sorted.subList(2, 3), second.items().stream().map(UserSummary::id).toList());
+        assertNull(second.next());
+
+        List<String> ranked = new ArrayList<>();
+        String cursor = null;
+        do {
+            CursorPage<UserSummary> page = userService.findByOption(List.of("MOST_SUBSCRIBERS", "BY_USERNAME"), List.of("2", username), cursor, 1);
+            page.items().forEach(summary -> ranked.add(summary.id()));
+            cursor = page.next();
+            if(ranked.size() == 1){
+                //the ranking changes between pages, but next pages are sliced from the frozen one
+                userService.subscribeById(sorted.get(0), sorted.get(1));
+                userService.subscribeById(sorted.get(2), sorted.get(1));
+            }
+        } while (cursor != null);
+        assertEquals(List.of(sorted.get(2), sorted.get(0)), ranked);
+        assertThrows(IllegalArgumentException.class, () -> userService.findByOption(List.of("BY_USERNAME"), List.of(username), "malformed", 2));
+    }
+
+    private static List<String> ids(CursorPage<UserSummary> page){
+        return page.items().stream().map(UserSummary::id).toList();
+    }
+
+    @Test
+    public void userVideosPaginationTest() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        registerTestUser(userId);
+        List<Integer> views = List.of(5, 10, 10);
+        for (Integer amount : views) {
+            VideoEntity videoEntity = createTestVideo(userId);
+            videoEntity.setViews(amount);
+        }
+        entityManager.flush();
+
+        CursorPage<Video> first = userService.getUserVideos(userId, VideoSort.BY_VIEWS_FROM_DESC, null, 2);
+        assertEquals(2, first.items().size());
+        assertNotNull(first.next());
+        CursorPage<Video> second = userService.getUserVideos(userId, VideoSort.BY_VIEWS_FROM_DESC, first.next(), 2);
+        assertEquals(1, second.items().size());
+        assertNull(second.next());
+
+        List<Video> videos = new ArrayList<>(first.items());
+        videos.addAll(second.items());
+        assertEquals(List.of(10L, 10L, 5L), videos.stream().map(Video::getViewCount).toList());
+        assertEquals(3, videos.stream().map(Video::getId).distinct().count());
+        assertThrows(IllegalArgumentException.class, () -> userService.getUserVideos(userId, null, "malformed", 2));
+    }
+
+    @Test
+    public void videoListsQueryCountTest() throws Exception {
+        String ownerId = UUID.randomUUID().toString();
+        registerTestUser(ownerId, "owner", AppAuthorities.ROLE_USER.name());
+        List<Long> videoIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            videoIds.add(createTestVideo(ownerId).getId());
+        }
+        String oneVideoUserId = UUID.randomUUID().toString();
+        String allVideosUserId = UUID.randomUUID().toString();
+        for (String userId : List.of(oneVideoUserId, allVideosUserId)) {
+            registerTestUser(userId);
+        }
+        Instant now = Instant.now();
+        userService.likeVideo(oneVideoUserId, videoIds.getFirst());
+        List<WatchEvent> events = new ArrayList<>(List.of(new WatchEvent(oneVideoUserId, videoIds.getFirst(), now)));
+        for (Long videoId : videoIds) {
+            userService.likeVideo(allVideosUserId, videoId);
+            events.add(new WatchEvent(allVideosUserId, videoId, now.minusSeconds(videoId)));
+        }
+        watchHistoryStore.record(events);
+        entityManager.flush();
+
+        //persistence context is cleared before every call, otherwise lazy associations would be resolved from it
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        boolean enabled = statistics.isStatisticsEnabled();
+        statistics.setStatisticsEnabled(true);
+        try {
+            entityManager.clear();
+            statistics.clear();
+            assertEquals(1, userService.getUserLikes(oneVideoUserId, null, 10).items().size());
+            long oneVideoQueries = statistics.getPrepareStatementCount();
+            entityManager.clear();
+            statistics.clear();
+            CursorPage<Video> firstLikes = userService.getUserLikes(allVideosUserId, null, 2);
+            assertEquals(oneVideoQueries, statistics.getPrepareStatementCount());
+            entityManager.clear();
+            statistics.clear();
+            CursorPage<Video> secondLikes = userService.getUserLikes(allVideosUserId, firstLikes.next(), 2);
+            assertEquals(oneVideoQueries, statistics.getPrepareStatementCount());
+            assertNull(secondLikes.next());
+            List<Long> liked = new ArrayList<>(firstLikes.items().stream().map(Video::getId).toList());
+            liked.addAll(secondLikes.items().stream().map(Video::getId).toList());
+            assertEquals(videoIds.reversed(), liked);                   //from the latest like
+
+            entityManager.clear();
+            statistics.clear();
+            assertEquals(1, userService.getWatchHistory(oneVideoUserId, null, 10).items().size());
+            oneVideoQueries = statistics.getPrepareStatementCount();
+            entityManager.clear();
+            statistics.clear();
+            List<Video> history = userService.getWatchHistory(allVideosUserId, null, 10).items();
+            assertEquals(oneVideoQueries, statistics.getPrepareStatementCount());
+            assertEquals(videoIds, history.stream().map(Video::getId).toList());
+        } finally {
+            statistics.setStatisticsEnabled(enabled);
+        }
+    }
+
+    @Test
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)         //every toggle has to commit, so that threads see each other
+    public void concurrentLikeToggleTest() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        registerTestUser(userId);
+        Long videoId = createTestVideo(userId).getId();
+        int threads = 8;
+        int togglesPerThread = 25;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < togglesPerThread; j++) {
+                        userService.likeVideo(userId, videoId);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+
+            //even amount of toggles, so video is not liked now
+            LikeState likeState = userService.likeVideo(userId, videoId);
+            assertTrue(likeState.liked());
+            assertEquals(1, likeState.likes());
+            assertEquals(1, likeCounter.count(videoId));
+            assertEquals(1L, entityManager.createQuery("select count(l) from Like l where l.videoEntity.id = :videoId")
+                    .setParameter("videoId", videoId)
+                    .getSingleResult());
+        } finally {
+            executor.shutdownNow();
+            videoService.deleteById(videoId);
+            userService.deleteById(userId);
+        }
+    }
+}
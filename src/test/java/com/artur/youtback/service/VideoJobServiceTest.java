@@ -0,0 +1,134 @@
+package com.artur.youtback.service;
+
+import com.artur.common.entity.VideoEntity;
+import com.artur.common.exception.NotFoundException;
+import com.artur.common.repository.VideoRepository;
+import com.artur.youtback.YoutBackApplicationTests;
+import com.artur.youtback.config.KafkaConfig;
+import com.artur.youtback.entity.VideoJob;
+import com.artur.youtback.model.user.User;
+import com.artur.youtback.model.video.VideoJobStatus;
+import com.artur.youtback.model.video.VideoUpdateRequest;
+import com.artur.youtback.repository.VideoJobRepository;
+import jakarta.transaction.Transactional;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.requestreply.RequestReplyFuture;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class VideoJobServiceTest extends YoutBackApplicationTests {
+
+    @Autowired
+    VideoJobService videoJobService;
+    @Autowired
+    VideoRepository videoRepository;
+    @Autowired
+    VideoJobRepository videoJobRepository;
+
+    @Test
+    void updateJobTest() throws Exception {
+        User user = registerTestUser();
+        VideoEntity videoEntity = createTestVideo(user.getId());
+        Long id = videoEntity.getId();
+        assertNull(videoJobService.update(new VideoUpdateRequest(id, "Updated", null, null, null, null), user.getId()));   //nothing to process
+
+        //thumbnail is rejected by processing microservice
+        RequestReplyFuture<String, String, Boolean> rejected = new RequestReplyFuture<>();
+        rejected.complete(new ConsumerRecord<>(KafkaConfig.THUMBNAIL_OUTPUT_TOPIC, 0, 0, "", false));
+        when(replyingKafkaTemplate.sendAndReceive(any(ProducerRecord.class))).thenReturn(rejected);
+        VideoJobStatus failed = videoJobService.update(new VideoUpdateRequest(id, null, null, null, null,
+                new MockMultipartFile("thumbnail", new byte[]{1})), user.getId());
+        assertEquals(VideoJob.Status.FAILED, failed.status());
+        assertNotNull(failed.error());
+        assertTrue(failed.thumbnailPending());
+        assertTrue(videoRepository.existsById(id));             //video is kept if its update failed
+
+        //job waits for the reply without blocking
+        RequestReplyFuture<String, String, Boolean> pending = new RequestReplyFuture<>();
+        when(replyingKafkaTemplate.sendAndReceive(any(ProducerRecord.class))).thenReturn(pending);
+        VideoJobStatus processing = videoJobService.update(new VideoUpdateRequest(id, null, null, null, null,
+                new MockMultipartFile("thumbnail", new byte[]{1})), user.getId());
+        assertEquals(VideoJob.Status.PROCESSING, processing.status());
+        assertTrue(processing.thumbnailPending());
+        assertFalse(processing.videoPending());
+        assertThrows(NotFoundException.class, () -> videoJobService.status("another", processing.id()));
+        assertThrows(NotFoundException.class, () -> videoJobService.subscribe("another", processing.id()));
+
+        pending.complete(new ConsumerRecord<>(KafkaConfig.THUMBNAIL_OUTPUT_TOPIC, 0, 0, "", true));
+        VideoJobStatus ready = videoJobService.status(user.getId(), processing.id());
+        assertEquals(VideoJob.Status.READY, ready.status());
+        assertFalse(ready.thumbnailPending());
+        assertNull(ready.error());
+        assertNotNull(videoJobService.subscribe(user.getId(), processing.id()));
+    }
+
+    /**Workers store videos in their own transactions, so data of this test is committed and removed at the end.
+     */
+    @Test
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    void createJobTest() throws Exception {
+        String userId = UUID.randomUUID().toString();
+        User user = registerTestUser(userId);
+        List<String> jobs = new ArrayList<>();
+        try {
+            //stored, then processed by the mocked microservice
+            Path thumbnail = copy(TEST_IMAGE_FILE);
+            Path video = copy(TEST_VIDEO_FILE);
+            VideoJobStatus submitted = videoJobService.submit(user.getId(), "Test video", "Description", "Music", thumbnail, video);
+            jobs.add(submitted.id());
+            assertEquals(VideoJob.Status.UPLOADED, submitted.status());
+            VideoJobStatus ready = awaitFinished(user.getId(), submitted.id());
+            assertEquals(VideoJob.Status.READY, ready.status());
+            assertNotNull(ready.videoId());
+            assertTrue(videoRepository.existsById(ready.videoId()));
+            assertFalse(Files.exists(thumbnail));
+            assertFalse(Files.exists(video));
+            videoService.deleteById(ready.videoId());
+
+            //video is rejected by processing microservice
+            RequestReplyFuture<String, String, Boolean> rejected = new RequestReplyFuture<>();
+            rejected.complete(new ConsumerRecord<>(KafkaConfig.VIDEO_OUTPUT_TOPIC, 0, 0, "", false));
+            when(replyingKafkaTemplate.sendAndReceive(any(ProducerRecord.class))).thenReturn(rejected);
+            VideoJobStatus rejectedJob = videoJobService.submit(user.getId(), "Test video", "Description", "Music",
+                    copy(TEST_IMAGE_FILE), copy(TEST_VIDEO_FILE));
+            jobs.add(rejectedJob.id());
+            VideoJobStatus failed = awaitFinished(user.getId(), rejectedJob.id());
+            assertEquals(VideoJob.Status.FAILED, failed.status());
+            assertNotNull(failed.error());
+            assertNotNull(failed.videoId());
+            assertFalse(videoRepository.existsById(failed.videoId()));      //video of failed creation is removed
+        } finally {
+            videoJobRepository.deleteAllById(jobs);
+            userService.deleteById(userId);
+        }
+    }
+
+    private VideoJobStatus awaitFinished(String userId, String jobId) throws Exception {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        VideoJobStatus status = videoJobService.status(userId, jobId);
+        while (!status.status().isFinished() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            status = videoJobService.status(userId, jobId);
+        }
+        return status;
+    }
+
+    private static Path copy(String file) throws Exception {
+        Path copy = Files.createTempFile("video-job-test-", ".tmp");
+        Files.copy(Path.of(file), copy, StandardCopyOption.REPLACE_EXISTING);
+        return copy;
+    }
+}
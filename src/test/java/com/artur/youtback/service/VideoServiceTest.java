@@ -1,34 +1,43 @@
 package com.artur.youtback.service;
 
-import com.artur.common.entity.Like;
 import com.artur.common.entity.VideoEntity;
 import com.artur.common.entity.user.UserEntity;
 import com.artur.common.exception.NotFoundException;
 import com.artur.common.repository.UserRepository;
 import com.artur.common.repository.VideoRepository;
 import com.artur.youtback.YoutBackApplicationTests;
+import com.artur.youtback.config.KafkaConfig;
+import com.artur.youtback.counter.ViewCounter;
+import com.artur.youtback.entity.VideoJob;
+import com.artur.youtback.exception.ProcessingException;
 import com.artur.youtback.model.user.User;
-import com.artur.youtback.model.user.UserCreateRequest;
 import com.artur.youtback.model.video.Video;
+import com.artur.youtback.model.video.VideoJobStatus;
 import com.artur.youtback.model.video.VideoUpdateRequest;
-import com.artur.youtback.utils.AppAuthorities;
 import com.artur.youtback.utils.AppConstants;
+import com.artur.youtback.watch.ProfileUpdateWorker;
+import com.artur.youtback.watch.WatchEvent;
+import com.artur.youtback.watch.WatchHistoryStore;
 import jakarta.persistence.EntityManager;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Pageable;
+import org.springframework.kafka.requestreply.RequestReplyFuture;
 import org.springframework.mock.web.MockMultipartFile;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
-import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -42,31 +51,25 @@ class VideoServiceTest extends YoutBackApplicationTests {
     @Autowired
     VideoRepository videoRepository;
     @Autowired
-    VideoService videoService;
+    VideoJobService videoJobService;
     @Autowired
     EntityManager entityManager;
     @Autowired
-    UserService userService;
+    WatchService watchService;
+    @Autowired
+    ViewCounter viewCounter;
+    @Autowired
+    ProfileUpdateWorker profileUpdateWorker;
+    @Autowired
+    WatchHistoryStore watchHistoryStore;
 
     @Test
     void createUpdateDeleteTest() throws Exception {
         File videoFile = new File(TEST_VIDEO_FILE);
         File imageFile = new File(TEST_IMAGE_FILE);
-        User user = userService.registerUser(new UserCreateRequest(
-                UUID.randomUUID().toString(),
-                "admin",
-                "example@gmail.com",
-                AppAuthorities.ROLE_USER.name(),
-                null
-        ));
+        User user = registerTestUser();
         clearInvocations(objectStorageService, replyingKafkaTemplate);
-        VideoEntity videoEntity = videoService.create(
-                "Test video" ,
-                "Description",
-                "Music",
-                imageFile,
-                videoFile,
-                user.getId());
+        VideoEntity videoEntity = createTestVideo(user.getId());
         long id = videoEntity.getId();
         verify(objectStorageService, times(2)).putObject(any(InputStream.class), anyString());       //uploaded thumbnail and video
         verify(replyingKafkaTemplate, times(2)).sendAndReceive(any(ProducerRecord.class));          // send thumbnail and video processing message
@@ -75,21 +78,23 @@ class VideoServiceTest extends YoutBackApplicationTests {
         clearInvocations(objectStorageService,replyingKafkaTemplate);
         MockMultipartFile newVideo = new MockMultipartFile("New video", Files.readAllBytes(videoFile.toPath()));
         MockMultipartFile newThumbnail = new MockMultipartFile("New thumbnail", Files.readAllBytes(imageFile.toPath()));
-        videoService.update(new VideoUpdateRequest(
+        VideoJobStatus job = videoJobService.update(new VideoUpdateRequest(
                 id,
                 "Updated",
                 "Desctiption updated",
                 null,
                 newVideo,
                 newThumbnail
-        ));
+        ), user.getId());
         verify(objectStorageService, times(2)).putObject(any(InputStream.class), anyString());       //uploaded picture
         verify(replyingKafkaTemplate, times(2)).sendAndReceive(any(ProducerRecord.class));          // send thumbnail and video processing message
+        assertNotNull(job);
+        assertEquals(VideoJob.Status.READY, job.status());                                          //replies are already received
         verify(objectStorageService, times(2)).putObject(any(InputStream.class), anyString());         //uploaded videos
 
         assertTrue(videoRepository.existsById(id));
-        assertNotEquals("Test video", videoEntity.getTitle());
-        assertNotEquals("Description", videoEntity.getDescription());
+        assertNotEquals("video", videoEntity.getTitle());
+        assertNotEquals("description", videoEntity.getDescription());
 
         clearInvocations(objectStorageService);
         videoService.deleteById(videoEntity.getId());
@@ -98,7 +103,20 @@ class VideoServiceTest extends YoutBackApplicationTests {
     }
 
     @Test
-    public void watchByIdTest() throws Exception {
+    void createFailedProcessingTest() throws Exception {
+        User user = registerTestUser();
+        RequestReplyFuture<String, String, Boolean> rejected = new RequestReplyFuture<>();
+        rejected.complete(new ConsumerRecord<>(KafkaConfig.VIDEO_OUTPUT_TOPIC, 0, 0, "", false));
+        when(replyingKafkaTemplate.sendAndReceive(any(ProducerRecord.class))).thenReturn(rejected);
+        long videosBefore = videoRepository.count();
+
+        assertThrows(ProcessingException.class, () -> createTestVideo(user.getId()));
+        assertEquals(videosBefore, videoRepository.count());                 //video is deleted as by a failed job
+        verify(objectStorageService).removeFolder(startsWith(AppConstants.VIDEO_PATH));
+    }
+
+    @Test
+    public void watchTest() throws Exception {
         UserEntity userEntity = createTestUser();
         VideoEntity videoEntity = createTestVideo(userEntity.getId());
         entityManager.flush();
@@ -111,18 +129,46 @@ class VideoServiceTest extends YoutBackApplicationTests {
                 userEntity.getUserMetadata().getLanguages().get(videoLanguage) : 0;
         int viewsBefore = videoEntity.getViews();
 
-        videoService.watchById(videoEntity.getId(), userEntity.getId());
+        Video video = watchService.watch(videoEntity.getId(), userEntity.getId());
+        assertEquals(viewsBefore + 1L, video.getViewCount());
+        viewCounter.flush();
+        profileUpdateWorker.flush();
         entityManager.flush();
         entityManager.refresh(videoEntity);
         entityManager.refresh(userEntity);
 
         assertEquals(categoryBefore + 1, userEntity.getUserMetadata().getCategories().get(videoCategory));
         assertEquals(languageBefore + 1, userEntity.getUserMetadata().getLanguages().get(videoLanguage));
-        assertTrue(userEntity.getWatchHistory().stream().anyMatch(el -> Objects.equals(el.getVideoId(), videoEntity.getId()) && el.getDate().isAfter(Instant.now().minus(1,ChronoUnit.DAYS))));
+        assertTrue(watchHistoryStore.page(userEntity.getId(), null, 10).stream().anyMatch(el -> Objects.equals(el.getVideoId(), videoEntity.getId()) && el.getWatchedAt().isAfter(Instant.now().minus(1,ChronoUnit.DAYS))));
         assertEquals(viewsBefore + 1, videoEntity.getViews());
     }
 
 
+    @Test
+    void profileUpdateQueryCountTest() throws Exception {
+        String ownerId = registerTestUser().getId();
+        Long videoId = createTestVideo(ownerId).getId();
+        List<String> userIds = List.of(registerTestUser().getId(), registerTestUser().getId(), registerTestUser().getId());
+        for (String userId : userIds) {
+            profileUpdateWorker.submit(new WatchEvent(userId, videoId, Instant.now()));
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        //users with metadata and videos are loaded by a query each, whatever the amount of users in the batch
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        boolean enabled = statistics.isStatisticsEnabled();
+        statistics.setStatisticsEnabled(true);
+        try {
+            statistics.clear();
+            profileUpdateWorker.flush();
+            assertEquals(2, statistics.getQueryExecutionCount());
+            assertEquals(0, statistics.getEntityFetchCount());
+        } finally {
+            statistics.setStatisticsEnabled(enabled);
+        }
+    }
+
     @Test
     void findByOption() throws Exception {
         UserEntity userEntity = createTestUser();
@@ -131,7 +177,7 @@ class VideoServiceTest extends YoutBackApplicationTests {
         videoEntity.setViews(100);
         videoEntity.setTitle("Language 'English'");
         videoEntity.setTitle("Language 'English'");
-        videoEntity.setLikes(Set.of(Like.create(userEntity, videoEntity, Instant.now().minus(2, ChronoUnit.DAYS))));
+        userService.likeVideo(userEntity.getId(), videoEntity.getId());
 
         List<Video> result = videoService.findByOption(
                 List.of(
@@ -141,38 +187,37 @@ class VideoServiceTest extends YoutBackApplicationTests {
                 ),
                 List.of(
                         "1/40",
-                        "22/700",
+                        "22 / 700",                     //title is not in the snapshot, so the range is parsed by criteria
                         "Language"
-                ));
+                ),
+                null,
+                AppConstants.MAX_VIDEOS_PER_REQUEST).items();
         assertFalse(result.isEmpty());
         Video video = result.getFirst();
         assertTrue(video.getTitle().contains("Language"));
         assertTrue(video.getLikes() >= 1 && video.getLikes() < 40);
     }
 
+    @Test
+    void exportByOption() throws Exception {
+        UserEntity userEntity = createTestUser();
+        VideoEntity videoEntity = createTestVideo(userEntity.getId());
+        clearInvocations(objectStorageService);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        videoService.export(List.of("BY_ID"), List.of(videoEntity.getId().toString())).writeTo(outputStream);
+        String[] lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(1, lines.length);
+        assertTrue(lines[0].contains("\"id\":" + videoEntity.getId()));
+        verify(objectStorageService, never()).getObject(anyString());           //thumbnails are not exported
 
-    private VideoEntity createTestVideo(String userId) throws Exception {
-        var entity = videoService.create(
-                "some video",
-                "description",
-                "Sport",
-                new File(TEST_IMAGE_FILE),
-                new File(TEST_VIDEO_FILE),
-                userId
-        );
-        videoRepository.flush();
-        return entity;
+        assertThrows(IllegalArgumentException.class, () -> videoService.export(List.of("BY_VIEWS"), List.of("1")));
+        assertThrows(IllegalArgumentException.class, () -> videoService.export(List.of("MOST_VIEWS", "MOST_LIKES"), List.of("1", "1")));
     }
 
+
     private UserEntity createTestUser() throws Exception {
-        String id = UUID.randomUUID().toString();
-        userService.registerUser(new UserCreateRequest(
-                id,
-                "admin",
-                "example@gmail.com",
-                AppAuthorities.ROLE_USER.name(),
-                null
-        ));
+        String id = registerTestUser().getId();
         userRepository.flush();
         return userRepository.findById(id).orElseThrow(() -> new NotFoundException("User was to found"));
     }
@@ -0,0 +1,117 @@
+package com.artur.youtback.stats;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VideoStatsSnapshotTest {
+
+    @Test
+    void rangesTest() {
+        Random random = new Random(42);
+        int size = 2000;
+        long[] ids = new long[size];
+        long[][] values = new long[ColumnarStats.COLUMNS][size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i * 3L + 1;
+            for (int column = 0; column < ColumnarStats.COLUMNS; column++) {
+                values[column][i] = random.nextInt(100);
+            }
+        }
+        ColumnarStats stats = ColumnarStats.build(ids, values);
+        for (int attempt = 0; attempt < 200; attempt++) {
+            List<Range> ranges = new ArrayList<>();
+            for (Column column : Column.values()) {
+                if(random.nextBoolean()) continue;
+                long from = random.nextInt(120) - 10;
+                ranges.add(new Range(column, from, from + random.nextInt(60)));
+            }
+            List<Long> expected = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                boolean matches = true;
+                for (Range range : ranges) {
+                    matches &= range.contains(values[range.column().ordinal()][i]);
+                }
+                if(matches) expected.add(ids[i]);
+            }
+            List<Long> actual = stats.match(ranges).stream().mapToObj(stats::id).toList();
+            assertEquals(expected, actual);
+        }
+        assertEquals(size, stats.match(List.of(new Range(Column.VIEWS, Long.MIN_VALUE, Long.MAX_VALUE))).cardinality());
+        assertTrue(stats.match(List.of(new Range(Column.VIEWS, 50, 10))).isEmpty());
+    }
+
+    @Test
+    void overlayTest() {
+        VideoStatsSnapshot snapshot = new VideoStatsSnapshot(3);
+        long[][] values = new long[ColumnarStats.COLUMNS][];
+        values[Column.VIEWS.ordinal()] = new long[]{10, 20, 30};
+        values[Column.LIKES.ordinal()] = new long[]{1, 2, 3};
+        values[Column.DURATION.ordinal()] = new long[]{100, 200, 300};
+        values[Column.UPLOAD_DATE.ordinal()] = new long[]{0, 0, 0};
+        values[Column.CATEGORY.ordinal()] = new long[]{1000, 1000, 1000};
+        snapshot.replace(ColumnarStats.build(new long[]{1, 2, 3}, values));
+        List<Range> views = List.of(new Range(Column.VIEWS, 15, 100));
+        assertEquals(List.of(2L, 3L), snapshot.find(views, 0, 10));
+
+        //changed rows shadow the table
+        snapshot.update(1L, Column.VIEWS, 50);
+        snapshot.update(3L, Column.VIEWS, 5);
+        snapshot.add(4L, 60, Instant.ofEpochSecond(1000), "Music");
+        snapshot.update(4L, Column.VIEWS, 40);
+        snapshot.update(99L, Column.VIEWS, 40);
+        assertEquals(List.of(1L, 2L, 4L), snapshot.find(views, 0, 10));
+        assertEquals(List.of(1L, 2L), snapshot.find(views, 0, 2));
+        assertEquals(List.of(4L), snapshot.find(views, 2, 2));
+
+        long music = snapshot.categoryId("Music");
+        assertEquals(List.of(4L), snapshot.find(List.of(new Range(Column.CATEGORY, music, music)), 0, 10));
+        assertEquals(-1, snapshot.categoryId("Sport"));
+
+        snapshot.remove(2L);
+        assertEquals(List.of(1L, 4L), snapshot.find(views, 0, 10));
+        Map<Long, Long> all = new TreeMap<>();
+        snapshot.forEach((id, row) -> all.put(id, row[Column.VIEWS.ordinal()]));
+        assertEquals(Map.of(1L, 50L, 3L, 5L, 4L, 40L), all);          //changed rows once, deleted rows skipped
+
+        //compaction gives the same results
+        snapshot.compact();
+        assertEquals(0, snapshot.overlaySize());
+        assertEquals(List.of(1L, 4L), snapshot.find(views, 0, 10));
+        assertEquals(List.of(1L, 3L, 4L), snapshot.find(List.of(), 0, 10));
+        assertEquals(List.of(4L), snapshot.find(List.of(new Range(Column.DURATION, 0, 60)), 0, 10));
+    }
+
+    @Test
+    void reloadTest() {
+        VideoStatsSnapshot snapshot = new VideoStatsSnapshot(100);
+        snapshot.replace(table(new long[]{1, 2}, new long[]{10, 20}, new long[]{1, 2}));
+        snapshot.update(1L, Column.VIEWS, 50);
+        snapshot.update(2L, Column.LIKES, 9);
+
+        //reloaded likes of video 1 and views of video 2 are newer than values copied into the overlay
+        snapshot.replace(table(new long[]{1, 2}, new long[]{15, 25}, new long[]{7, 3}));
+        assertEquals(List.of(1L), snapshot.find(List.of(new Range(Column.VIEWS, 50, 50), new Range(Column.LIKES, 7, 7)), 0, 10));
+        assertEquals(List.of(2L), snapshot.find(List.of(new Range(Column.VIEWS, 25, 25), new Range(Column.LIKES, 9, 9)), 0, 10));
+
+        //rows written after the reload shadow the reloaded table, video deleted meanwhile is not restored
+        snapshot.update(2L, Column.VIEWS, 30);
+        snapshot.update(1L, Column.VIEWS, 60);
+        snapshot.replace(table(new long[]{2}, new long[]{26}, new long[]{4}));
+        assertEquals(List.of(2L), snapshot.find(List.of(), 0, 10));
+        assertEquals(List.of(2L), snapshot.find(List.of(new Range(Column.VIEWS, 30, 30), new Range(Column.LIKES, 4, 4)), 0, 10));
+    }
+
+    private static ColumnarStats table(long[] ids, long[] views, long[] likes){
+        long[][] values = new long[ColumnarStats.COLUMNS][];
+        for (int column = 0; column < ColumnarStats.COLUMNS; column++) {
+            values[column] = new long[ids.length];
+        }
+        values[Column.VIEWS.ordinal()] = views;
+        values[Column.LIKES.ordinal()] = likes;
+        return ColumnarStats.build(ids, values);
+    }
+}
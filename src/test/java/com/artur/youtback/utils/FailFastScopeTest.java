@@ -0,0 +1,64 @@
+package com.artur.youtback.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FailFastScopeTest {
+
+    @Test
+    void joinTest() throws Exception {
+        CountDownLatch running = new CountDownLatch(2);
+        try(FailFastScope scope = new FailFastScope()) {
+            //every subtask waits for the other one, so both complete only if they run concurrently
+            Future<Boolean> first = scope.fork(() -> {
+                running.countDown();
+                return running.await(10, TimeUnit.SECONDS);
+            });
+            Future<Boolean> second = scope.fork(() -> {
+                running.countDown();
+                return running.await(10, TimeUnit.SECONDS);
+            });
+            scope.join();
+            assertTrue(first.get());
+            assertTrue(second.get());
+        }
+    }
+
+    @Test
+    void failureTest() {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        AtomicBoolean finished = new AtomicBoolean();
+        IOException failure = new IOException("failed transfer");
+        long start = System.currentTimeMillis();
+        try(FailFastScope scope = new FailFastScope()) {
+            scope.fork(() -> {
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException e){
+                    interrupted.set(true);
+                    throw e;
+                } finally {
+                    finished.set(true);
+                }
+                return null;
+            });
+            scope.fork(() -> {
+                started.await();
+                throw failure;
+            });
+            assertSame(failure, assertThrows(IOException.class, scope::join));
+            assertTrue(finished.get());                                 //sibling is done once joined
+        }
+        assertTrue(interrupted.get());
+        assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(30));
+    }
+}